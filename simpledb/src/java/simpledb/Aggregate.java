@@ -3,18 +3,41 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). A single aggregate grouped by at most one column is computed by an
+ * {@link IntegerAggregator} or {@link StringAggregator}; several aggregates,
+ * or several group-by columns, are computed in the same pass by a
+ * {@link MultiAggregator}.
+ * <p>
+ * Groups are hashed, so the whole input is read before the first group is
+ * returned. When the input is sorted on a single group-by column, the
+ * aggregate streams instead: it aggregates one group at a time and returns
+ * it as soon as the group-by value changes, with constant memory.
+ * <p>
+ * When the planner knows that a single integer group-by column spans a
+ * small range, such as the codes of a categorical column, groups are found
+ * by the offset of their value in that range instead of by hashing.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements PipelineBreaker {
     private static final long serialVersionUID = 1L;
     
-    private final int aggField, grpField;
+    private final int[] aggFields, grpFields;
     private DbIterator child;
-    private final Aggregator.Op op;
+    private final Aggregator.Op[] ops;
     private final Aggregator agg;
     private DbIterator aggIterator;
+    private int parallelism = 1;
+    private int memoryPages = SpillingAggregator.DEFAULT_MEMORY_PAGES;
+    private SpillingAggregator spilling;
+    // the smallest and largest group-by value, if it is an integer with a
+    // small enough domain to index groups without hashing, or null
+    private int[] keyRange;
+
+    // streaming over sorted input: the key of the group being aggregated
+    // into agg, or null if none, and the first tuple of the next group
+    private final boolean streaming;
+    private Field groupKey;
+    private Tuple lookahead;
 
     /**
      * Constructor.
@@ -35,68 +58,230 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-		aggField = afield;
-		grpField = gfield;
+		this(child, new int[] { afield }, new Aggregator.Op[] { aop },
+				gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield });
+    }
+
+    /**
+     * Constructor for several aggregates over a composite group key. Output
+     * tuples have the group-by fields first, in order, then the aggregates.
+     * 
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The column of each aggregate.
+     * @param aops
+     *            The operator of each aggregate.
+     * @param gfields
+     *            The columns to group by, empty if there is no grouping
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+		this(child, afields, aops, gfields, false);
+    }
+
+    /**
+     * Constructor for several aggregates over a composite group key. Output
+     * tuples have the group-by fields first, in order, then the aggregates.
+     * 
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The column of each aggregate.
+     * @param aops
+     *            The operator of each aggregate.
+     * @param gfields
+     *            The columns to group by, empty if there is no grouping
+     * @param sortedInput
+     *            true if the tuples of each group are next to each other in
+     *            the child, so that an aggregate with a single group-by
+     *            column can stream
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields, boolean sortedInput) {
+		aggFields = afields.clone();
+		grpFields = gfields.clone();
 		this.child = child;
-		op = aop;
+		ops = aops.clone();
+		streaming = sortedInput && grpFields.length == 1;
 		
+		agg = newAggregator();
+    }
+
+    private Aggregator newAggregator() {
+		Aggregator aggregator = createAggregator();
+		if (keyRange != null) {
+			aggregator.setKeyRange(keyRange[0], keyRange[1]);
+		}
+		return aggregator;
+    }
+
+    private Aggregator createAggregator() {
+		if (aggFields.length != 1 || grpFields.length > 1) {
+			return new MultiAggregator(child.getTupleDesc(), grpFields, aggFields, ops);
+		}
+		int aggField = aggFields[0], grpField = groupField();
 		Type aggFieldType = child.getTupleDesc().getFieldType(aggField);
 		Type grpFieldType = grpField == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(grpField);
 		switch(aggFieldType) {
 		case INT_TYPE:
-			agg = new IntegerAggregator(grpField, grpFieldType, aggField, op);
-			break;
+		case LONG_TYPE:
+			return new IntegerAggregator(grpField, grpFieldType, aggField, aggFieldType, ops[0]);
 		case DOUBLE_TYPE:
 			throw new RuntimeException("Aggregating doubles is not supported.");
 		case STRING_TYPE:
-			agg = new StringAggregator(grpField, grpFieldType, aggField, op);
-			break;
+			return new StringAggregator(grpField, grpFieldType, aggField, ops[0]);
 		default:
 			throw new RuntimeException("Unexpected field type.");
 		}
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     * @return true if this computes a single aggregate, grouped by at most
+     *         one field
+     */
+    public boolean isSingle() {
+    	return aggFields.length == 1 && grpFields.length <= 1;
+    }
+
+    /**
+     * @return true if partial aggregates can be merged, so that the child
+     *         can be aggregated on several threads
+     */
+    public boolean supportsParallelism() {
+    	return !streaming && (agg instanceof IntegerAggregator || agg instanceof StringAggregator
+    			|| agg instanceof MultiAggregator);
+    }
+
+    /**
+     * @return true if this aggregate streams over input sorted on its
+     *         group-by column
+     */
+    public boolean isStreaming() {
+    	return streaming;
+    }
+
+    /**
+     * Sets the number of threads that aggregate the child, when it is a
+     * pipeline {@link MorselExecutor} can split.
+     */
+    public void setParallelism(int parallelism) {
+    	this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+    	return parallelism;
+    }
+
+    /**
+     * Sets the memory budget of a grouped aggregate, in pages. Groups that do
+     * not fit are aggregated a partition at a time through disk.
+     */
+    public void setMemoryPages(int memoryPages) {
+    	this.memoryPages = memoryPages;
+    }
+
+    /**
+     * Sets the range of the values of the group-by column, usually from
+     * its histogram. If the aggregate has a single integer group-by column
+     * and few values are in the range, groups are found by the offset of
+     * their value from min instead of by hashing. Values outside the range
+     * are still aggregated, through a hash table. Must be called before
+     * the aggregate is opened.
+     */
+    public void setKeyRange(int min, int max) {
+    	if (grpFields.length == 1 && child.getTupleDesc().getFieldType(grpFields[0]) == Type.INT_TYPE
+    			&& GroupTable.isDense(min, max)) {
+    		keyRange = new int[] { min, max };
+    		agg.setKeyRange(min, max);
+    	}
+    }
+
+    /**
+     * @return the range of group-by values indexed without hashing, or null
+     *         if groups are hashed
+     */
+    public int[] keyRange() {
+    	return keyRange == null ? null : keyRange.clone();
+    }
+
+    /**
+     * @return true if this aggregate outgrew its memory budget and spills
+     *         groups to disk
+     */
+    public boolean isSpilling() {
+    	return spilling != null && spilling.numSpilled() > 0;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a groupby, return the
+     *         (first) groupby field index in the <b>INPUT</b> tuples. If not,
+     *         return {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-		return grpField;
+		return grpFields.length == 0 ? Aggregator.NO_GROUPING : grpFields[0];
+    }
+
+    /**
+     * @return the groupby field indices in the <b>INPUT</b> tuples
+     * */
+    public int[] groupFields() {
+		return grpFields.clone();
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
-     *         null;
+     *         of the (first) groupby field in the <b>OUTPUT</b> tuples If not,
+     *         return null;
      * */
     public String groupFieldName() {
-    	if (grpField == Aggregator.NO_GROUPING) {
+    	if (grpFields.length == 0) {
     		return null;
     	}
-    	return child.getTupleDesc().getFieldName(grpField);
+    	return child.getTupleDesc().getFieldName(grpFields[0]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      * */
     public int aggregateField() {
-		return aggField;
+		return aggFields[0];
+    }
+
+    /**
+     * @return the field of each aggregate
+     * */
+    public int[] aggregateFields() {
+		return aggFields.clone();
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return return the name of the (first) aggregate field in the
+     *         <b>OUTPUT</b> tuples
      * */
     public String aggregateFieldName() {
-    	return child.getTupleDesc().getFieldName(aggField);
+    	return child.getTupleDesc().getFieldName(aggFields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-    	return op;
+    	return ops[0];
+    }
+
+    /**
+     * @return the operator of each aggregate
+     * */
+    public Aggregator.Op[] aggregateOps() {
+    	return ops.clone();
+    }
+
+    /**
+     * A hashed aggregate reads its child to the end; a streaming one does
+     * not.
+     */
+    @Override
+    public boolean materializes(int child) {
+    	return !streaming;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -108,16 +293,46 @@ public class Aggregate extends Operator {
 	    TransactionAbortedException {
     	super.open();
     	
+    	if (streaming) {
+    		agg.clear();
+    		groupKey = null;
+    		lookahead = null;
+    		child.open();
+    		return;
+    	}
+    	if (parallelism > 1 && supportsParallelism() && MorselExecutor.splittable(child)) {
+    		for (Aggregator partial : MorselExecutor.aggregate(child, parallelism, this::newAggregator)) {
+    			if (agg instanceof IntegerAggregator) {
+    				((IntegerAggregator) agg).merge((IntegerAggregator) partial);
+    			} else if (agg instanceof MultiAggregator) {
+    				((MultiAggregator) agg).merge((MultiAggregator) partial);
+    			} else {
+    				((StringAggregator) agg).merge((StringAggregator) partial);
+    			}
+    		}
+    		aggIterator = agg.iterator();
+    		aggIterator.open();
+    		return;
+    	}
+    	if (grpFields.length > 0) {
+    		spilling = new SpillingAggregator(this::newAggregator, child.getTupleDesc(), grpFields, memoryPages);
+    	}
+    	Aggregator target = spilling != null ? spilling : agg;
     	try {
     		child.open();
-        	while (child.hasNext()) {
-        		agg.mergeTupleIntoGroup(child.next());
-        	}
+    		if (child instanceof PushPipeline) {
+    			((PushPipeline) child).push(target::mergeTupleIntoGroup);
+    		} else {
+    			TupleBatch batch;
+    			while ((batch = child.nextBatch(TupleBatch.DEFAULT_SIZE)) != null) {
+    				target.mergeBatchIntoGroups(batch);
+    			}
+    		}
     	} finally {
     		child.close();
     	}
     	
-    	aggIterator = agg.iterator();
+    	aggIterator = target.iterator();
     	aggIterator.open();
     }
 
@@ -130,14 +345,69 @@ public class Aggregate extends Operator {
      */
     @Override
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+    	if (streaming) {
+    		return nextGroup();
+    	}
     	if (aggIterator.hasNext()) {
     		return aggIterator.next();
     	}
     	return null;
     }
 
+    /**
+     * Aggregates the tuples of the child up to the next change of group-by
+     * value, and returns their group. Tuples with a missing group-by value
+     * are skipped.
+     */
+    private Tuple nextGroup() throws TransactionAbortedException, DbException {
+    	int gbField = grpFields[0];
+    	while (true) {
+    		Tuple t = lookahead;
+    		lookahead = null;
+    		if (t == null && child.hasNext()) {
+    			t = child.next();
+    		}
+    		if (t == null || (groupKey != null && !t.isMissing(gbField) && !t.getField(gbField).equals(groupKey))) {
+    			if (groupKey == null) {
+    				return null;
+    			}
+    			lookahead = t;
+    			groupKey = null;
+    			Tuple result = finishGroup();
+    			if (result != null) {
+    				return result;
+    			}
+    			continue;
+    		}
+    		if (!t.isMissing(gbField)) {
+    			groupKey = t.getField(gbField);
+    			agg.mergeTupleIntoGroup(t);
+    		}
+    	}
+    }
+
+    /**
+     * @return the tuple of the group aggregated so far, or null if its
+     *         values did not make a group (all missing, say)
+     */
+    private Tuple finishGroup() throws TransactionAbortedException, DbException {
+    	DbIterator it = agg.iterator();
+    	it.open();
+    	Tuple result = it.hasNext() ? it.next() : null;
+    	it.close();
+    	agg.clear();
+    	return result;
+    }
+
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
+    	if (streaming) {
+    		child.rewind();
+    		agg.clear();
+    		groupKey = null;
+    		lookahead = null;
+    		return;
+    	}
     	if (aggIterator == null) {
     		throw new IllegalStateException();
     	}
@@ -162,8 +432,16 @@ public class Aggregate extends Operator {
 
     @Override
     public void close() {
+    	if (streaming) {
+    		child.close();
+    		agg.clear();
+    		return;
+    	}
     	aggIterator.close();
     	aggIterator = null;
+    	if (spilling != null) {
+    		spilling.close();
+    	}
     }
 
     @Override
@@ -10,20 +10,19 @@ public interface Aggregator extends Serializable {
     static final int NO_GROUPING = -1;
 
     /**
-     * SUM_COUNT and SC_AVG will
-     * only be used in lab7, you are not required
-     * to implement them until then.
+     * SUM_COUNT and SC_AVG are the two phases of an AVG computed as partial
+     * aggregates: see {@link ParallelPlanner}.
      * */
     public enum Op implements Serializable {
         MIN, MAX, SUM, AVG, COUNT,
         /**
-         * SUM_COUNT: compute sum and count simultaneously, will be
-         * needed to compute distributed avg in lab7.
+         * SUM_COUNT: compute sum and count simultaneously, as two
+         * long output fields.
          * */
         SUM_COUNT,
         /**
-         * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
-         * will be used to compute distributed avg in lab7.
+         * SC_AVG: compute the avg of a set of SUM_COUNT tuples, whose
+         * sum is the aggregate field and count the field after it.
          * */
         SC_AVG;
 
@@ -75,7 +74,46 @@ public interface Aggregator extends Serializable {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup);
+
+    /**
+     * Merges the selected rows of a batch into the aggregate. The default
+     * implementation merges them one tuple at a time.
+     *
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    public default void mergeBatchIntoGroups(TupleBatch batch) {
+        int[] sel = batch.selection();
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(sel[i]));
+        }
+    }
     
+    /**
+     * Removes all groups, so the aggregator can be reused.
+     */
+    public void clear();
+
+    /**
+     * Looks up the groups of integer keys from min to max without hashing,
+     * if there are few of them. Must be called before any tuple is merged.
+     *
+     * @return true if the keys are looked up by their offset from min
+     * @see GroupTable#setKeyRange(int, int)
+     */
+    public default boolean setKeyRange(int min, int max) {
+        return false;
+    }
+
+    /**
+     * @return the number of groups aggregated so far
+     */
+    public int numGroups();
+
+    /**
+     * @return true if the group of a tuple has been aggregated already
+     */
+    public boolean hasGroup(Tuple tup);
+
     /**
      * Returns the TupleDesc associated with this Aggregator. 
      * @return the TupleDesc associated with this Aggregator.
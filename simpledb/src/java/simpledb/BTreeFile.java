@@ -0,0 +1,405 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+tree over one integer field of a heap table, stored as a
+ * DbFile of {@link BTreePage}s. Entries are ordered by key, then by the
+ * position of the tuple they point to, so every entry is unique and equal
+ * keys can be stored across any number of leaves.
+ * <p>
+ * Page 0 is always the root: when it splits, its contents move to two new
+ * pages and it becomes their parent. Deletes simply remove entries from
+ * their leaf, and nodes are never merged.
+ *
+ * @see IndexScan
+ * @see IndexNestedLoopJoin
+ */
+public class BTreeFile implements IndexFile {
+    private final File file;
+    private final int id;
+    private final int tableId;
+    private final int keyField;
+    private int numPages;
+
+    /**
+     * Opens the index stored in f. An empty or missing file is an empty
+     * index.
+     *
+     * @param tableId
+     *            the id of the indexed table
+     * @param keyField
+     *            the index of the indexed field, which must be an int
+     */
+    public BTreeFile(File f, int tableId, int keyField) {
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.numPages = Math.max(1, (int) (f.length() / BufferPool.getPageSize()));
+    }
+
+    /**
+     * Builds an index over the current contents of a table, replacing the
+     * contents of f. The entries are sorted with an external sort and packed
+     * into full leaves, and the internal levels are built bottom-up.
+     */
+    public static BTreeFile create(File f, DbFile table, int keyField, TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        if (table.getTupleDesc().getFieldType(keyField) != Type.INT_TYPE) {
+            throw new DbException("Only integer fields can be indexed.");
+        }
+        BTreeFile index = new BTreeFile(f, table.getId(), keyField);
+        ExternalSort sort = new ExternalSort(ENTRY_DESC, BTreeFile::compareEntries,
+                ExternalSort.DEFAULT_MEMORY_PAGES);
+        try {
+            int n = 0;
+            DbFileIterator it = table.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                sort.add(IndexFile.entryOf(it.next(), keyField));
+                n++;
+            }
+            it.close();
+
+            try (RandomAccessFile out = new RandomAccessFile(f, "rw")) {
+                out.setLength(0);
+                index.numPages = index.bulkLoad(out, sort.sorted(), n);
+            }
+        } finally {
+            sort.close();
+        }
+        Database.getBufferPool().discardPages(index.getId());
+        return index;
+    }
+
+    private static int compareEntries(Tuple a, Tuple b) {
+        for (int i = 0; i < 3; i++) {
+            int c = Integer.compare(IndexFile.valueOf(a, i), IndexFile.valueOf(b, i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes sorted entries as a tree and returns the number of pages used.
+     */
+    private int bulkLoad(RandomAccessFile out, DbFileIterator entries, int n)
+            throws DbException, IOException, TransactionAbortedException {
+        int leafCap = BTreePage.leafCapacity();
+        entries.open();
+        if (n <= leafCap) {
+            BTreePage root = new BTreePage(new HeapPageId(id, 0), true);
+            while (entries.hasNext()) {
+                Tuple e = entries.next();
+                root.insertEntry(root.count, value(e, 0), value(e, 1), value(e, 2), 0);
+            }
+            writeRaw(out, root);
+            return 1;
+        }
+
+        // Leaves start at page 1; page 0 is left for the root.
+        int nextPage = 1;
+        int numLeaves = (n + leafCap - 1) / leafCap;
+        // first entry and page number of each node of the level being built
+        ArrayList<int[]> level = new ArrayList<int[]>();
+        BTreePage leaf = null;
+        while (entries.hasNext()) {
+            Tuple e = entries.next();
+            if (leaf == null) {
+                leaf = new BTreePage(new HeapPageId(id, nextPage++), true);
+            }
+            leaf.insertEntry(leaf.count, value(e, 0), value(e, 1), value(e, 2), 0);
+            if (leaf.count == leafCap || !entries.hasNext()) {
+                level.add(new int[] { leaf.keys[0], leaf.pages[0], leaf.slots[0], leaf.pid.getPageNumber() });
+                leaf.next = level.size() < numLeaves ? nextPage : 0;
+                writeRaw(out, leaf);
+                leaf = null;
+            }
+        }
+        entries.close();
+
+        int fanout = BTreePage.internalCapacity() + 1;
+        while (true) {
+            boolean isRoot = level.size() <= fanout;
+            ArrayList<int[]> parents = new ArrayList<int[]>();
+            for (int start = 0; start < level.size(); start += fanout) {
+                int end = Math.min(level.size(), start + fanout);
+                BTreePage node = new BTreePage(new HeapPageId(id, isRoot ? 0 : nextPage++), false);
+                node.children[0] = level.get(start)[3];
+                for (int i = start + 1; i < end; i++) {
+                    int[] child = level.get(i);
+                    node.insertEntry(node.count, child[0], child[1], child[2], child[3]);
+                }
+                int[] first = level.get(start);
+                parents.add(new int[] { first[0], first[1], first[2], node.pid.getPageNumber() });
+                writeRaw(out, node);
+            }
+            if (isRoot) {
+                return nextPage;
+            }
+            level = parents;
+        }
+    }
+
+    private static int value(Tuple t, int i) {
+        return IndexFile.valueOf(t, i);
+    }
+
+    private static void writeRaw(RandomAccessFile out, BTreePage page) throws IOException {
+        out.seek((long) page.pid.getPageNumber() * BufferPool.getPageSize());
+        out.write(page.getPageData());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public boolean supportsRanges() {
+        return true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return ENTRY_DESC;
+    }
+
+    /**
+     * @return the number of pages in the index file, including pages not yet
+     *         written back.
+     */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the estimated number of levels of an index over the given
+     *         number of tuples.
+     */
+    public static int estimateHeight(double tuples) {
+        double leaves = Math.max(1.0, Math.ceil(tuples / BTreePage.leafCapacity()));
+        return 1 + (int) Math.ceil(Math.log(leaves) / Math.log(BTreePage.internalCapacity() + 1));
+    }
+
+    public Page readPage(PageId pid) {
+        if (pid.getPageNumber() >= numPages) {
+            throw new IllegalArgumentException("Page does not exist in this file.");
+        }
+        byte[] buf = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            f.seek((long) pid.getPageNumber() * buf.length);
+            f.readFully(buf);
+        } catch (EOFException | FileNotFoundException e) {
+            // the root of an empty index is not on disk yet
+            return new BTreePage(new HeapPageId(pid), true);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            return new BTreePage(new HeapPageId(pid), buf);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void writePage(Page page) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+            f.write(page.getPageData());
+        }
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNum, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new HeapPageId(id, pageNum), perm);
+    }
+
+    /**
+     * Adds a page at the end of the file and returns it as an empty node.
+     */
+    private BTreePage allocatePage(TransactionId tid, boolean leaf)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNum = numPages;
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.seek((long) pageNum * BufferPool.getPageSize());
+            f.write(new byte[BufferPool.getPageSize()]);
+        }
+        numPages++;
+        BTreePage page = getPage(tid, pageNum, Permissions.READ_WRITE);
+        page.reset(leaf);
+        return page;
+    }
+
+    /**
+     * Inserts an index entry (see {@link IndexFile#ENTRY_DESC}), splitting
+     * nodes on the way back up as needed.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int key = value(t, 0), page = value(t, 1), slot = value(t, 2);
+        LinkedHashSet<Page> dirty = new LinkedHashSet<Page>();
+
+        ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+        BTreePage node = getPage(tid, 0, Permissions.READ_WRITE);
+        while (!node.leaf) {
+            path.add(node);
+            node = getPage(tid, node.children[node.upperBound(key, page, slot)], Permissions.READ_WRITE);
+        }
+        node.insertEntry(node.upperBound(key, page, slot), key, page, slot, 0);
+        dirty.add(node);
+
+        while (node.isOverfull()) {
+            if (node.pid.getPageNumber() == 0) {
+                splitRoot(tid, node, dirty);
+                break;
+            }
+            BTreePage right = allocatePage(tid, node.leaf);
+            int mid = node.count / 2;
+            int sk = node.keys[mid], sp = node.pages[mid], ss = node.slots[mid];
+            node.moveTail(mid, right);
+            if (node.leaf) {
+                right.next = node.next;
+                node.next = right.pid.getPageNumber();
+            }
+            dirty.add(right);
+
+            BTreePage parent = path.remove(path.size() - 1);
+            parent.insertEntry(parent.upperBound(sk, sp, ss), sk, sp, ss, right.pid.getPageNumber());
+            dirty.add(parent);
+            node = parent;
+        }
+        return new ArrayList<Page>(dirty);
+    }
+
+    private void splitRoot(TransactionId tid, BTreePage root, Set<Page> dirty)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage left = allocatePage(tid, root.leaf);
+        BTreePage right = allocatePage(tid, root.leaf);
+        root.copyTo(left);
+        int mid = left.count / 2;
+        int sk = left.keys[mid], sp = left.pages[mid], ss = left.slots[mid];
+        left.moveTail(mid, right);
+        if (left.leaf) {
+            left.next = right.pid.getPageNumber();
+            right.next = 0;
+        }
+        root.reset(false);
+        root.children[0] = left.pid.getPageNumber();
+        root.insertEntry(0, sk, sp, ss, right.pid.getPageNumber());
+        dirty.add(left);
+        dirty.add(right);
+        dirty.add(root);
+    }
+
+    /**
+     * Removes an index entry from its leaf.
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int key = value(t, 0), page = value(t, 1), slot = value(t, 2);
+        BTreePage node = getPage(tid, 0, Permissions.READ_WRITE);
+        while (!node.leaf) {
+            node = getPage(tid, node.children[node.upperBound(key, page, slot)], Permissions.READ_WRITE);
+        }
+        int pos = node.lowerBound(key, page, slot);
+        if (pos >= node.count || node.compareEntry(pos, key, page, slot) != 0) {
+            throw new DbException("Entry not in index.");
+        }
+        node.removeEntry(pos);
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(node);
+        return dirty;
+    }
+
+    /**
+     * Returns every entry, including those of tuples with a missing key.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public DbFileIterator lookup(TransactionId tid, Integer low, Integer high) {
+        // missing keys are stored as MIN_VALUE, and never match
+        int lo = low == null ? Integer.MIN_VALUE + 1 : Math.max(low, Integer.MIN_VALUE + 1);
+        int hi = high == null ? Integer.MAX_VALUE : high;
+        return new EntryIterator(tid, lo, hi);
+    }
+
+    private class EntryIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final int low, high;
+        private BTreePage leaf;
+        private int pos;
+        private boolean open = false;
+
+        EntryIterator(TransactionId tid, int low, int high) {
+            this.tid = tid;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            open = true;
+            leaf = null;
+            if (low > high) {
+                return;
+            }
+            BTreePage node = getPage(tid, 0, Permissions.READ_ONLY);
+            while (!node.leaf) {
+                node = getPage(tid, node.children[node.upperBound(low, Integer.MIN_VALUE, Integer.MIN_VALUE)],
+                        Permissions.READ_ONLY);
+            }
+            leaf = node;
+            pos = node.lowerBound(low, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (open && leaf != null) {
+                if (pos < leaf.count) {
+                    if (leaf.keys[pos] > high) {
+                        leaf = null;
+                        break;
+                    }
+                    Tuple e = new Tuple(ENTRY_DESC);
+                    e.setField(0, new IntField(leaf.keys[pos]));
+                    e.setField(1, new IntField(leaf.pages[pos]));
+                    e.setField(2, new IntField(leaf.slots[pos]));
+                    pos++;
+                    return e;
+                }
+                leaf = leaf.next == 0 ? null : getPage(tid, leaf.next, Permissions.READ_ONLY);
+                pos = 0;
+            }
+            return null;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            open = false;
+            leaf = null;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A node of a {@link BTreeFile}. Leaves hold sorted index entries and a link
+ * to the next leaf; internal nodes hold separator entries and child page
+ * numbers, where child i holds the entries in [separator i-1, separator i).
+ * <p>
+ * On disk, a page starts with three ints: 1 for an internal node and 0 for a
+ * leaf, the number of entries, and the next leaf (0 for none, since page 0
+ * is always the root). Then come the entries, three ints each, and for
+ * internal nodes the children. A page of zeros is an empty leaf.
+ */
+public class BTreePage implements Page {
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 12;
+
+    final HeapPageId pid;
+    boolean leaf;
+    int count;
+    int next;
+    // entries (or separators): key, page, slot
+    int[] keys, pages, slots;
+    // internal nodes only, count + 1 of them
+    int[] children;
+
+    private byte[] oldData;
+    private TransactionId dirtyId;
+    private boolean dirty;
+
+    /** @return the number of entries that fit in a leaf. */
+    public static int leafCapacity() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / ENTRY_SIZE;
+    }
+
+    /** @return the number of separators that fit in an internal node. */
+    public static int internalCapacity() {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (ENTRY_SIZE + 4);
+    }
+
+    /**
+     * Creates an empty node.
+     */
+    public BTreePage(HeapPageId pid, boolean leaf) {
+        this.pid = pid;
+        this.leaf = leaf;
+        allocate();
+        setBeforeImage();
+    }
+
+    public BTreePage(HeapPageId pid, byte[] data) throws IOException {
+        this.pid = pid;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        leaf = dis.readInt() == 0;
+        count = dis.readInt();
+        next = dis.readInt();
+        allocate();
+        for (int i = 0; i < count; i++) {
+            keys[i] = dis.readInt();
+            pages[i] = dis.readInt();
+            slots[i] = dis.readInt();
+        }
+        if (!leaf) {
+            for (int i = 0; i <= count; i++) {
+                children[i] = dis.readInt();
+            }
+        }
+        setBeforeImage();
+    }
+
+    // one spare slot, so that a node may overflow before it is split
+    private void allocate() {
+        int capacity = (leaf ? leafCapacity() : internalCapacity()) + 1;
+        keys = new int[capacity];
+        pages = new int[capacity];
+        slots = new int[capacity];
+        children = leaf ? null : new int[capacity + 1];
+    }
+
+    /**
+     * Turns this node into an empty node of the given kind.
+     */
+    void reset(boolean leaf) {
+        this.leaf = leaf;
+        count = 0;
+        next = 0;
+        allocate();
+    }
+
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    /** @return true if the node holds more entries than fit on disk. */
+    boolean isOverfull() {
+        return count > (leaf ? leafCapacity() : internalCapacity());
+    }
+
+    /**
+     * Compares entry i of this node with the given entry.
+     */
+    int compareEntry(int i, int key, int page, int slot) {
+        int c = Integer.compare(keys[i], key);
+        if (c == 0) {
+            c = Integer.compare(pages[i], page);
+        }
+        if (c == 0) {
+            c = Integer.compare(slots[i], slot);
+        }
+        return c;
+    }
+
+    /**
+     * @return the number of entries less than or equal to the given entry.
+     */
+    int upperBound(int key, int page, int slot) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntry(mid, key, page, slot) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the number of entries less than the given entry.
+     */
+    int lowerBound(int key, int page, int slot) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntry(mid, key, page, slot) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts an entry at position i; for internal nodes, child becomes the
+     * child to the right of it.
+     */
+    void insertEntry(int i, int key, int page, int slot, int child) {
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        System.arraycopy(pages, i, pages, i + 1, count - i);
+        System.arraycopy(slots, i, slots, i + 1, count - i);
+        if (!leaf) {
+            System.arraycopy(children, i + 1, children, i + 2, count - i);
+            children[i + 1] = child;
+        }
+        keys[i] = key;
+        pages[i] = page;
+        slots[i] = slot;
+        count++;
+    }
+
+    /**
+     * Removes entry i of a leaf.
+     */
+    void removeEntry(int i) {
+        System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+        System.arraycopy(pages, i + 1, pages, i, count - i - 1);
+        System.arraycopy(slots, i + 1, slots, i, count - i - 1);
+        count--;
+    }
+
+    /**
+     * Moves the entries from position from onwards into the empty node dst.
+     * For internal nodes, the entry at from is dropped (it moves up to the
+     * parent) and dst gets the children to its right.
+     */
+    void moveTail(int from, BTreePage dst) {
+        int start = leaf ? from : from + 1;
+        int n = count - start;
+        System.arraycopy(keys, start, dst.keys, 0, n);
+        System.arraycopy(pages, start, dst.pages, 0, n);
+        System.arraycopy(slots, start, dst.slots, 0, n);
+        if (!leaf) {
+            System.arraycopy(children, start, dst.children, 0, n + 1);
+        }
+        dst.count = n;
+        count = from;
+    }
+
+    /**
+     * Copies the whole contents of this node into dst.
+     */
+    void copyTo(BTreePage dst) {
+        dst.reset(leaf);
+        System.arraycopy(keys, 0, dst.keys, 0, count);
+        System.arraycopy(pages, 0, dst.pages, 0, count);
+        System.arraycopy(slots, 0, dst.slots, 0, count);
+        if (!leaf) {
+            System.arraycopy(children, 0, dst.children, 0, count + 1);
+        }
+        dst.count = count;
+        dst.next = next;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(leaf ? 0 : 1);
+            dos.writeInt(count);
+            dos.writeInt(next);
+            for (int i = 0; i < count; i++) {
+                dos.writeInt(keys[i]);
+                dos.writeInt(pages[i]);
+                dos.writeInt(slots[i]);
+            }
+            if (!leaf) {
+                for (int i = 0; i <= count; i++) {
+                    dos.writeInt(children[i]);
+                }
+            }
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        dirtyId = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtyId : null;
+    }
+
+    public BTreePage getBeforeImage() {
+        try {
+            return new BTreePage(pid, oldData);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
@@ -0,0 +1,25 @@
+package simpledb;
+
+/**
+ * BroadcastProducer sends every batch of its child to all the consumers of
+ * its channel. Each gets its own selection, since consumers narrow it in
+ * place.
+ */
+public class BroadcastProducer extends Producer {
+
+    private static final long serialVersionUID = 1L;
+
+    public BroadcastProducer(DbIterator child) {
+        super(child);
+    }
+
+    @Override
+    protected boolean route(Run run, TupleBatch batch) throws InterruptedException {
+        for (int i = 0; i < consumers(); i++) {
+            if (!run.send(i, batch.select(batch.selection(), batch.size()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,9 +1,13 @@
 package simpledb;
 
-import java.io.IOException;
+import java.io.*;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,7 +18,8 @@ import java.util.HashMap;
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe, all fields are final; page lookups may run concurrently and
+ * only hold the lock while the page table is updated
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -30,6 +35,13 @@ public class BufferPool {
     private final int numPages;
     private final HashMap<PageId, Page> pages;
     private final ArrayDeque<PageId> usedPages;
+    /**
+     * Number of times pages left the buffer pool after their data on disk
+     * changed: dirty pages written back on eviction, and the pages of files
+     * rewritten in place. A page read from disk while this changed may be
+     * stale.
+     */
+    private long diskChanges = 0;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -61,7 +73,7 @@ public class BufferPool {
      * @param p
      * @throws DbException 
      */
-    private void addPage(Page p) throws DbException {
+    private synchronized void addPage(Page p) throws DbException {
     	if (pages.size() >= numPages) {
         	evictPage();
         }
@@ -89,19 +101,68 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        Page p = pages.get(pid);
-        
         // If page is already in memory, add it to the head of the queue
         // and return it.
-        if (p != null) {
-        	usedPages.remove(pid);
-        	usedPages.push(pid);
+        long changes;
+        synchronized (this) {
+        	Page p = pages.get(pid);
+        	if (p != null) {
+        		usedPages.remove(pid);
+        		usedPages.push(pid);
+        		return p;
+        	}
+        	changes = diskChanges;
+        }
+        
+        // Otherwise read it without holding the lock, so that concurrent
+        // scans can overlap their I/O, and keep whichever copy got in first.
+        DbFile dbf = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page p = dbf.readPage(pid);
+        synchronized (this) {
+        	Page cached = pages.get(pid);
+        	if (cached != null) {
+        		usedPages.remove(pid);
+        		usedPages.push(pid);
+        		return cached;
+        	}
+        	if (diskChanges != changes) {
+        		// a newer copy may have been written back and evicted, or
+        		// the file rewritten, while the page was read
+        		p = dbf.readPage(pid);
+        	}
+        	addPage(p);
         	return p;
-        } else {
-        	DbFile dbf = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            p = dbf.readPage(pid);
-            addPage(p);
-            return p;
+        }
+    }
+
+    /**
+     * Retrieves a page without adding it to the buffer pool: the cached copy
+     * if there is one, and otherwise a copy read from disk, which is not
+     * kept. Used by one-off scans that should not evict the pages queries
+     * use.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     */
+    public Page getPageUncached(TransactionId tid, PageId pid)
+        throws TransactionAbortedException, DbException {
+        long changes;
+        synchronized (this) {
+        	Page p = pages.get(pid);
+        	if (p != null) {
+        		return p;
+        	}
+        	changes = diskChanges;
+        }
+        DbFile dbf = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page p = dbf.readPage(pid);
+        synchronized (this) {
+        	Page cached = pages.get(pid);
+        	if (cached != null) {
+        		return cached;
+        	}
+        	// see getPage
+        	return diskChanges != changes ? dbf.readPage(pid) : p;
         }
     }
 
@@ -150,7 +211,10 @@ public class BufferPool {
     }
 
     /**
-     * Add a tuple to the specified table on behalf of transaction tid.  Will
+     * Add a tuple to the specified table on behalf of transaction tid, and
+     * add its entry to every index of the table, including its missing value
+     * index, and to its column cache. A clustered table is no longer
+     * recorded as sorted afterwards, see Catalog#clearClusterKey.  Will
      * acquire a write lock on the page the tuple is added to and any other 
      * pages that are updated (Lock acquisition is not needed for lab2). 
      * May block if the lock(s) cannot be acquired.
@@ -164,10 +228,28 @@ public class BufferPool {
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
      */
-    public void insertTuple(TransactionId tid, int tableId, Tuple t)
+    public synchronized void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
     	DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+    	// the table the tuple is stored in: a partition of a partitioned
+    	// table has its own missing value index and column cache
+    	int storedId = file instanceof PartitionedFile ? ((PartitionedFile) file).partitionOf(t).getId() : tableId;
+    	MissingIndex missing = Database.getCatalog().getMissingIndex(storedId);
+    	ColumnCache columns = Database.getCatalog().getLoadedColumnCache(storedId);
     	ArrayList<Page> dirtyPages = file.insertTuple(tid, t);
+    	for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+    		dirtyPages.addAll(index.insertTuple(tid, IndexFile.entryOf(t, index.getKeyField())));
+    	}
+    	// the tuple was not added in sort order
+    	if (Database.getCatalog().getClusterKey(tableId) != null) {
+    		Database.getCatalog().clearClusterKey(tableId);
+    	}
+    	if (missing != null) {
+    		missing.insertTuple(t);
+    	}
+    	if (columns != null) {
+    		columns.insertTuple(t);
+    	}
     	for (Page p : dirtyPages) {
     		p.markDirty(true, tid);
     		addPage(p);
@@ -175,7 +257,9 @@ public class BufferPool {
     }
 
     /**
-     * Remove the specified tuple from the buffer pool.
+     * Remove the specified tuple from the buffer pool, and its entry from
+     * every index of its table, including its missing value index, and from
+     * its column cache.
      * Will acquire a write lock on the page the tuple is removed from and any
      * other pages that are updated. May block if the lock(s) cannot be acquired.
      *
@@ -187,10 +271,24 @@ public class BufferPool {
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
-    public  void deleteTuple(TransactionId tid, Tuple t)
+    public synchronized void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-    	DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-    	ArrayList<Page> dirtyPages = file.deleteTuple(tid, t);
+    	RecordId rid = t.getRecordId();
+    	int tableId = rid.getPageId().getTableId();
+    	DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+    	MissingIndex missing = Database.getCatalog().getMissingIndex(tableId);
+    	ColumnCache columns = Database.getCatalog().getLoadedColumnCache(tableId);
+    	ArrayList<Page> dirtyPages = new ArrayList<Page>();
+    	for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+    		dirtyPages.addAll(index.deleteTuple(tid, IndexFile.entryOf(t, index.getKeyField())));
+    	}
+    	dirtyPages.addAll(file.deleteTuple(tid, t));
+    	if (missing != null) {
+    		missing.deleteTuple(rid);
+    	}
+    	if (columns != null) {
+    		columns.deleteTuple(rid);
+    	}
     	for (Page p : dirtyPages) {
     		p.markDirty(true, tid);
     		addPage(p);
@@ -203,11 +301,122 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        for (PageId pid : pages.keySet()) {
-        	flushPage(pid);
+        // Hand each heap file all of its pages at once, so that files spread
+        // over several disks can write them back in parallel.
+        HashMap<Integer, ArrayList<Page>> byTable = new HashMap<>();
+        for (Page p : pages.values()) {
+        	byTable.computeIfAbsent(p.getId().getTableId(), k -> new ArrayList<Page>()).add(p);
+        }
+        for (Map.Entry<Integer, ArrayList<Page>> e : byTable.entrySet()) {
+        	DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+        	if (file instanceof HeapFile) {
+        		((HeapFile) file).writePages(e.getValue());
+        	} else {
+        		for (Page p : e.getValue()) {
+        			file.writePage(p);
+        		}
+        	}
+        	// written after the pages, so that it is newer than the table
+        	MissingIndex missing = Database.getCatalog().getLoadedMissingIndex(e.getKey());
+        	if (missing != null) {
+        		missing.save();
+        	}
         }
     }
 
+    /**
+     * @return the ids of the pages in the buffer pool, most recently used
+     *         first
+     */
+    public synchronized List<PageId> residentPages() {
+        return new ArrayList<PageId>(usedPages);
+    }
+
+    /**
+     * Writes the ids of the pages in the buffer pool to a file, so that a
+     * later run can load them again with {@link #warmUp}.
+     */
+    public void saveSnapshot(File f) throws IOException {
+        List<PageId> resident = residentPages();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(resident.size());
+            for (PageId pid : resident) {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.getPageNumber());
+            }
+        }
+    }
+
+    /**
+     * Starts loading the pages listed in a snapshot file in the background,
+     * sorted by table and page so that each file is read sequentially. Pages
+     * of tables that are no longer in the catalog, or past their end, are
+     * skipped. Loading stops once the buffer pool is full, so that it never
+     * evicts pages read by queries, and the snapshot is deleted if one of its
+     * pages cannot be read.
+     *
+     * @return the loading thread, or null if there is no snapshot
+     */
+    public Thread warmUp(File f) throws IOException {
+        if (!f.exists()) {
+            return null;
+        }
+        ArrayList<HeapPageId> snapshot = new ArrayList<HeapPageId>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                int tableId = in.readInt();
+                snapshot.add(new HeapPageId(tableId, in.readInt()));
+            }
+        }
+        snapshot.sort(Comparator.comparingInt(HeapPageId::getTableId)
+                .thenComparingInt(HeapPageId::getPageNumber));
+
+        Thread loader = new Thread(() -> {
+            TransactionId tid = new TransactionId();
+            for (HeapPageId pid : snapshot) {
+                synchronized (this) {
+                    if (pages.size() >= numPages) {
+                        return;
+                    }
+                }
+                if (pid.getPageNumber() >= numPagesOf(pid.getTableId())) {
+                    continue;
+                }
+                try {
+                    getPage(tid, pid, Permissions.READ_ONLY);
+                } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                    // a file that is missing or changed: the snapshot is
+                    // of no use any more
+                    f.delete();
+                    return;
+                }
+            }
+        }, "buffer pool warm-up");
+        loader.setDaemon(true);
+        loader.start();
+        return loader;
+    }
+
+    /**
+     * @return the number of pages of a heap or index file, or 0 if the
+     *         catalog does not know it
+     */
+    private static int numPagesOf(int tableId) {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(tableId);
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+        if (file instanceof HeapFile) {
+            return ((HeapFile) file).numPages;
+        } else if (file instanceof IndexFile) {
+            return ((IndexFile) file).numPages();
+        }
+        return 0;
+    }
+
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
@@ -221,6 +430,24 @@ public class BufferPool {
         pages.remove(pid);
     }
 
+    /**
+     * Remove every cached page of the specified table, without flushing.
+     * Used when a file is rewritten in place and its old pages are stale.
+     * @param tableId the table whose pages should be dropped
+     */
+    public synchronized void discardPages(int tableId) {
+        ArrayList<PageId> stale = new ArrayList<PageId>();
+        for (PageId pid : pages.keySet()) {
+            if (pid.getTableId() == tableId) {
+                stale.add(pid);
+            }
+        }
+        for (PageId pid : stale) {
+            discardPage(pid);
+        }
+        diskChanges++;
+    }
+
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
@@ -251,6 +478,7 @@ public class BufferPool {
 			} catch (IOException e) {
 				throw new DbException("IO failed while flushing page.");
 			}
+    		diskChanges++;
     	}
     	pages.remove(dropPageId);
     }
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CachedScan reads the tuples of a table from its in-memory column cache,
+ * without going through the buffer pool. Tuples with a missing value in a
+ * set of fields can be skipped using the cache's missing value bitmaps, so
+ * that {@link Drop} never sees them.
+ *
+ * @see ColumnCache
+ */
+public class CachedScan extends SeqScan {
+    private static final long serialVersionUID = 1L;
+
+    private final int tableId;
+    private final Set<Integer> skipped = new HashSet<Integer>();
+
+    private ColumnCache cache;
+    private BitSet rows;
+    private int next;
+
+    public CachedScan(TransactionId tid, int tableid, String tableAlias) {
+        super(tid, tableid, tableAlias);
+        this.tableId = tableid;
+    }
+
+    /**
+     * Skips the tuples with a missing value in any of the fields, from the
+     * next time the scan is opened.
+     */
+    public void skipMissing(Collection<Integer> fields) {
+        skipped.addAll(fields);
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        cache = Database.getCatalog().getColumnCache(tableId);
+        if (cache == null) {
+            throw new DbException("Table " + tableId + " is not cached.");
+        }
+        // copy, so that the scan is not affected by concurrent changes
+        rows = skipped.isEmpty() ? cache.rows() : cache.rowsWithout(skipped);
+        next = rows.nextSetBit(0);
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return rows != null && next >= 0;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = cache.tupleAt(next);
+        next = rows.nextSetBit(next + 1);
+        return t;
+    }
+
+    /**
+     * Copies tuples from the columns of the cache into a batch.
+     */
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            return null;
+        }
+        TupleBatch batch = new TupleBatch(getTupleDesc(), maxSize);
+        next = cache.fill(batch, rows, next);
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        rows = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
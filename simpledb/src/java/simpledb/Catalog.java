@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 import java.text.ParseException;
 import java.util.*;
+import java.util.regex.*;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -23,10 +24,32 @@ public class Catalog {
 		public final DbFile file;
 		public final String name;
 		public final String pKeyField;
+		/** Field the table is physically sorted on, or null. */
+		public String clusterField = null;
+		/** Id of the partitioned table this is a partition of, or null. */
+		public Integer parentId = null;
+		/** Secondary indexes of the table. */
+		public final ArrayList<IndexFile> indexes = new ArrayList<>();
+		/** Positions of missing values, or null if not loaded yet. */
+		public MissingIndex missing = null;
+		/** True if the table is pinned in memory. */
+		public boolean cached = false;
+		/** In-memory copy of a pinned table, or null if not loaded yet. */
+		public ColumnCache columns = null;
 	}
 	
+	/** Matches the cache clause of a table in catalog.txt, see ColumnCache. */
+	private static final Pattern CACHE_CLAUSE = Pattern.compile(
+			"\\bcache\\b", Pattern.CASE_INSENSITIVE);
+	/** Matches the stripe clause of a table in catalog.txt, see StripedHeapFile. */
+	private static final Pattern STRIPE_CLAUSE = Pattern.compile(
+			"stripe\\s*\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+	
 	private final HashMap<Integer, TableInfo> tables;
 	private final HashMap<String, Integer> idOfName;
+	private final HashMap<Integer, IndexFile> indexes;
+	/** True if a table changed since the catalog file was last written. */
+	private boolean schemaChanged = false;
 	
     /**
      * Constructor.
@@ -35,6 +58,7 @@ public class Catalog {
     public Catalog() {
         tables = new HashMap<>();
         idOfName = new HashMap<>();
+        indexes = new HashMap<>();
     }
 
     /**
@@ -56,6 +80,226 @@ public class Catalog {
         addTable(file, name, "");
     }
 
+    /**
+     * Add a partitioned table to the catalog. Each of its partitions is also
+     * added, under the name <tt>name.p&lt;i&gt;</tt>, so that their pages can
+     * be read through the buffer pool and statistics kept for each of them.
+     */
+    public void addPartitionedTable(PartitionedFile file, String name, String pkeyField) {
+    	addTable(file, name, pkeyField);
+    	for (int i = 0; i < file.numPartitions(); i++) {
+    		HeapFile part = file.getPartition(i);
+    		addTable(part, partitionName(name, i), pkeyField);
+    		getTable(part.getId()).parentId = file.getId();
+    	}
+    }
+
+    /**
+     * @return the catalog name of partition i of the named table
+     */
+    public static String partitionName(String tableName, int i) {
+    	return tableName + ".p" + i;
+    }
+
+    /**
+     * @return true if the table is a partition of a partitioned table
+     */
+    public boolean isPartition(int tableid) {
+    	return getTable(tableid).parentId != null;
+    }
+
+    /**
+     * Add a secondary index of a table to the catalog, replacing any index of
+     * the same kind on the same field. Its pages can then be read through the
+     * buffer pool, and the buffer pool keeps it up to date.
+     */
+    public void addIndex(IndexFile index) {
+    	ArrayList<IndexFile> tableIndexes = getTable(index.getTableId()).indexes;
+    	Iterator<IndexFile> it = tableIndexes.iterator();
+    	while (it.hasNext()) {
+    		IndexFile old = it.next();
+    		if (old.getKeyField() == index.getKeyField() && old.getClass() == index.getClass()) {
+    			it.remove();
+    			indexes.remove(old.getId());
+    		}
+    	}
+    	tableIndexes.add(index);
+    	indexes.put(index.getId(), index);
+    }
+
+    /**
+     * @return the indexes of the specified table; empty if the table is
+     *    not in the catalog.
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+    	TableInfo t = tables.get(tableid);
+    	if (t == null) {
+    		return Collections.emptyList();
+    	}
+    	return Collections.unmodifiableList(t.indexes);
+    }
+
+    /**
+     * @param ranges
+     *    true if the index must answer range lookups
+     * @return an index of the table on the specified field, preferring a
+     *    hash index when ranges are not needed, or null
+     */
+    public IndexFile getIndex(int tableid, int field, boolean ranges) {
+    	IndexFile found = null;
+    	for (IndexFile index : getIndexes(tableid)) {
+    		if (index.getKeyField() == field && (!ranges || index.supportsRanges())) {
+    			// equality lookups are cheapest in an index without ranges
+    			if (found == null || !index.supportsRanges()) {
+    				found = index;
+    			}
+    		}
+    	}
+    	return found;
+    }
+
+    /**
+     * Returns the missing value index of a heap file table, reading it from
+     * disk or building it on first use.
+     * @return the index, or null if the table is not a heap file or the index
+     *    could not be built
+     */
+    public synchronized MissingIndex getMissingIndex(int tableid) {
+    	TableInfo t = tables.get(tableid);
+    	if (t == null || !(t.file instanceof HeapFile)) {
+    		return null;
+    	}
+    	if (t.missing == null) {
+    		HeapFile file = (HeapFile) t.file;
+    		try {
+    			t.missing = MissingIndex.open(file);
+    			if (t.missing == null) {
+    				t.missing = MissingIndex.build(file, new TransactionId());
+    				t.missing.save();
+    			}
+    		} catch (IOException | DbException | TransactionAbortedException e) {
+    			e.printStackTrace();
+    			t.missing = null;
+    		}
+    	}
+    	return t.missing;
+    }
+
+    /**
+     * @return the missing value index of the table if it is in memory, or
+     *    null
+     */
+    synchronized MissingIndex getLoadedMissingIndex(int tableid) {
+    	TableInfo t = tables.get(tableid);
+    	return t == null ? null : t.missing;
+    }
+
+    /**
+     * Forgets the missing value index of a table whose contents were
+     * replaced, so that it is rebuilt on next use.
+     */
+    public synchronized void discardMissingIndex(int tableid) {
+    	TableInfo t = tables.get(tableid);
+    	if (t != null) {
+    		t.missing = null;
+    	}
+    }
+
+    /**
+     * Pins a heap file table in memory, or unpins it. The column cache of a
+     * pinned table is loaded on first use.
+     */
+    public synchronized void setCached(int tableid, boolean cached) {
+    	TableInfo t = getTable(tableid);
+    	if (cached && !(t.file instanceof HeapFile)) {
+    		throw new IllegalArgumentException("Only heap files can be cached.");
+    	}
+    	t.cached = cached;
+    	if (!cached) {
+    		t.columns = null;
+    	}
+    }
+
+    /**
+     * @return true if the table is pinned in memory
+     */
+    public synchronized boolean isCached(int tableid) {
+    	TableInfo t = tables.get(tableid);
+    	return t != null && t.cached;
+    }
+
+    /**
+     * Returns the column cache of a pinned table, loading it on first use.
+     * @return the cache, or null if the table is not pinned or could not be
+     *    read
+     */
+    public synchronized ColumnCache getColumnCache(int tableid) {
+    	TableInfo t = tables.get(tableid);
+    	if (t == null || !t.cached) {
+    		return null;
+    	}
+    	if (t.columns == null) {
+    		try {
+    			t.columns = ColumnCache.load((HeapFile) t.file, new TransactionId());
+    		} catch (DbException | TransactionAbortedException e) {
+    			e.printStackTrace();
+    			t.columns = null;
+    		}
+    	}
+    	return t.columns;
+    }
+
+    /**
+     * @return the column cache of the table if it is in memory, or null
+     */
+    synchronized ColumnCache getLoadedColumnCache(int tableid) {
+    	TableInfo t = tables.get(tableid);
+    	return t == null ? null : t.columns;
+    }
+
+    /**
+     * Forgets the in-memory copies of a table whose contents were replaced,
+     * its missing value index and column cache, so that they are rebuilt on
+     * next use.
+     */
+    public synchronized void discardCopies(int tableid) {
+    	discardMissingIndex(tableid);
+    	TableInfo t = tables.get(tableid);
+    	if (t != null) {
+    		t.columns = null;
+    	}
+    }
+
+    /**
+     * @return the file an index of the table stored in tableFile is kept in.
+     */
+    public static File indexFile(File tableFile, String field, String kind) {
+    	String name = tableFile.getName();
+    	int dot = name.lastIndexOf('.');
+    	String base = dot < 0 ? name : name.substring(0, dot);
+    	return new File(tableFile.getAbsoluteFile().getParentFile(), base + "." + field + "." + kind);
+    }
+
+    /**
+     * @return the catalog annotation of an index: "btree" or "hash".
+     */
+    public static String indexKind(IndexFile index) {
+    	return index instanceof HashIndexFile ? "hash" : "btree";
+    }
+
+    /**
+     * Builds an index of the given kind over the current contents of a table,
+     * in the file returned by {@link #indexFile}.
+     */
+    public static IndexFile createIndex(HeapFile table, int keyField, String kind, TransactionId tid)
+    		throws DbException, IOException, TransactionAbortedException {
+    	File f = indexFile(table.getFile(), table.getTupleDesc().getFieldName(keyField), kind);
+    	if (kind.equals("hash")) {
+    		return HashIndexFile.create(f, table, keyField, tid);
+    	}
+    	return BTreeFile.create(f, table, keyField, tid);
+    }
+
     /**
      * Add a new table to the catalog.
      * This table has tuples formatted using the specified TupleDesc and its
@@ -116,6 +360,10 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
+    	IndexFile index = indexes.get(tableid);
+    	if (index != null) {
+    		return index;
+    	}
     	return getTable(tableid).file;
     }
 
@@ -123,6 +371,51 @@ public class Catalog {
     	return getTable(tableid).pKeyField;
     }
 
+    /**
+     * Records that the specified table is stored sorted on a field.
+     * @param tableid the id of the table
+     * @param field the name of the field, or null if the table is not sorted
+     */
+    public void setClusterKey(int tableid, String field) {
+    	getTable(tableid).clusterField = field;
+    }
+
+    /**
+     * @return the name of the field the table is stored sorted on, or null
+     *     if the table is not clustered
+     */
+    public String getClusterKey(int tableid) {
+    	return getTable(tableid).clusterField;
+    }
+
+    /**
+     * Records that a clustered table is no longer stored sorted, once a tuple
+     * was added to it out of order, here and in its statistics. The catalog
+     * file is left alone until it is next written, see
+     * {@link #hasUnsavedChanges}.
+     * @param tableid the id of the table
+     */
+    public void clearClusterKey(int tableid) {
+    	TableInfo t = getTable(tableid);
+    	if (t.clusterField == null) {
+    		return;
+    	}
+    	t.clusterField = null;
+    	TableStats stats = TableStats.getStatsMap().get(t.name);
+    	if (stats != null) {
+    		stats.clearClusterField();
+    	}
+    	schemaChanged = true;
+    }
+
+    /**
+     * @return true if the catalog changed since it was loaded or last written
+     *     with {@link #dumpSchema}
+     */
+    public boolean hasUnsavedChanges() {
+    	return schemaChanged;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return tables.keySet().iterator();
     }
@@ -134,6 +427,8 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         tables.clear();
+        indexes.clear();
+        schemaChanged = false;
     }
 
     /**
@@ -143,18 +438,76 @@ public class Catalog {
     public void dumpSchema(File catalogFile) {
         try (PrintWriter wr = new PrintWriter(new FileWriter(catalogFile))) {
             for (TableInfo table : tables.values()) {
+                if (table.parentId != null) {
+                    continue;
+                }
                 ArrayList<String> tdStrs = new ArrayList<>();
                 for (TDItem ti : table.file.getTupleDesc()) {
-                    tdStrs.add(String.format("%s %s", ti.fieldName, ti.fieldType.toString()));
+                    String tdStr = String.format("%s %s", ti.fieldName, ti.fieldType.toString());
+                    if (ti.fieldName.equals(table.pKeyField)) {
+                        tdStr += " pk";
+                    }
+                    if (ti.fieldName.equals(table.clusterField)) {
+                        tdStr += " cluster";
+                    }
+                    for (IndexFile index : table.indexes) {
+                        if (table.file.getTupleDesc().getFieldName(index.getKeyField()).equals(ti.fieldName)) {
+                            tdStr += " " + indexKind(index);
+                        }
+                    }
+                    tdStrs.add(tdStr);
                 }
                 String tdStr = String.join(", ", tdStrs);
-                wr.format("%s(%s)\n", table.name, tdStr);
+                String options = "";
+                List<File> stripeDirs = null;
+                if (table.file instanceof PartitionedFile) {
+                    options = " " + ((PartitionedFile) table.file).getScheme();
+                    stripeDirs = ((PartitionedFile) table.file).getStripeDirectories();
+                } else if (table.file instanceof StripedHeapFile) {
+                    stripeDirs = ((StripedHeapFile) table.file).getDirectories();
+                }
+                if (stripeDirs != null) {
+                    ArrayList<String> dirs = new ArrayList<>();
+                    for (File dir : stripeDirs) {
+                        dirs.add(dir.getPath());
+                    }
+                    options += " stripe (" + String.join(", ", dirs) + ")";
+                }
+                if (table.cached) {
+                    options += " cache";
+                }
+                wr.format("%s(%s)%s\n", table.name, tdStr, options);
             }
+            schemaChanged = false;
         } catch (IOException e) {
             System.err.format("Error: Failed to write catalog file: %s\n", catalogFile);
         }
     }
     
+    /**
+     * Opens the indexes of a table that was just loaded, building those whose
+     * file is missing.
+     * @param fields the indexed fields, each with its kind of index
+     */
+    private void loadIndexes(HeapFile table, List<String[]> fields) throws IOException {
+        for (String[] fieldKind : fields) {
+            String field = fieldKind[0], kind = fieldKind[1];
+            int keyField = table.getTupleDesc().fieldNameToIndex(field);
+            File f = indexFile(table.getFile(), field, kind);
+            if (f.exists()) {
+                addIndex(kind.equals("hash") ? new HashIndexFile(f, table.getId(), keyField)
+                        : new BTreeFile(f, table.getId(), keyField));
+                continue;
+            }
+            try {
+                addIndex(createIndex(table, keyField, kind, new TransactionId()));
+            } catch (DbException | TransactionAbortedException ex) {
+                System.err.println("Failed to build index on " + field + ": " + ex.getMessage());
+                System.exit(-1);
+            }
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
      * @param catalogFile
@@ -162,6 +515,7 @@ public class Catalog {
     public void loadSchema(String catalogFile) {
         String line = "";
         String baseFolder=new File(new File(catalogFile).getAbsolutePath()).getParent();
+        schemaChanged = false;
         try (
         	BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
         ) {
@@ -174,6 +528,8 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                String clusterKey = null;
+                ArrayList<String[]> indexFields = new ArrayList<String[]>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -183,12 +539,18 @@ public class Catalog {
                     	System.err.println(ex.getMessage());
                     	System.exit(-1);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk")) {
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk")) {
                             primaryKey = els2[0].trim();
                         }
+                        else if (els2[i].trim().equals("cluster")) {
+                            clusterKey = els2[0].trim();
+                        }
+                        else if (els2[i].trim().equals("btree") || els2[i].trim().equals("hash")) {
+                            indexFields.add(new String[] { els2[0].trim(), els2[i].trim() });
+                        }
                         else {
-                            System.err.println("Unknown annotation " + els2[2]);
+                            System.err.println("Unknown annotation " + els2[i]);
                             System.exit(-1);
                         }
                     }
@@ -196,8 +558,67 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                Matcher cache = CACHE_CLAUSE.matcher(options);
+                boolean cached = cache.find();
+                if (cached) {
+                    options = (options.substring(0, cache.start()) + options.substring(cache.end())).trim();
+                }
+                List<File> stripeDirs = null;
+                Matcher stripe = STRIPE_CLAUSE.matcher(options);
+                if (stripe.find()) {
+                    stripeDirs = new ArrayList<File>();
+                    for (String dir : stripe.group(1).split(",")) {
+                        File d = new File(dir.trim());
+                        stripeDirs.add(d.isAbsolute() ? d : new File(baseFolder, dir.trim()));
+                    }
+                    options = (options.substring(0, stripe.start()) + options.substring(stripe.end())).trim();
+                }
+                if (options.isEmpty() && stripeDirs == null) {
+                    HeapFile tabHf = new HeapFile(dataFile, t);
+                    addTable(tabHf,name,primaryKey);
+                    setClusterKey(tabHf.getId(), clusterKey);
+                    setCached(tabHf.getId(), cached);
+                    loadIndexes(tabHf, indexFields);
+                } else if (options.isEmpty()) {
+                    StripedHeapFile tabSf = new StripedHeapFile(dataFile, t, stripeDirs);
+                    // spread existing unstriped data on first use
+                    if (!tabSf.exists() && dataFile.exists()) {
+                        tabSf.stripeFrom(dataFile);
+                    }
+                    addTable(tabSf,name,primaryKey);
+                    setClusterKey(tabSf.getId(), clusterKey);
+                    setCached(tabSf.getId(), cached);
+                    loadIndexes(tabSf, indexFields);
+                } else {
+                    PartitionScheme scheme = null;
+                    try {
+                        scheme = PartitionScheme.parse(options);
+                    } catch (ParseException ex) {
+                        System.err.println(ex.getMessage());
+                        System.exit(-1);
+                    }
+                    if (!indexFields.isEmpty()) {
+                        System.err.println("Indexes on partitioned tables are not supported: " + name);
+                        System.exit(-1);
+                    }
+                    if (cached) {
+                        System.err.println("Caching partitioned tables is not supported: " + name);
+                        System.exit(-1);
+                    }
+                    PartitionedFile tabPf = new PartitionedFile(dataFile, t, scheme, stripeDirs);
+                    addPartitionedTable(tabPf, name, primaryKey);
+                    // split existing unpartitioned data on first use
+                    if (!tabPf.partitionFilesExist() && dataFile.exists()) {
+                        try {
+                            tabPf.partitionFrom(new HeapFile(dataFile, t));
+                        } catch (DbException ex) {
+                            System.err.println("Failed to partition " + name + ": " + ex.getMessage());
+                            System.exit(-1);
+                        }
+                    }
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,19 @@
+package simpledb;
+
+/**
+ * CollectProducer sends every batch of its child to the single consumer of
+ * its channel, which gathers the output of several fragments.
+ */
+public class CollectProducer extends Producer {
+
+    private static final long serialVersionUID = 1L;
+
+    public CollectProducer(DbIterator child) {
+        super(child);
+    }
+
+    @Override
+    protected boolean route(Run run, TupleBatch batch) throws InterruptedException {
+        return run.send(0, batch);
+    }
+}
@@ -0,0 +1,226 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * An in-memory copy of a heap file, stored by column. Integer and double
+ * columns are kept as primitive arrays, other columns as fields, and each
+ * column has a bitmap of its missing values. Tuples are identified by their
+ * position in the file, as in {@link MissingIndex}, so scans visit them in
+ * file order.
+ * <p>
+ * A table is cached when it is pinned with <tt>ALTER TABLE t CACHE</tt>. The
+ * buffer pool keeps the copy up to date as tuples are inserted and deleted.
+ *
+ * @see Catalog#getColumnCache(int)
+ * @see CachedScan
+ */
+public class ColumnCache {
+    private final HeapFile table;
+    private final TupleDesc td;
+    private final int slotsPerPage;
+
+    /** One int[], double[] or Field[] per column, indexed by position. */
+    private final Object[] columns;
+    private final BitSet[] missing;
+    private final BitSet live;
+    private int capacity;
+
+    private ColumnCache(HeapFile table) {
+        this.table = table;
+        this.td = table.getTupleDesc();
+        this.slotsPerPage = HeapPage.slotsPerPage(td);
+        this.columns = new Object[td.numFields()];
+        this.missing = new BitSet[td.numFields()];
+        this.live = new BitSet();
+        this.capacity = Math.max(1, table.numPages) * slotsPerPage;
+        for (int i = 0; i < columns.length; i++) {
+            switch (td.getFieldType(i)) {
+            case INT_TYPE:
+                columns[i] = new int[capacity];
+                break;
+            case DOUBLE_TYPE:
+                columns[i] = new double[capacity];
+                break;
+            default:
+                columns[i] = new Field[capacity];
+            }
+            missing[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Builds the cache of a table by scanning it.
+     */
+    public static ColumnCache load(HeapFile table, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        ColumnCache cache = new ColumnCache(table);
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            cache.add(it.next());
+        }
+        it.close();
+        return cache;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the positions of the tuples in the table. The caller may
+     *         modify the copy.
+     */
+    public synchronized BitSet rows() {
+        return (BitSet) live.clone();
+    }
+
+    /**
+     * @return the positions of the tuples with no missing value in any of the
+     *         fields
+     */
+    public synchronized BitSet rowsWithout(Collection<Integer> fields) {
+        BitSet rows = (BitSet) live.clone();
+        for (int field : fields) {
+            rows.andNot(missing[field]);
+        }
+        return rows;
+    }
+
+    public synchronized int numTuples() {
+        return live.cardinality();
+    }
+
+    /**
+     * @return the values of an integer column, indexed by position. Values at
+     *         positions without a tuple, or with a missing value, are
+     *         meaningless. The array must not be modified.
+     */
+    public synchronized int[] getInts(int field) {
+        return (int[]) columns[field];
+    }
+
+    /**
+     * @return the values of a double column, as for {@link #getInts}.
+     */
+    public synchronized double[] getDoubles(int field) {
+        return (double[]) columns[field];
+    }
+
+    /**
+     * @return the positions with a missing value in the field. The bitmap
+     *         must not be modified.
+     */
+    public synchronized BitSet getMissing(int field) {
+        return missing[field];
+    }
+
+    /**
+     * @return the tuple at a position, which must hold one
+     */
+    public synchronized Tuple tupleAt(int position) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            Object column = columns[i];
+            boolean m = missing[i].get(position);
+            if (m && !(column instanceof Field[])) {
+                t.setMissing(i);
+            } else if (column instanceof int[]) {
+                t.setInt(i, ((int[]) column)[position]);
+            } else if (column instanceof double[]) {
+                t.setDouble(i, ((double[]) column)[position]);
+            } else {
+                t.setField(i, ((Field[]) column)[position]);
+            }
+        }
+        t.setRecordId(new RecordId(new HeapPageId(table.getId(), position / slotsPerPage), position % slotsPerPage));
+        return t;
+    }
+
+    /**
+     * Copies the tuples at the given positions into a batch, starting at
+     * position from, until the batch is full.
+     *
+     * @return the first position not copied, or -1 if none is left
+     */
+    public synchronized int fill(TupleBatch batch, BitSet positions, int from) {
+        int p = from;
+        for (; p >= 0 && !batch.isFull(); p = positions.nextSetBit(p + 1)) {
+            int row = batch.addRow();
+            for (int i = 0; i < columns.length; i++) {
+                Object column = columns[i];
+                boolean m = missing[i].get(p);
+                if (column instanceof int[]) {
+                    batch.setInt(row, i, m ? Type.MISSING_INTEGER : ((int[]) column)[p], m);
+                } else if (column instanceof double[]) {
+                    batch.setDouble(row, i, m ? Type.MISSING_DOUBLE : ((double[]) column)[p], m);
+                } else {
+                    batch.setField(row, i, ((Field[]) column)[p]);
+                }
+            }
+            batch.setRecordId(row, new RecordId(new HeapPageId(table.getId(), p / slotsPerPage), p % slotsPerPage));
+        }
+        return p;
+    }
+
+    private int positionOf(RecordId rid) {
+        return rid.getPageId().getPageNumber() * slotsPerPage + rid.getTupleNumber();
+    }
+
+    private void grow(int position) {
+        if (position < capacity) {
+            return;
+        }
+        capacity = Math.max(capacity * 2, position + slotsPerPage);
+        for (int i = 0; i < columns.length; i++) {
+            Object column = columns[i];
+            if (column instanceof int[]) {
+                columns[i] = Arrays.copyOf((int[]) column, capacity);
+            } else if (column instanceof double[]) {
+                columns[i] = Arrays.copyOf((double[]) column, capacity);
+            } else {
+                columns[i] = Arrays.copyOf((Field[]) column, capacity);
+            }
+        }
+    }
+
+    private void add(Tuple t) {
+        int position = positionOf(t.getRecordId());
+        grow(position);
+        for (int i = 0; i < columns.length; i++) {
+            Object column = columns[i];
+            boolean m = t.isMissing(i);
+            missing[i].set(position, m);
+            if (column instanceof Field[]) {
+                ((Field[]) column)[position] = t.getField(i);
+            } else if (!m) {
+                if (column instanceof int[]) {
+                    ((int[]) column)[position] = t.getInt(i);
+                } else {
+                    ((double[]) column)[position] = t.getDouble(i);
+                }
+            }
+        }
+        live.set(position);
+    }
+
+    /** Records a tuple just inserted into the table. */
+    synchronized void insertTuple(Tuple t) {
+        add(t);
+    }
+
+    /** Forgets a tuple just deleted from the table. */
+    synchronized void deleteTuple(RecordId rid) {
+        int position = positionOf(rid);
+        live.clear(position);
+        for (int i = 0; i < columns.length; i++) {
+            missing[i].clear(position);
+            if (columns[i] instanceof Field[]) {
+                ((Field[]) columns[i])[position] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CompiledPipeline replaces a chain of filters with a single operator that
+ * runs all their predicates in one generated loop over the batches of its
+ * child. Operators above it read its batches through
+ * {@link #nextBatch(int)}; tuples are also available through next().
+ *
+ * @see PipelineCompiler
+ */
+public class CompiledPipeline extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A generated loop that narrows the selection of a batch to the rows
+     * satisfying the predicates of the pipeline.
+     */
+    public interface Kernel {
+        void filter(TupleBatch batch);
+    }
+
+    private final List<Predicate> predicates;
+    private final transient Kernel kernel;
+    private DbIterator child;
+
+    // batch whose rows fetchNext is returning
+    private TupleBatch current;
+    private int currentIdx;
+
+    /**
+     * @param predicates
+     *            the predicates compiled into the kernel, all of which a
+     *            tuple must satisfy
+     * @param kernel
+     *            the compiled predicates
+     * @param child
+     *            the operator to read batches from
+     */
+    public CompiledPipeline(List<Predicate> predicates, Kernel kernel, DbIterator child) {
+        this.predicates = predicates;
+        this.kernel = kernel;
+        this.child = child;
+    }
+
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    public Kernel getKernel() {
+        return kernel;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child.open();
+        current = null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+        current = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        current = null;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (current == null || currentIdx == current.size()) {
+            current = nextBatch(TupleBatch.DEFAULT_SIZE);
+            currentIdx = 0;
+            if (current == null) {
+                return null;
+            }
+        }
+        return current.getTuple(current.selection()[currentIdx++]);
+    }
+
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch(maxSize)) != null) {
+            kernel.filter(batch);
+            if (batch.size() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length != 1) {
+            throw new IllegalArgumentException("Expected a single new child.");
+        }
+        child = children[0];
+    }
+}
@@ -0,0 +1,442 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative integers, laid out like a Roaring bitmap.
+ * Values are grouped by their upper 16 bits into containers. A container
+ * holding few values stores them as a sorted array, and a dense container
+ * stores a plain 2^16 bit bitmap, so sparse and dense sets both stay small.
+ * The iteration methods mirror {@link java.util.BitSet}.
+ */
+public class CompressedBitmap {
+    /** Containers with more values than this are stored as bitmaps. */
+    static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size = 0;
+
+    public CompressedBitmap() {
+    }
+
+    private CompressedBitmap(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    private static char high(int x) {
+        return (char) (x >>> 16);
+    }
+
+    private static char low(int x) {
+        return (char) x;
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertContainer(int i, char key, Container c) {
+        if (size == keys.length) {
+            int n = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, n);
+            containers = Arrays.copyOf(containers, n);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = c;
+        size++;
+    }
+
+    private void removeContainer(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    /** Adds x to the set. */
+    public void add(int x) {
+        if (x < 0) {
+            throw new IllegalArgumentException("Negative value " + x);
+        }
+        int i = find(high(x));
+        if (i >= 0) {
+            containers[i] = containers[i].add(low(x));
+        } else {
+            insertContainer(-i - 1, high(x), new ArrayContainer().add(low(x)));
+        }
+    }
+
+    /** Removes x from the set, if present. */
+    public void remove(int x) {
+        if (x < 0) {
+            return;
+        }
+        int i = find(high(x));
+        if (i >= 0) {
+            containers[i] = containers[i].remove(low(x));
+            if (containers[i].cardinality() == 0) {
+                removeContainer(i);
+            }
+        }
+    }
+
+    public boolean contains(int x) {
+        if (x < 0) {
+            return false;
+        }
+        int i = find(high(x));
+        return i >= 0 && containers[i].contains(low(x));
+    }
+
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n += containers[i].cardinality();
+        }
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the smallest value in the set that is at least from, or -1 if
+     *         there is none
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int i = find(high(from));
+        int start = low(from);
+        if (i < 0) {
+            i = -i - 1;
+            start = 0;
+        }
+        for (; i < size; i++, start = 0) {
+            int v = containers[i].next(start);
+            if (v >= 0) {
+                return (keys[i] << 16) | v;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a new set holding the values in this set or in other
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        char[] k = new char[size + other.size];
+        Container[] c = new Container[size + other.size];
+        int n = 0, i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                k[n] = keys[i];
+                c[n++] = containers[i++].copy();
+            } else if (i == size || other.keys[j] < keys[i]) {
+                k[n] = other.keys[j];
+                c[n++] = other.containers[j++].copy();
+            } else {
+                k[n] = keys[i];
+                c[n++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        return new CompressedBitmap(k, c, n);
+    }
+
+    /**
+     * @return a new set holding the values in this set but not in other
+     */
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        char[] k = new char[size];
+        Container[] c = new Container[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int j = other.find(keys[i]);
+            Container result = j < 0 ? containers[i].copy() : containers[i].andNot(other.containers[j]);
+            if (result.cardinality() > 0) {
+                k[n] = keys[i];
+                c[n++] = result;
+            }
+        }
+        return new CompressedBitmap(k, c, n);
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeChar(keys[i]);
+            containers[i].write(out);
+        }
+    }
+
+    public static CompressedBitmap read(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        char[] k = new char[n];
+        Container[] c = new Container[n];
+        for (int i = 0; i < n; i++) {
+            k[i] = in.readChar();
+            c[i] = Container.read(in);
+        }
+        return new CompressedBitmap(k, c, n);
+    }
+
+    /** The values of a set that share their upper 16 bits. */
+    private static abstract class Container {
+        abstract boolean contains(char x);
+
+        /** @return the container holding x as well, possibly this one */
+        abstract Container add(char x);
+
+        /** @return the container without x, possibly this one */
+        abstract Container remove(char x);
+
+        abstract int cardinality();
+
+        /** @return the smallest value at least from, or -1 */
+        abstract int next(int from);
+
+        abstract Container copy();
+
+        abstract BitmapContainer toBitmap();
+
+        Container or(Container other) {
+            BitmapContainer b = toBitmap();
+            BitmapContainer o = other.toBitmap();
+            for (int w = 0; w < b.words.length; w++) {
+                b.words[w] |= o.words[w];
+            }
+            return b.recount();
+        }
+
+        Container andNot(Container other) {
+            BitmapContainer b = toBitmap();
+            BitmapContainer o = other.toBitmap();
+            for (int w = 0; w < b.words.length; w++) {
+                b.words[w] &= ~o.words[w];
+            }
+            return b.recount();
+        }
+
+        abstract void write(DataOutputStream out) throws IOException;
+
+        static Container read(DataInputStream in) throws IOException {
+            boolean bitmap = in.readBoolean();
+            int card = in.readInt();
+            if (bitmap) {
+                BitmapContainer b = new BitmapContainer();
+                for (int w = 0; w < b.words.length; w++) {
+                    b.words[w] = in.readLong();
+                }
+                b.card = card;
+                return b;
+            }
+            ArrayContainer a = new ArrayContainer();
+            a.values = new char[card];
+            for (int i = 0; i < card; i++) {
+                a.values[i] = in.readChar();
+            }
+            a.card = card;
+            return a;
+        }
+    }
+
+    private static class ArrayContainer extends Container {
+        char[] values = new char[4];
+        int card = 0;
+
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, 0, card, x) >= 0;
+        }
+
+        Container add(char x) {
+            int i = Arrays.binarySearch(values, 0, card, x);
+            if (i >= 0) {
+                return this;
+            }
+            if (card == ARRAY_MAX) {
+                return toBitmap().add(x);
+            }
+            i = -i - 1;
+            if (card == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, card * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, card - i);
+            values[i] = x;
+            card++;
+            return this;
+        }
+
+        Container remove(char x) {
+            int i = Arrays.binarySearch(values, 0, card, x);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, card - i - 1);
+                card--;
+            }
+            return this;
+        }
+
+        int cardinality() {
+            return card;
+        }
+
+        int next(int from) {
+            int i = Arrays.binarySearch(values, 0, card, (char) from);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < card ? values[i] : -1;
+        }
+
+        Container copy() {
+            ArrayContainer a = new ArrayContainer();
+            a.values = Arrays.copyOf(values, Math.max(4, card));
+            a.card = card;
+            return a;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < card; i++) {
+                b.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            b.card = card;
+            return b;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (!(other instanceof ArrayContainer) || card + other.cardinality() > ARRAY_MAX) {
+                return super.or(other);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            ArrayContainer a = new ArrayContainer();
+            a.values = new char[Math.max(4, card + o.card)];
+            int i = 0, j = 0;
+            while (i < card || j < o.card) {
+                if (j == o.card || (i < card && values[i] < o.values[j])) {
+                    a.values[a.card++] = values[i++];
+                } else if (i == card || o.values[j] < values[i]) {
+                    a.values[a.card++] = o.values[j++];
+                } else {
+                    a.values[a.card++] = values[i++];
+                    j++;
+                }
+            }
+            return a;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            ArrayContainer a = new ArrayContainer();
+            a.values = new char[Math.max(4, card)];
+            for (int i = 0; i < card; i++) {
+                if (!other.contains(values[i])) {
+                    a.values[a.card++] = values[i];
+                }
+            }
+            return a;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(false);
+            out.writeInt(card);
+            for (int i = 0; i < card; i++) {
+                out.writeChar(values[i]);
+            }
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        final long[] words = new long[1 << 10];
+        int card = 0;
+
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        Container add(char x) {
+            if (!contains(x)) {
+                words[x >>> 6] |= 1L << x;
+                card++;
+            }
+            return this;
+        }
+
+        Container remove(char x) {
+            if (!contains(x)) {
+                return this;
+            }
+            words[x >>> 6] &= ~(1L << x);
+            card--;
+            return card <= ARRAY_MAX ? toArray() : this;
+        }
+
+        int cardinality() {
+            return card;
+        }
+
+        int next(int from) {
+            int w = from >>> 6;
+            if (w >= words.length) {
+                return -1;
+            }
+            long word = words[w] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++w == words.length) {
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+
+        Container copy() {
+            BitmapContainer b = new BitmapContainer();
+            System.arraycopy(words, 0, b.words, 0, words.length);
+            b.card = card;
+            return b;
+        }
+
+        BitmapContainer toBitmap() {
+            return (BitmapContainer) copy();
+        }
+
+        /** Recomputes the cardinality, and shrinks to an array if small. */
+        Container recount() {
+            card = 0;
+            for (long w : words) {
+                card += Long.bitCount(w);
+            }
+            return card <= ARRAY_MAX ? toArray() : this;
+        }
+
+        private ArrayContainer toArray() {
+            ArrayContainer a = new ArrayContainer();
+            a.values = new char[Math.max(4, card)];
+            for (int v = next(0); v >= 0; v = next(v + 1)) {
+                a.values[a.card++] = (char) v;
+            }
+            return a;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(true);
+            out.writeInt(card);
+            for (long w : words) {
+                out.writeLong(w);
+            }
+        }
+    }
+}
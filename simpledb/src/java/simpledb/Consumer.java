@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A Consumer reads the batches the producers of its channel sent it, and
+ * returns them as its own output. Opening the first consumer of a channel
+ * starts its producers.
+ * <p>
+ * When a channel has several consumers, the producers cannot be restarted
+ * for one of them alone, so each consumer keeps the batches it read and
+ * replays them when it is rewound. A single consumer restarts its producers
+ * instead. Since producers wait for every consumer, the consumers of a
+ * channel must be read by different threads.
+ *
+ * @see Producer
+ */
+public class Consumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Channel channel;
+    private final int index;
+
+    private transient Run run;
+    private int ends;
+    private boolean complete;
+    private final List<TupleBatch> seen = new ArrayList<TupleBatch>();
+    private int replay;
+
+    // batch whose rows fetchNext is returning
+    private TupleBatch current;
+    private int currentIdx;
+
+    Consumer(Channel channel, int index) {
+        this.channel = channel;
+        this.index = index;
+    }
+
+    private static List<Consumer> consumers(String kind, List<Producer> producers, int n) {
+        Channel channel = new Channel(kind, producers, n);
+        List<Consumer> consumers = new ArrayList<Consumer>();
+        for (int i = 0; i < n; i++) {
+            consumers.add(new Consumer(channel, i));
+        }
+        return consumers;
+    }
+
+    /**
+     * @return a consumer of the output of all the fragments
+     */
+    public static Consumer gather(List<DbIterator> fragments) {
+        List<Producer> producers = new ArrayList<Producer>();
+        for (DbIterator f : fragments) {
+            producers.add(new CollectProducer(f));
+        }
+        return consumers("gather", producers, 1).get(0);
+    }
+
+    /**
+     * @return n consumers, which partition the output of the fragments by
+     *         the hash of a field
+     */
+    public static List<Consumer> shuffle(List<DbIterator> fragments, int field, int n) {
+        List<Producer> producers = new ArrayList<Producer>();
+        for (DbIterator f : fragments) {
+            producers.add(new ShuffleProducer(f, field));
+        }
+        return consumers("shuffle", producers, n);
+    }
+
+    /**
+     * @return n consumers, each of which reads the whole output of the
+     *         fragments
+     */
+    public static List<Consumer> broadcast(List<DbIterator> fragments, int n) {
+        List<Producer> producers = new ArrayList<Producer>();
+        for (DbIterator f : fragments) {
+            producers.add(new BroadcastProducer(f));
+        }
+        return consumers("broadcast", producers, n);
+    }
+
+    /** @return the producers of the channel this consumer reads */
+    public List<Producer> getProducers() {
+        return Collections.unmodifiableList(channel.producers);
+    }
+
+    @Override
+    public String getName() {
+        String name = channel.producers.get(0).getName();
+        if (channel.consumers > 1) {
+            name += " " + (index + 1) + "/" + channel.consumers;
+        }
+        return name;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return channel.getTupleDesc();
+    }
+
+    private boolean replays() {
+        return channel.consumers > 1;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        current = null;
+        replay = 0;
+        if (complete && replays()) {
+            return;
+        }
+        complete = false;
+        if (!seen.isEmpty()) {
+            throw new DbException("A consumer closed before its end cannot be reopened.");
+        }
+        run = channel.join();
+        ends = 0;
+    }
+
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+        if (replay < seen.size()) {
+            TupleBatch b = seen.get(replay++);
+            return b.select(b.selection(), b.size());
+        }
+        while (!complete) {
+            TupleBatch b;
+            try {
+                b = run.queues.get(index).take();
+            } catch (InterruptedException e) {
+                throw new DbException("Interrupted while reading an exchange.");
+            }
+            if (Run.isEnd(b)) {
+                if (++ends == channel.producers.size()) {
+                    complete = true;
+                    Exception e = run.error;
+                    if (e instanceof TransactionAbortedException) {
+                        throw (TransactionAbortedException) e;
+                    } else if (e != null) {
+                        throw new DbException("Exchange producer failed: " + e);
+                    }
+                }
+                continue;
+            }
+            if (replays()) {
+                seen.add(b.select(b.selection(), b.size()));
+                replay = seen.size();
+            }
+            return b;
+        }
+        return null;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (current == null || currentIdx == current.size()) {
+            current = nextBatch(TupleBatch.DEFAULT_SIZE);
+            currentIdx = 0;
+            if (current == null) {
+                return null;
+            }
+        }
+        return current.getTuple(current.selection()[currentIdx++]);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (run != null) {
+            channel.leave(run, index);
+            run = null;
+        }
+        current = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (replays()) {
+            replay = 0;
+            current = null;
+        } else {
+            close();
+            open();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return channel.producers.toArray(new DbIterator[0]);
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (!Arrays.asList(children).equals(channel.producers)) {
+            throw new IllegalArgumentException("The producers of an exchange cannot be replaced.");
+        }
+    }
+}
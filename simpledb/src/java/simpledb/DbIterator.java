@@ -41,6 +41,29 @@ public interface DbIterator extends Serializable {
 	 */
 	public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+	/**
+	 * Returns the next tuples from the operator as a batch of columns, so
+	 * that operators can process many tuples per call. A caller reads an
+	 * open iterator either with next() or with nextBatch(), not both. The
+	 * default implementation collects tuples from next(); operators override
+	 * it to work on the columns directly.
+	 *
+	 * @param maxSize
+	 *            the most rows the batch may hold
+	 * @return a batch with at least one selected row, or null if there are no
+	 *         more tuples.
+	 */
+	public default TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+		if (!hasNext()) {
+			return null;
+		}
+		TupleBatch batch = new TupleBatch(getTupleDesc(), maxSize);
+		while (!batch.isFull() && hasNext()) {
+			batch.add(next());
+		}
+		return batch;
+	}
+
 	/**
 	 * Resets the iterator to the start.
 	 * 
@@ -16,6 +16,15 @@ public class Drop extends Impute {
         super(dropFields, child);
     }
 
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        // a cached table skips these tuples using its missing value bitmaps
+        if (child instanceof CachedScan) {
+            ((CachedScan) child).skipMissing(dropFieldsIndices);
+        }
+        super.open();
+    }
+
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
         child.rewind();
@@ -27,7 +36,7 @@ public class Drop extends Impute {
             Tuple t = child.next();
             boolean drop = false;
             for (String field : dropFields) {
-                if (t.getField(td.fieldNameToIndex(field)).isMissing()) {
+                if (t.isMissing(td.fieldNameToIndex(field))) {
                     drop = true;
                     break;
                 }
@@ -39,6 +48,27 @@ public class Drop extends Impute {
         return null;
     }
 
+    /**
+     * Drops the rows of whole batches of the child, using their missing
+     * flags.
+     */
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+        int[] fields = new int[dropFieldsIndices.size()];
+        int i = 0;
+        for (int field : dropFieldsIndices) {
+            fields[i++] = field;
+        }
+        TupleBatch batch;
+        while ((batch = child.nextBatch(maxSize)) != null) {
+            batch.removeMissing(fields);
+            if (batch.size() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
 	@Override
 	public double getEstimatedTime(ImputedPlan subplan) {
 		return 0.01 * subplan.cardinality();
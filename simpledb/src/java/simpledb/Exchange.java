@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Exchange operators move batches between plan fragments running on
+ * different threads. {@link Producer}s each run a fragment on their own
+ * thread and route its batches to the bounded queues of the
+ * {@link Consumer}s of a channel, which read them from the fragments above.
+ * A producer waits when the queue it writes to is full, so fragments never
+ * run far ahead of their readers.
+ *
+ * @see ParallelPlanner
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of batches buffered for each consumer. */
+    static final int QUEUE_BATCHES = 8;
+
+    private static final ExecutorService producers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "exchange");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Marks the end of the batches of one producer in a queue. */
+    private static final TupleBatch END = new TupleBatch(new TupleDesc(new Type[] { Type.INT_TYPE }), 0);
+
+    /**
+     * @return a short description of the exchange, for plans
+     */
+    public abstract String getName();
+
+    /**
+     * The producers and consumers of one exchange. Every consumer reads the
+     * batches some of the producers sent it; the producers start when the
+     * first consumer opens, and stop once every consumer has closed.
+     */
+    static class Channel {
+        final List<Producer> producers;
+        final int consumers;
+        final String kind;
+        private final TupleDesc td;
+
+        private Run run;
+        private int remaining;
+
+        Channel(String kind, List<Producer> producers, int consumers) {
+            this.kind = kind;
+            this.producers = producers;
+            this.consumers = consumers;
+            this.td = producers.get(0).getTupleDesc();
+            for (Producer p : producers) {
+                p.setChannel(this);
+            }
+        }
+
+        TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        /** @return the current run, starting the producers if needed */
+        synchronized Run join() {
+            if (run == null) {
+                run = new Run(this);
+                remaining = consumers;
+            }
+            return run;
+        }
+
+        /**
+         * Called when a consumer is done with a run. Batches for it are
+         * dropped from now on.
+         */
+        synchronized void leave(Run r, int consumer) {
+            r.closed.set(consumer, 1);
+            r.queues.get(consumer).clear();
+            if (--remaining == 0 && run == r) {
+                run = null;
+                r.cancel();
+            }
+        }
+    }
+
+    /** One run of the producers of a channel. */
+    static class Run {
+        final List<BlockingQueue<TupleBatch>> queues = new ArrayList<BlockingQueue<TupleBatch>>();
+        final AtomicIntegerArray closed;
+        private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+        volatile boolean cancelled = false;
+        volatile Exception error;
+
+        Run(Channel channel) {
+            closed = new AtomicIntegerArray(channel.consumers);
+            for (int i = 0; i < channel.consumers; i++) {
+                queues.add(new ArrayBlockingQueue<TupleBatch>(QUEUE_BATCHES));
+            }
+            for (Producer p : channel.producers) {
+                tasks.add(producers.submit(() -> p.run(this)));
+            }
+        }
+
+        /**
+         * Hands a batch to a consumer, waiting while its queue is full.
+         *
+         * @return false if the run was cancelled
+         */
+        boolean send(int consumer, TupleBatch batch) throws InterruptedException {
+            BlockingQueue<TupleBatch> queue = queues.get(consumer);
+            while (!cancelled) {
+                if (closed.get(consumer) == 1 || queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Tells a consumer that one of the producers is done. */
+        void end(int consumer) throws InterruptedException {
+            send(consumer, END);
+        }
+
+        /** @return true if the batch marks the end of a producer */
+        static boolean isEnd(TupleBatch batch) {
+            return batch == END;
+        }
+
+        /** Stops the producers and waits for them to finish. */
+        void cancel() {
+            cancelled = true;
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // the run is being dropped
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ExternalSort sorts an arbitrarily large stream of tuples using a bounded
+ * amount of memory. Tuples are buffered until the memory budget is used up,
+ * at which point the buffer is sorted and written out as a run. Once all
+ * tuples have been added, the runs are merged with a k-way merge.
+ * <p>
+ * If everything fits in memory, no runs are written and the sorted buffer is
+ * returned directly.
+ * <p>
+ * With several threads, the budget is shared by as many buffers: full
+ * buffers are sorted and written on other threads while the next ones fill
+ * up. The sort is stable: tuples that compare equal come out in the order
+ * they were added.
+ */
+public class ExternalSort {
+    /** Default memory budget, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /** Maximum number of runs merged at once. */
+    static final int MAX_FAN_IN = 64;
+
+    private static final ExecutorService runWriters = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "sort");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int threads;
+    private final int maxTuplesInMemory;
+
+    private ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private final ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    // runs being sorted and written on other threads, oldest first
+    private final ArrayDeque<Future<SpillFile>> pending = new ArrayDeque<Future<SpillFile>>();
+
+    /**
+     * @param td
+     *            the schema of the tuples being sorted
+     * @param comparator
+     *            the sort order
+     * @param memoryPages
+     *            the memory budget, in pages of BufferPool.getPageSize() bytes
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int memoryPages) {
+        this(td, comparator, memoryPages, 1);
+    }
+
+    /**
+     * @param threads
+     *            the number of buffers sorted at once, on the calling thread
+     *            and threads - 1 others
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int memoryPages, int threads) {
+        this.td = td;
+        this.comparator = comparator;
+        this.threads = Math.max(1, threads);
+        long budget = (long) memoryPages * BufferPool.getPageSize() / td.getSize() / this.threads;
+        this.maxTuplesInMemory = (int) Math.max(1, Math.min(budget, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @return the number of runs written to disk so far.
+     */
+    public int numRuns() {
+        return runs.size() + pending.size();
+    }
+
+    /**
+     * Adds a tuple to the sort, spilling a sorted run if the memory budget is
+     * exhausted.
+     */
+    public void add(Tuple t) throws DbException {
+        buffer.add(t);
+        if (buffer.size() >= maxTuplesInMemory) {
+            spillRun();
+        }
+    }
+
+    private void spillRun() throws DbException {
+        final ArrayList<Tuple> full = buffer;
+        buffer = new ArrayList<Tuple>();
+        if (threads == 1) {
+            Collections.sort(full, comparator);
+            runs.add(writeRun(full));
+            return;
+        }
+        if (pending.size() == threads - 1) {
+            finishRun();
+        }
+        pending.add(runWriters.submit(() -> {
+            Collections.sort(full, comparator);
+            return writeRun(full);
+        }));
+    }
+
+    /** Waits for the oldest run being written on another thread. */
+    private void finishRun() throws DbException {
+        try {
+            runs.add(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("Interrupted while writing a sorted run.");
+        } catch (ExecutionException e) {
+            throw new DbException("Failed to write sorted run: " + e.getCause().getMessage());
+        }
+    }
+
+    private SpillFile writeRun(Iterable<Tuple> tuples) throws DbException {
+        try {
+            SpillFile run = new SpillFile(td);
+            for (Tuple t : tuples) {
+                run.add(t);
+            }
+            run.finish();
+            return run;
+        } catch (IOException e) {
+            throw new DbException("Failed to write sorted run: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns an iterator over all added tuples in sorted order. No more
+     * tuples may be added afterwards.
+     */
+    public DbFileIterator sorted() throws DbException, TransactionAbortedException {
+        if (runs.isEmpty() && pending.isEmpty()) {
+            Collections.sort(buffer, comparator);
+            return new ListIterator(buffer);
+        }
+        if (!buffer.isEmpty()) {
+            spillRun();
+        }
+        while (!pending.isEmpty()) {
+            finishRun();
+        }
+
+        // Reduce the number of runs until they can all be merged at once,
+        // merging neighbouring runs so that the sort stays stable.
+        while (runs.size() > MAX_FAN_IN) {
+            List<SpillFile> next = new ArrayList<SpillFile>();
+            for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                List<SpillFile> group = runs.subList(from, Math.min(from + MAX_FAN_IN, runs.size()));
+                if (group.size() == 1) {
+                    next.add(group.get(0));
+                    continue;
+                }
+                SpillFile merged;
+                try {
+                    merged = new SpillFile(td);
+                    DbFileIterator it = merge(group);
+                    it.open();
+                    while (it.hasNext()) {
+                        merged.add(it.next());
+                    }
+                    it.close();
+                    merged.finish();
+                } catch (IOException e) {
+                    throw new DbException("Failed to merge sorted runs: " + e.getMessage());
+                }
+                for (SpillFile run : group) {
+                    run.delete();
+                }
+                next.add(merged);
+            }
+            runs.clear();
+            runs.addAll(next);
+        }
+        return merge(runs);
+    }
+
+    /** Deletes any runs written to disk. */
+    public void close() {
+        while (!pending.isEmpty()) {
+            try {
+                finishRun();
+            } catch (DbException e) {
+                // the run was not written
+            }
+        }
+        for (SpillFile run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        buffer = new ArrayList<Tuple>();
+    }
+
+    private DbFileIterator merge(List<SpillFile> inputs) throws DbException {
+        final List<DbFileIterator> iters = new ArrayList<DbFileIterator>();
+        try {
+            for (SpillFile run : inputs) {
+                iters.add(run.iterator());
+            }
+        } catch (IOException e) {
+            throw new DbException("Failed to read sorted run: " + e.getMessage());
+        }
+        return new MergeIterator(iters, comparator);
+    }
+
+    /** Iterates over an in-memory list of tuples. */
+    static class ListIterator implements DbFileIterator {
+        private final List<Tuple> tuples;
+        private Iterator<Tuple> it = null;
+
+        ListIterator(List<Tuple> tuples) {
+            this.tuples = tuples;
+        }
+
+        public void open() {
+            it = tuples.iterator();
+        }
+
+        public boolean hasNext() {
+            return it != null && it.hasNext();
+        }
+
+        public Tuple next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return it.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            it = null;
+        }
+    }
+
+    /** Merges a set of sorted inputs, keeping the head of each in a heap. */
+    static class MergeIterator implements DbFileIterator {
+        private final List<DbFileIterator> inputs;
+        private final Comparator<Tuple> comparator;
+        private PriorityQueue<Head> heap = null;
+
+        private static class Head {
+            final Tuple tuple;
+            final DbFileIterator source;
+            final int input;
+
+            Head(Tuple tuple, DbFileIterator source, int input) {
+                this.tuple = tuple;
+                this.source = source;
+                this.input = input;
+            }
+        }
+
+        MergeIterator(List<DbFileIterator> inputs, Comparator<Tuple> comparator) {
+            this.inputs = inputs;
+            this.comparator = comparator;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            // equal tuples come from earlier inputs first
+            heap = new PriorityQueue<Head>(Math.max(1, inputs.size()), (a, b) -> {
+                int c = comparator.compare(a.tuple, b.tuple);
+                return c != 0 ? c : Integer.compare(a.input, b.input);
+            });
+            for (int i = 0; i < inputs.size(); i++) {
+                DbFileIterator input = inputs.get(i);
+                input.open();
+                if (input.hasNext()) {
+                    heap.add(new Head(input.next(), input, i));
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return heap != null && !heap.isEmpty();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Head head = heap.poll();
+            if (head.source.hasNext()) {
+                heap.add(new Head(head.source.next(), head.source, head.input));
+            }
+            return head.tuple;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            for (DbFileIterator input : inputs) {
+                input.close();
+            }
+            heap = null;
+        }
+    }
+}
@@ -74,6 +74,21 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Filters whole batches of the child, narrowing their selection.
+     */
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch(maxSize)) != null) {
+            pred.filter(batch);
+            if (batch.size() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { child };
@@ -0,0 +1,295 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * GroupTable numbers the groups of an aggregate: each distinct group key
+ * gets the next group number, starting at 0, so that aggregators can keep
+ * their accumulators in flat arrays indexed by group. Integer keys are kept
+ * in a flat array with open addressing, and are found or added with a
+ * single probe; keys of other types, and composite keys of several fields,
+ * are kept in a hash map.
+ * <p>
+ * When integer keys are known to fall in a small range, such as the codes
+ * of a categorical column, the group of a key in that range is looked up
+ * directly at its offset from the smallest key, without hashing. Keys
+ * outside the range, if the bounds were only estimates, are hashed.
+ * <p>
+ * The table is not synchronized; each aggregator uses its own.
+ */
+public class GroupTable {
+    private static final int EMPTY = -1;
+
+    /** The largest range of integer keys looked up without hashing. */
+    public static final int MAX_DENSE_KEYS = 1 << 16;
+
+    private final boolean ints;
+
+    // integer keys: slots holding a key and its group, and the key of each
+    // group
+    private int[] slotKeys;
+    private int[] slotGroups;
+    private int mask;
+    private int[] groupKeys;
+
+    // integer keys in a known range: the group of each key, by its offset
+    // from the smallest key, or null if the range is not known
+    private int[] denseGroups;
+    private int denseMin;
+
+    // other keys: fields, or lists of fields for composite keys
+    private final int width;
+    private HashMap<Object, Integer> groupsByField;
+    private ArrayList<Object> fields;
+
+    private int size = 0;
+    // the number of integer keys in the slots
+    private int hashed = 0;
+
+    /**
+     * @param keyTypes
+     *            the types of the fields of the group keys
+     */
+    public GroupTable(Type... keyTypes) {
+        width = keyTypes.length;
+        ints = width == 1 && keyTypes[0] == Type.INT_TYPE;
+        if (ints) {
+            allocateSlots(64);
+            groupKeys = new int[32];
+        } else {
+            groupsByField = new HashMap<Object, Integer>();
+            fields = new ArrayList<Object>();
+        }
+    }
+
+    private void allocateSlots(int slots) {
+        slotKeys = new int[slots];
+        slotGroups = new int[slots];
+        Arrays.fill(slotGroups, EMPTY);
+        mask = slots - 1;
+    }
+
+    /**
+     * @return true if the keys from min to max are few enough to be looked
+     *         up without hashing
+     */
+    public static boolean isDense(int min, int max) {
+        return min <= max && (long) max - min < MAX_DENSE_KEYS;
+    }
+
+    /**
+     * Looks up integer keys from min to max without hashing, if the range is
+     * dense. Must be called before any group is added.
+     * 
+     * @return true if keys in the range are looked up without hashing
+     */
+    public boolean setKeyRange(int min, int max) {
+        if (!ints || size > 0 || !isDense(min, max)) {
+            return false;
+        }
+        denseGroups = new int[max - min + 1];
+        Arrays.fill(denseGroups, EMPTY);
+        denseMin = min;
+        return true;
+    }
+
+    /** @return true if integer keys are looked up by their offset */
+    public boolean isDense() {
+        return denseGroups != null;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the group of an integer key, added as a new group if it has
+     *         none yet
+     */
+    public int groupOf(int key) {
+        if (denseGroups != null) {
+            // unsigned, so that keys below the range are outside it too
+            int d = key - denseMin;
+            if (Integer.compareUnsigned(d, denseGroups.length) < 0) {
+                int g = denseGroups[d];
+                if (g == EMPTY) {
+                    g = denseGroups[d] = addKey(key);
+                }
+                return g;
+            }
+        }
+        int s = hash(key) & mask;
+        while (true) {
+            int g = slotGroups[s];
+            if (g == EMPTY) {
+                break;
+            }
+            if (slotKeys[s] == key) {
+                return g;
+            }
+            s = (s + 1) & mask;
+        }
+        int g = addKey(key);
+        slotKeys[s] = key;
+        slotGroups[s] = g;
+        if (++hashed * 2 > slotKeys.length) {
+            grow();
+        }
+        return g;
+    }
+
+    /** @return a new group for an integer key */
+    private int addKey(int key) {
+        int g = size++;
+        if (g == groupKeys.length) {
+            groupKeys = Arrays.copyOf(groupKeys, g * 2);
+        }
+        groupKeys[g] = key;
+        return g;
+    }
+
+    /**
+     * @return the group of an integer key, or -1 if it has none
+     */
+    public int find(int key) {
+        if (denseGroups != null) {
+            int d = key - denseMin;
+            if (Integer.compareUnsigned(d, denseGroups.length) < 0) {
+                return denseGroups[d];
+            }
+        }
+        int s = hash(key) & mask;
+        int g;
+        while ((g = slotGroups[s]) != EMPTY && slotKeys[s] != key) {
+            s = (s + 1) & mask;
+        }
+        return g;
+    }
+
+    /**
+     * @return the group of a key, or -1 if it has none
+     */
+    public int find(Field key) {
+        if (ints) {
+            return find(((IntField) key).getValue());
+        }
+        Integer g = groupsByField.get(key);
+        return g == null ? EMPTY : g;
+    }
+
+    private void grow() {
+        int[] oldKeys = slotKeys, oldGroups = slotGroups;
+        allocateSlots(slotKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldGroups[i] != EMPTY) {
+                int s = hash(oldKeys[i]) & mask;
+                while (slotGroups[s] != EMPTY) {
+                    s = (s + 1) & mask;
+                }
+                slotKeys[s] = oldKeys[i];
+                slotGroups[s] = oldGroups[i];
+            }
+        }
+    }
+
+    /**
+     * @return the group of a key, added as a new group if it has none yet
+     */
+    public int groupOf(Field key) {
+        if (ints) {
+            return groupOf(((IntField) key).getValue());
+        }
+        Integer g = groupsByField.get(key);
+        if (g == null) {
+            g = size++;
+            groupsByField.put(key, g);
+            fields.add(key);
+        }
+        return g;
+    }
+
+    /**
+     * @return the group of a composite key, added as a new group if it has
+     *         none yet
+     */
+    public int groupOf(Field[] key) {
+        if (width == 1) {
+            return groupOf(key[0]);
+        }
+        List<Field> k = Arrays.asList(key);
+        Integer g = groupsByField.get(k);
+        if (g == null) {
+            g = size++;
+            groupsByField.put(k, g);
+            fields.add(k);
+        }
+        return g;
+    }
+
+    /**
+     * @return the group of a composite key, or -1 if it has none
+     */
+    public int find(Field[] key) {
+        if (width == 1) {
+            return find(key[0]);
+        }
+        Integer g = groupsByField.get(Arrays.asList(key));
+        return g == null ? EMPTY : g;
+    }
+
+    /** @return the key of a group */
+    public Field key(int group) {
+        return ints ? new IntField(groupKeys[group]) : (Field) fields.get(group);
+    }
+
+    /** @return the fields of the key of a group */
+    @SuppressWarnings("unchecked")
+    public Field[] keys(int group) {
+        if (width == 1) {
+            return new Field[] { key(group) };
+        }
+        return ((List<Field>) fields.get(group)).toArray(new Field[width]);
+    }
+
+    /** @return the key of a group of integer keys */
+    public int intKey(int group) {
+        return groupKeys[group];
+    }
+
+    /** @return true if the keys are integers */
+    public boolean hasIntKeys() {
+        return ints;
+    }
+
+    /** @return the number of groups */
+    public int size() {
+        return size;
+    }
+
+    /** Removes all groups. */
+    public void clear() {
+        if (ints) {
+            if (denseGroups != null) {
+                // only the keys of groups were set
+                for (int g = 0; g < size; g++) {
+                    int d = groupKeys[g] - denseMin;
+                    if (Integer.compareUnsigned(d, denseGroups.length) < 0) {
+                        denseGroups[d] = EMPTY;
+                    }
+                }
+            }
+            if (hashed > 0) {
+                Arrays.fill(slotGroups, EMPTY);
+                hashed = 0;
+            }
+        } else {
+            groupsByField.clear();
+            fields.clear();
+        }
+        size = 0;
+    }
+}
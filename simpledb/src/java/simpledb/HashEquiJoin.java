@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements PipelineBreaker {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -39,6 +39,14 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
+
+    /**
+     * The table of child1 is built before the first tuple is returned.
+     */
+    @Override
+    public boolean materializes(int child) {
+        return child == 0;
+    }
     
     public String getJoinField1Name()
     {
@@ -51,30 +59,115 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    // child1 tuples keyed by an int table instead of the map, when both
+    // join fields are integers, and the row of the next match in it
+    transient private IntHashTable<Tuple> intTable = null;
+    private int match = -1;
+
+    // when child1 outgrows the memory budget, the join is left to a hybrid
+    // hash join
+    private int memoryPages = HybridHashJoin.DEFAULT_MEMORY_PAGES;
+    transient private HybridHashJoin hybrid = null;
+
+    /**
+     * Sets the memory budget, in pages. If child1 does not fit, both
+     * children are partitioned and partitions are spilled to disk.
+     * 
+     * @see HybridHashJoin
+     */
+    public void setMemoryPages(int memoryPages) {
+        this.memoryPages = memoryPages;
+    }
+
+    /** @return the memory budget of this join, in pages */
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /**
+     * @return true if this join outgrew its memory budget and spills
+     *         partitions to disk
+     */
+    public boolean isSpilling() {
+        return hybrid != null;
+    }
+
+    /**
+     * Loads child1 into the map, or into a hybrid hash join if it does not
+     * fit in the memory budget.
+     */
+    private void loadMap() throws DbException, TransactionAbortedException {
+        int[] cnt = { 0 };
+        int maxTuples = HybridHashJoin.maxTuples(child1.getTupleDesc(), memoryPages);
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+        if (intTable != null) {
+            intTable.clear();
+        }
+        PushPipeline.drain(child1, t -> {
+            t1 = t;
+            if (hybrid != null) {
+                hybrid.addBuild(t1);
+                return;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            if (intTable != null) {
+                intTable.add(t1.getInt(pred.getField1()), t1);
+            } else {
+                ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
+                if (list == null) {
+                    list = new ArrayList<Tuple>();
+                    map.put(t1.getField(pred.getField1()), list);
+                }
+                list.add(t1);
+            }
+            if (++cnt[0] > maxTuples)
+                startHybrid();
+        });
+        if (hybrid != null) {
+            hybrid.probe(HybridHashJoin.of(child2));
         }
-        return cnt > 0;
+    }
+
+    /** Moves the child1 tuples read so far to a hybrid hash join. */
+    private void startHybrid() throws DbException {
+        hybrid = new HybridHashJoin(child1.getTupleDesc(), pred.getField1(), child2.getTupleDesc(),
+                pred.getField2(), true, memoryPages);
+        if (intTable != null) {
+            for (int row = 0; row < intTable.size(); row++) {
+                hybrid.addBuild(intTable.get(row));
+            }
+            intTable.clear();
+        } else {
+            for (ArrayList<Tuple> list : map.values()) {
+                for (Tuple t : list) {
+                    hybrid.addBuild(t);
+                }
+            }
+            map.clear();
+        }
+    }
 
+    private boolean hasMatch() {
+        return intTable != null ? match >= 0 : listIt != null && listIt.hasNext();
+    }
+
+    private Tuple nextMatch() {
+        if (intTable != null) {
+            Tuple t = intTable.get(match);
+            match = intTable.next(match);
+            return t;
+        }
+        return listIt.next();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
+        if (child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE) {
+            intTable = new IntHashTable<Tuple>();
+        }
         loadMap();
         super.open();
     }
@@ -86,12 +179,68 @@ public class HashEquiJoin extends Operator {
         this.t1=null;
         this.t2=null;
         this.listIt=null;
+        this.inner=null;
         this.map.clear();
+        this.intTable=null;
+        this.match=-1;
+        if (this.hybrid != null) {
+            this.hybrid.close();
+            this.hybrid = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        t2 = null;
+        inner = null;
+        listIt = null;
+        match = -1;
+        if (hybrid != null) {
+            hybrid.close();
+            hybrid = null;
+        }
+        loadMap();
+    }
+
+    // batch state: the current batch of child2 tuples, the position in its
+    // selection of the next one, and the row the matches are for
+    transient private TupleBatch inner = null;
+    private int innerIdx = 0, matchRow = 0;
+
+    /**
+     * Probes the map of child1 tuples with whole batches of child2 tuples.
+     */
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+        if (hybrid != null) {
+            return super.nextBatch(maxSize);
+        }
+        TupleBatch out = new TupleBatch(comboTD, maxSize);
+        while (!out.isFull()) {
+            if (inner != null && hasMatch()) {
+                out.addJoined(nextMatch(), inner, matchRow);
+                continue;
+            }
+            listIt = null;
+            if (inner == null || innerIdx == inner.size()) {
+                inner = child2.nextBatch(maxSize);
+                innerIdx = 0;
+                if (inner == null) {
+                    // child2 is done, and all of child1 is in the map
+                    break;
+                }
+                continue;
+            }
+            matchRow = inner.selection()[innerIdx++];
+            if (intTable != null) {
+                match = intTable.find(inner.getInts(pred.getField2())[matchRow]);
+            } else {
+                ArrayList<Tuple> l = map.get(inner.getField(matchRow, pred.getField2()));
+                listIt = l == null ? null : l.iterator();
+            }
+        }
+        return out.size() == 0 ? null : out;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -115,23 +264,16 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        t1 = nextMatch();
 
+        return new Tuple(comboTD, t1, t2);
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
+        if (hybrid != null) {
+            return hybrid.next();
+        }
+        if (t2 != null && hasMatch()) {
             return processList();
         }
 
@@ -141,6 +283,12 @@ public class HashEquiJoin extends Operator {
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
+            if (intTable != null) {
+                match = intTable.find(t2.getInt(pred.getField2()));
+                if (match < 0)
+                    continue;
+                return processList();
+            }
             ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
             if (l == null)
                 continue;
@@ -150,12 +298,7 @@ public class HashEquiJoin extends Operator {
 
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
+        // child2 is done, and all of child1 is in the map
         return null;
     }
 
@@ -0,0 +1,543 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a linear hash index over one integer field of a heap
+ * table. It only answers equality lookups, but finds the entries of a key by
+ * reading a single bucket.
+ * <p>
+ * Page 0 is a header holding the state of the hash table and the page number
+ * of each bucket. Buckets are chains of {@link BTreePage} leaves, linked by
+ * their next page. When the table grows past {@link #MAX_LOAD} entries per
+ * bucket slot, the bucket at the split pointer is split in two, so that the
+ * number of buckets grows one at a time. Pages freed by splits are reused.
+ * The number of buckets is bounded by the size of the header; beyond that,
+ * chains simply grow.
+ *
+ * @see IndexNestedLoopJoin
+ */
+public class HashIndexFile implements IndexFile {
+    /** Fraction of bucket capacity in use before a bucket is split. */
+    static final double MAX_LOAD = 0.75;
+
+    private final File file;
+    private final int id;
+    private final int tableId;
+    private final int keyField;
+    private int numPages;
+
+    /**
+     * Opens the index stored in f. An empty or missing file is an empty
+     * index.
+     *
+     * @param tableId
+     *            the id of the indexed table
+     * @param keyField
+     *            the index of the indexed field, which must be an int
+     */
+    public HashIndexFile(File f, int tableId, int keyField) {
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.numPages = Math.max(2, (int) (f.length() / BufferPool.getPageSize()));
+    }
+
+    /**
+     * Builds an index over the current contents of a table, replacing the
+     * contents of f. The table is sized so that no bucket needs to be split,
+     * and the entries are sorted by bucket with an external sort so that
+     * each chain is written at once.
+     */
+    public static HashIndexFile create(File f, DbFile table, int keyField, TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        if (table.getTupleDesc().getFieldType(keyField) != Type.INT_TYPE) {
+            throw new DbException("Only integer fields can be indexed.");
+        }
+        HashIndexFile index = new HashIndexFile(f, table.getId(), keyField);
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+
+        HeaderPage header = new HeaderPage(new HeapPageId(index.id, 0));
+        int buckets = (int) Math.ceil(n / (MAX_LOAD * BTreePage.leafCapacity()));
+        header.initialBuckets = Math.max(1, Math.min(buckets, HeaderPage.maxBuckets()));
+        header.records = n;
+        ExternalSort sort = new ExternalSort(ENTRY_DESC, (a, b) -> {
+            int ka = IndexFile.valueOf(a, 0), kb = IndexFile.valueOf(b, 0);
+            int c = Integer.compare(header.bucketOf(ka), header.bucketOf(kb));
+            return c != 0 ? c : Integer.compare(ka, kb);
+        }, ExternalSort.DEFAULT_MEMORY_PAGES);
+        try {
+            it.rewind();
+            while (it.hasNext()) {
+                sort.add(IndexFile.entryOf(it.next(), keyField));
+            }
+            it.close();
+            try (RandomAccessFile out = new RandomAccessFile(f, "rw")) {
+                out.setLength(0);
+                index.numPages = index.bulkLoad(out, header, sort.sorted());
+            }
+        } finally {
+            sort.close();
+        }
+        Database.getBufferPool().discardPages(index.getId());
+        return index;
+    }
+
+    /**
+     * Writes entries sorted by bucket, the primary page of bucket i being
+     * page i + 1 and overflow pages following them, and returns the number
+     * of pages used.
+     */
+    private int bulkLoad(RandomAccessFile out, HeaderPage header, DbFileIterator entries)
+            throws DbException, IOException, TransactionAbortedException {
+        int buckets = header.initialBuckets;
+        int nextPage = buckets + 1;
+        BTreePage[] primary = new BTreePage[buckets];
+        for (int b = 0; b < buckets; b++) {
+            header.directory[b] = b + 1;
+            primary[b] = new BTreePage(new HeapPageId(id, b + 1), true);
+        }
+        entries.open();
+        int bucket = -1;
+        BTreePage page = null;
+        while (entries.hasNext()) {
+            Tuple e = entries.next();
+            int key = IndexFile.valueOf(e, 0);
+            int b = header.bucketOf(key);
+            if (b != bucket) {
+                if (page != null) {
+                    writeRaw(out, page);
+                }
+                bucket = b;
+                page = primary[b];
+            } else if (page.count == BTreePage.leafCapacity()) {
+                page.next = nextPage++;
+                writeRaw(out, page);
+                page = new BTreePage(new HeapPageId(id, page.next), true);
+            }
+            page.insertEntry(page.count, key, IndexFile.valueOf(e, 1), IndexFile.valueOf(e, 2), 0);
+        }
+        entries.close();
+        if (page != null) {
+            writeRaw(out, page);
+        }
+        for (BTreePage p : primary) {
+            if (p.count == 0) {
+                writeRaw(out, p);
+            }
+        }
+        writeRaw(out, header);
+        return nextPage;
+    }
+
+    private static void writeRaw(RandomAccessFile out, Page page) throws IOException {
+        out.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+        out.write(page.getPageData());
+    }
+
+    public Page readPage(PageId pid) {
+        if (pid.getPageNumber() >= numPages) {
+            throw new IllegalArgumentException("Page does not exist in this file.");
+        }
+        HeapPageId hpid = new HeapPageId(pid);
+        byte[] buf = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            f.seek((long) pid.getPageNumber() * buf.length);
+            f.readFully(buf);
+        } catch (EOFException | FileNotFoundException e) {
+            // the pages of an empty index are not on disk yet
+            return pid.getPageNumber() == 0 ? new HeaderPage(hpid) : new BTreePage(hpid, true);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            return pid.getPageNumber() == 0 ? new HeaderPage(hpid, buf) : new BTreePage(hpid, buf);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void writePage(Page page) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            writeRaw(f, page);
+        }
+    }
+
+    private HeaderPage getHeader(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HeaderPage) Database.getBufferPool().getPage(tid, new HeapPageId(id, 0), perm);
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNum, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new HeapPageId(id, pageNum), perm);
+    }
+
+    /**
+     * Returns an empty page, taken from the free list or added at the end of
+     * the file.
+     */
+    private BTreePage allocatePage(TransactionId tid, HeaderPage header)
+            throws DbException, IOException, TransactionAbortedException {
+        if (header.free != 0) {
+            BTreePage page = getPage(tid, header.free, Permissions.READ_WRITE);
+            header.free = page.next;
+            page.reset(true);
+            return page;
+        }
+        int pageNum = numPages;
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.seek((long) pageNum * BufferPool.getPageSize());
+            f.write(new byte[BufferPool.getPageSize()]);
+        }
+        numPages++;
+        BTreePage page = getPage(tid, pageNum, Permissions.READ_WRITE);
+        page.reset(true);
+        return page;
+    }
+
+    /**
+     * Adds an entry to the first page of a chain with room for it, adding an
+     * overflow page if all are full.
+     */
+    private void addToChain(TransactionId tid, HeaderPage header, int bucket, int key, int page, int slot,
+            Set<Page> dirty) throws DbException, IOException, TransactionAbortedException {
+        BTreePage p = getPage(tid, header.directory[bucket], Permissions.READ_WRITE);
+        while (p.count >= BTreePage.leafCapacity()) {
+            if (p.next == 0) {
+                BTreePage overflow = allocatePage(tid, header);
+                p.next = overflow.pid.getPageNumber();
+                dirty.add(p);
+                p = overflow;
+                break;
+            }
+            p = getPage(tid, p.next, Permissions.READ_WRITE);
+        }
+        p.insertEntry(p.upperBound(key, page, slot), key, page, slot, 0);
+        dirty.add(p);
+    }
+
+    /**
+     * Inserts an index entry (see {@link IndexFile#ENTRY_DESC}) into its
+     * bucket, then splits the next bucket if the table is too full.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> dirty = new LinkedHashSet<Page>();
+        HeaderPage header = getHeader(tid, Permissions.READ_WRITE);
+        int key = IndexFile.valueOf(t, 0);
+        addToChain(tid, header, header.bucketOf(key), key, IndexFile.valueOf(t, 1), IndexFile.valueOf(t, 2), dirty);
+        header.records++;
+        dirty.add(header);
+
+        int buckets = header.numBuckets();
+        if (header.records > MAX_LOAD * buckets * BTreePage.leafCapacity() && buckets < HeaderPage.maxBuckets()) {
+            split(tid, header, dirty);
+        }
+        return new ArrayList<Page>(dirty);
+    }
+
+    /**
+     * Splits the bucket at the split pointer between itself and a new bucket
+     * at the end of the directory.
+     */
+    private void split(TransactionId tid, HeaderPage header, Set<Page> dirty)
+            throws DbException, IOException, TransactionAbortedException {
+        int old = header.split;
+        int added = header.numBuckets();
+
+        // take the entries out of the old chain, freeing its overflow pages
+        ArrayList<int[]> moved = new ArrayList<int[]>();
+        BTreePage primary = getPage(tid, header.directory[old], Permissions.READ_WRITE);
+        for (BTreePage p = primary; ; ) {
+            for (int i = 0; i < p.count; i++) {
+                moved.add(new int[] { p.keys[i], p.pages[i], p.slots[i] });
+            }
+            int next = p.next;
+            if (p != primary) {
+                p.reset(true);
+                p.next = header.free;
+                header.free = p.pid.getPageNumber();
+            }
+            dirty.add(p);
+            if (next == 0) {
+                break;
+            }
+            p = getPage(tid, next, Permissions.READ_WRITE);
+        }
+        primary.reset(true);
+
+        header.directory[added] = allocatePage(tid, header).pid.getPageNumber();
+        header.split++;
+        if (header.split == header.initialBuckets << header.level) {
+            header.level++;
+            header.split = 0;
+        }
+        for (int[] e : moved) {
+            addToChain(tid, header, header.bucketOf(e[0]), e[0], e[1], e[2], dirty);
+        }
+    }
+
+    /**
+     * Removes an index entry from its bucket.
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HeaderPage header = getHeader(tid, Permissions.READ_WRITE);
+        int key = IndexFile.valueOf(t, 0), page = IndexFile.valueOf(t, 1), slot = IndexFile.valueOf(t, 2);
+        int pageNum = header.directory[header.bucketOf(key)];
+        while (pageNum != 0) {
+            BTreePage p = getPage(tid, pageNum, Permissions.READ_WRITE);
+            int pos = p.lowerBound(key, page, slot);
+            if (pos < p.count && p.compareEntry(pos, key, page, slot) == 0) {
+                p.removeEntry(pos);
+                header.records--;
+                ArrayList<Page> dirty = new ArrayList<Page>();
+                dirty.add(p);
+                dirty.add(header);
+                return dirty;
+            }
+            pageNum = p.next;
+        }
+        throw new DbException("Entry not in index.");
+    }
+
+    /**
+     * Returns every entry, including those of tuples with a missing key.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BucketIterator(tid, null);
+    }
+
+    public DbFileIterator lookup(TransactionId tid, Integer low, Integer high) {
+        if (low == null || !low.equals(high)) {
+            throw new IllegalArgumentException("Hash indexes only answer equality lookups.");
+        }
+        return new BucketIterator(tid, low);
+    }
+
+    /**
+     * Iterates over the entries of one bucket with a given key, or of all
+     * buckets.
+     */
+    private class BucketIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Integer key;
+        private int[] chains;
+        private int chain;
+        private BTreePage page;
+        private int pos;
+
+        BucketIterator(TransactionId tid, Integer key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            HeaderPage header = getHeader(tid, Permissions.READ_ONLY);
+            if (key == null) {
+                chains = Arrays.copyOf(header.directory, header.numBuckets());
+            } else if (key == Integer.MIN_VALUE) {
+                // missing keys never match
+                chains = new int[0];
+            } else {
+                chains = new int[] { header.directory[header.bucketOf(key)] };
+            }
+            chain = 0;
+            page = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (chains != null) {
+                if (page == null) {
+                    if (chain == chains.length) {
+                        return null;
+                    }
+                    page = getPage(tid, chains[chain++], Permissions.READ_ONLY);
+                    pos = 0;
+                }
+                while (pos < page.count) {
+                    int i = pos++;
+                    if (key == null || page.keys[i] == key) {
+                        Tuple e = new Tuple(ENTRY_DESC);
+                        e.setField(0, page.keys[i] == Integer.MIN_VALUE ? new IntField() : new IntField(page.keys[i]));
+                        e.setField(1, new IntField(page.pages[i]));
+                        e.setField(2, new IntField(page.slots[i]));
+                        return e;
+                    }
+                }
+                page = page.next == 0 ? null : getPage(tid, page.next, Permissions.READ_ONLY);
+            }
+            return null;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            chains = null;
+            page = null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public boolean supportsRanges() {
+        return false;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return ENTRY_DESC;
+    }
+
+    /**
+     * @return the number of pages in the index file, including pages not yet
+     *         written back.
+     */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of buckets the index currently has
+     */
+    public int numBuckets(TransactionId tid) throws DbException, TransactionAbortedException {
+        return getHeader(tid, Permissions.READ_ONLY).numBuckets();
+    }
+
+    /**
+     * The first page of a hash index. On disk: the initial number of
+     * buckets, the level, the split pointer, the number of entries, the
+     * first free page (0 for none), then the first page of every bucket. A
+     * page of zeros is an empty index with one bucket on page 1.
+     */
+    static class HeaderPage implements Page {
+        private static final int HEADER_SIZE = 20;
+
+        final HeapPageId pid;
+        int initialBuckets = 1;
+        int level = 0;
+        int split = 0;
+        int records = 0;
+        int free = 0;
+        final int[] directory = new int[maxBuckets()];
+
+        private byte[] oldData;
+        private TransactionId dirtyId;
+        private boolean dirty;
+
+        /** @return the number of buckets whose page fits in the header. */
+        static int maxBuckets() {
+            return (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+        }
+
+        HeaderPage(HeapPageId pid) {
+            this.pid = pid;
+            directory[0] = 1;
+            setBeforeImage();
+        }
+
+        HeaderPage(HeapPageId pid, byte[] data) throws IOException {
+            this.pid = pid;
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            initialBuckets = dis.readInt();
+            level = dis.readInt();
+            split = dis.readInt();
+            records = dis.readInt();
+            free = dis.readInt();
+            for (int i = 0; i < directory.length; i++) {
+                directory[i] = dis.readInt();
+            }
+            if (initialBuckets == 0) {
+                initialBuckets = 1;
+                directory[0] = 1;
+            }
+            setBeforeImage();
+        }
+
+        int numBuckets() {
+            return (initialBuckets << level) + split;
+        }
+
+        /** @return the bucket holding the entries with the given key. */
+        int bucketOf(int key) {
+            int h = (key * 0x9E3779B9) >>> 1;
+            int b = h % (initialBuckets << level);
+            return b < split ? h % (initialBuckets << (level + 1)) : b;
+        }
+
+        public HeapPageId getId() {
+            return pid;
+        }
+
+        public byte[] getPageData() {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+            DataOutputStream dos = new DataOutputStream(baos);
+            try {
+                dos.writeInt(initialBuckets);
+                dos.writeInt(level);
+                dos.writeInt(split);
+                dos.writeInt(records);
+                dos.writeInt(free);
+                for (int d : directory) {
+                    dos.writeInt(d);
+                }
+                dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+                dos.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return baos.toByteArray();
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+            this.dirty = dirty;
+            dirtyId = tid;
+        }
+
+        public TransactionId isDirty() {
+            return dirty ? dirtyId : null;
+        }
+
+        public HeaderPage getBeforeImage() {
+            try {
+                return new HeaderPage(pid, oldData);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void setBeforeImage() {
+            oldData = getPageData();
+        }
+    }
+}
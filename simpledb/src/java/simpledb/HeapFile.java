@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
@@ -40,10 +42,18 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, (int) (f.length() / BufferPool.getPageSize()));
+    }
+
+    /**
+     * Constructs a heap file with a known number of pages, for subclasses
+     * that do not keep all their pages in f.
+     */
+    protected HeapFile(File f, TupleDesc td, int numPages) {
         file = f;
         schema = td;
         id = f.getAbsoluteFile().hashCode();
-        numPages = (int) file.length() / BufferPool.getPageSize();
+        this.numPages = numPages;
         firstEmpty = null;
     }
 
@@ -79,14 +89,8 @@ public class HeapFile implements DbFile {
     }
     
     public Page readPage(PageId pid) {    	
-    	try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
-    		int pageSize = BufferPool.getPageSize();
-			int pageOffset = pid.getPageNumber() * pageSize;
-			byte[] buf = new byte[pageSize];
-
-			f.seek(pageOffset);
-			f.readFully(buf);
-			return new HeapPage(new HeapPageId(pid), buf);
+    	try {
+			return new HeapPage(new HeapPageId(pid), readPageData(pid.getPageNumber()));
     	} catch (IOException e) {
 		}
         return null;
@@ -94,13 +98,94 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-    	try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+    	writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+    
+    /**
+     * Writes several pages of this file. The buffer pool uses this to write
+     * back all the dirty pages of a file at once.
+     */
+    public void writePages(Collection<Page> pages) throws IOException {
+    	for (Page p : pages) {
+    		writePage(p);
+    	}
+    }
+    
+    /**
+     * Reads the raw contents of a page from disk.
+     */
+    protected byte[] readPageData(int pageNum) throws IOException {
+    	try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
     		int pageSize = BufferPool.getPageSize();
-			int pageOffset = page.getId().getPageNumber() * pageSize;
-			f.seek(pageOffset);
-			f.write(page.getPageData());
+			byte[] buf = new byte[pageSize];
+			f.seek((long) pageNum * pageSize);
+			f.readFully(buf);
+			return buf;
     	}
     }
+    
+    /**
+     * Writes the raw contents of a page to disk, extending the file if
+     * needed.
+     */
+    protected void writePageData(int pageNum, byte[] data) throws IOException {
+    	try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+			f.seek((long) pageNum * BufferPool.getPageSize());
+			f.write(data);
+    	}
+    }
+    
+    /**
+     * Called by scans before they fetch a page, so that subclasses can start
+     * reading the pages that follow it. Does nothing by default.
+     * 
+     * @param pageNum
+     *            the page about to be read
+     * @param endPage
+     *            one past the last page the scan will read
+     */
+    protected void readAhead(TransactionId tid, int pageNum, int endPage) {
+    }
+    
+    /**
+     * @return true if the data of this file is on disk.
+     */
+    public boolean exists() {
+    	return file.exists();
+    }
+    
+    /**
+     * @return the time the data of this file was last written, in
+     *         milliseconds since the epoch, or 0 if it does not exist.
+     */
+    public long lastModified() {
+    	return file.lastModified();
+    }
+    
+    /**
+     * Replaces the contents of this file with the pages of source, which is
+     * consumed. The caller is responsible for discarding cached pages.
+     * 
+     * @param source
+     *            a heap file built with {@link Appender}
+     * @param pages
+     *            the number of pages in source
+     */
+    public void replaceContents(File source, int pages) throws IOException {
+    	moveContents(source, pages);
+    	numPages = pages;
+    	firstEmpty = null;
+    	// every tuple may have moved
+    	Database.getCatalog().discardCopies(id);
+    }
+    
+    /**
+     * Moves the pages of source into place on disk, for
+     * {@link #replaceContents}.
+     */
+    protected void moveContents(File source, int pages) throws IOException {
+    	Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
@@ -123,18 +208,10 @@ public class HeapFile implements DbFile {
     	// If we didn't find a page with empty slots, add a new page to the end
     	// of the file.
 		if (firstEmpty == null || firstEmpty >= numPages) {
-			try (RandomAccessFile fc = new RandomAccessFile(file, "rw")) {
-    			int pageNum = numPages;
-        		int pageSize = BufferPool.getPageSize();
-    			int pageOffset = pageNum * pageSize;
-    			
-    			byte[] buf = HeapPage.createEmptyPageData();
-    			fc.seek(pageOffset);
-    			fc.write(buf);
-    			
-    			firstEmpty = pageNum;
-    			numPages++;
-    		}
+			int pageNum = numPages;
+			writePageData(pageNum, HeapPage.createEmptyPageData());
+			firstEmpty = pageNum;
+			numPages++;
 		}
 		
 		HeapPage insertPage = (HeapPage)bp.getPage(tid, new HeapPageId(id, firstEmpty), Permissions.READ_WRITE);
@@ -179,17 +256,166 @@ public class HeapFile implements DbFile {
         return ret;
     }
     
+    /**
+     * Rewrites this file so that its tuples are stored in ascending order of
+     * the given field (missing values first). The sort is done with an
+     * external sort, so the table does not need to fit in memory. Cached
+     * pages of this file are flushed beforehand and discarded afterwards,
+     * since tuples move between pages.
+     * 
+     * @param tid
+     *            the transaction performing the rewrite
+     * @param field
+     *            the index of the field to sort on
+     */
+    public void cluster(TransactionId tid, int field)
+    		throws DbException, IOException, TransactionAbortedException {
+    	BufferPool bp = Database.getBufferPool();
+    	bp.flushAllPages();
+    	
+    	ExternalSort sort = new ExternalSort(schema, new TupleComparator(field, true),
+    			ExternalSort.DEFAULT_MEMORY_PAGES);
+    	File sortedFile = new File(file.getPath() + ".sorted");
+    	int written = 0;
+    	try {
+    		DbFileIterator tuples = iterator(tid);
+    		tuples.open();
+    		while (tuples.hasNext()) {
+    			sort.add(tuples.next());
+    		}
+    		tuples.close();
+    		
+    		// Pack the sorted tuples into full pages.
+    		try (Appender out = new Appender(sortedFile, id, schema)) {
+    			DbFileIterator sorted = sort.sorted();
+    			sorted.open();
+    			while (sorted.hasNext()) {
+    				out.add(sorted.next());
+    			}
+    			sorted.close();
+    			written = out.numPages();
+    		}
+    	} finally {
+    		sort.close();
+    	}
+    	
+    	replaceContents(sortedFile, written);
+    	bp.discardPages(id);
+    }
+    
+    /**
+     * Finds the first page that may contain a tuple whose value of field is at
+     * least key, assuming the file is sorted on field (see {@link #cluster}).
+     * Uses a binary search over the last tuple of each page. A probe that
+     * lands on a page emptied by deletes steps back to the nearest page before
+     * it that still holds tuples.
+     * 
+     * @return the page number, or numPages if every tuple is smaller than key
+     */
+    public int findPage(TransactionId tid, int field, int key)
+    		throws DbException, TransactionAbortedException {
+    	BufferPool bp = Database.getBufferPool();
+    	int lo = 0, hi = numPages;
+    	while (lo < hi) {
+    		int mid = (lo + hi) >>> 1;
+    		int probe = mid;
+    		Tuple last = null;
+    		for (; probe >= lo && last == null; probe--) {
+    			HeapPage page = (HeapPage)bp.getPage(tid, new HeapPageId(id, probe), Permissions.READ_ONLY);
+    			Iterator<Tuple> it = page.iterator();
+    			while (it.hasNext()) {
+    				last = it.next();
+    			}
+    		}
+    		probe++;
+    		Field f = last == null ? null : last.getField(field);
+    		if (f == null || f.isMissing() || ((IntField)f).getValue() < key) {
+    			// pages lo..mid are empty or only hold smaller keys
+    			lo = mid + 1;
+    		} else {
+    			// the pages after probe up to mid are empty
+    			hi = probe;
+    		}
+    	}
+    	return lo;
+    }
+    
+    /**
+     * Writes tuples to a new heap file on disk, packing them into full pages.
+     * This bypasses the buffer pool, so it is only meant for building files
+     * that are not in use yet.
+     */
+    public static class Appender implements Closeable {
+    	private final int tableId;
+    	private final TupleDesc td;
+    	private final OutputStream out;
+    	private HeapPage page = null;
+    	private int pagesWritten = 0;
+    	
+    	/**
+    	 * @param f the file to create (or truncate)
+    	 * @param tableId the id of the table the pages will belong to
+    	 * @param td the schema of the tuples
+    	 */
+    	public Appender(File f, int tableId, TupleDesc td) throws IOException {
+    		this.tableId = tableId;
+    		this.td = td;
+    		out = new BufferedOutputStream(new FileOutputStream(f));
+    	}
+    	
+    	public void add(Tuple t) throws IOException, DbException {
+    		if (page == null) {
+    			page = new HeapPage(new HeapPageId(tableId, pagesWritten), td);
+    		}
+    		page.insertTuple(t);
+    		if (page.getNumEmptySlots() == 0) {
+    			flushPage();
+    		}
+    	}
+    	
+    	private void flushPage() throws IOException {
+    		out.write(page.getPageData());
+    		pagesWritten++;
+    		page = null;
+    	}
+    	
+    	/**
+    	 * Writes out any partially filled page, so that later tuples start a
+    	 * new one.
+    	 * @return the number of pages written.
+    	 */
+    	public int numPages() throws IOException {
+    		if (page != null) {
+    			flushPage();
+    		}
+    		return pagesWritten;
+    	}
+    	
+    	@Override
+    	public void close() throws IOException {
+    		if (page != null) {
+    			flushPage();
+    		}
+    		out.close();
+    	}
+    }
+    
     private class PageIterator {
     	private int pageNum;
+    	private final int endPage;
     	private final TransactionId tid;
+    	private final boolean cache;
     	private final BufferPool bp = Database.getBufferPool();
     	
-    	public PageIterator(TransactionId tid) {
+    	public PageIterator(TransactionId tid, int firstPage, int endPage, boolean cache) {
     		this.tid = tid;
+    		this.pageNum = firstPage;
+    		this.endPage = endPage;
+    		this.cache = cache;
     	}
 		
 		public boolean hasNext() {
-			return pageNum < numPages;
+			return pageNum < (endPage < 0 ? numPages : Math.min(endPage, numPages));
 		}
 
 		public HeapPage next() throws DbException, TransactionAbortedException {
@@ -197,13 +423,45 @@ public class HeapFile implements DbFile {
 				throw new NoSuchElementException();
 			}
 			
-			HeapPage p = (HeapPage)bp.getPage(tid, new HeapPageId(id, pageNum), Permissions.READ_ONLY);
+			HeapPage p;
+			if (cache) {
+				readAhead(tid, pageNum, endPage < 0 ? numPages : Math.min(endPage, numPages));
+				p = (HeapPage)bp.getPage(tid, new HeapPageId(id, pageNum), Permissions.READ_ONLY);
+			} else {
+				p = (HeapPage)bp.getPageUncached(tid, new HeapPageId(id, pageNum));
+			}
 			pageNum++;
 			return p;
 		}
     }
     
     public DbFileIterator iterator(TransactionId tid) {
+    	return iterator(tid, 0, -1);
+    }
+    
+    /**
+     * Returns an iterator over the tuples stored on a range of pages.
+     * 
+     * @param firstPage
+     *            the first page to read
+     * @param endPage
+     *            one past the last page to read, or -1 to read to the end of
+     *            the file
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+    	return iterator(tid, firstPage, endPage, true);
+    }
+    
+    /**
+     * Returns an iterator over the tuples of this file that does not add the
+     * pages it reads to the buffer pool, for one-off scans such as computing
+     * statistics, which should not evict the pages queries use.
+     */
+    public DbFileIterator uncachedIterator(TransactionId tid) {
+    	return iterator(tid, 0, -1, false);
+    }
+    
+    private DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, boolean cache) {
         return new DbFileIterator() {
         	private PageIterator pages;
         	private HeapPage page;
@@ -212,7 +470,7 @@ public class HeapFile implements DbFile {
         	        	
 			@Override
 			public void open() throws DbException, TransactionAbortedException {
-				pages = new PageIterator(tid);
+				pages = new PageIterator(tid, firstPage, endPage, cache);
 				tuplesInPage = null;
 			}
 
@@ -78,6 +78,14 @@ public class HeapPage implements Page {
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
+        return slotsPerPage(td);
+    }
+
+    /**
+     * @return the number of tuple slots on every page of a HeapFile holding
+     *         tuples of the specified type
+     */
+    public static int slotsPerPage(TupleDesc td) {
         int tupleSize = td.getSize();
         return (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1);
     }
@@ -150,8 +158,7 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                td.getFieldType(j).parseInto(dis, t, j);
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
@@ -205,10 +212,8 @@ public class HeapPage implements Page {
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    tuples[i].serializeField(j, dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -355,6 +360,16 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * @return the tuple stored in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots) {
+        	throw new IllegalArgumentException("Slot index out of range.");
+        }
+        return tuples[i];
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
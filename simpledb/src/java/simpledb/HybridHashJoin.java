@@ -0,0 +1,387 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HybridHashJoin joins two inputs on equal fields within a memory budget.
+ * Tuples of the build input are split into partitions by the hash of their
+ * join field; when they outgrow the budget, the largest partitions are
+ * spilled to disk until the rest fits. Probe tuples of partitions still in
+ * memory are joined right away, and those of spilled partitions are spilled
+ * too. Each spilled pair of partitions is then joined the same way, with
+ * another hash function, so both inputs are only read once.
+ * <p>
+ * Partitions that still do not fit after {@link #MAX_LEVEL} rounds, because
+ * of many tuples with the same key, are joined a budget's worth of build
+ * tuples at a time, rereading their probe tuples for each.
+ * <p>
+ * Missing values are keys like others, as in the hash tables of
+ * {@link Join} and {@link HashEquiJoin}.
+ */
+public class HybridHashJoin {
+    /** Default memory budget, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 4096;
+
+    /** Number of partitions of each round. */
+    static final int PARTITIONS = 16;
+
+    /** Number of rounds of partitioning before joining in chunks. */
+    static final int MAX_LEVEL = 4;
+
+    private final TupleDesc buildTd, probeTd;
+    private final int buildField, probeField;
+    private final boolean buildIsLeft;
+    private final int memoryPages;
+    private final int maxTuples;
+    private final int level;
+    private final boolean ints;
+
+    // build partitions: the tuples of those in memory, null once spilled
+    private final List<List<Tuple>> resident = new ArrayList<List<Tuple>>();
+    private final SpillFile[] buildSpills = new SpillFile[PARTITIONS];
+    private final SpillFile[] probeSpills = new SpillFile[PARTITIONS];
+    private int inMemory = 0;
+
+    // the build tuples in memory, keyed by an int table for integer fields
+    private IntHashTable<Tuple> intTable;
+    private HashMap<Field, ArrayList<Tuple>> table;
+
+    // probe state: the input, its current tuple and its matches
+    private DbFileIterator probe;
+    private Tuple current;
+    private int match = -1;
+    private Iterator<Tuple> matches;
+
+    // build tuples not loaded yet, when joining in chunks
+    private DbFileIterator chunks;
+
+    // the join of the spilled pair of partitions being read
+    private int nextPair = 0;
+    private HybridHashJoin pair;
+
+    /**
+     * @param buildTd
+     *            the schema of the build input
+     * @param buildField
+     *            the join field of the build input
+     * @param probeTd
+     *            the schema of the probe input
+     * @param probeField
+     *            the join field of the probe input
+     * @param buildIsLeft
+     *            true if build tuples come first in joined tuples
+     * @param memoryPages
+     *            the memory budget, in pages of BufferPool.getPageSize() bytes
+     */
+    public HybridHashJoin(TupleDesc buildTd, int buildField, TupleDesc probeTd, int probeField,
+            boolean buildIsLeft, int memoryPages) {
+        this(buildTd, buildField, probeTd, probeField, buildIsLeft, memoryPages, 0);
+    }
+
+    private HybridHashJoin(TupleDesc buildTd, int buildField, TupleDesc probeTd, int probeField,
+            boolean buildIsLeft, int memoryPages, int level) {
+        this.buildTd = buildTd;
+        this.buildField = buildField;
+        this.probeTd = probeTd;
+        this.probeField = probeField;
+        this.buildIsLeft = buildIsLeft;
+        this.memoryPages = memoryPages;
+        this.maxTuples = maxTuples(buildTd, memoryPages);
+        this.level = level;
+        this.ints = buildTd.getFieldType(buildField) == Type.INT_TYPE
+                && probeTd.getFieldType(probeField) == Type.INT_TYPE;
+        for (int p = 0; p < PARTITIONS; p++) {
+            resident.add(new ArrayList<Tuple>());
+        }
+    }
+
+    /**
+     * @return the number of build tuples with a schema that fit in a budget
+     */
+    public static int maxTuples(TupleDesc td, int memoryPages) {
+        long budget = (long) memoryPages * BufferPool.getPageSize() / td.getSize();
+        return (int) Math.max(1, Math.min(budget, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @return the number of build partitions spilled to disk
+     */
+    public int numSpilled() {
+        int n = 0;
+        for (SpillFile f : buildSpills) {
+            n += f == null ? 0 : 1;
+        }
+        return n;
+    }
+
+    private int partition(Tuple t, int field) {
+        int h = ints ? t.getInt(field) : t.getField(field).hashCode();
+        // a different mix for each round, so spilled partitions split again
+        h = h * 0x9E3779B9 + level * 0x85EBCA6B;
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 12;
+        return h & (PARTITIONS - 1);
+    }
+
+    private static void write(SpillFile f, Tuple t) throws DbException {
+        try {
+            f.add(t);
+        } catch (IOException e) {
+            throw new DbException("Could not spill join partition: " + e.getMessage());
+        }
+    }
+
+    private static SpillFile newSpill(TupleDesc td) throws DbException {
+        try {
+            return new SpillFile(td);
+        } catch (IOException e) {
+            throw new DbException("Could not spill join partition: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a tuple of the build input, spilling partitions when the budget
+     * is used up.
+     */
+    public void addBuild(Tuple t) throws DbException {
+        int p = partition(t, buildField);
+        if (buildSpills[p] != null) {
+            write(buildSpills[p], t);
+            return;
+        }
+        resident.get(p).add(t);
+        if (++inMemory > maxTuples) {
+            spillLargest();
+        }
+    }
+
+    /** Spills the largest partition still in memory. */
+    private void spillLargest() throws DbException {
+        int largest = -1;
+        for (int p = 0; p < PARTITIONS; p++) {
+            List<Tuple> part = resident.get(p);
+            if (part != null && (largest < 0 || part.size() > resident.get(largest).size())) {
+                largest = p;
+            }
+        }
+        SpillFile f = newSpill(buildTd);
+        for (Tuple t : resident.get(largest)) {
+            write(f, t);
+        }
+        inMemory -= resident.get(largest).size();
+        resident.set(largest, null);
+        buildSpills[largest] = f;
+    }
+
+    /**
+     * Ends the build input and starts joining the probe input. Its tuples
+     * are read with hasNext and next; the caller opens and closes it.
+     */
+    public void probe(DbFileIterator probeInput) throws DbException {
+        if (ints) {
+            intTable = new IntHashTable<Tuple>(inMemory);
+        } else {
+            table = new HashMap<Field, ArrayList<Tuple>>();
+        }
+        for (int p = 0; p < PARTITIONS; p++) {
+            List<Tuple> part = resident.get(p);
+            if (part != null) {
+                for (Tuple t : part) {
+                    addToTable(t);
+                }
+                resident.set(p, Collections.<Tuple>emptyList());
+            }
+        }
+        probe = probeInput;
+    }
+
+    private void addToTable(Tuple t) {
+        if (ints) {
+            intTable.add(t.getInt(buildField), t);
+        } else {
+            table.computeIfAbsent(t.getField(buildField), k -> new ArrayList<Tuple>()).add(t);
+        }
+    }
+
+    /** Loads the next budget's worth of build tuples, when joining in chunks. */
+    private void loadChunk() throws DbException, TransactionAbortedException {
+        if (ints) {
+            intTable.clear();
+        } else {
+            table.clear();
+        }
+        for (int n = 0; n < maxTuples && chunks.hasNext(); n++) {
+            addToTable(chunks.next());
+        }
+    }
+
+    private void lookup(Tuple t) {
+        if (ints) {
+            match = intTable.find(t.getInt(probeField));
+        } else {
+            ArrayList<Tuple> m = table.get(t.getField(probeField));
+            matches = m == null ? null : m.iterator();
+        }
+    }
+
+    private boolean hasMatch() {
+        return ints ? match >= 0 : matches != null && matches.hasNext();
+    }
+
+    private Tuple nextMatch() {
+        if (ints) {
+            Tuple t = intTable.get(match);
+            match = intTable.next(match);
+            return t;
+        }
+        return matches.next();
+    }
+
+    /**
+     * @return the next joined tuple, or null when the join is done
+     */
+    public Tuple next() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (current != null && hasMatch()) {
+                Tuple b = nextMatch();
+                return buildIsLeft ? new Tuple(b, current) : new Tuple(current, b);
+            }
+            current = null;
+            if (probe != null) {
+                if (probe.hasNext()) {
+                    Tuple t = probe.next();
+                    int p = chunks == null ? partition(t, probeField) : 0;
+                    if (buildSpills[p] != null) {
+                        if (probeSpills[p] == null) {
+                            probeSpills[p] = newSpill(probeTd);
+                        }
+                        write(probeSpills[p], t);
+                    } else {
+                        current = t;
+                        lookup(t);
+                    }
+                    continue;
+                }
+                if (chunks != null && chunks.hasNext()) {
+                    loadChunk();
+                    probe.rewind();
+                    continue;
+                }
+                if (level > 0) {
+                    probe.close();
+                }
+                probe = null;
+                intTable = null;
+                table = null;
+            }
+
+            if (pair != null) {
+                Tuple t = pair.next();
+                if (t != null) {
+                    return t;
+                }
+                pair.close();
+                pair = null;
+                deletePair(nextPair - 1);
+            }
+            while (nextPair < PARTITIONS && (buildSpills[nextPair] == null || probeSpills[nextPair] == null)) {
+                deletePair(nextPair++);
+            }
+            if (nextPair == PARTITIONS) {
+                return null;
+            }
+            pair = joinSpilled(nextPair++);
+        }
+    }
+
+    /** Starts joining a spilled pair of partitions. */
+    private HybridHashJoin joinSpilled(int p) throws DbException, TransactionAbortedException {
+        HybridHashJoin j = new HybridHashJoin(buildTd, buildField, probeTd, probeField, buildIsLeft, memoryPages,
+                level + 1);
+        DbFileIterator build, probeInput;
+        try {
+            build = buildSpills[p].iterator();
+            probeInput = probeSpills[p].iterator();
+        } catch (IOException e) {
+            throw new DbException("Could not read spilled join partition: " + e.getMessage());
+        }
+        build.open();
+        probeInput.open();
+        if (level + 1 < MAX_LEVEL) {
+            while (build.hasNext()) {
+                j.addBuild(build.next());
+            }
+            build.close();
+            j.probe(probeInput);
+        } else {
+            j.probe(probeInput);
+            j.chunks = build;
+            j.loadChunk();
+        }
+        return j;
+    }
+
+    private void deletePair(int p) {
+        if (buildSpills[p] != null) {
+            buildSpills[p].delete();
+            buildSpills[p] = null;
+        }
+        if (probeSpills[p] != null) {
+            probeSpills[p].delete();
+            probeSpills[p] = null;
+        }
+    }
+
+    /** Releases the memory and the files of the join. */
+    public void close() {
+        if (pair != null) {
+            pair.close();
+            pair = null;
+        }
+        if (level > 0 && probe != null) {
+            probe.close();
+        }
+        if (chunks != null) {
+            chunks.close();
+            chunks = null;
+        }
+        probe = null;
+        intTable = null;
+        table = null;
+        for (int p = 0; p < PARTITIONS; p++) {
+            deletePair(p);
+        }
+    }
+
+    /**
+     * @return the tuples of an operator, read as a probe input
+     */
+    static DbFileIterator of(final DbIterator child) {
+        return new DbFileIterator() {
+            @Override
+            public void open() {
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                return child.hasNext();
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException {
+                return child.next();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
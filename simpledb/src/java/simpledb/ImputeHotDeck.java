@@ -5,7 +5,7 @@ import java.util.Collection;
 import java.util.Random;
 
 
-public class ImputeHotDeck extends Impute {
+public class ImputeHotDeck extends Impute implements PipelineBreaker {
 
     private static final long serialVersionUID = 1L;
     private static final long GENERATOR_SEED = 6831L;
@@ -34,6 +34,11 @@ public class ImputeHotDeck extends Impute {
         this(null, child);
     }
 
+    @Override
+    public boolean materializes(int child) {
+        return true;
+    }
+
     private void initRng(){
         random = new Random(GENERATOR_SEED);
     }
@@ -53,9 +58,7 @@ public class ImputeHotDeck extends Impute {
         // TODO If !child.hasNext(), does that mean that there are no more
         //      tuples at all that will come from this child, or can some be added in
         //      the future?
-        while (child.hasNext()){
-            buffer.add(child.next());
-        }
+        PushPipeline.drain(child, buffer::add);
 
         // Get tuple if any are remaining in buffer.
         if (nextTupleIndex < buffer.size()){
@@ -15,7 +15,7 @@ import weka.core.Instances;
 import weka.classifiers.Classifier;
 import weka.classifiers.trees.REPTree;
 
-public class ImputeRegressionTree extends Impute {
+public class ImputeRegressionTree extends Impute implements PipelineBreaker {
 
     private static final long serialVersionUID = 1L;
     private static final long GENERATOR_SEED = 6832L;
@@ -65,6 +65,11 @@ public class ImputeRegressionTree extends Impute {
         random = new Random(GENERATOR_SEED);
     }
 
+    @Override
+    public boolean materializes(int child) {
+        return true;
+    }
+
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
     	super.rewind();
@@ -85,9 +90,7 @@ public class ImputeRegressionTree extends Impute {
     @Override
     protected Tuple fetchNext() throws DbException, TransactionAbortedException {
 		// Block, adding all of the child tuples to the buffer.
-		while (child.hasNext()){
-			buffer.add(child.next());
-		}
+		PushPipeline.drain(child, buffer::add);
 
     	// Do the impute, if we have not already.
         if (imputedInstances == null){
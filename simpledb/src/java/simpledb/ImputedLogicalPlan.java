@@ -117,7 +117,8 @@ public class ImputedLogicalPlan extends LogicalPlan {
 
 		// Create an access node for each table to be scanned/filtered.
 		for (LogicalScanNode scan : tables) {
-			ImputedPlan scanPlan = new LogicalImputedScanNode(tid, scan);
+			// prune partitions up front, so imputation is costed on what is read
+			ImputedPlan scanPlan = new LogicalImputedScanNode(tid, scan, prunePartitions(scan.alias, true));
 			
 			HashSet<String> tablesInPlan = new HashSet<>();
 			tablesInPlan.add(scan.alias);
@@ -370,10 +371,8 @@ public class ImputedLogicalPlan extends LogicalPlan {
 			}
 			
 			if (select.aggOp != null) {
-				globalRequired.add(aggField);
-				if (groupByField != null) {
-					globalRequired.add(groupByField);
-				}
+				globalRequired.addAll(aggFields);
+				globalRequired.addAll(groupByFields);
 			}
 		}
 		
@@ -425,25 +424,22 @@ public class ImputedLogicalPlan extends LogicalPlan {
 		ArrayList<Type> outTypes = new ArrayList<Type>();
 		for (LogicalSelectListNode si : selectList) {
 			if (si.aggOp != null) {
-				outFields.add(groupByField != null ? 1 : 0);
 				try {
 					td.fieldNameToIndex(si.fname);
 				} catch (NoSuchElementException e) {
 					throw new ParsingException("Unknown field " + si.fname + " in SELECT list");
 				}
-				outTypes.add(Type.INT_TYPE); // the type of all aggregate
-												// functions is INT
-			} else if (aggField != null) {
-				if (groupByField == null) {
-					throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
-				}
-				outFields.add(0);
+				outFields.add(aggregateOutputField(si));
+				outTypes.add(null); // the type of the aggregate's output
+									// field, set below
+			} else if (hasAggregates()) {
 				int id;
 				try {
-					id = td.fieldNameToIndex(groupByField);
+					id = td.fieldNameToIndex(si.fname);
 				} catch (NoSuchElementException e) {
-					throw new ParsingException("Unknown field " + groupByField + " in GROUP BY statement");
+					throw new ParsingException("Unknown field " + si.fname + " in GROUP BY statement");
 				}
+				outFields.add(aggregateOutputField(si));
 				outTypes.add(td.getFieldType(id));
 			} else if (si.fname.equals("null.*")) {
 				for (int i = 0; i < td.numFields(); i++) {
@@ -465,10 +461,10 @@ public class ImputedLogicalPlan extends LogicalPlan {
 
 		// Add an aggregation node if this plan has an aggregation.
 		ImputedPlanCache aggPlans = makeCache();
-		if (aggField != null) {
+		if (hasAggregates()) {
 			for (ImputedPlanCachePareto.Value val : bestPlans) {
 				for (ImputedPlan plan : addImputes(val.plan, globalRequired, globalRequired)) {
-					plan = new LogicalAggregateNode(plan, groupByField, aggOp, aggField);
+					plan = new LogicalAggregateNode(plan, groupByFields, aggOps, aggFields);
 					aggPlans.addPlan(allTables, plan);
 				}
 			}
@@ -492,10 +488,16 @@ public class ImputedLogicalPlan extends LogicalPlan {
 		if (physicalPlan == null) {
 			throw new RuntimeException("BUG: No top-level plans available.");
 		}
+		if (hasAggregates()) {
+			for (int i = 0; i < outFields.size(); i++) {
+				outTypes.set(i, physicalPlan.getTupleDesc().getFieldType(outFields.get(i)));
+			}
+		}
 		
 		// order-by can only be used on one of the projected fields, so no need to impute again
 		if (oByField != null) {
-			physicalPlan = new OrderBy(physicalPlan.getTupleDesc().fieldNameToIndex(oByField), oByAsc, physicalPlan);
+			physicalPlan = new OrderBy(physicalPlan.getTupleDesc().fieldNameToIndex(oByField), oByAsc, physicalPlan,
+					limit);
 		}
 
 		return new Project(outFields, outTypes, physicalPlan);
@@ -35,4 +35,12 @@ public abstract class ImputedPlan {
 	public double getTime() {
 		return time();
 	}
+
+	/**
+	 * @return the attribute the output of this plan is sorted on (ascending,
+	 * missing values first), or null if the output has no known order.
+	 */
+	public QualifiedName getSortOrder() {
+		return null;
+	}
 }
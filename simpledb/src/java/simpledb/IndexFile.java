@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * An IndexFile is a secondary index over one integer field of a heap table.
+ * It is a DbFile of its own, whose tuples are index entries: the key, and the
+ * page and slot of the indexed tuple. Its pages are read and written through
+ * the buffer pool like those of any other file.
+ * <p>
+ * Every tuple of the table has an entry, including tuples whose key is
+ * missing; lookups never return those. Indexes are kept up to date by
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+ */
+public interface IndexFile extends DbFile {
+    /** Schema of index entries: key, page number, slot. */
+    public static final TupleDesc ENTRY_DESC = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+            new String[] { "key", "page", "slot" });
+
+    /** @return the id of the indexed table. */
+    public int getTableId();
+
+    /** @return the index of the indexed field in the table. */
+    public int getKeyField();
+
+    /** @return true if lookups may ask for a range of keys. */
+    public boolean supportsRanges();
+
+    /** @return the number of pages in the index file. */
+    public int numPages();
+
+    /**
+     * Returns the entries whose key lies in a closed range. Indexes that do
+     * not support ranges only accept low == high.
+     *
+     * @param low
+     *            the smallest key to return, or null for no lower bound
+     * @param high
+     *            the largest key to return, or null for no upper bound
+     */
+    public DbFileIterator lookup(TransactionId tid, Integer low, Integer high);
+
+    /**
+     * @return the index entry of a tuple stored in the indexed table.
+     */
+    public static Tuple entryOf(Tuple t, int keyField) {
+        Tuple entry = new Tuple(ENTRY_DESC);
+        entry.setField(0, t.getField(keyField));
+        entry.setField(1, new IntField(t.getRecordId().getPageId().getPageNumber()));
+        entry.setField(2, new IntField(t.getRecordId().getTupleNumber()));
+        return entry;
+    }
+
+    /**
+     * @return field i of an index entry; a missing key is Integer.MIN_VALUE.
+     */
+    public static int valueOf(Tuple entry, int i) {
+        return ((IntField) entry.getField(i)).getValueDefault(Integer.MIN_VALUE);
+    }
+
+    /**
+     * @return the record id an index entry points to.
+     */
+    public static RecordId recordOf(Tuple entry, int tableId) {
+        return new RecordId(new HeapPageId(tableId, ((IntField) entry.getField(1)).getValue()),
+                ((IntField) entry.getField(2)).getValue());
+    }
+}
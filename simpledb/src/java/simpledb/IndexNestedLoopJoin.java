@@ -0,0 +1,27 @@
+package simpledb;
+
+/**
+ * IndexNestedLoopJoin joins an outer input with a base table on an equality
+ * predicate, by looking the join key of each outer tuple up in an index on
+ * the join field of the table, instead of reading the whole table. Output
+ * follows the order of the outer input.
+ *
+ * @see IndexFile
+ */
+public class IndexNestedLoopJoin extends Join {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param p
+     *            an equality predicate; its second field is the indexed field
+     *            of the inner table
+     * @param outer
+     *            the outer input
+     * @param inner
+     *            a scan of the inner table, which must have an index on the
+     *            join field; it is not opened
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, DbIterator outer, SeqScan inner) {
+        super(tid, p, outer, inner);
+    }
+}
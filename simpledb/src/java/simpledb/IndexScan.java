@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan reads the tuples of a table whose value of an indexed field lies
+ * in a closed range, by looking the range up in an index of the table and
+ * fetching each matching tuple from its page. Tuples come out in ascending
+ * order of the indexed field. Tuples whose indexed field is missing are never
+ * returned.
+ *
+ * @see IndexFile
+ */
+public class IndexScan extends SeqScan {
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final int field;
+    private final Integer low, high;
+
+    private DbFileIterator entries;
+
+    /**
+     * @param field
+     *            the indexed field
+     * @param low
+     *            the smallest value to return, or null for no lower bound
+     * @param high
+     *            the largest value to return, or null for no upper bound
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, int field, Integer low, Integer high) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.tableId = tableid;
+        this.field = field;
+        this.low = low;
+        this.high = high;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        boolean ranges = low == null || high == null || !low.equals(high);
+        IndexFile index = Database.getCatalog().getIndex(tableId, field, ranges);
+        if (index == null) {
+            throw new DbException("No suitable index on field " + field + ".");
+        }
+        entries = index.lookup(tid, low, high);
+        entries.open();
+    }
+
+    /**
+     * @return the tuple an index entry points to.
+     */
+    static Tuple fetch(TransactionId tid, int tableId, Tuple entry)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = IndexFile.recordOf(entry, tableId);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        Tuple t = page.getTuple(rid.getTupleNumber());
+        if (t == null) {
+            throw new DbException("Index entry points to an empty slot.");
+        }
+        return t;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return entries != null && entries.hasNext();
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return fetch(tid, tableId, entries.next());
+    }
+
+    @Override
+    public void close() {
+        if (entries != null) {
+            entries.close();
+        }
+        entries = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
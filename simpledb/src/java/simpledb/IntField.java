@@ -68,33 +68,45 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
-        // predicate on missing field only true if checking equality against missing (i.e null)
         if (isMissing()) {
             return op == Predicate.Op.EQUALS && val.isMissing();
         }
-
         IntField iVal = (IntField) val;
+        return compare(op, false, value, iVal.missing, iVal.value);
+    }
+
+    /**
+     * Compares two unboxed integers with the semantics of
+     * {@link #compare(Predicate.Op, Field)}, for callers that read values
+     * without creating fields. Missing values hold
+     * {@link Type#MISSING_INTEGER}.
+     */
+    public static boolean compare(Predicate.Op op, boolean missing, int value, boolean otherMissing, int other) {
+        // predicate on missing field only true if checking equality against missing (i.e null)
+        if (missing) {
+            return op == Predicate.Op.EQUALS && otherMissing;
+        }
 
         switch (op) {
         case EQUALS:
-            return value == iVal.value;
+            return value == other;
         case NOT_EQUALS:
-            return value != iVal.value;
+            return value != other;
 
         case GREATER_THAN:
-            return value > iVal.value;
+            return value > other;
 
         case GREATER_THAN_OR_EQ:
-            return value >= iVal.value;
+            return value >= other;
 
         case LESS_THAN:
-            return value < iVal.value;
+            return value < other;
 
         case LESS_THAN_OR_EQ:
-            return value <= iVal.value;
+            return value <= other;
 
     case LIKE:
-        return value == iVal.value;
+        return value == other;
         }
 
         return false;
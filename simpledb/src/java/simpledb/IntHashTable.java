@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A hash table from int keys to rows, for joins on integer fields. Keys are
+ * kept in a flat array with open addressing, and the rows with equal keys
+ * are chained by row number, so that building the table allocates no
+ * objects per key and probing follows no pointers. Chains return rows in
+ * the order they were added.
+ * <p>
+ * Missing values are keys like others, {@link Type#MISSING_INTEGER}, as
+ * IntFields compare them in a hash map.
+ *
+ * @param <T>
+ *            the type of the rows
+ */
+public class IntHashTable<T> {
+    private static final int EMPTY = -1;
+
+    // slots: a key, and the first and last row of its chain
+    private int[] keys;
+    private int[] heads;
+    private int[] tails;
+    private int mask;
+    private int slotsUsed = 0;
+
+    // rows: the value, and the next row with the same key
+    private Object[] values;
+    private int[] next;
+    private int rows = 0;
+
+    public IntHashTable() {
+        this(64);
+    }
+
+    /**
+     * @param expectedRows
+     *            the number of rows the table is sized for; it grows past it
+     */
+    public IntHashTable(int expectedRows) {
+        int slots = Integer.highestOneBit(Math.max(expectedRows, 8) * 2 - 1) * 2;
+        allocateSlots(slots);
+        values = new Object[Math.max(expectedRows, 8)];
+        next = new int[values.length];
+    }
+
+    private void allocateSlots(int slots) {
+        keys = new int[slots];
+        heads = new int[slots];
+        tails = new int[slots];
+        Arrays.fill(heads, EMPTY);
+        mask = slots - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the slot of a key, or the empty slot where it belongs */
+    private int slot(int key) {
+        int s = hash(key) & mask;
+        while (heads[s] != EMPTY && keys[s] != key) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    /** Adds a row with a key. */
+    public void add(int key, T value) {
+        if (rows == values.length) {
+            values = Arrays.copyOf(values, rows * 2);
+            next = Arrays.copyOf(next, rows * 2);
+        }
+        int row = rows++;
+        values[row] = value;
+        next[row] = EMPTY;
+
+        int s = slot(key);
+        if (heads[s] == EMPTY) {
+            keys[s] = key;
+            heads[s] = row;
+            tails[s] = row;
+            if (++slotsUsed * 2 > keys.length) {
+                grow();
+            }
+        } else {
+            next[tails[s]] = row;
+            tails[s] = row;
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys, oldHeads = heads, oldTails = tails;
+        allocateSlots(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                keys[s] = oldKeys[i];
+                heads[s] = oldHeads[i];
+                tails[s] = oldTails[i];
+            }
+        }
+    }
+
+    /**
+     * @return the first row with a key, or -1 if there is none
+     */
+    public int find(int key) {
+        return heads[slot(key)];
+    }
+
+    /**
+     * @return the row after a row of a chain, or -1 at its end
+     */
+    public int next(int row) {
+        return next[row];
+    }
+
+    /** @return the value of a row */
+    @SuppressWarnings("unchecked")
+    public T get(int row) {
+        return (T) values[row];
+    }
+
+    /** @return the number of rows */
+    public int size() {
+        return rows;
+    }
+
+    /** Removes all rows, keeping the space allocated. */
+    public void clear() {
+        Arrays.fill(heads, EMPTY);
+        Arrays.fill(values, 0, rows, null);
+        slotsUsed = 0;
+        rows = 0;
+    }
+}
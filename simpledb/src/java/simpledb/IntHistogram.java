@@ -107,6 +107,25 @@ public class IntHistogram {
 		numValues++;
 	}
 
+    /**
+     * Adds the selected values of an integer column, none of which may be
+     * missing. Buckets are computed by {@link IntKernels#bucket}.
+     *
+     * @param missingPerRow the number of missing fields in the tuple of each
+     *            row, indexed by row
+     */
+    public void addValues(int[] values, int[] sel, int n, int[] missingPerRow) {
+		int[] bucket = new int[n];
+		IntKernels.bucket(values, sel, n, min, valuesPerBucket, bucket);
+		for (int i = 0; i < n; i++) {
+			int b = bucket[i], missing = missingPerRow[sel[i]];
+			buckets[b]++;
+			missingFields[b] += missing;
+			missingTuples[b] += missing > 0 ? 1 : 0;
+		}
+		numValues += n;
+	}
+
 	public void incrCtMissing() {
 		ctMissing++;
 	}
@@ -234,6 +253,16 @@ public class IntHistogram {
 		return res;
 	}
 	
+	/** @return the smallest value the histogram covers */
+	public int min() {
+		return min;
+	}
+
+	/** @return the largest value the histogram covers */
+	public int max() {
+		return max;
+	}
+
 	public double mean() {
 		double sum = 0.0;
 		for (int v=0; v<buckets.length; v++){
@@ -430,5 +459,47 @@ public class IntHistogram {
 		return buckets;
 	}
 
+	/**
+	 * @return a histogram of the values of several histograms, such as those
+	 *         of the partitions of a table, with the given number of buckets
+	 *         over the range the histograms cover together. The values of a
+	 *         bucket are taken to be spread evenly over its range.
+	 */
+	public static IntHistogram union(List<IntHistogram> histograms, int buckets) {
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (IntHistogram h : histograms) {
+			min = Math.min(min, h.min);
+			max = Math.max(max, h.max);
+		}
+		IntHistogram union = new IntHistogram(buckets, min, max);
+		for (IntHistogram h : histograms) {
+			for (int b = 0; b < h.buckets.length; b++) {
+				long lo = (long) h.min + (long) b * h.valuesPerBucket;
+				long hi = Math.min(lo + h.valuesPerBucket - 1, h.max);
+				union.spread(lo, hi, h.buckets[b], h.missingFields == null ? 0 : h.missingFields[b],
+						h.missingTuples == null ? 0 : h.missingTuples[b]);
+			}
+			union.numValues += h.numValues;
+			union.ctMissing += h.ctMissing;
+		}
+		return union;
+	}
+
+	/**
+	 * Adds counts of values spread evenly from lo to hi to the buckets that
+	 * range overlaps.
+	 */
+	private void spread(long lo, long hi, double count, double fields, double tuples) {
+		double width = hi - lo + 1;
+		for (int b = bucketOfValue((int) lo); b <= bucketOfValue((int) hi); b++) {
+			long bucketLo = Math.max(lo, (long) min + (long) b * valuesPerBucket);
+			long bucketHi = Math.min(hi, (long) min + (long) (b + 1) * valuesPerBucket - 1);
+			double share = (bucketHi - bucketLo + 1) / width;
+			buckets[b] += count * share;
+			missingFields[b] += fields * share;
+			missingTuples[b] += tuples * share;
+		}
+	}
+
 
 }
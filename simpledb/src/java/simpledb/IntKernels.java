@@ -0,0 +1,261 @@
+package simpledb;
+
+/**
+ * Loops over the primitive columns of a {@link TupleBatch}: comparisons
+ * against constants, combining missing flags, aggregates and histogram
+ * bucketing.
+ * <p>
+ * The loops are written without branches on the data, so their cost does
+ * not depend on how predictable the values are, and the JIT can unroll
+ * them. Selections are compacted in place, each row's position depending on
+ * the rows before it, so those loops stay scalar. Where a selection vector
+ * is still dense (rows 0 to n-1, as a scan produces them) the loops read the
+ * columns in order rather than through it.
+ * <p>
+ * On JDK 16 and later, the build also compiles {@code VectorIntKernels},
+ * which computes the aggregates over dense selections with the incubating
+ * Vector API. It is used when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}; otherwise, or on older JDKs,
+ * the scalar loops here are.
+ */
+public class IntKernels {
+    private IntKernels() {
+    }
+
+    /** Aggregates over rows 0 to n-1 of a column, skipping missing values. */
+    interface DenseKernels {
+        int count(boolean[] missing, int n);
+
+        long sum(int[] values, boolean[] missing, int n);
+
+        int min(int[] values, boolean[] missing, int n);
+
+        int max(int[] values, boolean[] missing, int n);
+    }
+
+    /** The Vector API aggregates, or null if they are not available. */
+    private static final DenseKernels VECTOR = loadVectorKernels();
+
+    private static DenseKernels loadVectorKernels() {
+        try {
+            return (DenseKernels) Class.forName("simpledb.VectorIntKernels").newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // not compiled, or the module is not in the boot layer
+            return null;
+        }
+    }
+
+    /**
+     * @return true if aggregates over dense selections use the Vector API
+     */
+    public static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    /**
+     * @return true if the first n entries of a selection are 0 to n-1;
+     *         selections are increasing, so the last entry tells
+     */
+    public static boolean isDense(int[] sel, int n) {
+        return n == 0 || sel[n - 1] == n - 1;
+    }
+
+    /**
+     * Narrows a selection to the rows whose value satisfies a comparison
+     * with a constant, with the semantics of
+     * {@link IntField#compare(Predicate.Op, boolean, int, boolean, int)}.
+     *
+     * @return the number of rows kept at the front of sel
+     */
+    public static int select(Predicate.Op op, int c, boolean cMissing, int[] values, boolean[] missing,
+            int[] sel, int n) {
+        int kept = 0;
+        if (cMissing && op == Predicate.Op.EQUALS) {
+            // only missing values equal a missing operand
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                sel[kept] = r;
+                kept += missing[r] ? 1 : 0;
+            }
+            return kept;
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                sel[kept] = r;
+                kept += (!missing[r] & values[r] == c) ? 1 : 0;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                sel[kept] = r;
+                kept += (!missing[r] & values[r] != c) ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                sel[kept] = r;
+                kept += (!missing[r] & values[r] > c) ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                sel[kept] = r;
+                kept += (!missing[r] & values[r] >= c) ? 1 : 0;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                sel[kept] = r;
+                kept += (!missing[r] & values[r] < c) ? 1 : 0;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                sel[kept] = r;
+                kept += (!missing[r] & values[r] <= c) ? 1 : 0;
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unexpected operator " + op);
+        }
+        return kept;
+    }
+
+    /**
+     * Narrows a selection to the rows whose flag is not set.
+     *
+     * @return the number of rows kept at the front of sel
+     */
+    public static int selectNot(boolean[] flags, int[] sel, int n) {
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            sel[kept] = r;
+            kept += flags[r] ? 0 : 1;
+        }
+        return kept;
+    }
+
+    /** Sets out[r] = a[r] | b[r] for rows 0 to n-1. */
+    public static void or(boolean[] a, boolean[] b, boolean[] out, int n) {
+        for (int r = 0; r < n; r++) {
+            out[r] = a[r] | b[r];
+        }
+    }
+
+    /** Sets out[r] = a[r] &amp; b[r] for rows 0 to n-1. */
+    public static void and(boolean[] a, boolean[] b, boolean[] out, int n) {
+        for (int r = 0; r < n; r++) {
+            out[r] = a[r] & b[r];
+        }
+    }
+
+    /**
+     * @return the number of selected rows whose value is not missing
+     */
+    public static int count(boolean[] missing, int[] sel, int n) {
+        int count = 0;
+        if (isDense(sel, n)) {
+            if (VECTOR != null) {
+                return VECTOR.count(missing, n);
+            }
+            for (int r = 0; r < n; r++) {
+                count += missing[r] ? 0 : 1;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                count += missing[sel[i]] ? 0 : 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of the selected values that are not missing
+     */
+    public static long sum(int[] values, boolean[] missing, int[] sel, int n) {
+        long sum = 0;
+        if (isDense(sel, n)) {
+            if (VECTOR != null) {
+                return VECTOR.sum(values, missing, n);
+            }
+            for (int r = 0; r < n; r++) {
+                sum += missing[r] ? 0 : values[r];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                sum += missing[r] ? 0 : values[r];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the smallest selected value that is not missing, or
+     *         Integer.MAX_VALUE if there is none
+     */
+    public static int min(int[] values, boolean[] missing, int[] sel, int n) {
+        int min = Integer.MAX_VALUE;
+        if (isDense(sel, n)) {
+            if (VECTOR != null) {
+                return VECTOR.min(values, missing, n);
+            }
+            for (int r = 0; r < n; r++) {
+                min = Math.min(min, missing[r] ? Integer.MAX_VALUE : values[r]);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                min = Math.min(min, missing[r] ? Integer.MAX_VALUE : values[r]);
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @return the largest selected value that is not missing, or
+     *         Integer.MIN_VALUE if there is none
+     */
+    public static int max(int[] values, boolean[] missing, int[] sel, int n) {
+        int max = Integer.MIN_VALUE;
+        if (isDense(sel, n)) {
+            if (VECTOR != null) {
+                return VECTOR.max(values, missing, n);
+            }
+            for (int r = 0; r < n; r++) {
+                max = Math.max(max, missing[r] ? Integer.MIN_VALUE : values[r]);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                max = Math.max(max, missing[r] ? Integer.MIN_VALUE : values[r]);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Computes the histogram bucket of each selected value: out[i] is the
+     * bucket of the value in row sel[i].
+     */
+    public static void bucket(int[] values, int[] sel, int n, int min, int width, int[] out) {
+        if (isDense(sel, n)) {
+            for (int r = 0; r < n; r++) {
+                out[r] = (values[r] - min) / width;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                out[i] = (values[sel[i]] - min) / width;
+            }
+        }
+    }
+}
@@ -1,95 +1,33 @@
 package simpledb;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregate over a set of IntFields, or of
+ * LongFields such as partial sums. Groups are numbered by a
+ * {@link GroupTable}, and their accumulators kept in flat arrays of longs
+ * indexed by group, so that adding a value takes one probe of the table and
+ * no allocation. Sums and counts are output as LongFields, so that they do
+ * not overflow.
  */
 public class IntegerAggregator implements Aggregator {
-	private interface Agg {
-		public void add(int v);
-		public int get();
-		public double get_double();
-	}
-	
-	private class MaxAgg implements Agg {
-		private int value = Integer.MIN_VALUE;
-		public void add(int v) {
-			value = Math.max(value, v);
-		}
-		public int get() {
-			return value;
-		}
-		public double get_double() {
-			throw new UnsupportedOperationException("no double for max");
-		}
-	}
-	
-	private class MinAgg implements Agg {
-		private int value = Integer.MAX_VALUE;
-		public void add(int v) {
-			value = Math.min(value, v);
-		}
-		public int get() {
-			return value;
-		}
-		public double get_double() {
-			throw new UnsupportedOperationException("no double for min");
-		}
-	}
-	
-	private class CountAgg implements Agg {
-		private int value = 0;
-		public void add(int v) {
-			value++;
-		}
-		public int get() {
-			return value;
-		}
-		public double get_double() {
-			throw new UnsupportedOperationException("no double for count");
-		}
-	}
-	
-	private class SumAgg implements Agg {
-		private int value = 0;
-		public void add(int v) {
-			value += v;
-		}
-		public int get() {
-			return value;
-		}
-		public double get_double() {
-			throw new UnsupportedOperationException("no double for sum");
-		}
-	}
-	
-	private class AvgAgg implements Agg {
-		private double count = 0, total = 0;
-		public void add(int v) {
-			total += v;
-			count++;
-		}
-		public int get() {
-			return (int) (total / count);
-		}
-		public double get_double() {
-			return total / count;
-		}
-	}
 
     private static final long serialVersionUID = 1L;
     
-    private static final Field NONE = new IntField(0);
-    
     private final int gbField, aggField;
     private final Type gbFieldType;
+    private final Type aggFieldType;
     private final Op op;
-    private final Hashtable<Field, Agg> groups; 
+    private final GroupTable groups;
     private final TupleDesc schema;
     
+    // accumulators, by group: the minimum, maximum, sum or count of the
+    // group, and for AVG, SUM_COUNT and SC_AVG, the number of values summed
+    private long[] values = new long[16];
+    private long[] counts;
+    private int initialized = 0;
+    
     /**
      * Aggregate constructor
      * 
@@ -105,62 +43,266 @@ public class IntegerAggregator implements Aggregator {
      *            the aggregation operator
      */
 
-    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {    	
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, Type.INT_TYPE, what);
+    }
+
+    /**
+     * Aggregate constructor, for an aggregate field of either Type.INT_TYPE
+     * or Type.LONG_TYPE. MIN and MAX output fields of that type.
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
         gbField = gbfield;
         gbFieldType = gbfieldtype;
         aggField = afield;
+        aggFieldType = afieldtype;
         op = what;
-        groups = new Hashtable<Field, Agg>();
+        // without grouping, all values go to the group of key 0
+        groups = new GroupTable(gbField == NO_GROUPING ? Type.INT_TYPE : gbFieldType);
+        counts = averages() || op == Op.SUM_COUNT ? new long[values.length] : null;
         
+        Type[] aggTypes;
+        if (op == Op.SUM_COUNT) {
+        	aggTypes = new Type[] { Type.LONG_TYPE, Type.LONG_TYPE };
+        } else if (averages()) {
+        	aggTypes = new Type[] { Type.DOUBLE_TYPE };
+        } else if (op == Op.MIN || op == Op.MAX) {
+        	aggTypes = new Type[] { aggFieldType };
+        } else {
+        	aggTypes = new Type[] { Type.LONG_TYPE };
+        }
         Type[] types;
-		Type aggType = (op == Op.AVG)?  Type.DOUBLE_TYPE : Type.INT_TYPE;
     	if (gbField == NO_GROUPING) {
-			types = new Type[] { aggType};
+			types = aggTypes;
     	} else {
-			types = new Type[] { gbFieldType, aggType };
+			types = new Type[aggTypes.length + 1];
+			types[0] = gbFieldType;
+			System.arraycopy(aggTypes, 0, types, 1, aggTypes.length);
     	}
     	schema = new TupleDesc(types); 
     }
     
-    private Agg newAgg() {
-    	switch(op) {
-		case AVG:
-			return new AvgAgg();
-		case COUNT:
-			return new CountAgg();
-		case MAX:
-			return new MaxAgg();
-		case MIN:
-			return new MinAgg();
-		case SUM:
-			return new SumAgg();
-		case SC_AVG:
-		case SUM_COUNT:
-		default:
-			throw new RuntimeException("Unsupported operation.");
+    private boolean averages() {
+    	return op == Op.AVG || op == Op.SC_AVG;
+    }
+    
+    /** Sets up the accumulators of the groups up to a new one. */
+    private void initialize(int group) {
+    	if (group >= values.length) {
+    		values = Arrays.copyOf(values, Math.max(values.length * 2, group + 1));
+    		if (counts != null) {
+    			counts = Arrays.copyOf(counts, values.length);
+    		}
+    	}
+    	for (; initialized <= group; initialized++) {
+    		values[initialized] = op == Op.MIN ? Long.MAX_VALUE : op == Op.MAX ? Long.MIN_VALUE : 0;
+    		if (counts != null) {
+    			counts[initialized] = 0;
+    		}
+    	}
+    }
+    
+    private int group(int key) {
+    	int g = groups.groupOf(key);
+    	if (g >= initialized) {
+    		initialize(g);
+    	}
+    	return g;
+    }
+    
+    private int group(Field key) {
+    	int g = groups.groupOf(key);
+    	if (g >= initialized) {
+    		initialize(g);
+    	}
+    	return g;
+    }
+    
+    /** Adds a value to the accumulator of a group. */
+    private void add(int g, long v) {
+    	switch (op) {
+    	case MIN:
+    		values[g] = Math.min(values[g], v);
+    		break;
+    	case MAX:
+    		values[g] = Math.max(values[g], v);
+    		break;
+    	case SUM:
+    		values[g] += v;
+    		break;
+    	case COUNT:
+    		values[g]++;
+    		break;
+    	case AVG:
+    	case SUM_COUNT:
+    		values[g] += v;
+    		counts[g]++;
+    		break;
+    	default:
+    		throw new RuntimeException("Unsupported operation.");
+    	}
+    }
+    
+    /** Adds the accumulators of a group of another aggregator to a group. */
+    private void combine(int g, IntegerAggregator other, int og) {
+    	switch (op) {
+    	case MIN:
+    		values[g] = Math.min(values[g], other.values[og]);
+    		break;
+    	case MAX:
+    		values[g] = Math.max(values[g], other.values[og]);
+    		break;
+    	case AVG:
+    	case SUM_COUNT:
+    	case SC_AVG:
+    		counts[g] += other.counts[og];
+    		values[g] += other.values[og];
+    		break;
+    	default:
+    		values[g] += other.values[og];
     	}
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
-     * constructor
+     * constructor. For SC_AVG, the aggregate field holds a sum and the next
+     * field its count, as returned by SUM_COUNT.
      * 
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-    	Field key = gbField == NO_GROUPING ? NONE : tup.getField(gbField);
-		IntField val = (IntField) tup.getField(aggField);
+		boolean missing = tup.isMissing(aggField);
 		// can only aggregate on a key if not missing or None and
 		// value is not missing or we are working on a count
-		if (!key.isMissing() && (!val.isMissing() || op == Op.COUNT)) {
-			int value = (val.isMissing()) ? 1 : val.getValue();
-			Agg agg = groups.containsKey(key) ? groups.get(key) : newAgg();
-			agg.add(value);
-			groups.put(key, agg);
+		if ((gbField == NO_GROUPING || !tup.isMissing(gbField)) && (!missing || op == Op.COUNT)) {
+			int g = gbField == NO_GROUPING ? group(0) : group(tup.getField(gbField));
+			if (op == Op.SC_AVG) {
+				values[g] += tup.getLong(aggField);
+				counts[g] += tup.getLong(aggField + 1);
+				return;
+			}
+			add(g, missing ? 1 : tup.getLong(aggField));
 		}
     }
     
+    /**
+     * Merges a batch by reading the aggregate column directly, and integer
+     * group keys without creating fields. Without grouping, the whole batch
+     * goes into a single aggregate through {@link IntKernels}. Long columns
+     * are merged tuple by tuple.
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+    	if (op == Op.SC_AVG || aggFieldType != Type.INT_TYPE) {
+    		Aggregator.super.mergeBatchIntoGroups(batch);
+    		return;
+    	}
+    	int[] sel = batch.selection();
+    	int[] vals = batch.getInts(aggField);
+    	boolean[] missing = batch.getMissing(aggField);
+    	int n = batch.size();
+    	if (gbField == NO_GROUPING) {
+    		// no output row until a value is aggregated, as for tuples
+    		int present = IntKernels.count(missing, sel, n);
+    		if (op == Op.COUNT ? n == 0 : present == 0) {
+    			return;
+    		}
+    		int g = group(0);
+    		switch (op) {
+    		case MIN:
+    			values[g] = Math.min(values[g], IntKernels.min(vals, missing, sel, n));
+    			break;
+    		case MAX:
+    			values[g] = Math.max(values[g], IntKernels.max(vals, missing, sel, n));
+    			break;
+    		case COUNT:
+    			// missing values are counted too, as in mergeTupleIntoGroup
+    			values[g] += n;
+    			break;
+    		case AVG:
+    		case SUM_COUNT:
+    			counts[g] += present;
+    			values[g] += IntKernels.sum(vals, missing, sel, n);
+    			break;
+    		default:
+    			values[g] += IntKernels.sum(vals, missing, sel, n);
+    		}
+    		return;
+    	}
+    	if (groups.hasIntKeys()) {
+    		int[] keys = batch.getInts(gbField);
+    		boolean[] keyMissing = batch.getMissing(gbField);
+    		for (int i = 0; i < n; i++) {
+    			int row = sel[i];
+    			if ((missing[row] && op != Op.COUNT) || keyMissing[row]) {
+    				continue;
+    			}
+    			add(group(keys[row]), missing[row] ? 1 : vals[row]);
+    		}
+    		return;
+    	}
+    	for (int i = 0; i < n; i++) {
+    		int row = sel[i];
+    		if (missing[row] && op != Op.COUNT) {
+    			continue;
+    		}
+    		Field key = batch.getField(row, gbField);
+    		if (key.isMissing()) {
+    			continue;
+    		}
+    		add(group(key), missing[row] ? 1 : vals[row]);
+    	}
+    }
+    
+    /**
+     * Merges the groups of a partial aggregate computed over other tuples,
+     * with the same fields and operator.
+     */
+    public void merge(IntegerAggregator partial) {
+    	for (int pg = 0; pg < partial.groups.size(); pg++) {
+    		int g = groups.hasIntKeys() ? group(partial.groups.intKey(pg)) : group(partial.groups.key(pg));
+    		combine(g, partial, pg);
+    	}
+    }
+
+    /**
+     * @return the aggregate fields of a group's output tuple
+     */
+    private Field[] results(int g) {
+    	if (averages()) {
+    		return new Field[] { new DoubleField((double) values[g] / counts[g]) };
+    	}
+    	if (op == Op.SUM_COUNT) {
+    		return new Field[] { new LongField(values[g]), new LongField(counts[g]) };
+    	}
+    	if ((op == Op.MIN || op == Op.MAX) && aggFieldType == Type.INT_TYPE) {
+    		return new Field[] { new IntField((int) values[g]) };
+    	}
+    	return new Field[] { new LongField(values[g]) };
+    }
+
+    @Override
+    public void clear() {
+    	groups.clear();
+    	initialized = 0;
+    }
+
+    @Override
+    public boolean setKeyRange(int min, int max) {
+    	return gbField != NO_GROUPING && groups.setKeyRange(min, max);
+    }
+
+    @Override
+    public int numGroups() {
+    	return groups.size();
+    }
+
+    @Override
+    public boolean hasGroup(Tuple tup) {
+    	return gbField == NO_GROUPING ? groups.size() > 0 : groups.find(tup.getField(gbField)) >= 0;
+    }
+
     @Override
     public TupleDesc getTupleDesc() {
 		return schema;
@@ -176,21 +318,22 @@ public class IntegerAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         return new DbIterator() {
-        	private Enumeration<Field> keys = null;
+        	// the next group, or -1 if the iterator is not open
+        	private int next = -1;
         	
 			private static final long serialVersionUID = 1L;
 
 			@Override
 			public void open() throws DbException, TransactionAbortedException {
-				keys = groups.keys();
+				next = 0;
 			}
 
 			@Override
 			public boolean hasNext() throws DbException, TransactionAbortedException {
-				if (keys == null) {
+				if (next < 0) {
 					throw new IllegalStateException("Iterator is not open.");
 				}
-				return keys.hasMoreElements();
+				return next < groups.size();
 			}
 
 			@Override
@@ -198,22 +341,24 @@ public class IntegerAggregator implements Aggregator {
 				if (!hasNext()) {
 					throw new NoSuchElementException();
 				}
-				Field key = keys.nextElement();
-				Agg value = groups.get(key);
-				Field valField = (op == Op.AVG) ? new DoubleField(value.get_double()) : new IntField(value.get());
+				int g = next++;
+				Field[] valFields = results(g);
 				if (gbField == NO_GROUPING) {
-					return new Tuple(schema, new Field[] { valField });
+					return new Tuple(schema, valFields);
 				} else {
-					return new Tuple(schema, new Field[] { key, valField });
+					Field[] fields = new Field[valFields.length + 1];
+					fields[0] = groups.key(g);
+					System.arraycopy(valFields, 0, fields, 1, valFields.length);
+					return new Tuple(schema, fields);
 				}
 			}
 
 			@Override
 			public void rewind() throws DbException, TransactionAbortedException {
-				if (keys == null) {
+				if (next < 0) {
 					throw new IllegalStateException("Iterator is not open.");
 				}
-				keys = groups.keys();
+				next = 0;
 			}
 
 			@Override
@@ -223,7 +368,7 @@ public class IntegerAggregator implements Aggregator {
 
 			@Override
 			public void close() {
-				keys = null;
+				next = -1;
 			}
 			
 			@Override
@@ -1,12 +1,13 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
  */
-public class Join extends Operator {
-	private static enum Type { NESTED_LOOPS, HASH };
+public class Join extends Operator implements PipelineBreaker {
+	private static enum Type { NESTED_LOOPS, HASH, MERGE, INDEX, BAND };
     private static final long serialVersionUID = 1L;
     
     private final JoinPredicate pred;
@@ -14,8 +15,51 @@ public class Join extends Operator {
     private Tuple t1 = null;
     private final Type type;
     
+    // Hash join state: the table of inner tuples, keyed by an int table when
+    // both join fields are integers, and the matches of the current outer
+    // tuple, as a row of the int table or an iterator over a map bucket.
     private HashMap<Field, ArrayList<Tuple>> table;
+    private IntHashTable<Tuple> intTable;
     private Iterator<Tuple> matches = null;
+    private int match = -1;
+    
+    // Hash joins whose inner tuples outgrow the memory budget switch to a
+    // hybrid hash join.
+    private int memoryPages = HybridHashJoin.DEFAULT_MEMORY_PAGES;
+    private HybridHashJoin hybrid = null;
+    
+    // Batch hash join state: the current batch of outer tuples, the position
+    // in its selection of the next one, and the row the matches are for.
+    private TupleBatch outer = null;
+    private int outerIdx = 0, matchRow = 0;
+    
+    // Merge join state: the current run of equal inner tuples, and the first
+    // inner tuple after it.
+    private ArrayList<Tuple> group = null;
+    private int groupIdx = 0;
+    private Tuple t2 = null;
+    
+    // Index join state: the index probed for the inner table, and the entries
+    // matching the current outer tuple.
+    private final TransactionId tid;
+    private IndexFile index = null;
+    private DbFileIterator probe = null;
+    
+    // Band join state: the inner tuples sorted on their join field, with
+    // their keys when they are integers, and the outer tuples sorted the same
+    // way. For the current outer tuple, lower and upper are the first inner
+    // tuples with a key at least and greater than its key; both only move
+    // forward. Its matches are the inner tuples before prefixEnd and those
+    // from suffixStart on. Inner tuples that do not fit in the memory budget
+    // are instead kept sorted in bandFile, which each outer tuple scans with
+    // bandScan.
+    private ArrayList<Tuple> band = null;
+    private int[] bandKeys = null;
+    private SpillFile bandFile = null;
+    private DbFileIterator bandScan = null;
+    private ExternalSort outerSort = null;
+    private DbFileIterator sortedOuter = null;
+    private int lower = 0, upper = 0, prefixEnd = 0, suffixStart = 0, bandIdx = 0;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -29,12 +73,32 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+    	this(p, child1, child2, false);
+    }
+
+    /**
+     * Constructor for a join whose inputs may already be sorted on their
+     * join fields. If they are and the predicate is an equality, the join is
+     * computed by merging the two inputs instead of building a hash table.
+     * 
+     * Inequality predicates on fields of the same type are computed by a
+     * band join, which sorts both inputs on their join fields and sweeps
+     * them.
+     * 
+     * @param sortedInputs
+     *            true if both children return tuples in ascending order of
+     *            their join field, with missing values first
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, boolean sortedInputs) {
         pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.tid = null;
         
         switch(pred.getOperator()) {
 		case EQUALS:
+			type = sortedInputs ? Type.MERGE : Type.HASH;
+			break;
 		case LIKE:
 			type = Type.HASH;
 			break;
@@ -43,17 +107,61 @@ public class Join extends Operator {
 		case LESS_THAN:
 		case LESS_THAN_OR_EQ:
 		case NOT_EQUALS:
-			type = Type.NESTED_LOOPS;
+			type = child1.getTupleDesc().getFieldType(p.getField1())
+					== child2.getTupleDesc().getFieldType(p.getField2()) ? Type.BAND : Type.NESTED_LOOPS;
 			break;
 		default:
 			throw new RuntimeException("Unexpected join predicate.");
         }
     }
 
+    /**
+     * Constructor for an index nested loops join, which looks up each outer
+     * tuple in an index on the join field of the inner table. The inner scan
+     * describes the inner table, but is never opened.
+     * 
+     * @see IndexNestedLoopJoin
+     */
+    protected Join(TransactionId tid, JoinPredicate p, DbIterator child1, SeqScan child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+        	throw new IllegalArgumentException("Index joins need an equality predicate.");
+        }
+        pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.tid = tid;
+        type = Type.INDEX;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
 
+    /**
+     * Sets the memory budget of hash joins, in pages. Hash joins whose
+     * inner tuples do not fit partition both inputs and spill partitions to
+     * disk. Band joins sort each input within the same budget.
+     * 
+     * @see HybridHashJoin
+     * @see ExternalSort
+     */
+    public void setMemoryPages(int memoryPages) {
+        this.memoryPages = memoryPages;
+    }
+
+    /** @return the memory budget of this join, in pages */
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /**
+     * @return true if this join outgrew its memory budget and spills
+     *         partitions to disk
+     */
+    public boolean isSpilling() {
+        return hybrid != null;
+    }
+
     /**
      * @return
      *       the field name of join field1. Should be quantified by
@@ -92,33 +200,260 @@ public class Join extends Operator {
             TransactionAbortedException {
         super.open();
         child1.open();
+        if (type == Type.INDEX) {
+        	int innerId = ((SeqScan) child2).getTableId();
+        	index = Database.getCatalog().getIndex(innerId, pred.getField2(), false);
+        	if (index == null) {
+        		throw new DbException("No index on the inner join field.");
+        	}
+        	return;
+        }
         child2.open();
         
         if (type == Type.HASH) {
-        	table = new HashMap<>();
-        	int joinAttrIdx = pred.getField2();
-			while (child2.hasNext()) {
-				Tuple t = child2.next();
-				Field joinAttr = t.getField(joinAttrIdx);
-				if (!table.containsKey(joinAttr)) {
-					table.put(joinAttr, new ArrayList<Tuple>());
+        	buildTable();
+        } else if (type == Type.BAND) {
+        	sortBand();
+        }
+    }
+
+    /**
+     * Sorts both inputs externally on their join fields. Sorted inner tuples
+     * that fit in the memory budget are kept in memory; otherwise they are
+     * written to a file, which is scanned for each outer tuple. Outer tuples
+     * with a missing key match nothing and are dropped. Missing inner
+     * integers compare as {@link simpledb.Type#MISSING_INTEGER}, as in
+     * {@link IntField#compare(Predicate.Op, Field)}, so they sort first;
+     * other missing inner keys are dropped.
+     */
+    private void sortBand() throws DbException, TransactionAbortedException {
+    	final int f1 = pred.getField1(), f2 = pred.getField2();
+    	final boolean ints = child1.getTupleDesc().getFieldType(f1) == simpledb.Type.INT_TYPE;
+    	ExternalSort innerSort = new ExternalSort(child2.getTupleDesc(),
+    			ints ? (a, b) -> Integer.compare(a.getInt(f2), b.getInt(f2))
+    					: (a, b) -> compareKeys(a.getField(f2), b.getField(f2)),
+    			memoryPages);
+    	try {
+    		PushPipeline.drain(child2, t -> {
+    			if (ints || !t.isMissing(f2)) {
+    				innerSort.add(t);
+    			}
+    		});
+    		boolean spilled = innerSort.numRuns() > 0;
+    		DbFileIterator sortedInner = innerSort.sorted();
+    		sortedInner.open();
+    		if (spilled) {
+    			bandFile = new SpillFile(child2.getTupleDesc());
+    		} else {
+    			band = new ArrayList<Tuple>();
+    		}
+    		while (sortedInner.hasNext()) {
+    			if (spilled) {
+    				bandFile.add(sortedInner.next());
+    			} else {
+    				band.add(sortedInner.next());
+    			}
+    		}
+    		sortedInner.close();
+    		if (spilled) {
+    			bandScan = bandFile.iterator();
+    		}
+    	} catch (IOException e) {
+    		throw new DbException("Failed to write sorted inner tuples: " + e.getMessage());
+    	} finally {
+    		innerSort.close();
+    	}
+    	if (ints && band != null) {
+    		bandKeys = new int[band.size()];
+    		for (int i = 0; i < bandKeys.length; i++) {
+    			bandKeys[i] = band.get(i).getInt(f2);
+    		}
+    	}
+    	
+    	outerSort = new ExternalSort(child1.getTupleDesc(),
+    			ints ? (a, b) -> Integer.compare(a.getInt(f1), b.getInt(f1))
+    					: (a, b) -> compareKeys(a.getField(f1), b.getField(f1)),
+    			memoryPages);
+    	PushPipeline.drain(child1, t -> {
+    		if (!t.isMissing(f1)) {
+    			outerSort.add(t);
+    		}
+    	});
+    	sortedOuter = outerSort.sorted();
+    	sortedOuter.open();
+    	lower = upper = 0;
+    }
+
+    /** @return the order of two non-missing keys of the same type */
+    private static int compareKeys(Field a, Field b) {
+    	if (a.compare(Predicate.Op.LESS_THAN, b)) {
+    		return -1;
+    	}
+    	return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    /**
+     * Builds the hash table of the inner tuples, or a hybrid hash join if
+     * they do not fit in the memory budget.
+     */
+    private void buildTable() throws DbException, TransactionAbortedException {
+    	int joinAttrIdx = pred.getField2();
+    	int maxTuples = HybridHashJoin.maxTuples(child2.getTupleDesc(), memoryPages);
+    	boolean ints = child1.getTupleDesc().getFieldType(pred.getField1()) == simpledb.Type.INT_TYPE
+    			&& child2.getTupleDesc().getFieldType(joinAttrIdx) == simpledb.Type.INT_TYPE;
+    	table = ints ? null : new HashMap<>();
+    	intTable = ints ? new IntHashTable<Tuple>() : null;
+    	TupleBatch batch;
+		while ((batch = child2.nextBatch(TupleBatch.DEFAULT_SIZE)) != null) {
+			int[] sel = batch.selection();
+			if (hybrid != null) {
+				for (int i = 0; i < batch.size(); i++) {
+					hybrid.addBuild(batch.getTuple(sel[i]));
 				}
-				table.get(joinAttr).add(t);
+				continue;
 			}
-        }
+			if (ints) {
+				int[] keys = batch.getInts(joinAttrIdx);
+				for (int i = 0; i < batch.size(); i++) {
+					intTable.add(keys[sel[i]], batch.getTuple(sel[i]));
+				}
+			} else {
+				for (int i = 0; i < batch.size(); i++) {
+					Field joinAttr = batch.getField(sel[i], joinAttrIdx);
+					ArrayList<Tuple> bucket = table.get(joinAttr);
+					if (bucket == null) {
+						bucket = new ArrayList<Tuple>();
+						table.put(joinAttr, bucket);
+					}
+					bucket.add(batch.getTuple(sel[i]));
+				}
+			}
+			if (tableSize() > maxTuples) {
+				startHybrid();
+			}
+		}
+		if (hybrid != null) {
+			hybrid.probe(HybridHashJoin.of(child1));
+		}
+    }
+
+    /** Moves the inner tuples read so far to a hybrid hash join. */
+    private void startHybrid() throws DbException {
+    	hybrid = new HybridHashJoin(child2.getTupleDesc(), pred.getField2(), child1.getTupleDesc(),
+    			pred.getField1(), false, memoryPages);
+    	if (intTable != null) {
+    		for (int row = 0; row < intTable.size(); row++) {
+    			hybrid.addBuild(intTable.get(row));
+    		}
+    	} else {
+    		for (ArrayList<Tuple> bucket : table.values()) {
+    			for (Tuple t : bucket) {
+    				hybrid.addBuild(t);
+    			}
+    		}
+    	}
+    	intTable = null;
+    	table = null;
     }
 
     @Override
     public void close() {
         super.close();
         child1.close();
-        child2.close();
+        if (type == Type.INDEX) {
+        	closeProbe();
+        } else {
+        	child2.close();
+        }
+        if (hybrid != null) {
+        	hybrid.close();
+        	hybrid = null;
+        }
+        closeBand();
+    }
+    
+    private void closeBand() {
+    	if (sortedOuter != null) {
+    		sortedOuter.close();
+    		sortedOuter = null;
+    	}
+    	if (outerSort != null) {
+    		outerSort.close();
+    		outerSort = null;
+    	}
+    	band = null;
+    	bandKeys = null;
+    	if (bandScan != null) {
+    		bandScan.close();
+    		bandScan = null;
+    	}
+    	if (bandFile != null) {
+    		bandFile.delete();
+    		bandFile = null;
+    	}
+    }
+    
+    private void closeProbe() {
+    	if (probe != null) {
+    		probe.close();
+    		probe = null;
+    	}
     }
 
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
+        if (type == Type.BAND && sortedOuter != null) {
+        	// both inputs are already sorted and in memory or on disk
+        	sortedOuter.rewind();
+        	t1 = null;
+        	lower = upper = 0;
+        	if (bandScan != null) {
+        		bandScan.close();
+        	}
+        	return;
+        }
         child1.rewind();
-        child2.rewind();
+        if (type == Type.INDEX) {
+        	closeProbe();
+        } else {
+        	child2.rewind();
+        }
+        t1 = null;
+        t2 = null;
+        matches = null;
+        match = -1;
+        group = null;
+        outer = null;
+        if (hybrid != null) {
+        	// the spilled partitions are gone: partition both inputs again
+        	hybrid.close();
+        	hybrid = null;
+        	buildTable();
+        }
+    }
+
+    /**
+     * @return true if this join merges inputs sorted on the join fields.
+     */
+    public boolean isMergeJoin() {
+    	return type == Type.MERGE;
+    }
+
+    /**
+     * @return true if this join sorts its inputs to compute an inequality
+     *         predicate. Its output is ordered on the outer join field.
+     */
+    public boolean isBandJoin() {
+    	return type == Type.BAND;
+    }
+
+    /**
+     * A hash join builds its table of inner tuples, and a band join sorts
+     * both inputs, before returning a tuple.
+     */
+    @Override
+    public boolean materializes(int child) {
+    	return type == Type.HASH && child == 1 || type == Type.BAND;
     }
 
     /**
@@ -143,38 +478,27 @@ public class Join extends Operator {
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
     	switch (type) {
 		case HASH:
-			if (table.size() == 0) { return null; }
+			if (hybrid != null) {
+				return hybrid.next();
+			}
+			if (tableSize() == 0) { return null; }
 			
 			// Iterate over the outer relation and select matching tuples from the table.
 			while (true) {
-				// If we don't have a working tuple from the outer relation, get one.
-				// If nothing's available, we're done.
-				if (t1 == null) {
-					if (child1.hasNext()) {
-						t1 = child1.next();
-					} else {
-						return null;
-					}
+				if (t1 != null && hasMatch()) {
+					return new Tuple(t1, nextMatch());
 				}
-				
-				if (matches == null) {
-					ArrayList<Tuple> m = table.get(t1.getField(pred.getField1()));
-					if (m == null) {
-						t1 = null;
-						continue;
-					}
-					matches = m.iterator();
+				// Get the next tuple from the outer relation. If nothing's
+				// available, we're done.
+				if (!child1.hasNext()) {
+					t1 = null;
+					return null;
 				}
-
-				while (true) {
-					if (matches.hasNext()) {
-						Tuple t2 = matches.next();
-						return new Tuple(t1, t2);
-					} else {
-						t1 = null;
-						matches = null;
-						break;
-					}
+				t1 = child1.next();
+				if (intTable != null) {
+					match = intTable.find(t1.getInt(pred.getField1()));
+				} else {
+					probe(t1.getField(pred.getField1()));
 				}
 			}
 		case NESTED_LOOPS:
@@ -203,11 +527,302 @@ public class Join extends Operator {
 					}
 				}
 			}
+		case MERGE:
+			return fetchNextMerge();
+		case BAND:
+			return fetchNextBand();
+		case INDEX:
+			return fetchNextIndex();
 		default:
 			throw new RuntimeException("Unexpected type.");
     	}   	
     }
 
+    /**
+     * Hash joins probe the table with whole batches of outer tuples; hash
+     * joins that spill and other joins collect tuples from next().
+     */
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+    	if (type != Type.HASH || hybrid != null) {
+    		return super.nextBatch(maxSize);
+    	}
+    	if (tableSize() == 0) {
+    		return null;
+    	}
+    	TupleBatch out = new TupleBatch(getTupleDesc(), maxSize);
+    	while (!out.isFull()) {
+    		if (outer != null && hasMatch()) {
+    			out.addJoined(outer, matchRow, nextMatch());
+    			continue;
+    		}
+    		if (outer == null || outerIdx == outer.size()) {
+    			outer = child1.nextBatch(maxSize);
+    			outerIdx = 0;
+    			if (outer == null) {
+    				break;
+    			}
+    			continue;
+    		}
+    		matchRow = outer.selection()[outerIdx++];
+    		if (intTable != null) {
+    			match = intTable.find(outer.getInts(pred.getField1())[matchRow]);
+    		} else {
+    			probe(outer.getField(matchRow, pred.getField1()));
+    		}
+    	}
+    	return out.size() == 0 ? null : out;
+    }
+
+    private int tableSize() {
+    	return intTable != null ? intTable.size() : table.size();
+    }
+
+    /** Looks up the inner tuples matching an outer key in the map. */
+    private void probe(Field key) {
+    	ArrayList<Tuple> m = table.get(key);
+    	matches = m == null ? null : m.iterator();
+    }
+
+    private boolean hasMatch() {
+    	return intTable != null ? match >= 0 : matches != null && matches.hasNext();
+    }
+
+    private Tuple nextMatch() {
+    	if (intTable != null) {
+    		Tuple t = intTable.get(match);
+    		match = intTable.next(match);
+    		return t;
+    	}
+    	return matches.next();
+    }
+
+    /**
+     * Merges the two sorted inputs. Inner tuples with equal keys are buffered
+     * as a group, so that consecutive outer tuples with the same key can all
+     * be matched against it.
+     */
+    private Tuple fetchNextMerge() throws TransactionAbortedException, DbException {
+    	final int f1 = pred.getField1(), f2 = pred.getField2();
+    	while (true) {
+    		if (t1 == null) {
+    			if (!child1.hasNext()) {
+    				return null;
+    			}
+    			t1 = child1.next();
+    			groupIdx = 0;
+    		}
+    		
+    		Field k1 = t1.getField(f1);
+    		if (k1.isMissing()) {
+    			t1 = null;
+    			continue;
+    		}
+    		
+    		// Outer key matches the buffered group: emit the next pair.
+    		if (group != null && group.get(0).getField(f2).compare(Predicate.Op.EQUALS, k1)) {
+    			if (groupIdx < group.size()) {
+    				return new Tuple(t1, group.get(groupIdx++));
+    			}
+    			t1 = null;
+    			continue;
+    		}
+    		
+    		// Otherwise advance the inner input to the first key >= k1.
+    		group = null;
+    		while (true) {
+    			if (t2 == null) {
+    				if (!child2.hasNext()) {
+    					return null;
+    				}
+    				t2 = child2.next();
+    			}
+    			Field k2 = t2.getField(f2);
+    			if (k2.isMissing() || k1.compare(Predicate.Op.GREATER_THAN, k2)) {
+    				t2 = null;
+    			} else {
+    				break;
+    			}
+    		}
+    		
+    		if (k1.compare(Predicate.Op.EQUALS, t2.getField(f2))) {
+    			group = new ArrayList<Tuple>();
+    			group.add(t2);
+    			t2 = null;
+    			while (child2.hasNext()) {
+    				Tuple t = child2.next();
+    				if (t.getField(f2).compare(Predicate.Op.EQUALS, k1)) {
+    					group.add(t);
+    				} else {
+    					t2 = t;
+    					break;
+    				}
+    			}
+    			groupIdx = 0;
+    		} else {
+    			t1 = null;
+    		}
+    	}
+    }
+
+    /**
+     * Sweeps the sorted outer tuples over the sorted inner tuples. The inner
+     * tuples matching an outer key are those before it, after it, or both,
+     * depending on the predicate, so each outer tuple moves the window
+     * boundaries forward and emits whole ranges without comparing keys.
+     */
+    private Tuple fetchNextBand() throws TransactionAbortedException, DbException {
+    	if (bandFile != null) {
+    		return fetchNextBandSpilled();
+    	}
+    	while (true) {
+    		if (t1 != null) {
+    			if (bandIdx < prefixEnd) {
+    				return new Tuple(t1, band.get(bandIdx++));
+    			}
+    			bandIdx = Math.max(bandIdx, suffixStart);
+    			if (bandIdx < band.size()) {
+    				return new Tuple(t1, band.get(bandIdx++));
+    			}
+    		}
+    		if (!sortedOuter.hasNext()) {
+    			t1 = null;
+    			return null;
+    		}
+    		t1 = sortedOuter.next();
+    		while (lower < band.size() && compareInner(lower, t1) < 0) {
+    			lower++;
+    		}
+    		upper = Math.max(upper, lower);
+    		while (upper < band.size() && compareInner(upper, t1) == 0) {
+    			upper++;
+    		}
+    		
+    		// the predicate reads outer op inner
+    		int n = band.size();
+    		switch (pred.getOperator()) {
+    		case LESS_THAN:
+    			prefixEnd = 0;
+    			suffixStart = upper;
+    			break;
+    		case LESS_THAN_OR_EQ:
+    			prefixEnd = 0;
+    			suffixStart = lower;
+    			break;
+    		case GREATER_THAN:
+    			prefixEnd = lower;
+    			suffixStart = n;
+    			break;
+    		case GREATER_THAN_OR_EQ:
+    			prefixEnd = upper;
+    			suffixStart = n;
+    			break;
+    		case NOT_EQUALS:
+    			prefixEnd = lower;
+    			suffixStart = upper;
+    			break;
+    		default:
+    			throw new RuntimeException("Unexpected predicate.");
+    		}
+    		bandIdx = 0;
+    	}
+    }
+
+    /**
+     * Scans the sorted inner tuples on disk for each outer tuple. Predicates
+     * matching only inner keys below the outer key stop the scan at the
+     * first larger key.
+     */
+    private Tuple fetchNextBandSpilled() throws TransactionAbortedException, DbException {
+    	final Predicate.Op op = pred.getOperator();
+    	while (true) {
+    		if (t1 != null) {
+    			while (bandScan.hasNext()) {
+    				Tuple inner = bandScan.next();
+    				int c = compareInner(inner, t1);
+    				if (bandMatches(op, c)) {
+    					return new Tuple(t1, inner);
+    				}
+    				if (c >= 0 && (op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ)) {
+    					break;
+    				}
+    			}
+    			bandScan.close();
+    		}
+    		if (!sortedOuter.hasNext()) {
+    			t1 = null;
+    			return null;
+    		}
+    		t1 = sortedOuter.next();
+    		bandScan.open();
+    	}
+    }
+
+    /**
+     * @return true if <tt>outer op inner</tt> holds, given the order c of
+     *         the inner and outer keys
+     */
+    private static boolean bandMatches(Predicate.Op op, int c) {
+    	switch (op) {
+    	case LESS_THAN:
+    		return c > 0;
+    	case LESS_THAN_OR_EQ:
+    		return c >= 0;
+    	case GREATER_THAN:
+    		return c < 0;
+    	case GREATER_THAN_OR_EQ:
+    		return c <= 0;
+    	case NOT_EQUALS:
+    		return c != 0;
+    	default:
+    		throw new RuntimeException("Unexpected predicate.");
+    	}
+    }
+
+    /** @return the order of the key of an inner tuple and an outer key */
+    private int compareInner(int i, Tuple outer) {
+    	if (bandKeys != null) {
+    		return Integer.compare(bandKeys[i], outer.getInt(pred.getField1()));
+    	}
+    	return compareInner(band.get(i), outer);
+    }
+
+    private int compareInner(Tuple inner, Tuple outer) {
+    	if (inner.getTupleDesc().getFieldType(pred.getField2()) == simpledb.Type.INT_TYPE) {
+    		return Integer.compare(inner.getInt(pred.getField2()), outer.getInt(pred.getField1()));
+    	}
+    	return compareKeys(inner.getField(pred.getField2()), outer.getField(pred.getField1()));
+    }
+
+    /**
+     * Probes the index with the key of each outer tuple, and fetches the
+     * matching inner tuples from their pages.
+     */
+    private Tuple fetchNextIndex() throws TransactionAbortedException, DbException {
+    	int innerId = ((SeqScan) child2).getTableId();
+    	while (true) {
+    		if (t1 == null) {
+    			if (!child1.hasNext()) {
+    				return null;
+    			}
+    			t1 = child1.next();
+    			Field k1 = t1.getField(pred.getField1());
+    			if (k1.isMissing()) {
+    				t1 = null;
+    				continue;
+    			}
+    			int key = ((IntField) k1).getValue();
+    			probe = index.lookup(tid, key, key);
+    			probe.open();
+    		}
+    		if (probe.hasNext()) {
+    			return new Tuple(t1, IndexScan.fetch(tid, innerId, probe.next()));
+    		}
+    		closeProbe();
+    		t1 = null;
+    	}
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { child1, child2 };
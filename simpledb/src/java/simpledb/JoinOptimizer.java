@@ -44,6 +44,20 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(null, lj, plan1, plan2);
+    }
+
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)},
+     * but an equality join whose right child is a plain scan of a table with
+     * an index on the join field probes that index.
+     * 
+     * @param tid
+     *            the transaction the join runs in, or null to never use an
+     *            index
+     */
+    public static DbIterator instantiateJoin(TransactionId tid, LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -68,10 +82,21 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (tid != null && canProbeIndex(lj, plan1, plan2, t1id, t2id)) {
+            j = new IndexNestedLoopJoin(tid, p, plan1, (SeqScan) plan2);
+        } else {
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
+    }
 
+    private static boolean canProbeIndex(LogicalJoinNode lj, DbIterator plan1, DbIterator plan2,
+            int t1id, int t2id) {
+        return !(lj instanceof LogicalSubplanJoinNode) && lj.p == Predicate.Op.EQUALS
+                && plan2.getClass() == SeqScan.class
+                && plan1.getTupleDesc().getFieldType(t1id) == Type.INT_TYPE
+                && Database.getCatalog().getIndex(((SeqScan) plan2).getTableId(), t2id, false) != null;
     }
 
     /**
@@ -107,7 +132,19 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 5.
             return card1 + cost1 + cost2;
         } else {
-        	return cost1 + card1 * cost2 + card1 * card2;
+        	double cost = cost1 + card1 * cost2 + card1 * card2;
+        	// an unfiltered inner table with an index on the join field is
+        	// probed once per outer tuple instead of scanned
+        	Integer t2 = j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        	if (j.p == Predicate.Op.EQUALS && t2 != null && !p.hasFilters(j.t2Alias)) {
+        		int field = Database.getCatalog().getTupleDesc(t2).fieldNameToIndex(j.f2PureName);
+        		if (Database.getCatalog().getIndex(t2, field, false) != null) {
+        			TableStats stats = TableStats.getTableStats(Database.getCatalog().getTableName(t2));
+        			double matches = Math.max(1.0, (double) card2 / Math.max(1, card1));
+        			cost = Math.min(cost, cost1 + card1 * stats.estimateIndexProbeCost(field, matches) + card1);
+        		}
+        	}
+        	return cost;
         }
     }
 
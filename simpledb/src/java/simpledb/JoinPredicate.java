@@ -40,6 +40,11 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE
+                && t2.getTupleDesc().getFieldType(field2) == Type.INT_TYPE) {
+            return IntField.compare(op, t1.isMissing(field1), t1.getInt(field1), t2.isMissing(field2),
+                    t2.getInt(field2));
+        }
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
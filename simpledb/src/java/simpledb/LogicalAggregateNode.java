@@ -7,18 +7,47 @@ import simpledb.Utility.AvgAgg;
 public class LogicalAggregateNode extends ImputedPlan {
 	private final ImputedPlan plan;
 	private final DbIterator physicalPlan;
+	private final QualifiedName sortOrder;
 	
-	public LogicalAggregateNode(ImputedPlan subplan, QualifiedName groupByField, Aggregator.Op aggOp, QualifiedName aggField) {
+	/**
+	 * Computes all the aggregates in one pass over the subplan, grouped by
+	 * all the group-by fields, which may be empty. A subplan sorted on the
+	 * only group-by field is aggregated as it streams, and the groups of a
+	 * group-by field with few values are indexed by value.
+	 */
+	public LogicalAggregateNode(ImputedPlan subplan, List<QualifiedName> groupByFields, List<Aggregator.Op> aggOps,
+			List<QualifiedName> aggFields) {
 		plan = subplan;
 		TupleDesc schema = subplan.getPlan().getTupleDesc();
 		// indices
-		int groupByKeyIndex = Aggregator.NO_GROUPING;
-		int aggFieldIndex = schema.fieldNameToIndex(aggField);
-
-		if (groupByField != null) {
-			groupByKeyIndex = schema.fieldNameToIndex(groupByField);
+		int[] groupByKeyIndices = new int[groupByFields.size()];
+		int[] aggFieldIndices = new int[aggFields.size()];
+		for (int i = 0; i < groupByKeyIndices.length; i++) {
+			groupByKeyIndices[i] = schema.fieldNameToIndex(groupByFields.get(i));
+		}
+		for (int i = 0; i < aggFieldIndices.length; i++) {
+			aggFieldIndices[i] = schema.fieldNameToIndex(aggFields.get(i));
+		}
+		boolean sorted = groupByFields.size() == 1 && groupByFields.get(0).equals(subplan.getSortOrder());
+		physicalPlan = new Aggregate(plan.getPlan(), aggFieldIndices, aggOps.toArray(new Aggregator.Op[0]),
+				groupByKeyIndices, sorted);
+		TableStats stats = subplan.getTableStats();
+		if (groupByKeyIndices.length == 1 && stats != null) {
+			// index the groups of a small domain without hashing
+			int[] range = stats.valueRange(groupByKeyIndices[0]);
+			if (range != null) {
+				((Aggregate) physicalPlan).setKeyRange(range[0], range[1]);
+			}
 		}
-		physicalPlan = new Aggregate(plan.getPlan(), aggFieldIndex, groupByKeyIndex, aggOp);
+		sortOrder = sorted ? groupByFields.get(0) : null;
+	}
+
+	/**
+	 * A streaming aggregate returns its groups in the order of its input.
+	 */
+	@Override
+	public QualifiedName getSortOrder() {
+		return sortOrder;
 	}
 
 	public TableStats getTableStats() {
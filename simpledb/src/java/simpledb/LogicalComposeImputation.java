@@ -19,6 +19,7 @@ public class LogicalComposeImputation extends ImputedPlan {
 	private final double penalty;
 	private final double time;
 	private TableStats tableStats;
+	private final QualifiedName sortOrder;
 
 	/**
 	 * Constructor intended only for internal construction of updated plan
@@ -29,8 +30,9 @@ public class LogicalComposeImputation extends ImputedPlan {
 	 * @param time
 	 */
 	private LogicalComposeImputation(TableStats tableStats, DbIterator physicalPlan, ImputedPlan subplan, Set<QualifiedName> dirtySet,
-			double penalty, double time) {
+			double penalty, double time, QualifiedName sortOrder) {
 		super();
+		this.sortOrder = sortOrder;
 		this.physicalPlan = physicalPlan;
 		this.dirtySet = dirtySet;
 		this.penalty = penalty;
@@ -54,13 +56,29 @@ public class LogicalComposeImputation extends ImputedPlan {
 
 		TableStats subplanTableStats = subplan.getTableStats(); // table stats for subplan
 
+		// imputation operators emit tuples in input order, but filling in the
+		// sort attribute itself breaks that order
+		QualifiedName sortOrder = subplan.getSortOrder();
+		if (imp != DROP && impute.contains(sortOrder)) {
+			sortOrder = null;
+		}
+
 		switch (imp) {
 		case DROP: {
 			Impute dropOp = new Drop(toNames(impute), subplan.getPlan());
 			final double penalty = dropOp.getEstimatedPenalty(subplan);
 			final double time = dropOp.getEstimatedTime(subplan);
-			final TableStats adjustedTableStats = subplanTableStats.adjustForImpute(DROP, imputeIndices);
-			return new LogicalComposeImputation(adjustedTableStats, dropOp, subplan, dirtySet, penalty, time);
+			TableStats adjustedTableStats = subplanTableStats.adjustForImpute(DROP, imputeIndices);
+			// over a base table, the missing value index tells exactly how
+			// many tuples are dropped
+			if (subplan instanceof LogicalImputedScanNode && !((LogicalImputedScanNode) subplan).isPartitioned()) {
+				MissingIndex missing = Database.getCatalog().getMissingIndex(((LogicalImputedScanNode) subplan).getTableId());
+				if (missing != null) {
+					double kept = subplan.cardinality() - missing.getMissing(imputeIndices).cardinality();
+					adjustedTableStats = adjustedTableStats.adjustToTotal(Math.max(0.0, kept));
+				}
+			}
+			return new LogicalComposeImputation(adjustedTableStats, dropOp, subplan, dirtySet, penalty, time, sortOrder);
 		}
 		case MAXIMAL:
 		case MINIMAL: 
@@ -69,7 +87,7 @@ public class LogicalComposeImputation extends ImputedPlan {
 			final double penalty = imputeOp.getEstimatedPenalty(subplan);
 			final double time = imputeOp.getEstimatedTime(subplan);
 			final TableStats adjustedTableStats = subplanTableStats.adjustForImpute(MAXIMAL, imputeIndices);
-			return new LogicalComposeImputation(adjustedTableStats, imputeOp, subplan, dirtySet, penalty, time);
+			return new LogicalComposeImputation(adjustedTableStats, imputeOp, subplan, dirtySet, penalty, time, sortOrder);
 		case NONE:
 			throw new RuntimeException("NONE is no longer a valid ImputationType.");
 		default:
@@ -99,6 +117,11 @@ public class LogicalComposeImputation extends ImputedPlan {
 		return tableStats.totalTuples();
 	}
 
+	@Override
+	public QualifiedName getSortOrder() {
+		return sortOrder;
+	}
+
 	private static Set<String> toNames(Set<QualifiedName> attrs) {
 		Set<String> names = new HashSet<>();
 		for (QualifiedName attr : attrs) {
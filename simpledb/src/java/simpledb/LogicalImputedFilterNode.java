@@ -8,12 +8,15 @@ public class LogicalImputedFilterNode extends ImputedPlan {
 	private final DbIterator physicalPlan;
 	private final TableStats tableStats;
 	private final ImputedPlan subplan;
+	private final double accessTime;
+	private final double inputCard;
+	private final QualifiedName sortOrder;
 
 	public LogicalImputedFilterNode(TransactionId tid, ImputedPlan subplan, Set<LogicalFilterNode> filters) throws ParsingException {
 		this.subplan = subplan;
 		
-		DbIterator physicalPlanTmp = subplan.getPlan();
 		TableStats tableStatsTmp = subplan.getTableStats();
+		List<Predicate> predicates = new ArrayList<>();
 
 		/* Otherwise, construct a Filter operator for each filter, stacking on top of previous */
 		for(LogicalFilterNode filter : filters) {
@@ -56,12 +59,62 @@ public class LogicalImputedFilterNode extends ImputedPlan {
 			double selectivity = tableStatsTmp.estimateSelectivity(p);
 			tableStatsTmp = tableStatsTmp.adjustForSelectivity(selectivity);
 
+			predicates.add(p);
+		}
+
+		// filters directly over a clustered or indexed table can read just the
+		// matching range
+		DbIterator physicalPlanTmp = subplan.getPlan();
+		double accessTimeTmp = subplan.time();
+		double inputCardTmp = subplan.cardinality();
+		QualifiedName sortOrderTmp = subplan.getSortOrder();
+		if (subplan instanceof LogicalImputedScanNode && !((LogicalImputedScanNode) subplan).isPartitioned()) {
+			LogicalImputedScanNode scan = (LogicalImputedScanNode) subplan;
+			TableStats baseStats = scan.getTableStats();
+			for (Predicate p : predicates) {
+				// IS NULL reads just the tuples in the missing value index
+				if (p.getOp() == Predicate.Op.EQUALS && p.getOperand().isMissing()) {
+					double missingTime = baseStats.estimateMissingScanCost(p.getField());
+					if (missingTime < accessTimeTmp) {
+						physicalPlanTmp = new MissingScan(tid, scan.getTableId(), scan.getTableAlias(),
+								Collections.singleton(p.getField()));
+						accessTimeTmp = missingTime;
+						inputCardTmp = subplan.cardinality() * baseStats.estimateSelectivity(p);
+						// tuples still come out in file order
+						sortOrderTmp = subplan.getSortOrder();
+					}
+					continue;
+				}
+				double rangeTime = baseStats.estimateScanCost(p.getField(), p.getOp(), p.getOperand());
+				double indexTime = baseStats.estimateIndexScanCost(p.getField(), p.getOp(), p.getOperand());
+				if (Math.min(rangeTime, indexTime) >= accessTimeTmp) {
+					continue;
+				}
+				Integer[] range = RangeScan.rangeOf(p.getOp(), ((IntField) p.getOperand()).getValue());
+				if (rangeTime <= indexTime) {
+					physicalPlanTmp = new RangeScan(tid, scan.getTableId(), scan.getTableAlias(), p.getField(), range[0], range[1]);
+					accessTimeTmp = rangeTime;
+					sortOrderTmp = subplan.getSortOrder();
+				} else {
+					physicalPlanTmp = new IndexScan(tid, scan.getTableId(), scan.getTableAlias(), p.getField(), range[0], range[1]);
+					accessTimeTmp = indexTime;
+					String field = Database.getCatalog().getTupleDesc(scan.getTableId()).getFieldName(p.getField());
+					sortOrderTmp = new QualifiedName(scan.getTableAlias(), field);
+				}
+				inputCardTmp = subplan.cardinality() * baseStats.estimateSelectivity(p);
+			}
+		}
+
+		for (Predicate p : predicates) {
 			physicalPlanTmp = new Filter(p, physicalPlanTmp);
 		}
 		
 		// assign final subplan with all the filters
 		physicalPlan = physicalPlanTmp;
 		tableStats = tableStatsTmp;
+		accessTime = accessTimeTmp;
+		inputCard = inputCardTmp;
+		sortOrder = sortOrderTmp;
 	}
 
 	public TableStats getTableStats() {
@@ -83,7 +136,12 @@ public class LogicalImputedFilterNode extends ImputedPlan {
 	
 	@Override
 	protected double time() {
-		return subplan.time() + subplan.cardinality() * 0.01;
+		return accessTime + inputCard * 0.01;
+	}
+
+	@Override
+	public QualifiedName getSortOrder() {
+		return sortOrder;
 	}
 
 	public double cardinality() {
@@ -36,6 +36,9 @@ public class LogicalImputedJoinNode extends ImputedPlan {
 
     // physical plan
     private final DbIterator physicalPlan;
+    private final boolean mergeJoin;
+    private final boolean indexJoin;
+    private final double indexJoinTime;
 
     // need to able to lookup tableIds (usually this is in the LogicalPlan)
     private final Map<String, Integer> tableMap;
@@ -79,7 +82,10 @@ public class LogicalImputedJoinNode extends ImputedPlan {
         int ixfield1 = table1.getPlan().getTupleDesc().fieldNameToIndex(f1QuantifiedName.toString());
         int ixfield2 = table2.getPlan().getTupleDesc().fieldNameToIndex(f2QuantifiedName.toString());
         JoinPredicate joinPred = new JoinPredicate(ixfield1, p, ixfield2);
-        physicalPlan = new Join(joinPred, table1.getPlan(), table2.getPlan());
+        // inputs already sorted on the join attributes can be merged directly
+        mergeJoin = p == Predicate.Op.EQUALS
+                && f1QuantifiedName.equals(table1.getSortOrder())
+                && f2QuantifiedName.equals(table2.getSortOrder());
 
         // add dirty set info
         dirtySet = new HashSet<QualifiedName>();
@@ -96,6 +102,24 @@ public class LogicalImputedJoinNode extends ImputedPlan {
 
         // estimate a new combined set of table statistics based on children tablestats and join type
         tableStats = estimateJoinedTableStats();
+
+        // an equality join with an indexed base table can probe its index
+        // instead of reading the whole table
+        double indexTime = Double.POSITIVE_INFINITY;
+        if (p == Predicate.Op.EQUALS && table2 instanceof LogicalImputedScanNode
+                && !((LogicalImputedScanNode) table2).isPartitioned()
+                && table1.getPlan().getTupleDesc().getFieldType(ixfield1) == Type.INT_TYPE) {
+            double matches = cardinality() / Math.max(1.0, table1.cardinality());
+            double probe = table2.getTableStats().estimateIndexProbeCost(ixfield2, matches);
+            indexTime = table1.time() + table1.cardinality() * (probe + 0.01) + cardinality() * 0.01;
+        }
+        indexJoinTime = indexTime;
+        indexJoin = !mergeJoin && indexJoinTime < time();
+        if (indexJoin) {
+            physicalPlan = new IndexNestedLoopJoin(tid, joinPred, table1.getPlan(), (SeqScan) table2.getPlan());
+        } else {
+            physicalPlan = new Join(joinPred, table1.getPlan(), table2.getPlan(), mergeJoin);
+        }
     }
 
     public TableStats getTableStats() {
@@ -162,25 +186,38 @@ public class LogicalImputedJoinNode extends ImputedPlan {
     
     @Override
     protected double time() {
+    	if (indexJoin) {
+    		return indexJoinTime;
+    	}
+    	if (mergeJoin) {
+    		// Merge join, no hash table to build
+    		return table1.time() + table2.time() + (table1.cardinality() + table2.cardinality()) * 0.005;
+    	}
     	switch(p) {
     	// Hash join
 		case EQUALS:
 		case LIKE:
 			return table1.time() + table2.time() + (table1.cardinality() + table2.cardinality()) * 0.01;
 			
-		// Nested loops join
+		// Band join: sort both inputs, then sweep them, so the cost beyond
+		// sorting is in the joined tuples
 		case GREATER_THAN:
 		case GREATER_THAN_OR_EQ:
 		case LESS_THAN:
 		case LESS_THAN_OR_EQ:
 		case NOT_EQUALS:
-			return table1.time() + table1.cardinality() * table2.time() + table1.cardinality() * table2.cardinality() * 0.01;
+			return table1.time() + table2.time() + sortTime(table1.cardinality()) + sortTime(table2.cardinality())
+					+ cardinality() * 0.01;
 		default:
 			throw new RuntimeException("Unexpected predicate.");
     	}
     }
 
 
+    private static double sortTime(double card) {
+        return card * Math.log(Math.max(card, 2)) / Math.log(2) * 0.005;
+    }
+
     private boolean isPkey(String tableAlias, String field) {
         // look up actual table name, which alias points to
         int tid1 = tableMap.get(tableAlias);
@@ -192,6 +229,20 @@ public class LogicalImputedJoinNode extends ImputedPlan {
         return physicalPlan;
     }
 
+    /**
+     * Hash and index joins stream the outer input in order; a merge join is
+     * also ordered on the join attribute. A band join reorders its outer
+     * input, and is only sorted on the join attribute when it does not run
+     * in parallel fragments, so no order is assumed.
+     */
+    @Override
+    public QualifiedName getSortOrder() {
+        if (((Join) physicalPlan).isBandJoin()) {
+            return null;
+        }
+        return mergeJoin ? f1QuantifiedName : table1.getSortOrder();
+    }
+
     public HashSet<QualifiedName> getDirtySet() {
         return dirtySet;
     }
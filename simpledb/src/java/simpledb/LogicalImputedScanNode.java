@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.util.BitSet;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -9,14 +10,30 @@ public class LogicalImputedScanNode extends ImputedPlan {
 	private final DbIterator physicalPlan;
 	private final int tableId;
 	private final String tableAlias;
+	private final BitSet partitions;
 	
 	public LogicalImputedScanNode(TransactionId tid, LogicalScanNode scan) throws ParsingException {
+		this(tid, scan, null);
+	}
+
+	/**
+	 * @param partitions the partitions to read, for a partitioned table, or
+	 *    null to read the whole table
+	 */
+	public LogicalImputedScanNode(TransactionId tid, LogicalScanNode scan, BitSet partitions) throws ParsingException {
 		tableId = scan.t;
 		tableAlias = scan.alias;
+		this.partitions = partitions;
 		
 		/* Create a physical plan for the scan. */
 		try {
-			physicalPlan = new SeqScan(tid, scan.t, scan.alias);
+			if (partitions == null && Database.getCatalog().isCached(scan.t)) {
+				physicalPlan = new CachedScan(tid, scan.t, scan.alias);
+			} else if (partitions == null) {
+				physicalPlan = new SeqScan(tid, scan.t, scan.alias);
+			} else {
+				physicalPlan = new PartitionScan(tid, scan.t, scan.alias, partitions, true);
+			}
 		} catch (NoSuchElementException e) {
 			throw new ParsingException("Unknown table " + scan.alias);
 		}
@@ -34,21 +51,66 @@ public class LogicalImputedScanNode extends ImputedPlan {
 
 	@Override
 	protected double time() {
+		if (partitions != null) {
+			double time = 0.0;
+			for (int i = partitions.nextSetBit(0); i >= 0; i = partitions.nextSetBit(i + 1)) {
+				time += getPartitionStats(i).estimateScanCost();
+			}
+			return time;
+		}
 		return getTableStats().estimateScanCost();
 	}
+
+	private TableStats getPartitionStats(int i) {
+		String name = Database.getCatalog().getTableName(tableId);
+		return TableStats.getTableStats(Catalog.partitionName(name, i));
+	}
 	
 	@Override
 	protected AvgAgg penalty() {
 		return AvgAgg.EMPTY;
 	}
 
+	/**
+	 * For a pruned partitioned table, only the tuples in the partitions read.
+	 */
 	@Override
 	public double cardinality() {
+		if (partitions != null) {
+			double card = 0.0;
+			for (int i = partitions.nextSetBit(0); i >= 0; i = partitions.nextSetBit(i + 1)) {
+				card += getPartitionStats(i).totalTuples();
+			}
+			return card;
+		}
 		return getTableStats().totalTuples();
 	}
 
+	@Override
+	public QualifiedName getSortOrder() {
+		String key = Database.getCatalog().getClusterKey(tableId);
+		return key == null ? null : new QualifiedName(tableAlias, key);
+	}
+
+	/** @return true if this reads a subset of the partitions of a table. */
+	public boolean isPartitioned() {
+		return partitions != null;
+	}
+
+	public int getTableId() {
+		return tableId;
+	}
+
+	public String getTableAlias() {
+		return tableAlias;
+	}
+
 	@Override
 	public TableStats getTableStats() {
-		return TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
+		String name = Database.getCatalog().getTableName(tableId);
+		if (partitions != null) {
+			return TableStats.ofPartitions(TableStats.getStatsMap(), name, partitions);
+		}
+		return TableStats.getTableStats(name);
 	}
 }
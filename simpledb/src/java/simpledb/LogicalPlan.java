@@ -8,6 +8,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.NoSuchElementException;
 
 /**
@@ -35,11 +37,12 @@ public class LogicalPlan {
      */
     protected HashMap<String,Integer> tableMap;
     
-    protected QualifiedName groupByField;
-    protected Op aggOp;
-    protected QualifiedName aggField;
+    protected Vector<QualifiedName> groupByFields;
+    protected Vector<Op> aggOps;
+    protected Vector<QualifiedName> aggFields;
     protected boolean oByAsc;
     protected QualifiedName oByField;
+    protected int limit = -1;
     
     private String query;
     private HashMap<String,DbIterator> subplanMap;
@@ -53,6 +56,9 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<QualifiedName>();
+        aggOps = new Vector<Op>();
+        aggFields = new Vector<QualifiedName>();
         this.query = "";
     }
 
@@ -81,7 +87,68 @@ public class LogicalPlan {
     public Integer getTableId(String alias) {
         return tableMap.get(alias);
     }
+
+    /**
+     * @return true if the WHERE clause filters the table with the given alias.
+     */
+    boolean hasFilters(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias)) {
+                return true;
+            }
+        }
+        return false;
+    }
     
+    /**
+     * Determines which partitions of a partitioned table must be read, given
+     * the filters on it. Filters comparing the partitioning field to a
+     * constant rule out partitions that cannot hold matching tuples.
+     *
+     * @param alias the alias of the table
+     * @param keepMissing also keep the partition holding missing keys, if
+     *    the field has any, since they may be imputed before filtering
+     * @return the partitions to read, or null if the table is not partitioned
+     */
+    protected BitSet prunePartitions(String alias, boolean keepMissing) {
+        Integer tableId = getTableId(alias);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof PartitionedFile)) {
+            return null;
+        }
+        PartitionedFile pf = (PartitionedFile) file;
+        PartitionScheme scheme = pf.getScheme();
+        BitSet keep = new BitSet(scheme.numPartitions());
+        keep.set(0, scheme.numPartitions());
+        boolean pruned = false;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias) || !lf.fieldPureName.equals(scheme.getField())) {
+                continue;
+            }
+            if (lf.c.equalsIgnoreCase("NULL")) {
+                if (lf.p == Predicate.Op.EQUALS) {
+                    BitSet missing = new BitSet();
+                    missing.set(scheme.missingPartition());
+                    keep.and(missing);
+                }
+                continue;
+            }
+            try {
+                keep.and(scheme.prune(lf.p, Integer.parseInt(lf.c)));
+                pruned = true;
+            } catch (NumberFormatException e) {
+                // not comparable to the partitioning field, nothing to prune
+            }
+        }
+        if (pruned && keepMissing) {
+            TableStats stats = TableStats.getStatsMap().get(Database.getCatalog().getTableName(tableId));
+            if (stats == null || stats.estimateTotalNull(Collections.singleton(pf.getKeyField())) > 0) {
+                keep.set(scheme.missingPartition());
+            }
+        }
+        return keep;
+    }
+
     public HashMap<String,Integer> getTableAliasToIdMapping()
     {
         return this.tableMap;
@@ -168,17 +235,126 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Aggregates and GROUP BY fields accumulate: all the
+        aggregates are computed in one pass, grouped by all the fields.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        aggOp = getAggOp(op);
-        aggField = disambiguateName(afield);
-        groupByField = gfield == null ? null : disambiguateName(gfield);
+        addAggregate(op, afield);
+        if (gfield != null) {
+            addGroupBy(gfield);
+        }
+    }
+
+    /** Add an aggregate over the field to the query, unless it is
+        computed already.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        Op aop = getAggOp(op);
+        QualifiedName f = disambiguateName(afield);
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i) == aop && aggFields.get(i).equals(f)) {
+                return;
+            }
+        }
+        aggOps.add(aop);
+        aggFields.add(f);
+    }
+
+    /** Add a GROUP BY field to the query, after those added before.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        QualifiedName f = disambiguateName(gfield);
+        if (!groupByFields.contains(f)) {
+            groupByFields.add(f);
+        }
+    }
+
+    /** @return true if the query has aggregates */
+    protected boolean hasAggregates() {
+        return !aggOps.isEmpty();
+    }
+
+    /** Finds the field of the output of the aggregate that a select list
+        item reads: the GROUP BY fields come first, then the aggregates.
+        @throws ParsingException if the item is neither an aggregate of the
+        query nor a GROUP BY field
+    */
+    protected int aggregateOutputField(LogicalSelectListNode si) throws ParsingException {
+        if (si.aggOp != null) {
+            Op op = getAggOp(si.aggOp);
+            for (int i = 0; i < aggOps.size(); i++) {
+                if (aggOps.get(i) == op && aggFields.get(i).toString().equals(si.fname)) {
+                    return groupByFields.size() + i;
+                }
+            }
+            throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed by the query");
+        }
+        for (int i = 0; i < groupByFields.size(); i++) {
+            if (groupByFields.get(i).toString().equals(si.fname)) {
+                return i;
+            }
+        }
+        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
+    }
+
+    /** @return the smallest and largest values of a field according to the
+        statistics of its table, or null if they are not known
+    */
+    private int[] valueRange(QualifiedName field, Map<String,TableStats> baseTableStats) {
+        Integer tableId = getTableId(field.tableAlias);
+        if (tableId == null) {
+            return null;
+        }
+        TableStats s = baseTableStats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null) {
+            return null;
+        }
+        try {
+            return s.valueRange(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(field.attrName));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /** Creates the aggregate of the query over a plan. A single group-by
+        field with few values, according to the statistics of its table, has
+        its groups indexed by value.
+        @throws ParsingException if a field is unknown, or an aggregate does
+        not apply to its field
+    */
+    protected Aggregate aggregate(DbIterator node, Map<String,TableStats> baseTableStats) throws ParsingException {
+        TupleDesc td = node.getTupleDesc();
+        int[] afields = new int[aggFields.size()];
+        int[] gfields = new int[groupByFields.size()];
+        try {
+            for (int i = 0; i < afields.length; i++) {
+                afields[i] = td.fieldNameToIndex(aggFields.get(i));
+            }
+            for (int i = 0; i < gfields.length; i++) {
+                gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+            }
+            Aggregate agg = new Aggregate(node, afields, aggOps.toArray(new Op[0]), gfields);
+            if (gfields.length == 1) {
+                int[] range = valueRange(groupByFields.get(0), baseTableStats);
+                if (range != null) {
+                    agg.setKeyRange(range[0], range[1]);
+                }
+            }
+            return agg;
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException(e);
+        } catch (IllegalArgumentException e) {
+            throw new simpledb.ParsingException(e);
+        }
     }
 
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
@@ -192,6 +368,17 @@ public class LogicalPlan {
         oByAsc = asc;
     }
 
+    /** Limit the output to its first tuples in the ORDER BY order.
+        @param limit the number of tuples to return
+        @throws ParsingException if the plan has no ORDER BY
+    */
+    public void setLimit(int limit) throws ParsingException {
+        if (oByField == null) {
+            throw new ParsingException("LIMIT is only supported with ORDER BY.");
+        }
+        this.limit = limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -268,15 +455,26 @@ public class LogicalPlan {
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
+            BitSet partitions;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 int id = Database.getCatalog().getDatabaseFile(table.t).getId();
+                 partitions = prunePartitions(table.alias, false);
+                 if (partitions == null && Database.getCatalog().isCached(id)) {
+                     ss = new CachedScan(t, id, table.alias);
+                 } else if (partitions == null) {
+                     ss = new SeqScan(t, id, table.alias);
+                 } else {
+                     ss = new PartitionScan(t, id, table.alias, partitions, true);
+                 }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
-            statsMap.put(baseTableName, baseTableStats.get(baseTableName));
+            // a pruned scan is costed by the partitions it reads
+            statsMap.put(baseTableName, partitions == null ? baseTableStats.get(baseTableName)
+                    : TableStats.ofPartitions(baseTableStats, baseTableName, partitions));
             filterSelectivities.put(table.alias, 1.0);
 
         }
@@ -322,6 +520,16 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
+            // IS NULL directly on a table can read just the tuples with
+            // missing values
+            if (isNull && lf.p == Predicate.Op.EQUALS && subplan.getClass() == SeqScan.class) {
+                SeqScan scan = (SeqScan) subplan;
+                TableStats s = baseTableStats.get(Database.getCatalog().getTableName(scan.getTableId()));
+                if (s != null && s.estimateMissingScanCost(p.getField()) < s.estimateScanCost()) {
+                    subplan = new MissingScan(t, scan.getTableId(), lf.tableAlias,
+                            Collections.singleton(p.getField()));
+                }
+            }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
@@ -370,7 +578,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2);
+            j = JoinOptimizer.instantiateJoin(t,lj,plan1,plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -402,7 +610,6 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -411,20 +618,18 @@ public class LogicalPlan {
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                outFields.add(aggregateOutputField(si));
+                outTypes.add(null);  //the type of the aggregate's output field, set below
 
-            } else if (aggField != null) {
-                    if (groupByField == null) {
-                        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
-                    }
-                    outFields.add(0);
+            } else if (hasAggregates()) {
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
+                    outFields.add(aggregateOutputField(si));
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
                     TupleDesc td = node.getTupleDesc();
@@ -446,24 +651,15 @@ public class LogicalPlan {
                 }
         }
 
-        if (aggField != null) {
-            TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
-            try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField.toString()),
-                                        groupByField == null ? Aggregator.NO_GROUPING : td.fieldNameToIndex(groupByField.toString()),
-                                        aggOp);
-            } catch (NoSuchElementException e) {
-                throw new simpledb.ParsingException(e);
-            } catch (IllegalArgumentException e) {
-                throw new simpledb.ParsingException(e);
+        if (hasAggregates()) {
+            node = aggregate(node, baseTableStats);
+            for (int i = 0; i < outFields.size(); i++) {
+                outTypes.set(i, node.getTupleDesc().getFieldType(outFields.get(i)));
             }
-            node = aggNode;
         }
 
         if (oByField != null) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField.toString()), oByAsc, node);
+            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField.toString()), oByAsc, node, limit);
         }
 
         return new Project(outFields, outTypes, node);
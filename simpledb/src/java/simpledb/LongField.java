@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single 64-bit integer, such as a sum or a
+ * count that may not fit in an {@link IntField}.
+ */
+public class LongField implements Field {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long value;
+    private final boolean missing;
+
+    public long getValue() {
+        if (isMissing()) {
+            throw new UnsupportedOperationException("cannot get value on missing");
+        }
+        return value;
+    }
+
+    public long getValueDefault(long default_) {
+    	if (isMissing()) {
+            return default_;
+        }
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param l The value of this field.
+     */
+    public LongField(long l) {
+        value = l;
+        missing = false;
+    }
+
+    public LongField() {
+        value = Type.MISSING_LONG;
+        missing = true;
+    }
+
+    public String toString() {
+        if (isMissing()) {
+            return HeapFileEncoder.NULL_STRING;
+        }
+        return Long.toString(value);
+    }
+
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof LongField && ((LongField) field).value == value;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a LongField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if (isMissing()) {
+            return op == Predicate.Op.EQUALS && val.isMissing();
+        }
+        LongField lVal = (LongField) val;
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == lVal.value;
+        case NOT_EQUALS:
+            return value != lVal.value;
+        case GREATER_THAN:
+            return value > lVal.value;
+        case GREATER_THAN_OR_EQ:
+            return value >= lVal.value;
+        case LESS_THAN:
+            return value < lVal.value;
+        case LESS_THAN_OR_EQ:
+            return value <= lVal.value;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.LONG_TYPE
+     */
+	public Type getType() {
+		return Type.LONG_TYPE;
+	}
+
+	public boolean isMissing() {
+        return missing;
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Collection;
+
+/**
+ * Records, for every column of a heap file, which tuples have a missing value
+ * in it. Tuples are identified by their position in the file, the page number
+ * times the number of slots per page plus their slot, so that iterating over
+ * a bitmap visits pages in order.
+ * <p>
+ * The index is kept in a file next to the table, and is rebuilt when the table
+ * was written after it. The buffer pool keeps it up to date as tuples are
+ * inserted and deleted.
+ *
+ * @see Catalog#getMissingIndex(int)
+ */
+public class MissingIndex {
+    private static final int MAGIC = 0x4d495353;
+
+    private final HeapFile table;
+    private final int slotsPerPage;
+    private final CompressedBitmap[] columns;
+
+    private MissingIndex(HeapFile table, CompressedBitmap[] columns) {
+        this.table = table;
+        this.slotsPerPage = HeapPage.slotsPerPage(table.getTupleDesc());
+        this.columns = columns;
+    }
+
+    /**
+     * @return the file the index of a table is kept in
+     */
+    public static File fileOf(HeapFile table) {
+        String name = table.getFile().getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        return new File(table.getFile().getAbsoluteFile().getParentFile(), base + ".missing");
+    }
+
+    /**
+     * Builds the index of a table by scanning it, without keeping its pages
+     * in the buffer pool.
+     */
+    public static MissingIndex build(HeapFile table, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        CompressedBitmap[] columns = new CompressedBitmap[table.getTupleDesc().numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new CompressedBitmap();
+        }
+        MissingIndex index = new MissingIndex(table, columns);
+        DbFileIterator it = table.uncachedIterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            index.add(it.next());
+        }
+        it.close();
+        return index;
+    }
+
+    /**
+     * Reads the index of a table from its file.
+     *
+     * @return the index, or null if there is none or the table was written
+     *         after it
+     */
+    public static MissingIndex open(HeapFile table) throws IOException {
+        File f = fileOf(table);
+        if (!f.exists() || f.lastModified() <= table.lastModified()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            int numFields = table.getTupleDesc().numFields();
+            if (in.readInt() != MAGIC || in.readInt() != numFields
+                    || in.readInt() != HeapPage.slotsPerPage(table.getTupleDesc())
+                    || in.readInt() != table.numPages) {
+                return null;
+            }
+            CompressedBitmap[] columns = new CompressedBitmap[numFields];
+            for (int i = 0; i < numFields; i++) {
+                columns[i] = CompressedBitmap.read(in);
+            }
+            return new MissingIndex(table, columns);
+        }
+    }
+
+    /**
+     * Writes the index to its file. This must happen after the pages of the
+     * table are written, for the file to be considered up to date.
+     */
+    public synchronized void save() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileOf(table))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(columns.length);
+            out.writeInt(slotsPerPage);
+            out.writeInt(table.numPages);
+            for (CompressedBitmap c : columns) {
+                c.write(out);
+            }
+        }
+    }
+
+    /**
+     * @return the position of a tuple in the bitmaps
+     */
+    public int positionOf(RecordId rid) {
+        return rid.getPageId().getPageNumber() * slotsPerPage + rid.getTupleNumber();
+    }
+
+    /**
+     * @return the tuple at a position in the bitmaps
+     */
+    public RecordId recordOf(int position) {
+        return new RecordId(new HeapPageId(table.getId(), position / slotsPerPage), position % slotsPerPage);
+    }
+
+    /**
+     * @return the tuples with a missing value in the field. The bitmap must
+     *         not be modified.
+     */
+    public synchronized CompressedBitmap getMissing(int field) {
+        return columns[field];
+    }
+
+    /**
+     * @return the tuples with a missing value in any of the fields
+     */
+    public synchronized CompressedBitmap getMissing(Collection<Integer> fields) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (int field : fields) {
+            result = result.or(columns[field]);
+        }
+        return result;
+    }
+
+    public synchronized int countMissing(int field) {
+        return columns[field].cardinality();
+    }
+
+    /**
+     * @return the number of pages holding at least one of the tuples
+     */
+    public int countPages(CompressedBitmap tuples) {
+        int pages = 0;
+        for (int p = tuples.nextSetBit(0); p >= 0; p = tuples.nextSetBit((p / slotsPerPage + 1) * slotsPerPage)) {
+            pages++;
+        }
+        return pages;
+    }
+
+    private void add(Tuple t) {
+        int position = positionOf(t.getRecordId());
+        for (int i = 0; i < columns.length; i++) {
+            if (t.getField(i).isMissing()) {
+                columns[i].add(position);
+            }
+        }
+    }
+
+    /** Records a tuple just inserted into the table. */
+    synchronized void insertTuple(Tuple t) {
+        add(t);
+    }
+
+    /** Forgets a tuple just deleted from the table. */
+    synchronized void deleteTuple(RecordId rid) {
+        int position = positionOf(rid);
+        for (CompressedBitmap c : columns) {
+            c.remove(position);
+        }
+    }
+}
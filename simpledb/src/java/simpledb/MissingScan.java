@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * MissingScan reads the tuples of a table that have a missing value in any of
+ * a set of fields, by looking them up in the table's missing value index.
+ * Only pages holding such tuples are read, in file order.
+ *
+ * @see MissingIndex
+ */
+public class MissingScan extends SeqScan {
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final Collection<Integer> fields;
+
+    private MissingIndex index;
+    private CompressedBitmap rows;
+    private int next;
+
+    public MissingScan(TransactionId tid, int tableid, String tableAlias, Collection<Integer> fields) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.tableId = tableid;
+        this.fields = fields;
+    }
+
+    public Collection<Integer> getFields() {
+        return fields;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        index = Database.getCatalog().getMissingIndex(tableId);
+        if (index == null) {
+            throw new DbException("Table " + tableId + " has no missing value index.");
+        }
+        // copy, so that the scan is not affected by concurrent changes
+        rows = index.getMissing(fields);
+        next = rows.nextSetBit(0);
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return rows != null && next >= 0;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        RecordId rid = index.recordOf(next);
+        next = rows.nextSetBit(next + 1);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        Tuple t = page.getTuple(rid.getTupleNumber());
+        if (t == null) {
+            throw new DbException("Missing value index points to an empty slot.");
+        }
+        return t;
+    }
+
+    @Override
+    public void close() {
+        rows = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
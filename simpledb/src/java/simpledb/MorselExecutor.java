@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * MorselExecutor runs the pipelines at the bottom of a plan on several
+ * threads. A pipeline is a chain of filters and drops, or a
+ * {@link PushPipeline}, over a sequential scan of a heap file; its pages are split into morsels of {@link #MORSEL_PAGES}
+ * pages, and workers of a shared work-stealing pool each claim the next
+ * morsel until none is left, running their own copy of the pipeline over it.
+ * <p>
+ * Aggregates over such a pipeline keep one partial aggregate per worker,
+ * merged once the workers are done. Other pipelines are replaced by a
+ * {@link MorselGather}, which returns the results of the morsels in order.
+ */
+public class MorselExecutor {
+    /** Number of pages in a morsel. */
+    static final int MORSEL_PAGES = 16;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private MorselExecutor() {
+    }
+
+    /**
+     * Runs a task on the shared pool.
+     */
+    static void submit(Runnable task) {
+        pool.execute(task);
+    }
+
+    /**
+     * @return true if the plan is a pipeline that can be split into morsels:
+     *         filters, compiled filters, drops and push pipelines over a
+     *         sequential scan of a heap file
+     */
+    public static boolean splittable(DbIterator plan) {
+        while (plan instanceof Filter || plan instanceof CompiledPipeline || plan instanceof Drop
+                || plan instanceof PushPipeline) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return plan != null && plan.getClass() == SeqScan.class
+                && Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId()) instanceof HeapFile;
+    }
+
+    private static SeqScan source(DbIterator pipeline) {
+        while (!(pipeline instanceof SeqScan)) {
+            pipeline = ((Operator) pipeline).getChildren()[0];
+        }
+        return (SeqScan) pipeline;
+    }
+
+    /**
+     * @return the page ranges [first, end) of the morsels of a pipeline
+     */
+    static List<int[]> morsels(DbIterator pipeline) {
+        SeqScan scan = source(pipeline);
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        List<int[]> morsels = new ArrayList<int[]>();
+        for (int first = 0; first < file.numPages; first += MORSEL_PAGES) {
+            morsels.add(new int[] { first, Math.min(first + MORSEL_PAGES, file.numPages) });
+        }
+        return morsels;
+    }
+
+    /**
+     * @return a copy of a pipeline that reads only the pages of a morsel
+     */
+    static DbIterator replicate(DbIterator pipeline, int[] morsel) {
+        if (pipeline instanceof Filter) {
+            Filter f = (Filter) pipeline;
+            return new Filter(f.getPredicate(), replicate(f.getChildren()[0], morsel));
+        }
+        if (pipeline instanceof CompiledPipeline) {
+            CompiledPipeline c = (CompiledPipeline) pipeline;
+            return new CompiledPipeline(c.getPredicates(), c.getKernel(), replicate(c.getChildren()[0], morsel));
+        }
+        if (pipeline instanceof Drop) {
+            Drop d = (Drop) pipeline;
+            return new Drop(d.getDropFields(), replicate(d.getChildren()[0], morsel));
+        }
+        if (pipeline instanceof PushPipeline) {
+            PushPipeline p = (PushPipeline) pipeline;
+            return new PushPipeline(replicate(p.getChildren()[0], morsel), p.getStages());
+        }
+        SeqScan scan = (SeqScan) pipeline;
+        return new MorselScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(), morsel[0], morsel[1]);
+    }
+
+    /**
+     * Splits a pipeline into copies that read consecutive runs of its
+     * morsels, one per worker.
+     *
+     * @return at most n pipelines, which together return the tuples of the
+     *         pipeline
+     */
+    static List<DbIterator> split(DbIterator pipeline, int n) {
+        List<int[]> morsels = morsels(pipeline);
+        List<DbIterator> parts = new ArrayList<DbIterator>();
+        int count = Math.min(n, morsels.size());
+        for (int i = 0; i < count; i++) {
+            int first = morsels.get(i * morsels.size() / count)[0];
+            int end = morsels.get((i + 1) * morsels.size() / count - 1)[1];
+            parts.add(replicate(pipeline, new int[] { first, end }));
+        }
+        return parts;
+    }
+
+    /**
+     * Runs a copy of a pipeline over a morsel.
+     *
+     * @return the batches it returned
+     */
+    static List<TupleBatch> run(DbIterator pipeline, int[] morsel) throws DbException, TransactionAbortedException {
+        DbIterator it = replicate(pipeline, morsel);
+        List<TupleBatch> batches = new ArrayList<TupleBatch>();
+        it.open();
+        try {
+            TupleBatch batch;
+            while ((batch = it.nextBatch(TupleBatch.DEFAULT_SIZE)) != null) {
+                batches.add(batch);
+            }
+        } finally {
+            it.close();
+        }
+        return batches;
+    }
+
+    /**
+     * Aggregates the output of a pipeline on several threads.
+     *
+     * @param parallelism
+     *            the number of workers
+     * @param aggregators
+     *            creates the partial aggregate of each worker
+     * @return the partial aggregates, which the caller merges
+     */
+    public static List<Aggregator> aggregate(DbIterator pipeline, int parallelism, Supplier<Aggregator> aggregators)
+            throws DbException, TransactionAbortedException {
+        List<int[]> morsels = morsels(pipeline);
+        AtomicInteger next = new AtomicInteger();
+        List<Future<Aggregator>> workers = new ArrayList<Future<Aggregator>>();
+        for (int w = 0; w < Math.min(parallelism, morsels.size()); w++) {
+            workers.add(pool.submit(() -> {
+                Aggregator partial = aggregators.get();
+                int m;
+                while ((m = next.getAndIncrement()) < morsels.size()) {
+                    DbIterator it = replicate(pipeline, morsels.get(m));
+                    it.open();
+                    try {
+                        if (it instanceof PushPipeline) {
+                            // each worker drives its own copy into its aggregate
+                            ((PushPipeline) it).push(partial::mergeTupleIntoGroup);
+                        } else {
+                            TupleBatch batch;
+                            while ((batch = it.nextBatch(TupleBatch.DEFAULT_SIZE)) != null) {
+                                partial.mergeBatchIntoGroups(batch);
+                            }
+                        }
+                    } finally {
+                        it.close();
+                    }
+                }
+                return partial;
+            }));
+        }
+        List<Aggregator> partials = new ArrayList<Aggregator>();
+        try {
+            for (Future<Aggregator> worker : workers) {
+                partials.add(worker.get());
+            }
+        } catch (InterruptedException e) {
+            next.set(morsels.size());
+            throw new DbException("Interrupted while aggregating morsels.");
+        } catch (ExecutionException e) {
+            next.set(morsels.size());
+            if (e.getCause() instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) e.getCause();
+            }
+            throw new DbException("Parallel aggregation failed: " + e.getCause());
+        }
+        return partials;
+    }
+
+    /**
+     * Rewrites a plan to run its pipelines on several threads. Aggregates
+     * over a pipeline aggregate in parallel; other pipelines are gathered
+     * by a {@link MorselGather}. Pipelines of a single morsel are left
+     * alone.
+     *
+     * @param parallelism
+     *            the number of threads a pipeline may use
+     * @return the rewritten plan
+     */
+    public static DbIterator parallelize(DbIterator plan, int parallelism) {
+        if (parallelism <= 1 || plan == null) {
+            return plan;
+        }
+        if (splittable(plan)) {
+            return morsels(plan).size() > 1 ? new MorselGather(plan, parallelism) : plan;
+        }
+        if (plan instanceof Aggregate) {
+            DbIterator child = ((Aggregate) plan).getChildren()[0];
+            if (splittable(child) && ((Aggregate) plan).supportsParallelism()) {
+                if (morsels(child).size() > 1) {
+                    ((Aggregate) plan).setParallelism(parallelism);
+                }
+                return plan;
+            }
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren();
+            DbIterator[] rewritten = new DbIterator[children.length];
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                rewritten[i] = parallelize(children[i], parallelism);
+                changed |= rewritten[i] != children[i];
+            }
+            if (changed) {
+                op.setChildren(rewritten);
+            }
+        }
+        return plan;
+    }
+}
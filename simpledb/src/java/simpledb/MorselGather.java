@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MorselGather runs a pipeline over the morsels of its table on several
+ * worker threads, and returns the results of the morsels in order, so that
+ * tuples come out as a sequential run of the pipeline would return them.
+ * Workers run at most a few morsels ahead of the consumer. Batches are
+ * those of the pipeline, of up to {@link TupleBatch#DEFAULT_SIZE} rows.
+ * Workers waiting for the consumer tell the shared pool they are blocked, so
+ * that it can run other work, such as the workers of another gather, on a
+ * spare thread.
+ *
+ * @see MorselExecutor
+ */
+public class MorselGather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int parallelism;
+
+    private transient Run run;
+    private int consumed;
+    private Iterator<TupleBatch> batches;
+
+    // batch whose rows fetchNext is returning
+    private TupleBatch current;
+    private int currentIdx;
+
+    /**
+     * @param child
+     *            the pipeline to run, which must be
+     *            {@link MorselExecutor#splittable}
+     * @param parallelism
+     *            the number of worker threads
+     */
+    public MorselGather(DbIterator child, int parallelism) {
+        this.child = child;
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /** The state shared with the workers of one run over the morsels. */
+    private static class Run {
+        final DbIterator pipeline;
+        final List<int[]> morsels;
+        final List<CompletableFuture<List<TupleBatch>>> results =
+                new ArrayList<CompletableFuture<List<TupleBatch>>>();
+        final AtomicInteger nextMorsel = new AtomicInteger();
+        final Semaphore ahead;
+        final int parallelism;
+        volatile boolean cancelled = false;
+
+        Run(DbIterator pipeline, int parallelism) {
+            this.pipeline = pipeline;
+            this.parallelism = parallelism;
+            morsels = MorselExecutor.morsels(pipeline);
+            for (int i = 0; i < morsels.size(); i++) {
+                results.add(new CompletableFuture<List<TupleBatch>>());
+            }
+            ahead = new Semaphore(2 * parallelism);
+        }
+
+        /** Runs morsels until none is left, or the run is cancelled. */
+        void work() {
+            while (!cancelled) {
+                try {
+                    ForkJoinPool.managedBlock(new Permit());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                int m = nextMorsel.getAndIncrement();
+                if (m >= morsels.size() || cancelled) {
+                    ahead.release();
+                    return;
+                }
+                try {
+                    results.get(m).complete(MorselExecutor.run(pipeline, morsels.get(m)));
+                } catch (Exception e) {
+                    results.get(m).completeExceptionally(e);
+                }
+            }
+        }
+
+        /** Waits for a permit to run ahead of the consumer. */
+        private class Permit implements ForkJoinPool.ManagedBlocker {
+            private boolean acquired = false;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                if (!acquired) {
+                    ahead.acquire();
+                    acquired = true;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return acquired || (acquired = ahead.tryAcquire());
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            // wake up the workers waiting for the consumer
+            ahead.release(parallelism);
+        }
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        super.open();
+        run = new Run(child, parallelism);
+        consumed = 0;
+        batches = null;
+        current = null;
+        final Run r = run;
+        for (int w = 0; w < Math.min(parallelism, r.morsels.size()); w++) {
+            MorselExecutor.submit(r::work);
+        }
+    }
+
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+        while (batches == null || !batches.hasNext()) {
+            if (consumed == run.morsels.size()) {
+                return null;
+            }
+            try {
+                batches = run.results.get(consumed).get().iterator();
+            } catch (InterruptedException e) {
+                throw new DbException("Interrupted while gathering morsels.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof TransactionAbortedException) {
+                    throw (TransactionAbortedException) e.getCause();
+                }
+                throw new DbException("Morsel failed: " + e.getCause());
+            }
+            // let the workers start on another morsel
+            run.results.set(consumed++, null);
+            run.ahead.release();
+        }
+        return batches.next();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (current == null || currentIdx == current.size()) {
+            current = nextBatch(TupleBatch.DEFAULT_SIZE);
+            currentIdx = 0;
+            if (current == null) {
+                return null;
+            }
+        }
+        return current.getTuple(current.selection()[currentIdx++]);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (run != null) {
+            run.cancel();
+            run = null;
+        }
+        batches = null;
+        current = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length != 1) {
+            throw new IllegalArgumentException("Expected a single new child.");
+        }
+        child = children[0];
+    }
+}
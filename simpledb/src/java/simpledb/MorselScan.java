@@ -0,0 +1,43 @@
+package simpledb;
+
+/**
+ * MorselScan reads a range of pages of a heap file, one morsel of a
+ * parallel scan.
+ *
+ * @see MorselExecutor
+ */
+public class MorselScan extends SeqScan {
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final int firstPage, endPage;
+
+    /**
+     * @param firstPage
+     *            the first page to read
+     * @param endPage
+     *            one past the last page to read
+     */
+    public MorselScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.tableId = tableid;
+        this.firstPage = firstPage;
+        this.endPage = endPage;
+    }
+
+    public int getFirstPage() {
+        return firstPage;
+    }
+
+    public int getEndPage() {
+        return endPage;
+    }
+
+    @Override
+    protected DbFileIterator fileIterator() {
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        return file.iterator(tid, firstPage, endPage);
+    }
+}
@@ -0,0 +1,369 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Computes several aggregates at once, grouped by any number of fields, so
+ * that a report over many columns reads its input once. Groups are numbered
+ * by a {@link GroupTable} over the composite key, and each aggregate keeps
+ * its accumulators in flat arrays indexed by group, as in
+ * {@link IntegerAggregator}.
+ * <p>
+ * Output tuples have the group-by fields first, in order, then one field per
+ * aggregate. A group is output once a tuple with none of its group-by fields
+ * missing is merged; an aggregate other than COUNT with no value in a group
+ * is missing. All operators apply to integer fields, and COUNT to fields of
+ * any type. Sums and counts are output as LongFields, so that they do not
+ * overflow.
+ */
+public class MultiAggregator implements Aggregator {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] gbFields, aggFields;
+    private final Op[] ops;
+    private final boolean intKeys;
+    private final GroupTable groups;
+    private final TupleDesc schema;
+
+    // accumulators, by aggregate and group: the minimum, maximum or sum of
+    // the values, and the number of values (of rows, for COUNT)
+    private long[][] values;
+    private long[][] counts;
+    private int initialized = 0;
+
+    /**
+     * @param td
+     *            the schema of the aggregated tuples
+     * @param gbfields
+     *            the group-by fields, empty if there is no grouping
+     * @param afields
+     *            the field of each aggregate
+     * @param what
+     *            the operator of each aggregate
+     * @throws IllegalArgumentException
+     *             if an operator does not apply to its field
+     */
+    public MultiAggregator(TupleDesc td, int[] gbfields, int[] afields, Op[] what) {
+        if (afields.length != what.length) {
+            throw new IllegalArgumentException("Expected an operator for each aggregate field.");
+        }
+        gbFields = gbfields;
+        aggFields = afields;
+        ops = what;
+        for (int a = 0; a < afields.length; a++) {
+            switch (what[a]) {
+            case COUNT:
+                break;
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+                if (td.getFieldType(afields[a]) != Type.INT_TYPE) {
+                    throw new IllegalArgumentException("Expected a COUNT operator over a non-integer field.");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + what[a] + ".");
+            }
+        }
+
+        Type[] keyTypes = new Type[gbfields.length];
+        Type[] types = new Type[gbfields.length + afields.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            keyTypes[i] = types[i] = td.getFieldType(gbfields[i]);
+        }
+        for (int a = 0; a < afields.length; a++) {
+            types[gbfields.length + a] = outputType(what[a]);
+        }
+        schema = new TupleDesc(types);
+        // without grouping, all values go to the group of key 0
+        groups = gbfields.length == 0 ? new GroupTable(Type.INT_TYPE) : new GroupTable(keyTypes);
+        intKeys = gbfields.length == 1 && keyTypes[0] == Type.INT_TYPE;
+
+        values = new long[afields.length][16];
+        counts = new long[afields.length][16];
+    }
+
+    private static Type outputType(Op op) {
+        switch (op) {
+        case AVG:
+            return Type.DOUBLE_TYPE;
+        case MIN:
+        case MAX:
+            return Type.INT_TYPE;
+        default:
+            return Type.LONG_TYPE;
+        }
+    }
+
+    /** Sets up the accumulators of the groups up to a new one. */
+    private void initialize(int group) {
+        if (group >= values[0].length) {
+            int length = Math.max(values[0].length * 2, group + 1);
+            for (int a = 0; a < ops.length; a++) {
+                values[a] = Arrays.copyOf(values[a], length);
+                counts[a] = Arrays.copyOf(counts[a], length);
+            }
+        }
+        for (; initialized <= group; initialized++) {
+            for (int a = 0; a < ops.length; a++) {
+                values[a][initialized] = ops[a] == Op.MIN ? Long.MAX_VALUE : ops[a] == Op.MAX ? Long.MIN_VALUE : 0;
+                counts[a][initialized] = 0;
+            }
+        }
+    }
+
+    private int initialized(int g) {
+        if (g >= initialized) {
+            initialize(g);
+        }
+        return g;
+    }
+
+    /**
+     * @return the key of a tuple, or null if a group-by field is missing
+     */
+    private Field[] key(Tuple tup) {
+        Field[] key = new Field[gbFields.length];
+        for (int i = 0; i < key.length; i++) {
+            if (tup.isMissing(gbFields[i])) {
+                return null;
+            }
+            key[i] = tup.getField(gbFields[i]);
+        }
+        return key;
+    }
+
+    /** Adds a value to the accumulator of an aggregate for a group. */
+    private void add(int a, int g, int v) {
+        switch (ops[a]) {
+        case MIN:
+            values[a][g] = Math.min(values[a][g], v);
+            break;
+        case MAX:
+            values[a][g] = Math.max(values[a][g], v);
+            break;
+        default:
+            values[a][g] += v;
+        }
+        counts[a][g]++;
+    }
+
+    /**
+     * Merges a tuple into every aggregate of its group. Missing values are
+     * skipped, except by COUNT.
+     */
+    @Override
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g;
+        if (gbFields.length == 0) {
+            g = initialized(groups.groupOf(0));
+        } else {
+            Field[] key = key(tup);
+            if (key == null) {
+                return;
+            }
+            g = initialized(groups.groupOf(key));
+        }
+        for (int a = 0; a < ops.length; a++) {
+            if (ops[a] == Op.COUNT) {
+                counts[a][g]++;
+            } else if (!tup.isMissing(aggFields[a])) {
+                add(a, g, tup.getInt(aggFields[a]));
+            }
+        }
+    }
+
+    /**
+     * Merges a batch by finding the group of each row once, then reading
+     * each aggregate column directly.
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int n = batch.size();
+        if (n == 0) {
+            return;
+        }
+        // the group of each selected row, or -1 if a key field is missing
+        int[] rowGroups = new int[n];
+        if (gbFields.length == 0) {
+            Arrays.fill(rowGroups, initialized(groups.groupOf(0)));
+        } else if (intKeys) {
+            int[] keys = batch.getInts(gbFields[0]);
+            boolean[] keyMissing = batch.getMissing(gbFields[0]);
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                rowGroups[i] = keyMissing[row] ? -1 : initialized(groups.groupOf(keys[row]));
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                Field[] key = key(batch.getTuple(sel[i]));
+                rowGroups[i] = key == null ? -1 : initialized(groups.groupOf(key));
+            }
+        }
+        for (int a = 0; a < ops.length; a++) {
+            if (ops[a] == Op.COUNT) {
+                for (int i = 0; i < n; i++) {
+                    if (rowGroups[i] >= 0) {
+                        counts[a][rowGroups[i]]++;
+                    }
+                }
+                continue;
+            }
+            int[] vals = batch.getInts(aggFields[a]);
+            boolean[] missing = batch.getMissing(aggFields[a]);
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (rowGroups[i] >= 0 && !missing[row]) {
+                    add(a, rowGroups[i], vals[row]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the groups of a partial aggregate computed over other tuples,
+     * with the same fields and operators.
+     */
+    public void merge(MultiAggregator partial) {
+        for (int pg = 0; pg < partial.groups.size(); pg++) {
+            int g;
+            if (gbFields.length == 0) {
+                g = groups.groupOf(0);
+            } else if (intKeys) {
+                g = groups.groupOf(partial.groups.intKey(pg));
+            } else {
+                g = groups.groupOf(partial.groups.keys(pg));
+            }
+            initialized(g);
+            for (int a = 0; a < ops.length; a++) {
+                switch (ops[a]) {
+                case MIN:
+                    values[a][g] = Math.min(values[a][g], partial.values[a][pg]);
+                    break;
+                case MAX:
+                    values[a][g] = Math.max(values[a][g], partial.values[a][pg]);
+                    break;
+                default:
+                    values[a][g] += partial.values[a][pg];
+                }
+                counts[a][g] += partial.counts[a][pg];
+            }
+        }
+    }
+
+    /**
+     * @return the field of an aggregate for a group
+     */
+    private Field result(int a, int g) {
+        if (ops[a] == Op.COUNT) {
+            return new LongField(counts[a][g]);
+        }
+        switch (outputType(ops[a])) {
+        case DOUBLE_TYPE:
+            return counts[a][g] == 0 ? new DoubleField() : new DoubleField((double) values[a][g] / counts[a][g]);
+        case INT_TYPE:
+            return counts[a][g] == 0 ? new IntField() : new IntField((int) values[a][g]);
+        default:
+            return counts[a][g] == 0 ? new LongField() : new LongField(values[a][g]);
+        }
+    }
+
+    @Override
+    public void clear() {
+        groups.clear();
+        initialized = 0;
+    }
+
+    @Override
+    public boolean setKeyRange(int min, int max) {
+        return intKeys && groups.setKeyRange(min, max);
+    }
+
+    @Override
+    public int numGroups() {
+        return groups.size();
+    }
+
+    @Override
+    public boolean hasGroup(Tuple tup) {
+        if (gbFields.length == 0) {
+            return groups.size() > 0;
+        }
+        Field[] key = key(tup);
+        return key != null && groups.find(key) >= 0;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return schema;
+    }
+
+    /**
+     * @return an iterator over tuples of the group-by fields followed by
+     *         the value of each aggregate
+     */
+    @Override
+    public DbIterator iterator() {
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+
+            // the next group, or -1 if the iterator is not open
+            private int next = -1;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                next = 0;
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (next < 0) {
+                    throw new IllegalStateException("Iterator is not open.");
+                }
+                return next < groups.size();
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int g = next++;
+                Field[] fields = new Field[gbFields.length + ops.length];
+                if (gbFields.length > 0) {
+                    System.arraycopy(groups.keys(g), 0, fields, 0, gbFields.length);
+                }
+                for (int a = 0; a < ops.length; a++) {
+                    fields[gbFields.length + a] = result(a, g);
+                }
+                return new Tuple(schema, fields);
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                if (next < 0) {
+                    throw new IllegalStateException("Iterator is not open.");
+                }
+                next = 0;
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return schema;
+            }
+
+            @Override
+            public void close() {
+                next = -1;
+            }
+
+            @Override
+            public DbIterator[] getChildren() {
+                return new DbIterator[] {};
+            }
+        };
+    }
+}
@@ -3,18 +3,27 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. Tuples are
+ * sorted with an {@link ExternalSort} within a memory budget. With a limit
+ * of k tuples that fit in the budget, only the first k tuples are kept, in a
+ * heap, instead of sorting them all.
  */
-public class OrderBy extends Operator {
+public class OrderBy extends Operator implements PipelineBreaker {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
+    private final int limit;
+    private int memoryPages = ExternalSort.DEFAULT_MEMORY_PAGES;
+    private int parallelism = 1;
+
+    // the sorted tuples, and the number returned so far
+    private ExternalSort sort;
+    private DbFileIterator it;
+    private int returned = 0;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +36,52 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, -1);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first tuples of the
+     * ordering, as for ORDER BY ... LIMIT.
+     * 
+     * @param limit
+     *            the number of tuples returned, or -1 for all of them
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the number of tuples returned, or -1 for all of them
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Sets the memory budget of the sort, in pages. Tuples that do not fit
+     * are sorted in runs on disk.
+     */
+    public void setMemoryPages(int memoryPages) {
+        this.memoryPages = memoryPages;
+    }
+
+    /**
+     * Sets the number of threads sorting runs while the child is read.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the number of sorted runs written to disk, while open
+     */
+    public int numRuns() {
+        return sort == null ? 0 : sort.numRuns();
     }
     
     public boolean isASC()
@@ -53,24 +103,81 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    @Override
+    public boolean materializes(int child) {
+        return true;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        Comparator<Tuple> order = new TupleComparator(orderByField, asc);
+        if (limit >= 0 && limit <= (long) memoryPages * BufferPool.getPageSize() / td.getSize()) {
+            it = new ExternalSort.ListIterator(top(order));
+        } else {
+            sort = new ExternalSort(td, order, memoryPages, parallelism);
+            PushPipeline.drain(child, sort::add);
+            it = sort.sorted();
+        }
+        it.open();
+        returned = 0;
         super.open();
     }
 
+    /**
+     * @return the first limit tuples of the child in order, as a stable sort
+     *         would return them
+     */
+    private ArrayList<Tuple> top(Comparator<Tuple> order) throws DbException, TransactionAbortedException {
+        // the worst tuple kept so far is at the head; of equal tuples, the
+        // one read last is the worst
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(Math.max(1, limit), (a, b) -> {
+            int c = order.compare(b.tuple, a.tuple);
+            return c != 0 ? c : Long.compare(b.seq, a.seq);
+        });
+        long[] seq = { 0 };
+        PushPipeline.drain(child, t -> {
+            if (heap.size() < limit) {
+                heap.add(new Ranked(t, seq[0]));
+            } else if (limit > 0 && order.compare(t, heap.peek().tuple) < 0) {
+                heap.poll();
+                heap.add(new Ranked(t, seq[0]));
+            }
+            seq[0]++;
+        });
+        ArrayList<Tuple> result = new ArrayList<Tuple>(Collections.nCopies(heap.size(), (Tuple) null));
+        for (int i = heap.size() - 1; i >= 0; i--) {
+            result.set(i, heap.poll().tuple);
+        }
+        return result;
+    }
+
+    private static class Ranked {
+        final Tuple tuple;
+        final long seq;
+
+        Ranked(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        if (sort != null) {
+            sort.close();
+            sort = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        it.rewind();
+        returned = 0;
     }
 
     /**
@@ -82,7 +189,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (it != null && (limit < 0 || returned < limit) && it.hasNext()) {
+            returned++;
             return it.next();
         } else
             return null;
@@ -99,25 +207,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
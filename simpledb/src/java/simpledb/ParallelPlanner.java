@@ -0,0 +1,281 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ParallelPlanner places exchange operators in a physical plan so that its
+ * joins and grouped aggregates run as several fragments on their own
+ * threads, and not just its scans.
+ * <ul>
+ * <li>An equality join repartitions both inputs on their join fields and
+ * joins each pair of partitions in its own fragment.</li>
+ * <li>Other joins whose outer input already runs as several fragments
+ * broadcast the inner input to each of them.</li>
+ * <li>A grouped aggregate repartitions its input on its first group field
+ * and aggregates each partition in its own fragment. If its input already
+ * runs as several fragments, and it computes a single aggregate, each
+ * fragment is aggregated first, and the partial aggregates are
+ * repartitioned instead of the tuples.</li>
+ * <li>An aggregate without grouping over several fragments aggregates each
+ * of them, and combines the partial aggregates.</li>
+ * <li>Filters and drops run in each fragment of their child.</li>
+ * <li>Sorts write their runs on several threads.</li>
+ * <li>Streaming aggregates keep their sorted input in one stream; only a
+ * pipeline below them runs in morsels, which are gathered in order.</li>
+ * </ul>
+ * Fragments are gathered back into a single stream below the first operator
+ * that cannot run in fragments. Pipelines at the bottom of the plan are split
+ * into fragments reading runs of pages of their table. Pipelines that are
+ * not below a join or a grouped aggregate, and aggregates that can merge
+ * partial aggregates of a pipeline, are left to {@link MorselExecutor}.
+ * <p>
+ * Partial aggregates are combined by another aggregate: counts are summed,
+ * and averages are computed as SUM_COUNT partial aggregates, whose sums and
+ * counts are combined by SC_AVG.
+ *
+ * @see Exchange
+ */
+public class ParallelPlanner {
+
+    private ParallelPlanner() {
+    }
+
+    /**
+     * Rewrites a plan to run in parallel fragments.
+     *
+     * @param parallelism
+     *            the number of fragments joins and aggregates are split into
+     * @return the rewritten plan
+     */
+    public static DbIterator parallelize(DbIterator plan, int parallelism) {
+        if (parallelism <= 1 || plan == null) {
+            return plan;
+        }
+        List<DbIterator> fragments = fragments(plan, parallelism);
+        if (fragments == null) {
+            return rewriteChildren(plan, parallelism);
+        }
+        return fragments.size() == 1 ? fragments.get(0) : Consumer.gather(fragments);
+    }
+
+    /** Rewrites the children of an operator that runs as a single stream. */
+    private static DbIterator rewriteChildren(DbIterator plan, int parallelism) {
+        if (MorselExecutor.splittable(plan) || partialAggregate(plan)) {
+            return MorselExecutor.parallelize(plan, parallelism);
+        }
+        if (plan instanceof Aggregate && ((Aggregate) plan).groupField() == Aggregator.NO_GROUPING
+                && twoPhase((Aggregate) plan)) {
+            Aggregate agg = (Aggregate) plan;
+            List<DbIterator> inputs = fragments(agg.getChildren()[0], parallelism);
+            if (inputs != null) {
+                List<DbIterator> partials = new ArrayList<DbIterator>();
+                for (DbIterator input : inputs) {
+                    partials.add(partial(agg, input));
+                }
+                return combine(agg, Consumer.gather(partials));
+            }
+        }
+        if (plan instanceof OrderBy) {
+            ((OrderBy) plan).setParallelism(parallelism);
+        }
+        if (plan instanceof Aggregate && ((Aggregate) plan).isStreaming()) {
+            // only morsels are gathered in order, so the input stays sorted
+            Aggregate agg = (Aggregate) plan;
+            DbIterator child = agg.getChildren()[0];
+            if (MorselExecutor.splittable(child)) {
+                agg.setChildren(new DbIterator[] { MorselExecutor.parallelize(child, parallelism) });
+            }
+            return plan;
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren();
+            DbIterator[] rewritten = new DbIterator[children.length];
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                rewritten[i] = parallelize(children[i], parallelism);
+                changed |= rewritten[i] != children[i];
+            }
+            if (changed) {
+                op.setChildren(rewritten);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return fragments that together return the output of a plan, or null
+     *         if the plan does not split into fragments
+     */
+    private static List<DbIterator> fragments(DbIterator plan, int n) {
+        if (MorselExecutor.splittable(plan)) {
+            List<DbIterator> parts = MorselExecutor.split(plan, n);
+            return parts.size() > 1 ? parts : null;
+        }
+        if (plan instanceof Filter || plan instanceof Drop || plan instanceof CompiledPipeline
+                || plan instanceof PushPipeline) {
+            List<DbIterator> inputs = fragments(((Operator) plan).getChildren()[0], n);
+            if (inputs == null) {
+                return null;
+            }
+            List<DbIterator> result = new ArrayList<DbIterator>();
+            for (DbIterator input : inputs) {
+                result.add(copy(plan, input));
+            }
+            return result;
+        }
+        if (plan.getClass() == Join.class || plan.getClass() == HashEquiJoin.class) {
+            return joinFragments((Operator) plan, n);
+        }
+        if (plan instanceof Aggregate && ((Aggregate) plan).groupField() != Aggregator.NO_GROUPING
+                && !partialAggregate(plan) && !((Aggregate) plan).isStreaming()) {
+            Aggregate agg = (Aggregate) plan;
+            List<DbIterator> inputs = inputs(agg.getChildren()[0], n);
+            List<DbIterator> result = new ArrayList<DbIterator>();
+            if (inputs.size() > 1 && twoPhase(agg)) {
+                List<DbIterator> partials = new ArrayList<DbIterator>();
+                for (DbIterator input : inputs) {
+                    partials.add(partial(agg, input));
+                }
+                // partial aggregates have the group field first
+                for (Consumer c : Consumer.shuffle(partials, 0, n)) {
+                    result.add(combine(agg, c));
+                }
+                return result;
+            }
+            for (Consumer c : Consumer.shuffle(inputs, agg.groupField(), n)) {
+                result.add(withKeyRange(new Aggregate(c, agg.aggregateFields(), agg.aggregateOps(),
+                        agg.groupFields()), agg));
+            }
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if an aggregate can be computed by combining partial
+     *         aggregates of its input
+     */
+    private static boolean twoPhase(Aggregate agg) {
+        if (!agg.isSingle()) {
+            return false;
+        }
+        switch (agg.aggregateOp()) {
+        case MIN:
+        case MAX:
+        case SUM:
+        case COUNT:
+        case AVG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** @return an aggregate of a fragment of the input of an aggregate */
+    private static Aggregate partial(Aggregate agg, DbIterator input) {
+        Aggregator.Op op = agg.aggregateOp() == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : agg.aggregateOp();
+        return withKeyRange(new Aggregate(input, agg.aggregateField(), agg.groupField(), op), agg);
+    }
+
+    /** @return the aggregate combining partial aggregates into an aggregate */
+    private static Aggregate combine(Aggregate agg, DbIterator partials) {
+        Aggregator.Op op;
+        switch (agg.aggregateOp()) {
+        case AVG:
+            op = Aggregator.Op.SC_AVG;
+            break;
+        case COUNT:
+            op = Aggregator.Op.SUM;
+            break;
+        default:
+            op = agg.aggregateOp();
+        }
+        boolean grouped = agg.groupField() != Aggregator.NO_GROUPING;
+        return withKeyRange(new Aggregate(partials, grouped ? 1 : 0, grouped ? 0 : Aggregator.NO_GROUPING, op),
+                agg);
+    }
+
+    /** @return a copy of an aggregate, indexing the same group-by values */
+    private static Aggregate withKeyRange(Aggregate copy, Aggregate agg) {
+        int[] range = agg.keyRange();
+        if (range != null) {
+            copy.setKeyRange(range[0], range[1]);
+        }
+        return copy;
+    }
+
+    /**
+     * @return true if the plan is an aggregate that is cheaper to compute as
+     *         partial aggregates of its input, which needs no repartitioning
+     */
+    private static boolean partialAggregate(DbIterator plan) {
+        return plan instanceof Aggregate && ((Aggregate) plan).supportsParallelism()
+                && MorselExecutor.splittable(((Aggregate) plan).getChildren()[0]);
+    }
+
+    private static List<DbIterator> joinFragments(Operator join, int n) {
+        JoinPredicate p = join instanceof Join ? ((Join) join).getJoinPredicate()
+                : ((HashEquiJoin) join).getJoinPredicate();
+        if (join instanceof Join && ((Join) join).isMergeJoin()) {
+            // repartitioning would lose the order of the inputs
+            return null;
+        }
+        DbIterator[] children = join.getChildren();
+        List<DbIterator> result = new ArrayList<DbIterator>();
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            List<Consumer> left = Consumer.shuffle(inputs(children[0], n), p.getField1(), n);
+            List<Consumer> right = Consumer.shuffle(inputs(children[1], n), p.getField2(), n);
+            for (int i = 0; i < n; i++) {
+                result.add(copy(join, left.get(i), right.get(i)));
+            }
+            return result;
+        }
+        List<DbIterator> outer = fragments(children[0], n);
+        if (outer == null) {
+            return null;
+        }
+        List<Consumer> inner = Consumer.broadcast(inputs(children[1], n), outer.size());
+        for (int i = 0; i < outer.size(); i++) {
+            result.add(copy(join, outer.get(i), inner.get(i)));
+        }
+        return result;
+    }
+
+    /** @return the fragments of a plan, or the whole plan as one fragment */
+    private static List<DbIterator> inputs(DbIterator plan, int n) {
+        List<DbIterator> fragments = fragments(plan, n);
+        if (fragments == null) {
+            return Collections.singletonList(rewriteChildren(plan, n));
+        }
+        return fragments;
+    }
+
+    private static DbIterator copy(DbIterator plan, DbIterator child) {
+        if (plan instanceof Filter) {
+            return new Filter(((Filter) plan).getPredicate(), child);
+        }
+        if (plan instanceof Drop) {
+            return new Drop(((Drop) plan).getDropFields(), child);
+        }
+        if (plan instanceof PushPipeline) {
+            return new PushPipeline(child, ((PushPipeline) plan).getStages());
+        }
+        CompiledPipeline c = (CompiledPipeline) plan;
+        return new CompiledPipeline(c.getPredicates(), c.getKernel(), child);
+    }
+
+    /** @return a fragment of a join, with the memory budget of the join */
+    private static DbIterator copy(Operator join, DbIterator left, DbIterator right) {
+        if (join instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) join;
+            HashEquiJoin copy = new HashEquiJoin(j.getJoinPredicate(), left, right);
+            copy.setMemoryPages(j.getMemoryPages());
+            return copy;
+        }
+        Join j = (Join) join;
+        Join copy = new Join(j.getJoinPredicate(), left, right, j.isMergeJoin());
+        copy.setMemoryPages(j.getMemoryPages());
+        return copy;
+    }
+}
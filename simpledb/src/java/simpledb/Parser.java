@@ -5,6 +5,7 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import java.util.function.*;
+import java.util.regex.*;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,14 +13,35 @@ import jline.SimpleCompletor;
 
 public class Parser {
     private boolean explain = false;
+    private boolean compile = false;
+    private boolean push = false;
+    private int parallelism = 1;
     private final Function<Void, LogicalPlan> planFactory;
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    private File catalogFile = null;
+
+    // Statements that Zql cannot parse, handled before it sees them
+    private static final Pattern CLUSTER_STMT = Pattern.compile(
+            "\\s*CLUSTER\\s+(\\w+)\\s+BY\\s+(\\w+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_INDEX_STMT = Pattern.compile(
+            "\\s*CREATE\\s+INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s*\\)(?:\\s+USING\\s+(BTREE|HASH))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern ALTER_CACHE_STMT = Pattern.compile(
+            "\\s*ALTER\\s+TABLE\\s+(\\w+)\\s+(CACHE|NOCACHE)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SET_PARALLELISM_STMT = Pattern.compile(
+            "\\s*SET\\s+PARALLELISM\\s+(\\d+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+    // A trailing LIMIT clause, which Zql cannot parse either
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(.*\\S)\\s+LIMIT\\s+(\\d+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // the LIMIT of the statement being processed, or -1
+    private int limit = -1;
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
         "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-        "insert", "delete", "values", "into" };
+        "insert", "delete", "values", "into", "cluster", "create index", "alter table", "set parallelism", "limit" };
 
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [--alpha <double>] [--base]";
     
@@ -36,6 +58,45 @@ public class Parser {
         this(0.0, false);
     }
 
+    /**
+     * Sets whether query plans are rewritten by {@link PipelineCompiler}
+     * before they run.
+     */
+    public void setCompile(boolean compile) {
+        this.compile = compile;
+    }
+
+    /**
+     * Sets whether query plans are rewritten by {@link PushCompiler} to run
+     * as push-based pipelines.
+     */
+    public void setPush(boolean push) {
+        this.push = push;
+    }
+
+    /**
+     * Sets the number of threads the pipelines, joins and aggregates of a
+     * query may use; 1 runs queries on the calling thread only.
+     *
+     * @see ParallelPlanner
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Applies the session's execution settings to a physical plan.
+     */
+    private DbIterator prepare(DbIterator physicalPlan) {
+        if (compile) {
+            physicalPlan = PipelineCompiler.compile(physicalPlan);
+        }
+        if (push) {
+            physicalPlan = PushCompiler.compile(physicalPlan);
+        }
+        return ParallelPlanner.parallelize(physicalPlan, parallelism);
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -206,23 +267,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.err.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
+                lp.addGroupBy(groupByField);
             }
 
         }
@@ -231,7 +289,6 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
         String aggFun = null;
 
         for (int i = 0; i < selectList.size(); i++) {
@@ -242,20 +299,17 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
                 aggFun = si.getAggregate();
                 System.err.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -265,13 +319,9 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFun == null) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
-
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
@@ -294,12 +344,36 @@ public class Parser {
         return lp;
     }
 
+    /**
+     * Strips a trailing LIMIT clause from a statement, to be applied to its
+     * plan by {@link #applyLimit}.
+     */
+    private String stripLimit(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches()) {
+            limit = -1;
+            return s;
+        }
+        limit = Integer.parseInt(m.group(2));
+        return m.group(1) + ";";
+    }
+
+    /** Applies the LIMIT clause stripped from the statement, if any. */
+    private void applyLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        int k = limit;
+        limit = -1;
+        if (k >= 0) {
+            lp.setLimit(k);
+        }
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -338,6 +412,7 @@ public class Parser {
             }
         }
 
+        query.setPhysicalPlan(prepare(physicalPlan));
         return query;
     }
 
@@ -346,9 +421,10 @@ public class Parser {
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
-        query.setPhysicalPlan(physicalPlan);
+        query.setPhysicalPlan(prepare(physicalPlan));
         query.setLogicalPlan(lp);
         return query;
     }
@@ -494,12 +570,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
+        s = stripLimit(s);
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                applyLimit(lp);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -520,7 +598,171 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Rewrites a table so that it is stored sorted on one of its fields, and
+     * records the sort key in the catalog. Statement syntax is
+     * <tt>CLUSTER table BY field;</tt>
+     */
+    public void handleClusterStatement(String tableName, String fieldName)
+            throws DbException, IOException, TransactionAbortedException,
+            simpledb.ParsingException {
+        Catalog catalog = Database.getCatalog();
+        int tableId;
+        try {
+            tableId = catalog.getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table " + tableName);
+        }
+        DbFile file = catalog.getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new simpledb.ParsingException("Table " + tableName + " cannot be clustered");
+        }
+        int field;
+        try {
+            field = file.getTupleDesc().fieldNameToIndex(fieldName);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown field " + fieldName);
+        }
+
+        Transaction t = new Transaction();
+        t.start();
+        ((HeapFile) file).cluster(t.getId(), field);
+        // clustering moves every tuple, so the indexes must be rebuilt
+        for (IndexFile index : new ArrayList<IndexFile>(catalog.getIndexes(tableId))) {
+            catalog.addIndex(Catalog.createIndex((HeapFile) file, index.getKeyField(),
+                    Catalog.indexKind(index), t.getId()));
+        }
+        t.commit();
+
+        catalog.setClusterKey(tableId, fieldName);
+        TableStats.setTableStats(tableName, new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+        if (catalogFile != null) {
+            catalog.dumpSchema(catalogFile);
+        }
+        System.err.println("Clustered " + tableName + " by " + fieldName + ".");
+    }
+
+    /**
+     * Builds a B+tree or hash index on an integer field of a table, and
+     * records it in the catalog. Statement syntax is
+     * <tt>CREATE INDEX name ON table (field) [USING BTREE|HASH];</tt> The
+     * index name is only for readability; a table has at most one index of
+     * each kind per field.
+     *
+     * @param kind "btree" or "hash"
+     */
+    public void handleCreateIndexStatement(String tableName, String fieldName, String kind)
+            throws DbException, IOException, TransactionAbortedException,
+            simpledb.ParsingException {
+        Catalog catalog = Database.getCatalog();
+        int tableId;
+        try {
+            tableId = catalog.getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table " + tableName);
+        }
+        DbFile file = catalog.getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new simpledb.ParsingException("Table " + tableName + " cannot be indexed");
+        }
+        int field;
+        try {
+            field = file.getTupleDesc().fieldNameToIndex(fieldName);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown field " + fieldName);
+        }
+        if (file.getTupleDesc().getFieldType(field) != Type.INT_TYPE) {
+            throw new simpledb.ParsingException("Only integer fields can be indexed");
+        }
+
+        Database.getBufferPool().flushAllPages();
+        Transaction t = new Transaction();
+        t.start();
+        catalog.addIndex(Catalog.createIndex((HeapFile) file, field, kind, t.getId()));
+        t.commit();
+
+        TableStats.setTableStats(tableName, new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+        if (catalogFile != null) {
+            catalog.dumpSchema(catalogFile);
+        }
+        System.err.println("Indexed " + tableName + " on " + fieldName + ".");
+    }
+
+    /**
+     * Pins a table in memory as a column cache, or unpins it, and records
+     * this in the catalog. Statement syntax is
+     * <tt>ALTER TABLE table CACHE|NOCACHE;</tt>
+     */
+    public void handleAlterCacheStatement(String tableName, boolean cache)
+            throws simpledb.ParsingException {
+        Catalog catalog = Database.getCatalog();
+        int tableId;
+        try {
+            tableId = catalog.getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table " + tableName);
+        }
+        if (!(catalog.getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new simpledb.ParsingException("Table " + tableName + " cannot be cached");
+        }
+
+        catalog.setCached(tableId, cache);
+        if (cache && catalog.getColumnCache(tableId) == null) {
+            catalog.setCached(tableId, false);
+            throw new simpledb.ParsingException("Failed to load " + tableName + " into memory");
+        }
+
+        TableStats.setTableStats(tableName, new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+        if (catalogFile != null) {
+            catalog.dumpSchema(catalogFile);
+        }
+        System.err.println((cache ? "Cached " : "Uncached ") + tableName + ".");
+    }
+
+    /**
+     * Handles statements outside of the SQL subset understood by Zql.
+     * @return true if the statement was recognized and handled
+     */
+    private boolean processExtendedStatement(String s) throws DbException,
+            IOException, TransactionAbortedException, simpledb.ParsingException {
+        Matcher m = CLUSTER_STMT.matcher(s);
+        if (m.matches()) {
+            handleClusterStatement(m.group(1), m.group(2));
+            return true;
+        }
+        m = CREATE_INDEX_STMT.matcher(s);
+        if (m.matches()) {
+            handleCreateIndexStatement(m.group(2), m.group(3),
+                    m.group(4) == null ? "btree" : m.group(4).toLowerCase());
+            return true;
+        }
+        m = ALTER_CACHE_STMT.matcher(s);
+        if (m.matches()) {
+            handleAlterCacheStatement(m.group(1), m.group(2).equalsIgnoreCase("CACHE"));
+            return true;
+        }
+        m = SET_PARALLELISM_STMT.matcher(s);
+        if (m.matches()) {
+            setParallelism(Math.max(1, Integer.parseInt(m.group(1))));
+            System.err.println("Parallelism set to " + parallelism + ".");
+            return true;
+        }
+        return false;
+    }
+
     public void processNextStatement(String s, ATupleFormatter formatter) {
+        try {
+            if (processExtendedStatement(s)) {
+                return;
+            }
+        } catch (simpledb.ParsingException e) {
+            System.err.println("Invalid SQL expression: \n \t" + e.getMessage());
+            return;
+        } catch (DbException | IOException | TransactionAbortedException e) {
+            e.printStackTrace();
+            return;
+        }
+        s = stripLimit(s);
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")), formatter);
         } catch (UnsupportedEncodingException e) {
@@ -606,11 +848,42 @@ public class Parser {
         }
     }
 
-    protected void shutdown() { }
+    /**
+     * @return the file the buffer pool snapshot of a database is kept in,
+     *         next to its catalog
+     */
+    static File snapshotFile(File catalogFile) {
+        return new File(catalogFile.getAbsoluteFile().getParentFile(), "bufferpool.snapshot");
+    }
+
+    /**
+     * Records the pages in the buffer pool, so that the next session starts
+     * with them loaded, and writes the catalog if a table changed since it
+     * was loaded.
+     */
+    protected void shutdown() {
+        if (Database.getCatalog().hasUnsavedChanges()) {
+            Database.getCatalog().dumpSchema(catalogFile);
+        }
+        try {
+            Database.getBufferPool().saveSnapshot(snapshotFile(catalogFile));
+        } catch (IOException e) {
+            System.err.println("Failed to save buffer pool snapshot: " + e.getMessage());
+        }
+    }
 
     protected void setup(File catalogFile, boolean shouldExplain) {
         explain = shouldExplain;
+        this.catalogFile = catalogFile;
         Database.getCatalog().loadSchema(catalogFile.toString());
+        // reload the pages of the last session while statistics are computed
+        // and the first queries run; the statistics scan does not keep the
+        // pages it reads, so it does not compete for the buffer pool
+        try {
+            Database.getBufferPool().warmUp(snapshotFile(catalogFile));
+        } catch (IOException e) {
+            System.err.println("Failed to read buffer pool snapshot: " + e.getMessage());
+        }
         TableStats.computeStatistics();
     }
 
@@ -627,6 +900,7 @@ public class Parser {
             formatter = new PrintTupleFormatter(System.out);
         }
         processNextStatement(query, formatter);
+        shutdown();
     }
 
     /**
@@ -668,7 +942,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -677,7 +950,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(statementBytes), formatter);
+                    processNextStatement(cmd, formatter);
                     long time = System.currentTimeMillis() - startTime;
                     System.err.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -695,6 +968,9 @@ public class Parser {
             System.err.println("Error: Reading from console failed.");
             return 1;
         }
+        if (!quit) {
+            shutdown();
+        }
 
         return 0;
     }
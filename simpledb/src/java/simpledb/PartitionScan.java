@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * PartitionScan reads a subset of the partitions of a partitioned table. It
+ * is produced by the planners after partitions that the filters of a query
+ * rule out have been pruned.
+ * <p>
+ * When more than one partition is read and the scan is parallel, each
+ * partition is read by its own worker thread, and the tuples are handed over
+ * through a bounded queue. Tuples then come out in no particular order.
+ */
+public class PartitionScan extends SeqScan {
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of tuples buffered between the workers and the consumer. */
+    static final int QUEUE_SIZE = 4096;
+
+    private static final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "partition-scan");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Marks the end of one partition in the queue. */
+    private static final Tuple END = new Tuple(new TupleDesc(new Type[] { Type.INT_TYPE }));
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final BitSet partitions;
+    private final boolean parallel;
+
+    // sequential state
+    private DbFileIterator tuples;
+
+    // parallel state
+    private BlockingQueue<Tuple> queue;
+    private int running;
+    private volatile boolean cancelled;
+    private volatile Exception error;
+    private Tuple next;
+
+    /**
+     * @param partitions
+     *            the partitions to read
+     * @param parallel
+     *            true to read the partitions concurrently
+     */
+    public PartitionScan(TransactionId tid, int tableid, String tableAlias, BitSet partitions, boolean parallel) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.tableId = tableid;
+        this.partitions = (BitSet) partitions.clone();
+        this.parallel = parallel;
+    }
+
+    public BitSet getPartitions() {
+        return (BitSet) partitions.clone();
+    }
+
+    private PartitionedFile getPartitionedFile() {
+        return (PartitionedFile) Database.getCatalog().getDatabaseFile(tableId);
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        if (!parallel || partitions.cardinality() <= 1) {
+            tuples = getPartitionedFile().iterator(tid, partitions);
+            tuples.open();
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<Tuple>(QUEUE_SIZE);
+        cancelled = false;
+        error = null;
+        next = null;
+        running = partitions.cardinality();
+        PartitionedFile file = getPartitionedFile();
+        for (int i = partitions.nextSetBit(0); i >= 0; i = partitions.nextSetBit(i + 1)) {
+            final HeapFile part = file.getPartition(i);
+            workers.execute(() -> {
+                DbFileIterator it = part.iterator(tid);
+                try {
+                    it.open();
+                    while (!cancelled && it.hasNext()) {
+                        queue.put(it.next());
+                    }
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    it.close();
+                    putEnd();
+                }
+            });
+        }
+    }
+
+    private void putEnd() {
+        while (true) {
+            try {
+                queue.put(END);
+                return;
+            } catch (InterruptedException e) {
+                // Retry, the consumer counts on seeing every END.
+            }
+        }
+    }
+
+    private void checkError() throws DbException {
+        if (error != null) {
+            throw new DbException("Partition scan failed: " + error.getMessage());
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (tuples != null) {
+            return tuples.hasNext();
+        }
+        while (next == null && running > 0) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("Interrupted while scanning partitions.");
+            }
+            if (t == END) {
+                running--;
+            } else {
+                next = t;
+            }
+        }
+        checkError();
+        return next != null;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (tuples != null) {
+            return tuples.next();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    @Override
+    public void close() {
+        if (tuples != null) {
+            tuples.close();
+            tuples = null;
+        }
+        if (queue != null) {
+            // Let the workers finish, draining whatever they still produce.
+            cancelled = true;
+            while (running > 0) {
+                try {
+                    if (queue.take() == END) {
+                        running--;
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            queue = null;
+        }
+        next = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * PartitionScheme describes how the tuples of a partitioned table are split
+ * across partitions, based on the value of a single integer field.
+ * <p>
+ * A range scheme with bounds b_0 < ... < b_{n-1} has n + 1 partitions;
+ * partition i holds values in [b_{i-1}, b_i), with the first and last
+ * partitions unbounded below and above. A hash scheme spreads values over a
+ * fixed number of partitions. In both cases, tuples whose partitioning field
+ * is missing go to partition 0.
+ * <p>
+ * In catalog.txt, a scheme follows the field list of a table:
+ * <pre>
+ *   acs(state int, year int, ...) partition by range(year) (2010, 2012, 2014)
+ *   acs(state int, year int, ...) partition by hash(state) 8
+ * </pre>
+ */
+public class PartitionScheme implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind { RANGE, HASH }
+
+    private static final Pattern CLAUSE = Pattern.compile(
+            "partition\\s+by\\s+(range|hash)\\s*\\(\\s*(\\w+)\\s*\\)\\s*(.*)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BOUNDS = Pattern.compile("\\((.*)\\)");
+
+    private final Kind kind;
+    private final String field;
+    private final int[] bounds;
+    private final int numPartitions;
+
+    private PartitionScheme(Kind kind, String field, int[] bounds, int numPartitions) {
+        this.kind = kind;
+        this.field = field;
+        this.bounds = bounds;
+        this.numPartitions = numPartitions;
+    }
+
+    /**
+     * @param bounds
+     *            the strictly increasing split points between partitions
+     */
+    public static PartitionScheme range(String field, int[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Partition bounds must be increasing.");
+            }
+        }
+        return new PartitionScheme(Kind.RANGE, field, bounds.clone(), bounds.length + 1);
+    }
+
+    public static PartitionScheme hash(String field, int numPartitions) {
+        if (numPartitions < 1) {
+            throw new IllegalArgumentException("Need at least one partition.");
+        }
+        return new PartitionScheme(Kind.HASH, field, null, numPartitions);
+    }
+
+    /**
+     * Parses a scheme in the catalog.txt syntax shown above.
+     */
+    public static PartitionScheme parse(String clause) throws ParseException {
+        Matcher m = CLAUSE.matcher(clause.trim());
+        if (!m.matches()) {
+            throw new ParseException("Invalid partitioning clause: " + clause, 0);
+        }
+        String field = m.group(2);
+        String args = m.group(3).trim();
+        try {
+            if (m.group(1).equalsIgnoreCase("range")) {
+                Matcher b = BOUNDS.matcher(args);
+                if (!b.matches()) {
+                    throw new ParseException("Expected partition bounds in: " + clause, 0);
+                }
+                String[] els = b.group(1).split(",");
+                int[] bounds = new int[els.length];
+                for (int i = 0; i < els.length; i++) {
+                    bounds[i] = Integer.parseInt(els[i].trim());
+                }
+                return range(field, bounds);
+            } else {
+                return hash(field, Integer.parseInt(args));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Invalid partitioning clause: " + clause, 0);
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** @return the name of the partitioning field. */
+    public String getField() {
+        return field;
+    }
+
+    public int numPartitions() {
+        return numPartitions;
+    }
+
+    /** @return the partition that holds tuples with a missing key. */
+    public int missingPartition() {
+        return 0;
+    }
+
+    /** @return the partition a tuple with the given key belongs to. */
+    public int partitionOf(Field key) {
+        if (key.isMissing()) {
+            return missingPartition();
+        }
+        int value = ((IntField) key).getValue();
+        switch (kind) {
+        case RANGE:
+            int ix = Arrays.binarySearch(bounds, value);
+            // A value equal to bound i starts partition i + 1.
+            return ix >= 0 ? ix + 1 : -(ix + 1);
+        case HASH:
+            return Math.floorMod(Integer.hashCode(value), numPartitions);
+        default:
+            throw new RuntimeException("Unexpected partitioning.");
+        }
+    }
+
+    /**
+     * Returns the partitions that may contain non-missing keys satisfying
+     * <tt>key op constant</tt>.
+     */
+    public BitSet prune(Predicate.Op op, int constant) {
+        BitSet keep = new BitSet(numPartitions);
+        if (kind == Kind.HASH) {
+            if (op == Predicate.Op.EQUALS) {
+                keep.set(partitionOf(new IntField(constant)));
+            } else {
+                keep.set(0, numPartitions);
+            }
+            return keep;
+        }
+
+        Integer[] range = RangeScan.rangeOf(op, constant);
+        if (range == null) {
+            if (op == Predicate.Op.GREATER_THAN || op == Predicate.Op.LESS_THAN) {
+                return keep; // nothing is above MAX_VALUE or below MIN_VALUE
+            }
+            keep.set(0, numPartitions);
+            return keep;
+        }
+        int first = range[0] == null ? 0 : partitionOf(new IntField(range[0]));
+        int last = range[1] == null ? numPartitions - 1 : partitionOf(new IntField(range[1]));
+        if (first <= last) {
+            keep.set(first, last + 1);
+        }
+        return keep;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+        case RANGE:
+            StringBuilder sb = new StringBuilder();
+            for (int b : bounds) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(b);
+            }
+            return String.format("partition by range(%s) (%s)", field, sb);
+        case HASH:
+            return String.format("partition by hash(%s) %d", field, numPartitions);
+        default:
+            throw new RuntimeException("Unexpected partitioning.");
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PartitionedFile is a DbFile whose tuples are split across several heap
+ * files according to a {@link PartitionScheme}. Each partition is a regular
+ * HeapFile registered in the catalog under its own id (and name), so it has
+ * its own pages in the buffer pool and its own TableStats.
+ * <p>
+ * The pages of a partitioned table always belong to one of its partitions:
+ * readPage and writePage are never called on the PartitionedFile itself.
+ * Inserts are routed to the partition chosen by the scheme; deletes go
+ * straight to the partition named in the tuple's RecordId.
+ */
+public class PartitionedFile implements DbFile {
+    private final int id;
+    private final File file;
+    private final TupleDesc td;
+    private final PartitionScheme scheme;
+    private final int keyField;
+    private final HeapFile[] partitions;
+    private final List<File> stripeDirs;
+
+    /**
+     * @param f
+     *            the unpartitioned file of the table. Partition i is stored
+     *            next to it, with ".p<i>" inserted before the extension.
+     */
+    public PartitionedFile(File f, TupleDesc td, PartitionScheme scheme) {
+        this(f, td, scheme, null);
+    }
+
+    /**
+     * @param stripeDirs
+     *            the data directories each partition is striped over, or
+     *            null to store the partitions next to f
+     * @see StripedHeapFile
+     */
+    public PartitionedFile(File f, TupleDesc td, PartitionScheme scheme, List<File> stripeDirs) {
+        this.file = f;
+        this.td = td;
+        this.scheme = scheme;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.keyField = td.fieldNameToIndex(scheme.getField());
+        if (td.getFieldType(keyField) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("Partitioning field must be an int.");
+        }
+        partitions = new HeapFile[scheme.numPartitions()];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = stripeDirs == null ? new HeapFile(partitionFile(f, i), td)
+                    : new StripedHeapFile(partitionFile(f, i), td, stripeDirs);
+        }
+        this.stripeDirs = stripeDirs == null ? null : new ArrayList<File>(stripeDirs);
+    }
+
+    static File partitionFile(File f, int i) {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        String partName = dot < 0 ? name + ".p" + i : name.substring(0, dot) + ".p" + i + name.substring(dot);
+        return new File(f.getAbsoluteFile().getParentFile(), partName);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public PartitionScheme getScheme() {
+        return scheme;
+    }
+
+    /** @return the index of the partitioning field. */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the directories the partitions are striped over, or null. */
+    public List<File> getStripeDirectories() {
+        return stripeDirs == null ? null : Collections.unmodifiableList(stripeDirs);
+    }
+
+    public int numPartitions() {
+        return partitions.length;
+    }
+
+    public HeapFile getPartition(int i) {
+        return partitions[i];
+    }
+
+    /**
+     * @return true if every partition file exists on disk.
+     */
+    public boolean partitionFilesExist() {
+        for (HeapFile p : partitions) {
+            if (!p.exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the tuples of an unpartitioned heap file with the same schema
+     * into the partition files, replacing their contents. The source file is
+     * read directly from disk and left untouched; the partitions must not be
+     * cached in the buffer pool.
+     */
+    public void partitionFrom(HeapFile source) throws IOException, DbException {
+        HeapFile.Appender[] out = new HeapFile.Appender[partitions.length];
+        File[] tmp = new File[partitions.length];
+        try {
+            for (int i = 0; i < partitions.length; i++) {
+                tmp[i] = new File(partitions[i].getFile().getPath() + ".tmp");
+                out[i] = new HeapFile.Appender(tmp[i], partitions[i].getId(), td);
+            }
+            for (int pageNum = 0; pageNum < source.numPages; pageNum++) {
+                HeapPage page = (HeapPage) source.readPage(new HeapPageId(source.getId(), pageNum));
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    out[scheme.partitionOf(t.getField(keyField))].add(t);
+                }
+            }
+        } finally {
+            for (int i = 0; i < out.length; i++) {
+                if (out[i] != null) {
+                    int pages = out[i].numPages();
+                    out[i].close();
+                    partitions[i].replaceContents(tmp[i], pages);
+                }
+            }
+        }
+    }
+
+    public Page readPage(PageId pid) {
+        throw new UnsupportedOperationException("Pages of a partitioned table belong to its partitions.");
+    }
+
+    public void writePage(Page p) throws IOException {
+        throw new UnsupportedOperationException("Pages of a partitioned table belong to its partitions.");
+    }
+
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return partitionOf(t).insertTuple(tid, t);
+    }
+
+    /**
+     * @return the partition a tuple is stored in
+     */
+    public HeapFile partitionOf(Tuple t) {
+        return partitions[scheme.partitionOf(t.getField(keyField))];
+    }
+
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("Tuple not stored in this file.");
+        }
+        for (HeapFile p : partitions) {
+            if (p.getId() == rid.getPageId().getTableId()) {
+                return p.deleteTuple(tid, t);
+            }
+        }
+        throw new DbException("Tuple not stored in this file.");
+    }
+
+    /**
+     * Returns an iterator over all partitions, one after the other.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        BitSet all = new BitSet(partitions.length);
+        all.set(0, partitions.length);
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the given partitions, one after the other.
+     */
+    public DbFileIterator iterator(TransactionId tid, BitSet which) {
+        return new DbFileIterator() {
+            private int current = -1;
+            private DbFileIterator it = null;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                close();
+                current = which.nextSetBit(0);
+                if (current >= 0) {
+                    it = partitions[current].iterator(tid);
+                    it.open();
+                }
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                while (it != null && !it.hasNext()) {
+                    it.close();
+                    it = null;
+                    current = which.nextSetBit(current + 1);
+                    if (current >= 0) {
+                        it = partitions[current].iterator(tid);
+                        it.open();
+                    }
+                }
+                return it != null;
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return it.next();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                open();
+            }
+
+            @Override
+            public void close() {
+                if (it != null) {
+                    it.close();
+                }
+                it = null;
+            }
+        };
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+}
@@ -0,0 +1,17 @@
+package simpledb;
+
+/**
+ * An operator that reads some of its children to the end before returning
+ * its first tuple: it builds a hash table, sorts, aggregates, or buffers its
+ * input to impute from all of it. Pipelines end at these children, which a
+ * breaker drains with {@link PushPipeline#drain}, so that a
+ * {@link PushPipeline} below it pushes its rows in instead of being pulled.
+ */
+public interface PipelineBreaker {
+
+    /**
+     * @return true if the operator reads the child at the given index of
+     *         getChildren() to the end before returning a tuple
+     */
+    public boolean materializes(int child);
+}
@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.*;
+
+/**
+ * PipelineCompiler rewrites a physical plan so that chains of filters on
+ * integer fields run as generated Java code. The predicates of a chain are
+ * inlined, constants and all, into a single loop over the primitive columns
+ * of a batch, which is compiled at run time with the system Java compiler.
+ * <p>
+ * Operators that cannot be compiled, such as imputation, joins and filters
+ * on other types, are kept as they are, and so is the whole plan when no
+ * compiler is available (e.g. on a JRE). Compiled loops are cached by their
+ * source code, so repeating a query does not compile it again.
+ */
+public class PipelineCompiler {
+    private static final String PREFIX = "simpledb.generated.Pipeline";
+    private static final AtomicInteger counter = new AtomicInteger();
+    private static final Map<String, CompiledPipeline.Kernel> kernels =
+            new ConcurrentHashMap<String, CompiledPipeline.Kernel>();
+
+    private PipelineCompiler() {
+    }
+
+    /**
+     * @return the plan, with its compilable filter chains replaced by
+     *         {@link CompiledPipeline} operators
+     */
+    public static DbIterator compile(DbIterator plan) {
+        if (plan instanceof Filter) {
+            List<Predicate> predicates = new ArrayList<Predicate>();
+            DbIterator source = plan;
+            while (source instanceof Filter && compilable((Filter) source)) {
+                predicates.add(((Filter) source).getPredicate());
+                source = ((Filter) source).getChildren()[0];
+            }
+            if (!predicates.isEmpty()) {
+                // innermost predicates first, as the filters ran
+                Collections.reverse(predicates);
+                CompiledPipeline.Kernel kernel = kernel(predicates);
+                if (kernel != null) {
+                    return new CompiledPipeline(predicates, kernel, compile(source));
+                }
+            }
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren();
+            DbIterator[] compiled = new DbIterator[children.length];
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                compiled[i] = children[i] == null ? null : compile(children[i]);
+                changed |= compiled[i] != children[i];
+            }
+            if (changed) {
+                op.setChildren(compiled);
+            }
+        }
+        return plan;
+    }
+
+    private static boolean compilable(Filter filter) {
+        Predicate p = filter.getPredicate();
+        return filter.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE
+                && p.getOperand() instanceof IntField;
+    }
+
+    /**
+     * @return the Java condition that a row r of the batch satisfies the
+     *         predicate, with the same results as {@link Predicate#filter}
+     */
+    static String condition(Predicate p, String values, String missing) {
+        IntField operand = (IntField) p.getOperand();
+        if (p.getOp() == Predicate.Op.EQUALS && operand.isMissing()) {
+            return missing + "[r]";
+        }
+        String op;
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            op = "==";
+            break;
+        case NOT_EQUALS:
+            op = "!=";
+            break;
+        case GREATER_THAN:
+            op = ">";
+            break;
+        case GREATER_THAN_OR_EQ:
+            op = ">=";
+            break;
+        case LESS_THAN:
+            op = "<";
+            break;
+        case LESS_THAN_OR_EQ:
+            op = "<=";
+            break;
+        default:
+            throw new IllegalArgumentException("Unexpected operator " + p.getOp());
+        }
+        int value = operand.getValueDefault(Type.MISSING_INTEGER);
+        return "!" + missing + "[r] & " + values + "[r] " + op + " (" + value + ")";
+    }
+
+    /**
+     * @return the body of the kernel class for the predicates
+     */
+    static String body(List<Predicate> predicates) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("    public void filter(simpledb.TupleBatch batch) {\n");
+        sb.append("        int[] sel = batch.selection();\n");
+        sb.append("        int n = batch.size(), kept = 0;\n");
+        Set<Integer> fields = new TreeSet<Integer>();
+        for (Predicate p : predicates) {
+            fields.add(p.getField());
+        }
+        for (int f : fields) {
+            sb.append("        int[] v").append(f).append(" = batch.getInts(").append(f).append(");\n");
+            sb.append("        boolean[] m").append(f).append(" = batch.getMissing(").append(f).append(");\n");
+        }
+        sb.append("        for (int i = 0; i < n; i++) {\n");
+        sb.append("            int r = sel[i];\n");
+        // no branches: every row is written, and kept only moves past matches
+        sb.append("            sel[kept] = r;\n");
+        sb.append("            kept += (");
+        for (int i = 0; i < predicates.size(); i++) {
+            Predicate p = predicates.get(i);
+            if (i > 0) {
+                sb.append("\n                    & ");
+            }
+            sb.append("(").append(condition(p, "v" + p.getField(), "m" + p.getField())).append(")");
+        }
+        sb.append(") ? 1 : 0;\n");
+        sb.append("        }\n");
+        sb.append("        batch.setSize(kept);\n");
+        sb.append("    }\n");
+        return sb.toString();
+    }
+
+    /**
+     * @return a compiled kernel for the predicates, or null if it could not
+     *         be compiled
+     */
+    static CompiledPipeline.Kernel kernel(List<Predicate> predicates) {
+        String body = body(predicates);
+        CompiledPipeline.Kernel kernel = kernels.get(body);
+        if (kernel == null) {
+            kernel = generate(body);
+            if (kernel != null) {
+                kernels.put(body, kernel);
+            }
+        }
+        return kernel;
+    }
+
+    private static CompiledPipeline.Kernel generate(String body) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return null;
+        }
+        String name = PREFIX + counter.incrementAndGet();
+        String simpleName = name.substring(name.lastIndexOf('.') + 1);
+        String source = "package " + name.substring(0, name.lastIndexOf('.')) + ";\n\n"
+                + "public final class " + simpleName + " implements simpledb.CompiledPipeline.Kernel {\n"
+                + body + "}\n";
+
+        MemoryFileManager files = new MemoryFileManager(compiler.getStandardFileManager(null, null, null));
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-proc:none");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics, options, null,
+                Collections.singletonList(new Source(name, source)));
+        if (!task.call()) {
+            Debug.log("Failed to compile pipeline:\n%s%s", source, diagnostics.getDiagnostics());
+            return null;
+        }
+        try {
+            ClassLoader loader = new ClassLoader(PipelineCompiler.class.getClassLoader()) {
+                @Override
+                protected Class<?> findClass(String className) throws ClassNotFoundException {
+                    byte[] bytes = files.classes.get(className);
+                    if (bytes == null) {
+                        throw new ClassNotFoundException(className);
+                    }
+                    return defineClass(className, bytes, 0, bytes.length);
+                }
+            };
+            return (CompiledPipeline.Kernel) loader.loadClass(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            Debug.log("Failed to load pipeline %s: %s", name, e);
+            return null;
+        }
+    }
+
+    /** Java source held in a string. */
+    private static class Source extends SimpleJavaFileObject {
+        private final String code;
+
+        Source(String className, String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    /** Keeps the compiled classes in memory instead of writing them out. */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, final String className,
+                JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+            URI uri = URI.create("mem:///" + className.replace('.', '/') + kind.extension);
+            return new SimpleJavaFileObject(uri, kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() throws IOException {
+                            super.close();
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+/**
+ * A Producer runs its child, a plan fragment, on a thread of its own and
+ * routes the batches it returns to the consumers of its channel. Producers
+ * are started by their consumers and are not read directly.
+ *
+ * @see Consumer
+ */
+public abstract class Producer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private transient Channel channel;
+
+    public Producer(DbIterator child) {
+        this.child = child;
+    }
+
+    void setChannel(Channel channel) {
+        this.channel = channel;
+    }
+
+    /** @return the number of consumers batches are routed to */
+    protected int consumers() {
+        return channel.consumers;
+    }
+
+    /**
+     * Hands a batch of the child to the consumers it belongs to.
+     *
+     * @return false if the run was cancelled
+     */
+    protected abstract boolean route(Run run, TupleBatch batch) throws InterruptedException;
+
+    /** Runs the child until it is done or the run is cancelled. */
+    void run(Run run) {
+        try {
+            child.open();
+            TupleBatch batch;
+            while (!run.cancelled && (batch = child.nextBatch(TupleBatch.DEFAULT_SIZE)) != null) {
+                if (batch.size() > 0 && !route(run, batch)) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            run.error = e;
+        } finally {
+            child.close();
+        }
+        try {
+            for (int i = 0; i < consumers(); i++) {
+                run.end(i);
+            }
+        } catch (InterruptedException e) {
+            // the run is being dropped
+        }
+    }
+
+    @Override
+    public String getName() {
+        return channel == null ? "producer" : channel.kind + " producer";
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        throw new DbException("Producers are run by their consumers.");
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("Producers are run by their consumers.");
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        throw new DbException("Producers are run by their consumers.");
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length != 1) {
+            throw new IllegalArgumentException("Expected a single new child.");
+        }
+        child = children[0];
+    }
+}
@@ -45,6 +45,13 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the field of the child that each output field is copied from
+     */
+    public List<Integer> getOutFieldIds() {
+        return Collections.unmodifiableList(outFieldIds);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -80,6 +87,23 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Projects whole batches of the child, sharing their columns.
+     */
+    @Override
+    public TupleBatch nextBatch(int maxSize) throws DbException, TransactionAbortedException {
+        int[] fieldIds = new int[outFieldIds.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < fieldIds.length; i++) {
+            fieldIds[i] = outFieldIds.get(i);
+            if (childtd.getFieldType(fieldIds[i]) != td.getFieldType(i)) {
+                return super.nextBatch(maxSize);
+            }
+        }
+        TupleBatch batch = child.nextBatch(maxSize);
+        return batch == null ? null : batch.project(fieldIds, td);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PushCompiler rewrites a physical plan for push-based execution. Each chain
+ * of filters, projections and drops is fused into a {@link PushPipeline},
+ * driven by the batches of the operator below it, so a plan becomes a
+ * sequence of pipelines that run from a scan or from the output of a
+ * {@link PipelineBreaker} into the next breaker, or into the root.
+ * <p>
+ * The parallel parts of a plan, below a {@link MorselGather} or an exchange,
+ * are copied per morsel or fragment and are kept as they are. Compile plans
+ * before {@link ParallelPlanner}, which splits push pipelines into morsels
+ * like the chains they replace.
+ */
+public class PushCompiler {
+
+    private PushCompiler() {
+    }
+
+    /**
+     * @return the plan, with its chains of filters, projections and drops
+     *         replaced by {@link PushPipeline} operators
+     */
+    public static DbIterator compile(DbIterator plan) {
+        if (PushPipeline.isStage(plan)) {
+            List<Operator> stages = new ArrayList<Operator>();
+            DbIterator source = plan;
+            while (PushPipeline.isStage(source)) {
+                stages.add((Operator) source);
+                source = ((Operator) source).getChildren()[0];
+            }
+            // the stage reading the source first
+            Collections.reverse(stages);
+            return new PushPipeline(compile(source), stages);
+        }
+        if (plan instanceof MorselGather || plan instanceof Exchange) {
+            return plan;
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren();
+            DbIterator[] compiled = new DbIterator[children.length];
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                compiled[i] = children[i] == null ? null : compile(children[i]);
+                changed |= compiled[i] != children[i];
+            }
+            if (changed) {
+                op.setChildren(compiled);
+            }
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PushPipeline runs a chain of filters, projections and drops as a single
+ * push-based pipeline. Batches are read from the source below the chain,
+ * and each of their rows is pushed through one {@link Sink} per operator,
+ * so that rows move up the chain with a call per operator, and without the
+ * hasNext()/next() calls and buffered lookahead tuple of each operator.
+ * <p>
+ * A {@link PipelineBreaker} above the pipeline has all of its rows pushed
+ * into its own sink by {@link #drain}; any other operator pulls rows with
+ * next(), which pushes a batch of the source at a time. The operators of
+ * the chain are only used for their predicates and fields.
+ *
+ * @see PushCompiler
+ */
+public class PushPipeline extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator source;
+    private final List<Operator> stages;
+    private final TupleDesc td;
+
+    // rows pushed through the stages that next() has not returned yet, the
+    // head of the stages pushing into them, and whether the source has
+    // no more batches
+    private final transient ArrayDeque<Tuple> output = new ArrayDeque<Tuple>();
+    private transient Sink head;
+    private boolean exhausted;
+
+    /**
+     * @param source
+     *            the operator whose batches drive the pipeline
+     * @param stages
+     *            the filters, projections and drops of the pipeline, the one
+     *            reading the source first
+     * @throws IllegalArgumentException
+     *             if a stage is not a filter, projection or drop
+     */
+    public PushPipeline(DbIterator source, List<Operator> stages) {
+        for (Operator stage : stages) {
+            if (!isStage(stage)) {
+                throw new IllegalArgumentException("Cannot push rows through " + stage.getClass().getSimpleName() + ".");
+            }
+        }
+        this.source = source;
+        this.stages = new ArrayList<Operator>(stages);
+        td = stages.isEmpty() ? source.getTupleDesc() : stages.get(stages.size() - 1).getTupleDesc();
+    }
+
+    /**
+     * @return true if rows of the plan can be pushed through it one at a
+     *         time
+     */
+    public static boolean isStage(DbIterator plan) {
+        return plan instanceof Filter || plan instanceof Project || plan instanceof Drop;
+    }
+
+    /**
+     * @return the operators of the pipeline, the one reading the source
+     *         first
+     */
+    public List<Operator> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * @return the sink pushing rows through the stages into out
+     */
+    private Sink chain(Sink out) {
+        Sink next = out;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            next = stage(stages.get(i), next);
+        }
+        return next;
+    }
+
+    private static Sink stage(Operator op, Sink next) {
+        if (op instanceof Filter) {
+            Predicate p = ((Filter) op).getPredicate();
+            return row -> {
+                if (p.filter(row)) {
+                    next.consume(row);
+                }
+            };
+        }
+        if (op instanceof Drop) {
+            Drop drop = (Drop) op;
+            int[] fields = new int[drop.getDropFields().size()];
+            int i = 0;
+            for (int f : Impute.extractDropFieldsIndices(drop.getDropFields(), drop.getTupleDesc())) {
+                fields[i++] = f;
+            }
+            return row -> {
+                for (int f : fields) {
+                    if (row.isMissing(f)) {
+                        return;
+                    }
+                }
+                next.consume(row);
+            };
+        }
+        Project project = (Project) op;
+        TupleDesc td = project.getTupleDesc();
+        int[] fields = new int[td.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = project.getOutFieldIds().get(i);
+        }
+        return row -> {
+            Tuple t = new Tuple(td);
+            t.setRecordId(row.getRecordId());
+            for (int i = 0; i < fields.length; i++) {
+                t.setField(i, row.getField(fields[i]));
+            }
+            next.consume(t);
+        };
+    }
+
+    private static void push(TupleBatch batch, Sink sink) throws DbException, TransactionAbortedException {
+        int[] sel = batch.selection();
+        for (int i = 0; i < batch.size(); i++) {
+            sink.consume(batch.getTuple(sel[i]));
+        }
+    }
+
+    /**
+     * Pushes the rows of the open pipeline into a sink, driving them from
+     * the source, then finishes the sink. No row must have been read with
+     * next() since the pipeline was opened or rewound.
+     */
+    public void push(Sink sink) throws DbException, TransactionAbortedException {
+        Sink h = chain(sink);
+        TupleBatch batch;
+        while (!exhausted && (batch = source.nextBatch(TupleBatch.DEFAULT_SIZE)) != null) {
+            push(batch, h);
+        }
+        exhausted = true;
+        sink.finish();
+    }
+
+    /**
+     * Reads an open input to the end into a sink: a push pipeline pushes
+     * its rows, and any other input is pulled.
+     */
+    public static void drain(DbIterator input, Sink sink) throws DbException, TransactionAbortedException {
+        if (input instanceof PushPipeline) {
+            ((PushPipeline) input).push(sink);
+            return;
+        }
+        while (input.hasNext()) {
+            sink.consume(input.next());
+        }
+        sink.finish();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        super.open();
+        source.open();
+        output.clear();
+        head = chain(output::add);
+        exhausted = false;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        source.close();
+        output.clear();
+        head = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        source.rewind();
+        output.clear();
+        exhausted = false;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (output.isEmpty()) {
+            TupleBatch batch = exhausted ? null : source.nextBatch(TupleBatch.DEFAULT_SIZE);
+            if (batch == null) {
+                exhausted = true;
+                return null;
+            }
+            push(batch, head);
+        }
+        return output.poll();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { source };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length != 1) {
+            throw new IllegalArgumentException("Expected a single new child.");
+        }
+        source = children[0];
+    }
+}
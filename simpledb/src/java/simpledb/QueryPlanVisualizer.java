@@ -222,10 +222,12 @@ public class QueryPlanVisualizer {
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
                 thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
+                        "%1$s(%2$s%3$s),card:%4$d",
                         ORDERBY,
                         children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                                o.getOrderByField()),
+                        o.getLimit() < 0 ? "" : " limit " + o.getLimit(),
+                        o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -307,15 +309,9 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
-                String name="Exchange";
-                int card=0;
-                try {
-                    name = (String) plan.getClass().getMethod("getName").invoke(plan);
-                    card = (Integer) plan.getClass().getMethod("getEstimatedCardinality").invoke(plan);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } 
+            else if (plan instanceof Exchange) {
+                String name = ((Exchange) plan).getName();
+                int card = plan.getEstimatedCardinality();
 
                 thisNode.text = String.format("%1$s,card:%2$d", name,card);
                 int upBarShift = parentUpperBarStartShift;
@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * RangeScan reads the tuples of a clustered table whose value of the
+ * clustering field lies in a closed range. Since the table is stored sorted
+ * on that field, the first page is found by binary search and the scan stops
+ * at the first tuple past the upper bound, instead of reading every page.
+ * Tuples whose clustering field is missing are never returned.
+ *
+ * @see HeapFile#cluster
+ */
+public class RangeScan extends SeqScan {
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final int field;
+    private final Integer low, high;
+
+    private DbFileIterator tuples;
+    private Tuple next;
+
+    /**
+     * @param field
+     *            the field the table is clustered on
+     * @param low
+     *            the smallest value to return, or null for no lower bound
+     * @param high
+     *            the largest value to return, or null for no upper bound
+     */
+    public RangeScan(TransactionId tid, int tableid, String tableAlias, int field, Integer low, Integer high) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.tableId = tableid;
+        this.field = field;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Returns the closed range of values satisfying <tt>field op constant</tt>
+     * as {low, high}, with null for an unbounded side, or null if the
+     * predicate cannot be answered with a range.
+     */
+    public static Integer[] rangeOf(Predicate.Op op, int constant) {
+        switch (op) {
+        case EQUALS:
+            return new Integer[] { constant, constant };
+        case GREATER_THAN:
+            return constant == Integer.MAX_VALUE ? null : new Integer[] { constant + 1, null };
+        case GREATER_THAN_OR_EQ:
+            return new Integer[] { constant, null };
+        case LESS_THAN:
+            return constant == Integer.MIN_VALUE ? null : new Integer[] { null, constant - 1 };
+        case LESS_THAN_OR_EQ:
+            return new Integer[] { null, constant };
+        default:
+            return null;
+        }
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    private HeapFile getHeapFile() {
+        return (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile file = getHeapFile();
+        int first = low == null ? 0 : file.findPage(tid, field, low);
+        tuples = file.iterator(tid, first, -1);
+        tuples.open();
+        next = null;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        while (next == null && tuples != null && tuples.hasNext()) {
+            Tuple t = tuples.next();
+            Field f = t.getField(field);
+            if (f.isMissing()) {
+                continue;
+            }
+            int value = ((IntField) f).getValue();
+            if (low != null && value < low) {
+                continue;
+            }
+            if (high != null && value > high) {
+                // Sorted input: nothing after this can match.
+                tuples.close();
+                tuples = null;
+                break;
+            }
+            next = t;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    @Override
+    public void close() {
+        if (tuples != null) {
+            tuples.close();
+        }
+        tuples = null;
+        next = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -54,6 +54,13 @@ public class SeqScan implements DbIterator {
     	return tableAlias == null ? "null" : tableAlias;
     }
     
+    /**
+     * @return the id of the table the operator scans.
+     */
+    public int getTableId() {
+    	return tableId;
+    }
+    
     private DbFile getFile() {
     	return Database.getCatalog().getDatabaseFile(tableId);
     }
@@ -80,10 +87,25 @@ public class SeqScan implements DbIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        tuples = getFile().iterator(tid);
+        tuples = fileIterator();
         tuples.open();
     }
 
+    /**
+     * @return the iterator over the tuples this scan reads, opened by
+     *         {@link #open()}
+     */
+    protected DbFileIterator fileIterator() {
+        return getFile().iterator(tid);
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -105,6 +127,24 @@ public class SeqScan implements DbIterator {
         return tuples.next();
     }
 
+    /**
+     * Fills a batch straight from the file iterator.
+     */
+    public TupleBatch nextBatch(int maxSize) throws TransactionAbortedException, DbException {
+        // subclasses read their tuples some other way
+        if (tuples == null) {
+            return DbIterator.super.nextBatch(maxSize);
+        }
+        if (!tuples.hasNext()) {
+            return null;
+        }
+        TupleBatch batch = new TupleBatch(getTupleDesc(), maxSize);
+        while (!batch.isFull() && tuples.hasNext()) {
+            batch.add(tuples.next());
+        }
+        return batch;
+    }
+
     public void close() {
         tuples.close();
     }
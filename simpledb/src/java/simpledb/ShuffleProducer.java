@@ -0,0 +1,66 @@
+package simpledb;
+
+/**
+ * ShuffleProducer repartitions the output of its child by the hash of a
+ * field: each row goes to one consumer, and rows with equal values, missing
+ * ones included, go to the same consumer.
+ */
+public class ShuffleProducer extends Producer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+
+    /**
+     * @param field
+     *            the index of the field to partition on
+     */
+    public ShuffleProducer(DbIterator child, int field) {
+        super(child);
+        this.field = field;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the partition, out of n, of a row of a batch
+     */
+    static int partition(TupleBatch batch, int row, int field, int n) {
+        int[] ints = batch.getInts(field);
+        int hash;
+        if (ints != null) {
+            hash = batch.getMissing(field)[row] ? 0 : ints[row];
+        } else {
+            Field f = batch.getField(row, field);
+            hash = f.isMissing() ? 0 : f.hashCode();
+        }
+        // spread the bits of small keys over the partitions
+        hash *= 0x9E3779B9;
+        return (hash >>> 16) % n;
+    }
+
+    @Override
+    protected boolean route(Run run, TupleBatch batch) throws InterruptedException {
+        int n = consumers();
+        int[] sel = batch.selection();
+        int[][] rows = new int[n][batch.size()];
+        int[] sizes = new int[n];
+        for (int i = 0; i < batch.size(); i++) {
+            int p = partition(batch, sel[i], field, n);
+            rows[p][sizes[p]++] = sel[i];
+        }
+        for (int p = 0; p < n; p++) {
+            if (sizes[p] > 0 && !run.send(p, batch.select(rows[p], sizes[p]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return super.getName() + "(" + getTupleDesc().getFieldName(field) + ")";
+    }
+}
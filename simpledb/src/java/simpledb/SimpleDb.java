@@ -171,6 +171,21 @@ imputationMethod);
                 .longOpt("csv")
                 .optionalArg(true)
                 .build());
+        options.addOption(Option.builder()
+                .longOpt("compile")
+                .desc("compile filter pipelines to Java code at run time")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("push")
+                .desc("run queries as push-based pipelines")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("parallelism")
+                .hasArg()
+                .argName("threads")
+                .type(Number.class)
+                .desc("number of threads a query may use")
+                .build());
 
 	    CommandLineParser parser = new DefaultParser();
 	    try {
@@ -181,6 +196,9 @@ imputationMethod);
             boolean useCsv = line.hasOption("csv");
 
             Parser sqlParser = new Parser(alpha, false);
+            sqlParser.setCompile(line.hasOption("compile"));
+            sqlParser.setPush(line.hasOption("push"));
+            sqlParser.setParallelism(Integer.parseInt(line.getOptionValue("parallelism", "1")));
 
             if (query == null) {
                 return sqlParser.start(catalogFile, false);
@@ -0,0 +1,22 @@
+package simpledb;
+
+/**
+ * A consumer of the rows of a push-based pipeline. Instead of pulling rows
+ * through hasNext() and next(), the consumer is handed each row as soon as
+ * the pipeline produces it, and is told when the input ends.
+ *
+ * @see PushPipeline
+ */
+public interface Sink {
+
+    /**
+     * Takes the next row of the input.
+     */
+    public void consume(Tuple row) throws DbException, TransactionAbortedException;
+
+    /**
+     * Called once after the last row of the input.
+     */
+    public default void finish() throws DbException, TransactionAbortedException {
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples, used by operators
+ * that need to move intermediate results (sorted runs, partitions) out of
+ * memory. Tuples are written back to back in the same binary format used on
+ * heap pages, so no space is spent on headers or empty slots.
+ */
+public class SpillFile {
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples = 0;
+
+    /**
+     * Creates a new, empty spill file for tuples with the given schema.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        file = File.createTempFile("spill", ".tmp");
+        file.deleteOnExit();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples written to this file.
+     */
+    public int size() {
+        return numTuples;
+    }
+
+    /**
+     * Appends a tuple to the end of the file.
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("Spill file already finished.");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            t.serializeField(i, out);
+        }
+        numTuples++;
+    }
+
+    /**
+     * Flushes buffered writes. No more tuples can be added afterwards.
+     */
+    public void finish() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /** Removes the file from disk. */
+    public void delete() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // The file is being discarded anyway.
+        }
+        file.delete();
+    }
+
+    /**
+     * Returns an iterator over the tuples in the order they were added. The
+     * file is finished first if it is still open for writing.
+     */
+    public DbFileIterator iterator() throws IOException {
+        finish();
+        return new DbFileIterator() {
+            private DataInputStream in = null;
+            private int read = 0;
+
+            @Override
+            public void open() throws DbException {
+                close();
+                try {
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                } catch (FileNotFoundException e) {
+                    throw new DbException("Spill file " + file + " is missing.");
+                }
+                read = 0;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return in != null && read < numTuples;
+            }
+
+            @Override
+            public Tuple next() throws DbException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < td.numFields(); i++) {
+                        td.getFieldType(i).parseInto(in, t, i);
+                    }
+                } catch (ParseException e) {
+                    throw new DbException("Corrupt spill file " + file + ".");
+                }
+                read++;
+                return t;
+            }
+
+            @Override
+            public void rewind() throws DbException {
+                open();
+            }
+
+            @Override
+            public void close() {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Nothing to do, the stream is only read from.
+                    }
+                    in = null;
+                }
+            }
+        };
+    }
+}
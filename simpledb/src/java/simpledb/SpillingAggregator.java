@@ -0,0 +1,278 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * SpillingAggregator groups tuples within a memory budget. The groups seen
+ * first are aggregated in memory until they fill the budget; after that,
+ * tuples of those groups are still aggregated in memory, and tuples of any
+ * other group are split into partitions by the hash of their group key and
+ * spilled to disk. Every group is then either wholly in memory or wholly in
+ * one partition, so each spilled partition is aggregated afterwards on its
+ * own, the same way, with another hash function.
+ * <p>
+ * Only a budget's worth of groups is in memory at a time, whatever the
+ * number of groups, and tuples are written to disk at most once per round.
+ * Aggregates without grouping have a single group and are not wrapped.
+ */
+public class SpillingAggregator implements Aggregator {
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = HybridHashJoin.DEFAULT_MEMORY_PAGES;
+
+    /** Number of partitions of each round. */
+    static final int PARTITIONS = 16;
+
+    private final Aggregator resident;
+    private final transient Supplier<Aggregator> factory;
+    private final TupleDesc childTd;
+    private final int[] gbFields;
+    private final boolean ints;
+    private final int memoryPages;
+    private final int maxGroups;
+    private final int level;
+
+    private final transient SpillFile[] spills = new SpillFile[PARTITIONS];
+
+    /**
+     * @param factory
+     *            creates an empty aggregator, grouping on gbFields
+     * @param childTd
+     *            the schema of the aggregated tuples
+     * @param gbFields
+     *            the group-by fields of the aggregated tuples
+     * @param memoryPages
+     *            the memory budget, in pages of BufferPool.getPageSize() bytes
+     */
+    public SpillingAggregator(Supplier<Aggregator> factory, TupleDesc childTd, int[] gbFields, int memoryPages) {
+        this(factory, childTd, gbFields, memoryPages, 0);
+    }
+
+    private SpillingAggregator(Supplier<Aggregator> factory, TupleDesc childTd, int[] gbFields, int memoryPages,
+            int level) {
+        this.resident = factory.get();
+        this.factory = factory;
+        this.childTd = childTd;
+        this.gbFields = gbFields;
+        this.ints = gbFields.length == 1 && childTd.getFieldType(gbFields[0]) == Type.INT_TYPE;
+        this.memoryPages = memoryPages;
+        // each group takes about one output tuple
+        this.maxGroups = HybridHashJoin.maxTuples(resident.getTupleDesc(), memoryPages);
+        this.level = level;
+    }
+
+    /**
+     * @return the number of partitions spilled to disk
+     */
+    public int numSpilled() {
+        int n = 0;
+        for (SpillFile f : spills) {
+            n += f == null ? 0 : 1;
+        }
+        return n;
+    }
+
+    private int partition(Tuple t) {
+        int h;
+        if (ints) {
+            h = t.getInt(gbFields[0]);
+        } else {
+            h = 0;
+            for (int f : gbFields) {
+                h = h * 31 + t.getField(f).hashCode();
+            }
+        }
+        // a different mix for each round, so spilled partitions split again
+        h = h * 0x9E3779B9 + level * 0x85EBCA6B;
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 12;
+        return h & (PARTITIONS - 1);
+    }
+
+    private void spill(Tuple t) {
+        int p = partition(t);
+        try {
+            if (spills[p] == null) {
+                spills[p] = new SpillFile(childTd);
+            }
+            spills[p].add(t);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not spill aggregate partition: " + e.getMessage());
+        }
+    }
+
+    private boolean hasMissingKey(Tuple t) {
+        for (int f : gbFields) {
+            if (t.isMissing(f)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Aggregates a tuple in memory if its group is there or still fits, and
+     * spills it otherwise.
+     */
+    @Override
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (resident.numGroups() < maxGroups || hasMissingKey(tup) || resident.hasGroup(tup)) {
+            resident.mergeTupleIntoGroup(tup);
+        } else {
+            spill(tup);
+        }
+    }
+
+    /**
+     * Merges a batch at once while its rows cannot outgrow the budget.
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        if (resident.numGroups() + batch.size() <= maxGroups) {
+            resident.mergeBatchIntoGroups(batch);
+            return;
+        }
+        Aggregator.super.mergeBatchIntoGroups(batch);
+    }
+
+    @Override
+    public void clear() {
+        resident.clear();
+        close();
+    }
+
+    @Override
+    public int numGroups() {
+        return resident.numGroups();
+    }
+
+    @Override
+    public boolean hasGroup(Tuple tup) {
+        return resident.hasGroup(tup);
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return resident.getTupleDesc();
+    }
+
+    /** Removes the spilled partitions from disk. */
+    public void close() {
+        for (int p = 0; p < PARTITIONS; p++) {
+            if (spills[p] != null) {
+                spills[p].delete();
+                spills[p] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the groups in memory, then those of each spilled partition,
+     * which is aggregated when it is reached. Rewinding aggregates the
+     * partitions again from disk.
+     */
+    @Override
+    public DbIterator iterator() {
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+
+            // the groups being returned, null if the iterator is not open
+            private DbIterator current;
+            // the next partition and the aggregate of the one being read
+            private int nextPartition;
+            private SpillingAggregator partition;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                close();
+                current = resident.iterator();
+                current.open();
+                nextPartition = 0;
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (current == null) {
+                    throw new IllegalStateException("Iterator is not open.");
+                }
+                while (!current.hasNext()) {
+                    if (!aggregateNextPartition()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            private boolean aggregateNextPartition() throws DbException, TransactionAbortedException {
+                while (nextPartition < PARTITIONS && spills[nextPartition] == null) {
+                    nextPartition++;
+                }
+                if (nextPartition == PARTITIONS) {
+                    return false;
+                }
+                closePartition();
+                partition = new SpillingAggregator(factory, childTd, gbFields, memoryPages, level + 1);
+                DbFileIterator tuples;
+                try {
+                    tuples = spills[nextPartition++].iterator();
+                } catch (IOException e) {
+                    throw new DbException("Could not read spilled aggregate partition: " + e.getMessage());
+                }
+                tuples.open();
+                while (tuples.hasNext()) {
+                    partition.mergeTupleIntoGroup(tuples.next());
+                }
+                tuples.close();
+                current = partition.iterator();
+                current.open();
+                return true;
+            }
+
+            private void closePartition() {
+                current.close();
+                if (partition != null) {
+                    partition.close();
+                    partition = null;
+                }
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                if (current == null) {
+                    throw new IllegalStateException("Iterator is not open.");
+                }
+                open();
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return resident.getTupleDesc();
+            }
+
+            @Override
+            public void close() {
+                if (current != null) {
+                    closePartition();
+                    current = null;
+                }
+            }
+
+            @Override
+            public DbIterator[] getChildren() {
+                return new DbIterator[] {};
+            }
+        };
+    }
+}
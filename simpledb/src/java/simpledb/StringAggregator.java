@@ -1,30 +1,20 @@
 package simpledb;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
- * Knows how to compute some aggregate over a set of StringFields.
+ * Knows how to compute some aggregate over a set of StringFields. Groups are
+ * numbered by a {@link GroupTable}, with their counts in a flat array, and
+ * counts are output as LongFields.
  */
 public class StringAggregator implements Aggregator {
-	private class CountAgg {
-		private int value = 0;
-		public void add() {
-			value++;
-		}
-		public int get() {
-			return value;
-		}
-	}
-	
     private static final long serialVersionUID = 1L;
     
-    private static final Field NONE = new IntField(0);
-    
     private final int gbField;
     private final Type gbFieldType;
-    private final Hashtable<Field, CountAgg> groups;
+    private final GroupTable groups;
+    private long[] counts = new long[16];
     private final TupleDesc schema;
 
     /**
@@ -42,13 +32,14 @@ public class StringAggregator implements Aggregator {
     	}
     	gbField = gbfield;
         gbFieldType = gbfieldtype;
-        groups = new Hashtable<Field, CountAgg>();
+        // without grouping, all values go to the group of key 0
+        groups = new GroupTable(gbField == NO_GROUPING ? Type.INT_TYPE : gbFieldType);
         
         Type[] types;
     	if (gbField == NO_GROUPING) {
-    		types = new Type[] { Type.INT_TYPE };
+    		types = new Type[] { Type.LONG_TYPE };
     	} else {
-    		types = new Type[] { gbFieldType, Type.INT_TYPE };
+    		types = new Type[] { gbFieldType, Type.LONG_TYPE };
     	}
     	schema = new TupleDesc(types); 
     }
@@ -58,16 +49,52 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-    	Field key = gbField == NO_GROUPING ? NONE : tup.getField(gbField);
 		// can't aggregate with missing key
-		if (!key.isMissing()) {
+		if (gbField == NO_GROUPING || !tup.isMissing(gbField)) {
 			// only doing count, so always doable
-			CountAgg agg = groups.containsKey(key) ? groups.get(key) : new CountAgg();
-			agg.add();
-			groups.put(key, agg);
+			int g = gbField == NO_GROUPING ? groups.groupOf(0) : groups.groupOf(tup.getField(gbField));
+			if (g == counts.length) {
+				counts = Arrays.copyOf(counts, g * 2);
+			}
+			counts[g]++;
 		}
     }
     
+    /**
+     * Merges the groups of a partial aggregate computed over other tuples,
+     * with the same fields.
+     */
+    public void merge(StringAggregator partial) {
+    	for (int pg = 0; pg < partial.groups.size(); pg++) {
+    		int g = groups.groupOf(partial.groups.key(pg));
+    		if (g >= counts.length) {
+    			counts = Arrays.copyOf(counts, Math.max(counts.length * 2, g + 1));
+    		}
+    		counts[g] += partial.counts[pg];
+    	}
+    }
+
+    @Override
+    public void clear() {
+    	Arrays.fill(counts, 0, groups.size(), 0);
+    	groups.clear();
+    }
+
+    @Override
+    public boolean setKeyRange(int min, int max) {
+    	return gbField != NO_GROUPING && groups.setKeyRange(min, max);
+    }
+
+    @Override
+    public int numGroups() {
+    	return groups.size();
+    }
+
+    @Override
+    public boolean hasGroup(Tuple tup) {
+    	return gbField == NO_GROUPING ? groups.size() > 0 : groups.find(tup.getField(gbField)) >= 0;
+    }
+
     @Override
     public TupleDesc getTupleDesc() {
 		return schema;
@@ -83,21 +110,22 @@ public class StringAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         return new DbIterator() {
-        	private Enumeration<Field> keys = null;
+        	// the next group, or -1 if the iterator is not open
+        	private int next = -1;
         	
 			private static final long serialVersionUID = 1L;
 
 			@Override
 			public void open() throws DbException, TransactionAbortedException {
-				keys = groups.keys();
+				next = 0;
 			}
 
 			@Override
 			public boolean hasNext() throws DbException, TransactionAbortedException {
-				if (keys == null) {
+				if (next < 0) {
 					throw new IllegalStateException("Iterator is not open.");
 				}
-				return keys.hasMoreElements();
+				return next < groups.size();
 			}
 
 			@Override
@@ -105,22 +133,21 @@ public class StringAggregator implements Aggregator {
 				if (!hasNext()) {
 					throw new NoSuchElementException();
 				}
-				Field key = keys.nextElement();
-				CountAgg value = groups.get(key);
-				Field setSize = new IntField(value.get());
+				int g = next++;
+				Field setSize = new LongField(counts[g]);
 				if (gbField == NO_GROUPING) {
 					return new Tuple(schema, new Field[] { setSize });
 				} else {
-					return new Tuple(schema, new Field[] { key, setSize });
+					return new Tuple(schema, new Field[] { groups.key(g), setSize });
 				}
 			}
 
 			@Override
 			public void rewind() throws DbException, TransactionAbortedException {
-				if (keys == null) {
+				if (next < 0) {
 					throw new IllegalStateException("Iterator is not open.");
 				}
-				keys = groups.keys();
+				next = 0;
 			}
 
 			@Override
@@ -130,7 +157,7 @@ public class StringAggregator implements Aggregator {
 
 			@Override
 			public void close() {
-				keys = null;
+				next = -1;
 			}
 			
 			@Override
@@ -139,5 +166,4 @@ public class StringAggregator implements Aggregator {
 			}
         };
     }
-
 }
@@ -0,0 +1,297 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * StripedHeapFile is a HeapFile whose pages are spread round-robin over
+ * several data directories, normally on different disks. Page i lives in the
+ * stripe file of directory i % n, at page (i / n) of that file, so a
+ * sequential scan touches every device in turn.
+ * <p>
+ * Each directory is served by its own I/O threads. Scans read ahead a few
+ * pages per stripe through the buffer pool, and writing back many pages at
+ * once (see {@link BufferPool#flushAllPages}) writes each stripe in
+ * parallel, so scan and flush bandwidth grow with the number of devices.
+ * <p>
+ * In catalog.txt, the directories follow the field list of a table, and may
+ * be combined with a partitioning clause:
+ * <pre>
+ *   acs(state int, year int, ...) stripe (/disk1/db, /disk2/db)
+ * </pre>
+ */
+public class StripedHeapFile extends HeapFile {
+    /** Number of pages read ahead on each stripe. */
+    static final int READ_AHEAD_PER_STRIPE = 2;
+
+    /**
+     * The I/O threads of one data directory. Reads and writes get separate
+     * threads: read-ahead goes through the buffer pool, which may be locked
+     * by a flush waiting for its writes.
+     */
+    private static class Device {
+        final ExecutorService reader = newThread("stripe-read");
+        final ExecutorService writer = newThread("stripe-write");
+
+        private static ExecutorService newThread(String name) {
+            return Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+
+    private static Device deviceOf(File dir) {
+        String key;
+        try {
+            key = dir.getCanonicalPath();
+        } catch (IOException e) {
+            key = dir.getAbsolutePath();
+        }
+        return devices.computeIfAbsent(key, k -> new Device());
+    }
+
+    private final List<File> dirs;
+    private final File[] stripes;
+    private final Device[] stripeDevices;
+    /** Read-ahead of each page that is queued or being read. */
+    private final ConcurrentHashMap<Integer, Future<?>> pendingReads = new ConcurrentHashMap<>();
+
+    /**
+     * @param f
+     *            the file the table would be stored in if it was not striped;
+     *            it identifies the table, and the stripe files share its name
+     * @param dirs
+     *            the data directories, in round-robin order
+     */
+    public StripedHeapFile(File f, TupleDesc td, List<File> dirs) {
+        super(f, td, countPages(stripeFiles(f, dirs)));
+        if (dirs.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one data directory.");
+        }
+        this.dirs = new ArrayList<File>(dirs);
+        this.stripes = stripeFiles(f, dirs);
+        this.stripeDevices = new Device[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stripeDevices[i] = deviceOf(dirs.get(i));
+        }
+    }
+
+    private static File[] stripeFiles(File f, List<File> dirs) {
+        File[] stripes = new File[dirs.size()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new File(dirs.get(i), f.getName());
+        }
+        return stripes;
+    }
+
+    private static int countPages(File[] stripes) {
+        long pages = 0;
+        for (File s : stripes) {
+            pages += s.length() / BufferPool.getPageSize();
+        }
+        return (int) pages;
+    }
+
+    /** @return the data directories, in round-robin order. */
+    public List<File> getDirectories() {
+        return Collections.unmodifiableList(dirs);
+    }
+
+    public int numStripes() {
+        return stripes.length;
+    }
+
+    /** @return the file that stores the pages of stripe i. */
+    public File getStripe(int i) {
+        return stripes[i];
+    }
+
+    private long stripeOffset(int pageNum) {
+        return (long) (pageNum / stripes.length) * BufferPool.getPageSize();
+    }
+
+    @Override
+    protected byte[] readPageData(int pageNum) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(stripes[pageNum % stripes.length], "r")) {
+            byte[] buf = new byte[BufferPool.getPageSize()];
+            f.seek(stripeOffset(pageNum));
+            f.readFully(buf);
+            return buf;
+        }
+    }
+
+    @Override
+    protected void writePageData(int pageNum, byte[] data) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(stripes[pageNum % stripes.length], "rw")) {
+            f.seek(stripeOffset(pageNum));
+            f.write(data);
+        }
+    }
+
+    /**
+     * Writes the pages of each stripe on that stripe's writer thread, and
+     * waits for all of them.
+     */
+    @Override
+    public void writePages(Collection<Page> pages) throws IOException {
+        ArrayList<ArrayList<Page>> byStripe = new ArrayList<ArrayList<Page>>();
+        for (int i = 0; i < stripes.length; i++) {
+            byStripe.add(new ArrayList<Page>());
+        }
+        for (Page p : pages) {
+            byStripe.get(p.getId().getPageNumber() % stripes.length).add(p);
+        }
+
+        ArrayList<Future<?>> writes = new ArrayList<Future<?>>();
+        for (int i = 0; i < stripes.length; i++) {
+            ArrayList<Page> stripePages = byStripe.get(i);
+            if (stripePages.isEmpty()) {
+                continue;
+            }
+            File stripe = stripes[i];
+            stripePages.sort((a, b) -> Integer.compare(a.getId().getPageNumber(), b.getId().getPageNumber()));
+            writes.add(stripeDevices[i].writer.submit(() -> {
+                try (RandomAccessFile f = new RandomAccessFile(stripe, "rw")) {
+                    for (Page p : stripePages) {
+                        f.seek(stripeOffset(p.getId().getPageNumber()));
+                        f.write(p.getPageData());
+                    }
+                }
+                return null;
+            }));
+        }
+        await(writes);
+    }
+
+    private static void await(List<Future<?>> futures) throws IOException {
+        IOException error = null;
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                if (error == null) {
+                    error = new IOException("Interrupted while waiting for stripe I/O.");
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Asks the reader thread of each stripe to load the next pages into the
+     * buffer pool. Pages already being read ahead are skipped. If the page
+     * about to be read is being read ahead, waits for that read, so that the
+     * scan finds the page in the buffer pool instead of reading it again.
+     */
+    @Override
+    protected void readAhead(TransactionId tid, int pageNum, int endPage) {
+        BufferPool bp = Database.getBufferPool();
+        int last = Math.min(endPage, pageNum + 1 + stripes.length * READ_AHEAD_PER_STRIPE);
+        for (int p = pageNum + 1; p < last; p++) {
+            final int next = p;
+            FutureTask<Page> read = new FutureTask<Page>(
+                    () -> bp.getPage(tid, new HeapPageId(getId(), next), Permissions.READ_ONLY));
+            if (pendingReads.putIfAbsent(next, read) != null) {
+                continue;
+            }
+            stripeDevices[next % stripes.length].reader.execute(() -> {
+                read.run();
+                pendingReads.remove(next, read);
+            });
+        }
+
+        Future<?> current = pendingReads.get(pageNum);
+        if (current != null) {
+            try {
+                current.get();
+            } catch (ExecutionException e) {
+                // Read-ahead is only a hint; the scan reads the page itself.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until every read-ahead queued so far has finished.
+     */
+    private void drainReadAhead() throws IOException {
+        ArrayList<Future<?>> barriers = new ArrayList<Future<?>>();
+        for (Device d : new LinkedHashSet<Device>(Arrays.asList(stripeDevices))) {
+            barriers.add(d.reader.submit(() -> { }));
+        }
+        await(barriers);
+    }
+
+    @Override
+    public boolean exists() {
+        for (File s : stripes) {
+            if (!s.exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long lastModified() {
+        long last = 0;
+        for (File s : stripes) {
+            last = Math.max(last, s.lastModified());
+        }
+        return last;
+    }
+
+    /**
+     * Distributes the pages of an unstriped heap file over the stripes,
+     * replacing their contents. Source is left untouched.
+     */
+    public void stripeFrom(File source) throws IOException {
+        File copy = new File(getFile().getPath() + ".unstriped");
+        Files.copy(source.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        replaceContents(copy, (int) (source.length() / BufferPool.getPageSize()));
+    }
+
+    @Override
+    protected void moveContents(File source, int pages) throws IOException {
+        drainReadAhead();
+        File[] tmp = new File[stripes.length];
+        OutputStream[] out = new OutputStream[stripes.length];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i].getAbsoluteFile().getParentFile().mkdirs();
+                tmp[i] = new File(stripes[i].getPath() + ".tmp");
+                out[i] = new BufferedOutputStream(new FileOutputStream(tmp[i]));
+            }
+            byte[] buf = new byte[BufferPool.getPageSize()];
+            for (int pageNum = 0; pageNum < pages; pageNum++) {
+                in.readFully(buf);
+                out[pageNum % stripes.length].write(buf);
+            }
+        } finally {
+            for (OutputStream o : out) {
+                if (o != null) {
+                    o.close();
+                }
+            }
+        }
+        for (int i = 0; i < stripes.length; i++) {
+            Files.move(tmp[i].toPath(), stripes[i].toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        source.delete();
+    }
+}
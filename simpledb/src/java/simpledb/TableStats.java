@@ -1,10 +1,13 @@
 package simpledb;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -21,6 +24,8 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
     static final double IMPUTE_COST_FUDGE_FACTOR = 1.0;
+    /** Cost of scanning a table pinned in memory, relative to reading it from disk. */
+    static final double CACHED_SCAN_FACTOR = 0.05;
 
     public static TableStats getTableStats(String tablename) {
         TableStats stats = statsMap.get(tablename);
@@ -82,6 +87,18 @@ public class TableStats {
     private final TupleDesc schema;
     private int numTuples;
     private final int[] nullStats;
+    /** Field the table is stored sorted on, or -1. */
+    private volatile int clusterField;
+    private final int numPages;
+    /** True if the table is pinned in memory, see ColumnCache. */
+    private final boolean cached;
+    /**
+     * Fields with an index, fields with an index that answers ranges, and
+     * fields with a hash index.
+     */
+    private final BitSet indexedFields, rangeIndexedFields, hashedFields;
+    /** Positions of missing values in the table, or null. */
+    private final MissingIndex missingIndex;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -100,15 +117,42 @@ public class TableStats {
     	schema = file.getTupleDesc();
     	final int numFields = schema.numFields();
     	
+    	String clusterKey = Database.getCatalog().getClusterKey(tableid);
+    	clusterField = clusterKey == null ? -1 : schema.fieldNameToIndex(clusterKey);
+    	numPages = file instanceof HeapFile ? ((HeapFile)file).numPages : 0;
+    	cached = Database.getCatalog().isCached(tableid);
+    	indexedFields = new BitSet();
+    	rangeIndexedFields = new BitSet();
+    	hashedFields = new BitSet();
+    	for (IndexFile index : Database.getCatalog().getIndexes(tableid)) {
+    		indexedFields.set(index.getKeyField());
+    		if (index.supportsRanges()) {
+    			rangeIndexedFields.set(index.getKeyField());
+    		} else {
+    			hashedFields.set(index.getKeyField());
+    		}
+    	}
+    	
     	intStats = new IntHistogram[numFields];
     	stringStats = new StringHistogram[numFields];
     	nullStats = new int[numFields];
+    	// null counts come from the missing value index, when there is one
+    	MissingIndex missing = Database.getCatalog().getMissingIndex(tableid);
+    	missingIndex = missing;
+    	if (missing != null) {
+    		for (int i = 0; i < numFields; i++) {
+    			nullStats[i] = missing.countMissing(i);
+    		}
+    	}
     	
 		final int[] min = new int[numFields], max = new int[numFields];
 		int nt = 0;
 		Arrays.fill(min, Integer.MAX_VALUE);
 		Arrays.fill(max, Integer.MIN_VALUE);
-    	DbFileIterator iter = file.iterator(new TransactionId());
+    	// read without keeping the pages, so that computing statistics does
+    	// not evict the pages loaded by BufferPool.warmUp
+    	DbFileIterator iter = file instanceof HeapFile ? ((HeapFile) file).uncachedIterator(new TransactionId())
+    			: file.iterator(new TransactionId());
     	try {
     		iter.open();
     		
@@ -116,8 +160,8 @@ public class TableStats {
 			while (iter.hasNext()) {
 				Tuple tup = iter.next();
 				for (int i = 0; i < numFields; i++) {
-					if (tup.getTupleDesc().getFieldType(i) == Type.INT_TYPE && !tup.getField(i).isMissing()) {
-						int value = ((IntField)tup.getField(i)).getValue();
+					if (tup.getTupleDesc().getFieldType(i) == Type.INT_TYPE && !tup.isMissing(i)) {
+						int value = tup.getInt(i);
 						min[i] = Math.min(min[i], value);
 						max[i] = Math.max(max[i], value);
 					}
@@ -127,34 +171,16 @@ public class TableStats {
 
 	    	iter.rewind();
 
-	    	// Fill in histograms.
+	    	// Fill in histograms, a batch of tuples at a time.
+	    	TupleBatch batch = new TupleBatch(schema, TupleBatch.DEFAULT_SIZE);
 			while (iter.hasNext()) {
-				Tuple tup = iter.next();
-				for (int i = 0; i < tup.getTupleDesc().numFields(); i++) {
-					if (tup.getField(i).isMissing()) {
-						nullStats[i]++;
-					} else {
-						switch (tup.getTupleDesc().getFieldType(i)) {
-						case INT_TYPE:
-							if (intStats[i] == null) {
-								intStats[i] = new IntHistogram(NUM_HIST_BINS, min[i], max[i]);
-							}
-							intStats[i].addValue(tup, i);
-							break;
-						case STRING_TYPE:
-							if (stringStats[i] == null) {
-								stringStats[i] = new StringHistogram(NUM_HIST_BINS);
-							}
-							stringStats[i].addValue(tup, i);
-							break;
-						case DOUBLE_TYPE:
-							break;
-						default:
-							throw new RuntimeException("Unexpected type.");
-						}
-					}
+				batch.add(iter.next());
+				if (batch.isFull()) {
+					addToHistograms(batch, min, max, missing == null);
+					batch = new TupleBatch(schema, TupleBatch.DEFAULT_SIZE);
 				}
 			}
+			addToHistograms(batch, min, max, missing == null);
 		} catch (NoSuchElementException | DbException | TransactionAbortedException e) {
 			e.printStackTrace();
 		} finally {
@@ -163,6 +189,59 @@ public class TableStats {
 		}
     }
 
+    /**
+     * Adds the tuples of a batch to the histograms of their fields, and to
+     * the null counts if countNulls is set.
+     */
+    private void addToHistograms(TupleBatch batch, int[] min, int[] max, boolean countNulls) {
+    	int n = batch.size();
+    	int[] sel = batch.selection();
+    	int[] missingPerRow = new int[n];
+    	for (int i = 0; i < schema.numFields(); i++) {
+    		boolean[] m = batch.getMissing(i);
+    		for (int r = 0; r < n; r++) {
+    			missingPerRow[r] += (m != null ? m[r] : batch.getField(r, i).isMissing()) ? 1 : 0;
+    		}
+    	}
+    	for (int i = 0; i < schema.numFields(); i++) {
+    		switch (schema.getFieldType(i)) {
+    		case INT_TYPE:
+    			int[] present = Arrays.copyOf(sel, n);
+    			int k = IntKernels.selectNot(batch.getMissing(i), present, n);
+    			if (countNulls) {
+    				nullStats[i] += n - k;
+    			}
+    			if (k > 0) {
+    				if (intStats[i] == null) {
+    					intStats[i] = new IntHistogram(NUM_HIST_BINS, min[i], max[i]);
+    				}
+    				intStats[i].addValues(batch.getInts(i), present, k, missingPerRow);
+    			}
+    			break;
+    		case STRING_TYPE:
+    			for (int r = 0; r < n; r++) {
+    				Field f = batch.getField(r, i);
+    				if (f.isMissing()) {
+    					nullStats[i] += countNulls ? 1 : 0;
+    				} else {
+    					if (stringStats[i] == null) {
+    						stringStats[i] = new StringHistogram(NUM_HIST_BINS);
+    					}
+    					stringStats[i].addValue(((StringField) f).getValue());
+    				}
+    			}
+    			break;
+    		case DOUBLE_TYPE:
+    			for (int r = 0; r < n; r++) {
+    				nullStats[i] += countNulls && batch.getField(r, i).isMissing() ? 1 : 0;
+    			}
+    			break;
+    		default:
+    			throw new RuntimeException("Unexpected type.");
+    		}
+    	}
+    }
+
 	/**
 	 * Meant to create copies of histogram information for imputation. Only works on integer columns.
 	 *
@@ -180,6 +259,71 @@ public class TableStats {
 		// unused
 		stringStats = null;
 		ioCostPerPage = -1;
+		clusterField = -1;
+		numPages = 0;
+		cached = false;
+		indexedFields = new BitSet();
+		rangeIndexedFields = new BitSet();
+		hashedFields = new BitSet();
+		missingIndex = null;
+	}
+
+	/**
+	 * Statistics for the given partitions of a partitioned table, built from
+	 * the statistics of each partition. A field with no values in those
+	 * partitions keeps the distribution of the whole table.
+	 *
+	 * @return the statistics of the whole table if those of a partition are
+	 *         missing
+	 */
+	public static TableStats ofPartitions(Map<String, TableStats> stats, String tableName, BitSet partitions) {
+		TableStats table = stats.get(tableName);
+		List<TableStats> parts = new ArrayList<TableStats>();
+		for (int i = partitions.nextSetBit(0); i >= 0; i = partitions.nextSetBit(i + 1)) {
+			TableStats part = stats.get(Catalog.partitionName(tableName, i));
+			if (table == null || part == null) {
+				return table;
+			}
+			parts.add(part);
+		}
+		return new TableStats(table, parts);
+	}
+
+	private TableStats(TableStats table, List<TableStats> parts) {
+		schema = table.schema;
+		ioCostPerPage = table.ioCostPerPage;
+		stringStats = table.stringStats;
+		cached = false;
+		clusterField = -1;
+		indexedFields = new BitSet();
+		rangeIndexedFields = new BitSet();
+		hashedFields = new BitSet();
+		missingIndex = null;
+
+		int numFields = schema.numFields(), pages = 0;
+		intStats = new IntHistogram[numFields];
+		nullStats = new int[numFields];
+		for (TableStats part : parts) {
+			pages += part.numPages;
+			numTuples += part.numTuples;
+			for (int i = 0; i < numFields; i++) {
+				nullStats[i] += part.nullStats[i];
+			}
+		}
+		numPages = pages;
+		for (int i = 0; i < numFields; i++) {
+			List<IntHistogram> hists = new ArrayList<IntHistogram>();
+			for (TableStats part : parts) {
+				if (part.intStats[i] != null) {
+					hists.add(part.intStats[i]);
+				}
+			}
+			if (!hists.isEmpty()) {
+				intStats[i] = IntHistogram.union(hists, NUM_HIST_BINS);
+			} else if (table.intStats[i] != null) {
+				intStats[i] = table.intStats[i].copyHistogram();
+			}
+		}
 	}
 
 	public TableStats setNullStats(int[] nullStats) {
@@ -200,12 +344,119 @@ public class TableStats {
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
      * 
+     * A table pinned in memory is read from its column cache instead, for a
+     * fraction of that cost.
+     * 
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
+    	double diskCost = diskScanCost();
+    	return cached ? diskCost * CACHED_SCAN_FACTOR : diskCost;
+    }
+
+    /**
+     * @return the cost of reading every page of the table from disk, which
+     *         access methods that read only some pages pay a fraction of
+     */
+    private double diskScanCost() {
 		return ((double)totalTuples() / BufferPool.getPageSize()) * ioCostPerPage;
     }
 
+    /**
+     * @return the smallest and largest values of an integer field, or null
+     *         if it has no values
+     */
+    public int[] valueRange(int field) {
+    	IntHistogram h = intStats[field];
+    	return h == null ? null : new int[] { h.min(), h.max() };
+    }
+
+    /**
+     * @return true if the table is stored sorted on the given field.
+     */
+    public boolean isClusteredOn(int field) {
+    	return field >= 0 && field == clusterField;
+    }
+
+    /**
+     * Records that the table is no longer stored sorted, see
+     * {@link Catalog#clearClusterKey}.
+     */
+    void clearClusterField() {
+    	clusterField = -1;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy
+     * <tt>field op constant</tt>. If the table is clustered on field, only
+     * the matching range of pages is read, after a binary search for the
+     * first one. Otherwise this is the cost of a full scan.
+     */
+    public double estimateScanCost(int field, Predicate.Op op, Field constant) {
+    	double fullScan = estimateScanCost();
+    	if (!isClusteredOn(field) || schema.getFieldType(field) != Type.INT_TYPE
+    			|| constant.isMissing() || numPages == 0
+    			|| RangeScan.rangeOf(op, ((IntField)constant).getValue()) == null) {
+    		return fullScan;
+    	}
+    	double selectivity = estimateSelectivity(field, op, constant);
+    	double probes = Math.ceil(Math.log(numPages + 1) / Math.log(2));
+    	double pagesRead = selectivity * numPages + probes;
+    	return Math.min(fullScan, diskScanCost() * Math.min(1.0, pagesRead / numPages));
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy
+     * <tt>field op constant</tt> through an index on field: one random page
+     * read per level of the index, plus one per matching tuple.
+     * 
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if there is no
+     *         index that can answer the predicate
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+    	if (field < 0 || schema.getFieldType(field) != Type.INT_TYPE || constant.isMissing()
+    			|| numPages == 0) {
+    		return Double.POSITIVE_INFINITY;
+    	}
+    	Integer[] range = RangeScan.rangeOf(op, ((IntField)constant).getValue());
+    	boolean point = range != null && range[0] != null && range[0].equals(range[1]);
+    	if (range == null || !(point ? indexedFields : rangeIndexedFields).get(field)) {
+    		return Double.POSITIVE_INFINITY;
+    	}
+    	return estimateIndexProbeCost(field, estimateSelectivity(field, op, constant) * totalTuples());
+    }
+
+    /**
+     * Estimates the cost of reading only the tuples with a missing value in
+     * field through the missing value index: one random page read per page
+     * holding such a tuple.
+     * 
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the table
+     *         has no missing value index
+     */
+    public double estimateMissingScanCost(int field) {
+    	if (field < 0 || missingIndex == null || numPages == 0) {
+    		return Double.POSITIVE_INFINITY;
+    	}
+    	int pagesRead = missingIndex.countPages(missingIndex.getMissing(field));
+    	return diskScanCost() * pagesRead / numPages;
+    }
+
+    /**
+     * Estimates the cost of one lookup in an index on field that returns the
+     * given number of tuples, or Double.POSITIVE_INFINITY if there is no
+     * index on field.
+     */
+    public double estimateIndexProbeCost(int field, double matches) {
+    	if (field < 0 || !indexedFields.get(field) || numPages == 0) {
+    		return Double.POSITIVE_INFINITY;
+    	}
+    	// a hash index reads one bucket, a B+tree one page per level
+    	int lookup = hashedFields.get(field) ? 1 : BTreeFile.estimateHeight(totalTuples());
+    	double pagesRead = lookup + matches;
+    	return diskScanCost() * pagesRead / numPages;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -249,6 +500,12 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
     	boolean isNullConstant = constant.isMissing();
+    	// histograms only hold present values; the null counts are exact
+    	if (isNullConstant && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)
+    			&& totalTuples() > 0) {
+    		double nulls = (double) nullStats[field] / totalTuples();
+    		return op == Predicate.Op.EQUALS ? nulls : 1.0 - nulls;
+    	}
     	switch (schema.getFieldType(field)) {
     	case INT_TYPE:
     		if (isNullConstant) {
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -11,12 +13,23 @@ import java.util.List;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Integer, double and long fields are stored unboxed, in a single long array with a
+ * bitmap of missing values, so that a row is a few objects however wide it
+ * is. Fields of other types are kept as objects. {@link #getField} returns a
+ * view of a stored value; operators can avoid creating fields by using the
+ * typed accessors.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     
-    private final Field[] fields;
+    /** Unboxed values: ints and longs as is, doubles as their raw bits. */
+    private long[] values;
+    /** Bitmap of the unboxed values that are missing. */
+    private long[] missing;
+    /** Fields not stored unboxed, or null if there are none. */
+    private Field[] refs;
     
     private TupleDesc schema;
     private RecordId rid;
@@ -30,15 +43,18 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
         schema = td;
-        fields = new Field[schema.numFields()];
+        values = new long[td.numFields()];
+        missing = new long[(td.numFields() + 63) >>> 6];
     }
     
     public Tuple(TupleDesc td, Field[] fields) {
+        this(td);
         if (td.numFields() != fields.length) {
             throw new IllegalArgumentException("Schema does not match fields.");
         }
-        schema = td;
-        this.fields = fields;
+        for (int i = 0; i < fields.length; i++) {
+            setField(i, fields[i]);
+        }
     }
     
     /**
@@ -46,17 +62,59 @@ public class Tuple implements Serializable {
      * @param t
      */
     public Tuple(Tuple t){
-        this(t.schema, Arrays.copyOf(t.fields, t.fields.length));
+        schema = t.schema;
+        values = t.values.clone();
+        missing = t.missing.clone();
+        refs = t.refs == null ? null : t.refs.clone();
     }
     
     /**
      * Create a new tuple which is the concatenation of two existing tuples.
      */
     public Tuple(Tuple t1, Tuple t2) {
-        schema = TupleDesc.merge(t1.schema, t2.schema);
-        fields = new Field[schema.numFields()];
-        System.arraycopy(t1.fields, 0, fields, 0, t1.fields.length);
-        System.arraycopy(t2.fields, 0, fields, t1.fields.length, t2.fields.length);
+        this(TupleDesc.merge(t1.schema, t2.schema), t1, t2);
+    }
+
+    /**
+     * Create a new tuple which is the concatenation of two existing tuples,
+     * with a schema already merged by the caller.
+     */
+    public Tuple(TupleDesc td, Tuple t1, Tuple t2) {
+        this(td);
+        int n1 = t1.values.length;
+        System.arraycopy(t1.values, 0, values, 0, n1);
+        System.arraycopy(t2.values, 0, values, n1, t2.values.length);
+        System.arraycopy(t1.missing, 0, missing, 0, t1.missing.length);
+        for (int i = 0; i < t2.values.length; i++) {
+            if (t2.missingBit(i)) {
+                setMissingBit(n1 + i, true);
+            }
+        }
+        if (t1.refs != null || t2.refs != null) {
+            refs = new Field[values.length];
+            if (t1.refs != null) {
+                System.arraycopy(t1.refs, 0, refs, 0, n1);
+            }
+            if (t2.refs != null) {
+                System.arraycopy(t2.refs, 0, refs, n1, t2.refs.length);
+            }
+        }
+    }
+
+    private boolean missingBit(int i) {
+        return (missing[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void setMissingBit(int i, boolean isMissing) {
+        if (isMissing) {
+            missing[i >>> 6] |= 1L << i;
+        } else {
+            missing[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    private Field ref(int i) {
+        return refs == null ? null : refs[i];
     }
 
     /**
@@ -93,17 +151,174 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-        fields[i] = f;
+        Type type = schema.getFieldType(i);
+        if (type == Type.INT_TYPE && f instanceof IntField) {
+            IntField v = (IntField) f;
+            if (v.isMissing()) {
+                setMissing(i);
+            } else {
+                setInt(i, v.getValue());
+            }
+        } else if (type == Type.DOUBLE_TYPE && f instanceof DoubleField) {
+            DoubleField v = (DoubleField) f;
+            if (v.isMissing()) {
+                setMissing(i);
+            } else {
+                setDouble(i, v.getValue());
+            }
+        } else if (type == Type.LONG_TYPE && f instanceof LongField) {
+            LongField v = (LongField) f;
+            if (v.isMissing()) {
+                setMissing(i);
+            } else {
+                setLong(i, v.getValue());
+            }
+        } else {
+            if (refs == null) {
+                refs = new Field[values.length];
+            }
+            refs[i] = f;
+        }
     }
 
     /**
      * @return the value of the ith field, or null if it has not been set.
+     *         Unset integer, double and long fields read as zero.
      * 
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return fields[i];
+        Field f = ref(i);
+        if (f != null) {
+            return f;
+        }
+        switch (schema.getFieldType(i)) {
+        case INT_TYPE:
+            return missingBit(i) ? new IntField() : new IntField((int) values[i]);
+        case DOUBLE_TYPE:
+            return missingBit(i) ? new DoubleField() : new DoubleField(Double.longBitsToDouble(values[i]));
+        case LONG_TYPE:
+            return missingBit(i) ? new LongField() : new LongField(values[i]);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the ith field is missing
+     */
+    public boolean isMissing(int i) {
+        Field f = ref(i);
+        return f != null ? f.isMissing() : missingBit(i);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an integer, or
+     *         {@link Type#MISSING_INTEGER} if it is missing
+     */
+    public int getInt(int i) {
+        Field f = ref(i);
+        if (f != null) {
+            return ((IntField) f).getValueDefault(Type.MISSING_INTEGER);
+        }
+        return missingBit(i) ? Type.MISSING_INTEGER : (int) values[i];
+    }
+
+    /**
+     * @return the value of the ith field, which must be a double, or
+     *         {@link Type#MISSING_DOUBLE} if it is missing
+     */
+    public double getDouble(int i) {
+        Field f = ref(i);
+        if (f != null) {
+            return ((DoubleField) f).getValueDefault(Type.MISSING_DOUBLE);
+        }
+        return missingBit(i) ? Type.MISSING_DOUBLE : Double.longBitsToDouble(values[i]);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an integer or a
+     *         long, or {@link Type#MISSING_LONG} if it is missing
+     */
+    public long getLong(int i) {
+        Field f = ref(i);
+        if (f instanceof IntField) {
+            IntField v = (IntField) f;
+            return v.isMissing() ? Type.MISSING_LONG : v.getValue();
+        } else if (f != null) {
+            return ((LongField) f).getValueDefault(Type.MISSING_LONG);
+        }
+        return missingBit(i) ? Type.MISSING_LONG : values[i];
+    }
+
+    /**
+     * Sets the ith field, which must be an integer, to a present value.
+     */
+    public void setInt(int i, int value) {
+        values[i] = value;
+        setMissingBit(i, false);
+        if (refs != null) {
+            refs[i] = null;
+        }
+    }
+
+    /**
+     * Sets the ith field, which must be a double. As for DoubleField,
+     * {@link Type#MISSING_DOUBLE} stands for a missing value.
+     */
+    public void setDouble(int i, double value) {
+        values[i] = Double.doubleToRawLongBits(value);
+        setMissingBit(i, value == Type.MISSING_DOUBLE);
+        if (refs != null) {
+            refs[i] = null;
+        }
+    }
+
+    /**
+     * Sets the ith field, which must be a long, to a present value.
+     */
+    public void setLong(int i, long value) {
+        values[i] = value;
+        setMissingBit(i, false);
+        if (refs != null) {
+            refs[i] = null;
+        }
+    }
+
+    /**
+     * Sets the ith field, which must be an integer, a double or a long, to
+     * missing.
+     */
+    public void setMissing(int i) {
+        Type type = schema.getFieldType(i);
+        values[i] = type == Type.INT_TYPE ? Type.MISSING_INTEGER : type == Type.LONG_TYPE ? Type.MISSING_LONG : 0;
+        setMissingBit(i, true);
+        if (refs != null) {
+            refs[i] = null;
+        }
+    }
+
+    /**
+     * Writes the ith field in the format read by {@link Type#parse}.
+     */
+    public void serializeField(int i, DataOutputStream dos) throws IOException {
+        if (ref(i) == null) {
+            switch (schema.getFieldType(i)) {
+            case INT_TYPE:
+                dos.writeInt(getInt(i));
+                return;
+            case DOUBLE_TYPE:
+                dos.writeDouble(getDouble(i));
+                return;
+            case LONG_TYPE:
+                dos.writeLong(getLong(i));
+                return;
+            default:
+                break;
+            }
+        }
+        getField(i).serialize(dos);
     }
 
     /**
@@ -116,9 +331,9 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < fields.length; i++) {
-            sb.append(fields[i].toString());
-            if (i < fields.length - 1) {
+        for (int i = 0; i < values.length; i++) {
+            sb.append(getField(i).toString());
+            if (i < values.length - 1) {
                 sb.append(",");
             }
         }
@@ -130,6 +345,10 @@ public class Tuple implements Serializable {
      *        An iterator which iterates over all the fields of this tuple
      * */
     public Iterator<Field> fields() {
+        Field[] fields = new Field[values.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = getField(i);
+        }
         return Arrays.asList(fields).iterator();
     }
     
@@ -137,7 +356,17 @@ public class Tuple implements Serializable {
      * reset the TupleDesc of thi tuple
      * */
     public void resetTupleDesc(TupleDesc td) {
+        Field[] fields = new Field[values.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = getField(i);
+        }
         schema = td;
+        values = new long[td.numFields()];
+        missing = new long[(td.numFields() + 63) >>> 6];
+        refs = null;
+        for (int i = 0; i < fields.length && i < values.length; i++) {
+            setField(i, fields[i]);
+        }
     }
 
     /**
@@ -145,8 +374,8 @@ public class Tuple implements Serializable {
      * @return
      */
     public boolean hasMissingFields() {
-        for(Field field : fields) {
-            if (field.isMissing()) {
+        for (int i = 0; i < values.length; i++) {
+            if (isMissing(i)) {
                 return true;
             }
         }
@@ -160,7 +389,7 @@ public class Tuple implements Serializable {
      */
     public boolean hasMissingFieldsIndices(Collection<Integer> fields){
         for (int i : fields){
-            if (getField(i).isMissing()){
+            if (isMissing(i)){
                 return false;
             }
         }
@@ -175,7 +404,7 @@ public class Tuple implements Serializable {
      */
     public boolean hasMissingFields(Collection<String> dropFields){
         for (String name : dropFields){
-            if (getField(getTupleDesc().fieldNameToIndex(name)).isMissing()){
+            if (isMissing(getTupleDesc().fieldNameToIndex(name))){
                 return true;
             }
         }
@@ -190,7 +419,7 @@ public class Tuple implements Serializable {
     public List<Integer> missingFieldsIndices() {
         List<Integer> missing = new ArrayList<>();
         for(int i = 0; i < getTupleDesc().numFields(); i++) {
-            if (getField(i).isMissing()) {
+            if (isMissing(i)) {
                 missing.add(i);
             }
         }
@@ -203,12 +432,13 @@ public class Tuple implements Serializable {
 		}
 		try {
 			double err = 0.0;
-			for (int i = 0; i < fields.length; i++) {
-				if (fields[i] instanceof IntField) {
-					IntField f1 = (IntField) fields[i], f2 = (IntField) t.fields[i];
+			for (int i = 0; i < values.length; i++) {
+				Field a = getField(i), b = t.getField(i);
+				if (a instanceof IntField) {
+					IntField f1 = (IntField) a, f2 = (IntField) b;
 					err += Math.pow(f1.getValue() - f2.getValue(), 2);
-				} else if (fields[i] instanceof DoubleField) {
-					DoubleField f1 = (DoubleField) fields[i], f2 = (DoubleField) t.fields[i];
+				} else if (a instanceof DoubleField) {
+					DoubleField f1 = (DoubleField) a, f2 = (DoubleField) b;
 					err += Math.pow(f1.getValue() - f2.getValue(), 2);
 				}
 			}
@@ -0,0 +1,312 @@
+package simpledb;
+
+/**
+ * A batch of tuples stored by column, returned by
+ * {@link DbIterator#nextBatch}. Integer and double columns are primitive
+ * arrays with a missing flag per row; missing values hold
+ * {@link Type#MISSING_INTEGER} or {@link Type#MISSING_DOUBLE}, as in their
+ * fields. Other columns hold their fields.
+ * <p>
+ * A selection vector lists, in order, the rows of the batch that belong to
+ * the result. Filters narrow it in place instead of copying the columns, so
+ * rows outside of it must be ignored.
+ */
+public class TupleBatch {
+    /** Number of rows operators ask their children for at once. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final double[][] doubles;
+    private final boolean[][] missing;
+    private final Field[][] fields;
+    private final RecordId[] rids;
+    private int rows = 0;
+
+    private final int[] sel;
+    private int size = 0;
+
+    /**
+     * Creates an empty batch that can hold up to capacity rows.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        doubles = new double[n][];
+        missing = new boolean[n][];
+        fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+                missing[i] = new boolean[capacity];
+            } else if (td.getFieldType(i) == Type.DOUBLE_TYPE) {
+                doubles[i] = new double[capacity];
+                missing[i] = new boolean[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+        rids = new RecordId[capacity];
+        sel = new int[capacity];
+    }
+
+    /** Creates a batch sharing the columns of another, for projections. */
+    private TupleBatch(TupleDesc td, TupleBatch source, int[] fieldIds) {
+        this.td = td;
+        this.capacity = source.capacity;
+        int n = fieldIds.length;
+        ints = new int[n][];
+        doubles = new double[n][];
+        missing = new boolean[n][];
+        fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            ints[i] = source.ints[fieldIds[i]];
+            doubles[i] = source.doubles[fieldIds[i]];
+            missing[i] = source.missing[fieldIds[i]];
+            fields[i] = source.fields[fieldIds[i]];
+        }
+        rids = source.rids;
+        rows = source.rows;
+        sel = source.sel.clone();
+        size = source.size;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of selected rows */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /**
+     * @return the selection vector; its first {@link #size()} entries are
+     *         the selected rows. Callers that narrow it in place must then
+     *         call {@link #setSize}.
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /** Sets the number of selected rows, after narrowing the selection. */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the values of an integer column, indexed by row, or null if
+     *         the field is not an integer
+     */
+    public int[] getInts(int field) {
+        return ints[field];
+    }
+
+    /**
+     * @return the values of a double column, indexed by row, or null if the
+     *         field is not a double
+     */
+    public double[] getDoubles(int field) {
+        return doubles[field];
+    }
+
+    /**
+     * @return the missing flags of an integer or double column, indexed by
+     *         row, or null if the field is of another type
+     */
+    public boolean[] getMissing(int field) {
+        return missing[field];
+    }
+
+    public Field getField(int row, int field) {
+        if (ints[field] != null) {
+            return missing[field][row] ? new IntField() : new IntField(ints[field][row]);
+        }
+        if (doubles[field] != null) {
+            return missing[field][row] ? new DoubleField() : new DoubleField(doubles[field][row]);
+        }
+        return fields[field][row];
+    }
+
+    /**
+     * @return the tuple in a row of the batch
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            if (missing[i] == null) {
+                t.setField(i, fields[i][row]);
+            } else if (missing[i][row]) {
+                t.setMissing(i);
+            } else if (ints[i] != null) {
+                t.setInt(i, ints[i][row]);
+            } else {
+                t.setDouble(i, doubles[i][row]);
+            }
+        }
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Adds a row at the end of the batch and selects it. Its values must then
+     * be set.
+     *
+     * @return the new row
+     */
+    public int addRow() {
+        int row = rows++;
+        sel[size++] = row;
+        return row;
+    }
+
+    public void setInt(int row, int field, int value, boolean isMissing) {
+        ints[field][row] = value;
+        missing[field][row] = isMissing;
+    }
+
+    public void setDouble(int row, int field, double value, boolean isMissing) {
+        doubles[field][row] = value;
+        missing[field][row] = isMissing;
+    }
+
+    public void setField(int row, int field, Field f) {
+        if (ints[field] != null) {
+            setInt(row, field, ((IntField) f).getValueDefault(Type.MISSING_INTEGER), f.isMissing());
+        } else if (doubles[field] != null) {
+            setDouble(row, field, ((DoubleField) f).getValueDefault(Type.MISSING_DOUBLE), f.isMissing());
+        } else {
+            fields[field][row] = f;
+        }
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        rids[row] = rid;
+    }
+
+    /** Adds a tuple at the end of the batch. */
+    public void add(Tuple t) {
+        int row = addRow();
+        copyTuple(row, 0, t);
+        rids[row] = t.getRecordId();
+    }
+
+    /** Copies a row of another batch into fields offset.. of a row. */
+    private void copyRow(int row, int offset, TupleBatch src, int srcRow) {
+        for (int i = 0; i < src.ints.length; i++) {
+            if (src.ints[i] != null) {
+                setInt(row, offset + i, src.ints[i][srcRow], src.missing[i][srcRow]);
+            } else if (src.doubles[i] != null) {
+                setDouble(row, offset + i, src.doubles[i][srcRow], src.missing[i][srcRow]);
+            } else {
+                setField(row, offset + i, src.fields[i][srcRow]);
+            }
+        }
+    }
+
+    private void copyTuple(int row, int offset, Tuple t) {
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            if (ints[offset + i] != null) {
+                setInt(row, offset + i, t.getInt(i), t.isMissing(i));
+            } else if (doubles[offset + i] != null) {
+                setDouble(row, offset + i, t.getDouble(i), t.isMissing(i));
+            } else {
+                setField(row, offset + i, t.getField(i));
+            }
+        }
+    }
+
+    /**
+     * Adds the concatenation of a row of a batch and a tuple, as produced by
+     * a join.
+     */
+    public void addJoined(TupleBatch left, int leftRow, Tuple right) {
+        int row = addRow();
+        copyRow(row, 0, left, leftRow);
+        copyTuple(row, left.ints.length, right);
+    }
+
+    /**
+     * Adds the concatenation of a tuple and a row of a batch, as produced by
+     * a join.
+     */
+    public void addJoined(Tuple left, TupleBatch right, int rightRow) {
+        int row = addRow();
+        int offset = left.getTupleDesc().numFields();
+        copyTuple(row, 0, left);
+        copyRow(row, offset, right, rightRow);
+    }
+
+    /**
+     * Deselects the rows with a missing value in a field.
+     */
+    public void removeMissing(int field) {
+        if (missing[field] != null) {
+            size = IntKernels.selectNot(missing[field], sel, size);
+            return;
+        }
+        int kept = 0;
+        Field[] f = fields[field];
+        for (int i = 0; i < size; i++) {
+            int row = sel[i];
+            if (!f[row].isMissing()) {
+                sel[kept++] = row;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Deselects the rows with a missing value in any of the fields. The
+     * missing flags of integer and double fields are combined first, so the
+     * selection is narrowed once for all of them.
+     */
+    public void removeMissing(int[] fieldIds) {
+        boolean[] any = null;
+        for (int field : fieldIds) {
+            if (missing[field] == null) {
+                removeMissing(field);
+            } else if (any == null) {
+                any = missing[field];
+            } else {
+                boolean[] combined = new boolean[rows];
+                IntKernels.or(any, missing[field], combined, rows);
+                any = combined;
+            }
+        }
+        if (any != null) {
+            size = IntKernels.selectNot(any, sel, size);
+        }
+    }
+
+    /**
+     * @return a batch with some of the columns of this one, sharing their
+     *         storage, and a copy of the selection
+     */
+    public TupleBatch project(int[] fieldIds, TupleDesc projected) {
+        return new TupleBatch(projected, this, fieldIds);
+    }
+
+    /**
+     * @return a batch sharing the columns of this one, which selects the
+     *         first n rows listed in rows
+     */
+    public TupleBatch select(int[] rows, int n) {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        TupleBatch b = new TupleBatch(td, this, all);
+        System.arraycopy(rows, 0, b.sel, 0, n);
+        b.size = n;
+        return b;
+    }
+}
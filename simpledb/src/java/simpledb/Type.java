@@ -23,6 +23,20 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                int readValue = dis.readInt();
+                if (readValue == MISSING_INTEGER) {
+                    t.setMissing(i);
+                } else {
+                    t.setInt(i, readValue);
+                }
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     }, STRING_TYPE(Defaults.STRING_LEN + 4) {
         @Override
         public Field parse(DataInputStream dis) throws ParseException {
@@ -56,6 +70,42 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                t.setDouble(i, dis.readDouble());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+    }, LONG_TYPE(8) {
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                long readValue = dis.readLong();
+                if (readValue == MISSING_LONG) {
+                    return new LongField();
+                } else {
+                    return new LongField(readValue);
+                }
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                long readValue = dis.readLong();
+                if (readValue == MISSING_LONG) {
+                    t.setMissing(i);
+                } else {
+                    t.setLong(i, readValue);
+                }
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
 
     private static class Defaults {
@@ -82,11 +132,21 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Reads a field into the ith field of a tuple. Integers, doubles and
+     * longs are stored without creating a Field.
+     */
+    public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+        t.setField(i, parse(dis));
+    }
+
     // dummy value for missing integers
     public static final int MISSING_INTEGER = Integer.MIN_VALUE;
     // dummy string for missing strings
     public static final String MISSING_STRING = new String(new char[STRING_LEN]).replace('\0', 'Z');
     public static final double MISSING_DOUBLE = Double.MIN_VALUE;
+    // dummy value for missing longs
+    public static final long MISSING_LONG = Long.MIN_VALUE;
 
     @Override
     public String toString() {
@@ -97,6 +157,8 @@ public enum Type implements Serializable {
                 return "double";
             case STRING_TYPE:
                 return "string";
+            case LONG_TYPE:
+                return "long";
             default:
                 throw new RuntimeException("Unexpected type.");
         }
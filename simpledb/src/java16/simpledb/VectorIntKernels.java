@@ -0,0 +1,87 @@
+package simpledb;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The aggregates of {@link IntKernels} over dense selections, written with
+ * the incubating Vector API. IntKernels loads this class only when the JVM
+ * has the jdk.incubator.vector module, and uses its scalar loops otherwise.
+ * <p>
+ * Missing flags are read as lane masks. Sums are widened to longs a vector
+ * at a time, so that they do not overflow.
+ */
+final class VectorIntKernels implements IntKernels.DenseKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    /** Ints with as many lanes as LONGS, which widen into a vector of LONGS. */
+    private static final VectorSpecies<Integer> NARROW_INTS = VectorSpecies.of(int.class,
+            VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+
+    @Override
+    public int count(boolean[] missing, int n) {
+        int bound = INTS.loopBound(n);
+        int count = bound;
+        int r = 0;
+        for (; r < bound; r += INTS.length()) {
+            count -= VectorMask.fromArray(INTS, missing, r).trueCount();
+        }
+        for (; r < n; r++) {
+            count += missing[r] ? 0 : 1;
+        }
+        return count;
+    }
+
+    @Override
+    public long sum(int[] values, boolean[] missing, int n) {
+        LongVector acc = LongVector.zero(LONGS);
+        int bound = NARROW_INTS.loopBound(n);
+        int r = 0;
+        for (; r < bound; r += NARROW_INTS.length()) {
+            LongVector v = (LongVector) IntVector.fromArray(NARROW_INTS, values, r)
+                    .convertShape(VectorOperators.I2L, LONGS, 0);
+            acc = acc.add(v, VectorMask.fromArray(LONGS, missing, r).not());
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; r < n; r++) {
+            sum += missing[r] ? 0 : values[r];
+        }
+        return sum;
+    }
+
+    @Override
+    public int min(int[] values, boolean[] missing, int n) {
+        IntVector acc = IntVector.broadcast(INTS, Integer.MAX_VALUE);
+        int bound = INTS.loopBound(n);
+        int r = 0;
+        for (; r < bound; r += INTS.length()) {
+            acc = acc.lanewise(VectorOperators.MIN, IntVector.fromArray(INTS, values, r),
+                    VectorMask.fromArray(INTS, missing, r).not());
+        }
+        int min = acc.reduceLanes(VectorOperators.MIN);
+        for (; r < n; r++) {
+            min = Math.min(min, missing[r] ? Integer.MAX_VALUE : values[r]);
+        }
+        return min;
+    }
+
+    @Override
+    public int max(int[] values, boolean[] missing, int n) {
+        IntVector acc = IntVector.broadcast(INTS, Integer.MIN_VALUE);
+        int bound = INTS.loopBound(n);
+        int r = 0;
+        for (; r < bound; r += INTS.length()) {
+            acc = acc.lanewise(VectorOperators.MAX, IntVector.fromArray(INTS, values, r),
+                    VectorMask.fromArray(INTS, missing, r).not());
+        }
+        int max = acc.reduceLanes(VectorOperators.MAX);
+        for (; r < n; r++) {
+            max = Math.max(max, missing[r] ? Integer.MIN_VALUE : values[r]);
+        }
+        return max;
+    }
+}
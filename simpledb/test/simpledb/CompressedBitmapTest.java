@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompressedBitmapTest extends SimpleDbTestBase {
+    private static final int RANGE = 1 << 18;
+
+    private static void assertSame(BitSet expected, CompressedBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        int i = expected.nextSetBit(0), j = actual.nextSetBit(0);
+        while (i >= 0) {
+            assertEquals(i, j);
+            assertTrue(actual.contains(i));
+            i = expected.nextSetBit(i + 1);
+            j = actual.nextSetBit(j + 1);
+        }
+        assertEquals(-1, j);
+    }
+
+    /** A set with sparse and dense regions, so both container kinds are used. */
+    private static BitSet randomSet(Random r, CompressedBitmap bitmap) {
+        BitSet set = new BitSet();
+        for (int i = 0; i < 20000; i++) {
+            int x = r.nextBoolean() ? r.nextInt(RANGE) : (1 << 16) + r.nextInt(8000);
+            set.set(x);
+            bitmap.add(x);
+        }
+        return set;
+    }
+
+    @Test public void addRemove() {
+        Random r = new Random(1);
+        CompressedBitmap bitmap = new CompressedBitmap();
+        BitSet set = randomSet(r, bitmap);
+        assertSame(set, bitmap);
+
+        for (int i = 0; i < 30000; i++) {
+            int x = r.nextBoolean() ? r.nextInt(RANGE) : (1 << 16) + r.nextInt(8000);
+            set.clear(x);
+            bitmap.remove(x);
+        }
+        assertSame(set, bitmap);
+        assertFalse(bitmap.contains(-1));
+        assertEquals(-1, bitmap.nextSetBit(RANGE));
+    }
+
+    @Test public void emptyAfterRemovingAll() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int i = 0; i < 10000; i++) {
+            bitmap.add(i * 3);
+        }
+        for (int i = 0; i < 10000; i++) {
+            bitmap.remove(i * 3);
+        }
+        assertTrue(bitmap.isEmpty());
+        assertEquals(-1, bitmap.nextSetBit(0));
+    }
+
+    @Test public void orAndNot() {
+        Random r = new Random(2);
+        CompressedBitmap a = new CompressedBitmap(), b = new CompressedBitmap();
+        BitSet sa = randomSet(r, a), sb = randomSet(r, b);
+
+        BitSet union = (BitSet) sa.clone();
+        union.or(sb);
+        assertSame(union, a.or(b));
+
+        BitSet diff = (BitSet) sa.clone();
+        diff.andNot(sb);
+        assertSame(diff, a.andNot(b));
+
+        // operands are unchanged
+        assertSame(sa, a);
+        assertSame(sb, b);
+    }
+
+    @Test public void readWrite() throws Exception {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        BitSet set = randomSet(new Random(3), bitmap);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.write(new DataOutputStream(bytes));
+        CompressedBitmap read = CompressedBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertSame(set, read);
+        // much smaller than one bit per possible value
+        assertTrue(bytes.size() < RANGE / 8);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedBitmapTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupTableTest extends SimpleDbTestBase {
+
+    @Test public void numbersIntKeys() {
+        Random r = new Random(7);
+        GroupTable table = new GroupTable(Type.INT_TYPE);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 50000; i++) {
+            int key = r.nextInt(5000) * (r.nextBoolean() ? 1 : -1);
+            Integer group = expected.get(key);
+            if (group == null) {
+                group = expected.size();
+                expected.put(key, group);
+            }
+            assertEquals((int) group, table.groupOf(key));
+        }
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getKey(), table.intKey(e.getValue()));
+            assertEquals(new IntField(e.getKey()), table.key(e.getValue()));
+        }
+    }
+
+    @Test public void numbersFieldKeys() {
+        GroupTable table = new GroupTable(Type.STRING_TYPE);
+        assertEquals(0, table.groupOf(new StringField("a", Type.STRING_LEN)));
+        assertEquals(1, table.groupOf(new StringField("b", Type.STRING_LEN)));
+        assertEquals(0, table.groupOf(new StringField("a", Type.STRING_LEN)));
+        assertEquals(2, table.size());
+        assertEquals(new StringField("b", Type.STRING_LEN), table.key(1));
+    }
+
+    @Test public void findDoesNotAdd() {
+        GroupTable ints = new GroupTable(Type.INT_TYPE);
+        assertEquals(-1, ints.find(5));
+        assertEquals(0, ints.groupOf(5));
+        assertEquals(0, ints.find(new IntField(5)));
+        assertEquals(-1, ints.find(6));
+        GroupTable strings = new GroupTable(Type.STRING_TYPE);
+        assertEquals(-1, strings.find(new StringField("a", Type.STRING_LEN)));
+        assertEquals(0, strings.size());
+    }
+
+    @Test public void clear() {
+        GroupTable table = new GroupTable(Type.INT_TYPE);
+        for (int i = 0; i < 100; i++) {
+            table.groupOf(i);
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(0, table.groupOf(42));
+        assertEquals(1, table.groupOf(3));
+    }
+
+    @Test public void denseKeys() {
+        GroupTable table = new GroupTable(Type.INT_TYPE);
+        assertTrue(table.setKeyRange(-10, 10));
+        assertTrue(table.isDense());
+        assertEquals(0, table.groupOf(3));
+        assertEquals(1, table.groupOf(-10));
+        // keys outside the range are hashed
+        assertEquals(2, table.groupOf(11));
+        assertEquals(3, table.groupOf(Integer.MIN_VALUE));
+        assertEquals(0, table.groupOf(3));
+        assertEquals(2, table.groupOf(11));
+        assertEquals(1, table.find(-10));
+        assertEquals(3, table.find(new IntField(Integer.MIN_VALUE)));
+        assertEquals(-1, table.find(10));
+        assertEquals(-1, table.find(12));
+        assertEquals(-10, table.intKey(1));
+        assertEquals(4, table.size());
+
+        table.clear();
+        assertEquals(-1, table.find(3));
+        assertEquals(-1, table.find(11));
+        assertEquals(0, table.groupOf(11));
+        assertEquals(1, table.groupOf(-10));
+    }
+
+    @Test public void denseKeyRangeRefused() {
+        GroupTable table = new GroupTable(Type.INT_TYPE);
+        assertFalse(table.setKeyRange(0, GroupTable.MAX_DENSE_KEYS));
+        assertFalse(table.setKeyRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertFalse(table.setKeyRange(1, 0));
+        table.groupOf(1);
+        assertFalse(table.setKeyRange(0, 10));
+        assertFalse(table.isDense());
+        assertFalse(new GroupTable(Type.STRING_TYPE).setKeyRange(0, 10));
+        assertTrue(new GroupTable(Type.INT_TYPE).setKeyRange(0, GroupTable.MAX_DENSE_KEYS - 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupTableTest.class);
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+    private static List<Integer> chain(IntHashTable<Integer> table, int key) {
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int row = table.find(key); row >= 0; row = table.next(row)) {
+            rows.add(table.get(row));
+        }
+        return rows;
+    }
+
+    @Test public void matchesHashMap() {
+        Random r = new Random(11);
+        IntHashTable<Integer> table = new IntHashTable<Integer>(4);
+        Map<Integer, List<Integer>> expected = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < 20000; i++) {
+            int key = r.nextInt(3000) * (r.nextBoolean() ? 1 : -1);
+            if (i % 100 == 0) {
+                key = Type.MISSING_INTEGER;
+            }
+            table.add(key, i);
+            expected.computeIfAbsent(key, k -> new ArrayList<Integer>()).add(i);
+        }
+        assertEquals(20000, table.size());
+        for (int key = -3000; key <= 3000; key++) {
+            List<Integer> rows = expected.get(key);
+            assertEquals(rows == null ? Collections.emptyList() : rows, chain(table, key));
+        }
+        assertEquals(expected.get(Type.MISSING_INTEGER), chain(table, Type.MISSING_INTEGER));
+    }
+
+    @Test public void clear() {
+        IntHashTable<Integer> table = new IntHashTable<Integer>();
+        for (int i = 0; i < 100; i++) {
+            table.add(i % 10, i);
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.find(3));
+        table.add(3, 42);
+        assertEquals(Arrays.asList(42), chain(table, 3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashTableTest.class);
+    }
+}
@@ -250,4 +250,25 @@ public class IntHistogramTest {
 		}
 	}
 
+	/**
+	 * The union of histograms over disjoint ranges, such as those of the
+	 * partitions of a table, estimates like a histogram of all the values.
+	 */
+	@Test public void unionTest() {
+		IntHistogram low = new IntHistogram(10, 0, 99);
+		IntHistogram high = new IntHistogram(10, 500, 999);
+		for (int c = 0; c < 100; c++) {
+			low.addValue(c);
+			high.addValue(500 + 5 * c);
+		}
+
+		IntHistogram h = IntHistogram.union(java.util.Arrays.asList(low, high), 10);
+		Assert.assertEquals(0, h.min());
+		Assert.assertEquals(999, h.max());
+		Assert.assertEquals(200.0, h.countTuples(), 1e-9);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.LESS_THAN, 100), 1e-9);
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 750), 0.01);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.LESS_THAN, 300), 1e-9);
+	}
+
 }
@@ -0,0 +1,151 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntKernelsTest extends SimpleDbTestBase {
+    private static final int N = 1000;
+
+    private int[] values;
+    private boolean[] missing;
+    private int[] dense, sparse;
+    private int sparseSize;
+
+    @Before public void createColumn() {
+        Random r = new Random(7);
+        values = new int[N];
+        missing = new boolean[N];
+        for (int i = 0; i < N; i++) {
+            values[i] = r.nextInt(100) - 50;
+            missing[i] = r.nextInt(6) == 0;
+        }
+        dense = new int[N];
+        sparse = new int[N];
+        for (int i = 0; i < N; i++) {
+            dense[i] = i;
+            if (i % 3 != 0) {
+                sparse[sparseSize++] = i;
+            }
+        }
+    }
+
+    @Test public void select() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int c : new int[] { -10, 0, 49 }) {
+                for (boolean cMissing : new boolean[] { false, true }) {
+                    int[] sel = sparse.clone();
+                    int kept = IntKernels.select(op, cMissing ? Type.MISSING_INTEGER : c, cMissing, values,
+                            missing, sel, sparseSize);
+                    int k = 0;
+                    for (int i = 0; i < sparseSize; i++) {
+                        int row = sparse[i];
+                        if (IntField.compare(op, missing[row], values[row], cMissing,
+                                cMissing ? Type.MISSING_INTEGER : c)) {
+                            assertEquals(row, sel[k++]);
+                        }
+                    }
+                    assertEquals(op + " " + c, k, kept);
+                }
+            }
+        }
+    }
+
+    @Test public void flags() {
+        boolean[] other = new boolean[N], or = new boolean[N], and = new boolean[N];
+        for (int i = 0; i < N; i++) {
+            other[i] = i % 5 == 0;
+        }
+        IntKernels.or(missing, other, or, N);
+        IntKernels.and(missing, other, and, N);
+        int[] sel = dense.clone();
+        int kept = IntKernels.selectNot(or, sel, N);
+        int k = 0;
+        for (int i = 0; i < N; i++) {
+            assertEquals(missing[i] || other[i], or[i]);
+            assertEquals(missing[i] && other[i], and[i]);
+            if (!or[i]) {
+                assertEquals(i, sel[k++]);
+            }
+        }
+        assertEquals(k, kept);
+    }
+
+    @Test public void aggregates() {
+        for (int[] sel : new int[][] { dense, sparse }) {
+            int n = sel == dense ? N : sparseSize;
+            assertEquals(sel == dense, IntKernels.isDense(sel, n));
+            long sum = 0;
+            int count = 0, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (!missing[row]) {
+                    sum += values[row];
+                    count++;
+                    min = Math.min(min, values[row]);
+                    max = Math.max(max, values[row]);
+                }
+            }
+            assertEquals(sum, IntKernels.sum(values, missing, sel, n));
+            assertEquals(count, IntKernels.count(missing, sel, n));
+            assertEquals(min, IntKernels.min(values, missing, sel, n));
+            assertEquals(max, IntKernels.max(values, missing, sel, n));
+        }
+    }
+
+    /**
+     * Aggregates over dense selections of every length up to a few vectors,
+     * so that the Vector API path, when in use, covers its tail loops, with
+     * values whose sums overflow an int
+     */
+    @Test public void denseAggregatesOfEveryLength() {
+        Random r = new Random(11);
+        int[] extremes = new int[70];
+        for (int i = 0; i < extremes.length; i++) {
+            extremes[i] = r.nextBoolean() ? Integer.MAX_VALUE - r.nextInt(10) : Integer.MIN_VALUE + r.nextInt(10);
+        }
+        for (int n = 0; n <= extremes.length; n++) {
+            long sum = 0;
+            int count = 0, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int row = 0; row < n; row++) {
+                if (!missing[row]) {
+                    sum += extremes[row];
+                    count++;
+                    min = Math.min(min, extremes[row]);
+                    max = Math.max(max, extremes[row]);
+                }
+            }
+            assertEquals(sum, IntKernels.sum(extremes, missing, dense, n));
+            assertEquals(count, IntKernels.count(missing, dense, n));
+            assertEquals(min, IntKernels.min(extremes, missing, dense, n));
+            assertEquals(max, IntKernels.max(extremes, missing, dense, n));
+        }
+    }
+
+    @Test public void histogram() {
+        IntHistogram one = new IntHistogram(10, -50, 49), batch = new IntHistogram(10, -50, 49);
+        for (int i = 0; i < sparseSize; i++) {
+            one.addValue(values[sparse[i]]);
+        }
+        batch.addValues(values, sparse, sparseSize, new int[N]);
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+            for (int v = -60; v < 60; v += 7) {
+                assertEquals(one.estimateSelectivity(op, v), batch.estimateSelectivity(op, v), 1e-9);
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntKernelsTest.class);
+    }
+}
@@ -16,7 +16,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
 
   int width1 = 2;
   DbIterator scan1;
-  int[][] sum = null;
+  Object[][] sum = null;
   int[][] min = null;
   int[][] max = null;
   int[][] avg = null;
@@ -35,11 +35,11 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
                     5, 7 });
 
     // verify how the results progress after a few merges
-    this.sum = new int[][] {
-      { 1, 2 },
-      { 1, 6 },
-      { 1, 12 },
-      { 1, 12, 3, 2 }
+    this.sum = new Object[][] {
+      { 1, 2L },
+      { 1, 6L },
+      { 1, 12L },
+      { 1, 12L, 3, 2L }
     };
 
     this.min = new int[][] {
@@ -71,7 +71,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     scan1.open();
     IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
     
-    for (int[] step : sum) {
+    for (Object[] step : sum) {
       agg.mergeTupleIntoGroup(scan1.next());
       DbIterator it = agg.iterator();
       it.open();
@@ -179,6 +179,94 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * SUM_COUNT returns the sum and the count of each group, which SC_AVG
+   * combines into averages
+   */
+  @Test public void sumCountThenAverage() throws Exception {
+    scan1.open();
+    IntegerAggregator partial = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+    while (scan1.hasNext())
+      partial.mergeTupleIntoGroup(scan1.next());
+    DbIterator sumCounts = partial.iterator();
+    sumCounts.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new Object[] { 1, 12L, 3L,
+                    3, 12L, 3L,
+                    5, 7L, 1L }), sumCounts);
+
+    // two SUM_COUNT tuples of group 1 average to (12 + 12) / 6
+    IntegerAggregator avg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+    sumCounts.rewind();
+    while (sumCounts.hasNext())
+      avg.mergeTupleIntoGroup(sumCounts.next());
+    DbIterator extra = TestUtil.createTupleList(3, new Object[] { 1, 12L, 3L });
+    extra.open();
+    avg.mergeTupleIntoGroup(extra.next());
+    DbIterator it = avg.iterator();
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int group = ((IntField) t.getField(0)).getValue();
+      double expected = group == 1 ? 4.0 : group == 3 ? 4.0 : 7.0;
+      assertEquals(expected, ((DoubleField) t.getField(1)).getValue(), 1e-9);
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
+  /**
+   * Sums are accumulated in longs, so only their results must fit in an int
+   */
+  @Test public void sumIntermediateOverflow() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    DbIterator values = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE,
+                    1, -Integer.MAX_VALUE });
+    values.open();
+    while (values.hasNext())
+      agg.mergeTupleIntoGroup(values.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new Object[] { 1, (long) Integer.MAX_VALUE }), it);
+  }
+
+  /**
+   * Sums that do not fit in an int are output as longs rather than wrapping
+   * around
+   */
+  @Test public void sumOutOfRange() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    DbIterator values = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE });
+    values.open();
+    while (values.hasNext())
+      agg.mergeTupleIntoGroup(values.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    assertEquals(Type.LONG_TYPE, it.getTupleDesc().getFieldType(1));
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new Object[] { 1, 2L * Integer.MAX_VALUE }), it);
+  }
+
+  /**
+   * Partial sums that are longs are summed as longs
+   */
+  @Test public void sumOfLongs() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Type.LONG_TYPE, Aggregator.Op.SUM);
+    DbIterator values = TestUtil.createTupleList(width1,
+        new Object[] { 1, 2L * Integer.MAX_VALUE,
+                    1, 2L * Integer.MAX_VALUE });
+    values.open();
+    while (values.hasNext())
+      agg.mergeTupleIntoGroup(values.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new Object[] { 1, 4L * Integer.MAX_VALUE }), it);
+  }
+
   /**
    * JUnit suite target
    */
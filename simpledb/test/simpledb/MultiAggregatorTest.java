@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MultiAggregatorTest extends SimpleDbTestBase {
+
+  private static final int M = Integer.MIN_VALUE;
+
+  private static final int[] GROUP = { 0, 1 };
+  private static final int[] FIELDS = { 2, 3, 3, 2, 2 };
+  private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+      Aggregator.Op.MIN, Aggregator.Op.AVG, Aggregator.Op.MAX };
+
+  private TupleDesc td = Utility.getTupleDesc(4);
+  private List<Tuple> tuples;
+  private List<String> expected;
+
+  /** @return a tuple of ints, M standing for a missing value */
+  private Tuple tuple(int... values) {
+    Tuple t = new Tuple(td);
+    for (int i = 0; i < values.length; i++) {
+      t.setField(i, values[i] == M ? new IntField() : new IntField(values[i]));
+    }
+    return t;
+  }
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTuples() {
+    tuples = Arrays.asList(
+        tuple(1, 1, 10, 3),
+        tuple(1, 1, 20, M),
+        tuple(1, 2, 5, M),
+        tuple(2, 1, M, 7),
+        tuple(M, 1, 100, 100));
+    // sum, count, min, avg, max by composite key, with missing aggregates
+    // printed as empty fields; the tuple with a missing key is skipped
+    expected = Arrays.asList(
+        "1,1,30,2,3,15.0,20",
+        "1,2,5,1,,5.0,5",
+        "2,1,,1,7,,");
+  }
+
+  private static List<String> results(Aggregator agg) throws Exception {
+    List<String> result = new ArrayList<String>();
+    DbIterator it = agg.iterator();
+    it.open();
+    while (it.hasNext()) {
+      result.add(it.next().toString());
+    }
+    it.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Test MultiAggregator.mergeTupleIntoGroup() over a composite key
+   */
+  @Test public void mergeTuples() throws Exception {
+    MultiAggregator agg = new MultiAggregator(td, GROUP, FIELDS, OPS);
+    for (Tuple t : tuples) {
+      agg.mergeTupleIntoGroup(t);
+    }
+    assertEquals(3, agg.numGroups());
+    assertTrue(agg.hasGroup(tuple(1, 2, 0, 0)));
+    assertFalse(agg.hasGroup(tuple(2, 2, 0, 0)));
+    assertEquals(expected, results(agg));
+  }
+
+  /**
+   * Test MultiAggregator.mergeBatchIntoGroups(), with one and two key fields
+   */
+  @Test public void mergeBatch() throws Exception {
+    for (int[] group : new int[][] { GROUP, { 0 } }) {
+      MultiAggregator byTuple = new MultiAggregator(td, group, FIELDS, OPS);
+      MultiAggregator byBatch = new MultiAggregator(td, group, FIELDS, OPS);
+      for (Tuple t : tuples) {
+        byTuple.mergeTupleIntoGroup(t);
+      }
+      TupleIterator it = new TupleIterator(td, tuples);
+      it.open();
+      byBatch.mergeBatchIntoGroups(it.nextBatch(TupleBatch.DEFAULT_SIZE));
+      assertEquals(results(byTuple), results(byBatch));
+    }
+  }
+
+  /**
+   * Test MultiAggregator.merge() of partial aggregates
+   */
+  @Test public void mergePartials() throws Exception {
+    MultiAggregator agg = new MultiAggregator(td, GROUP, FIELDS, OPS);
+    MultiAggregator partial = new MultiAggregator(td, GROUP, FIELDS, OPS);
+    for (int i = 0; i < tuples.size(); i++) {
+      (i % 2 == 0 ? agg : partial).mergeTupleIntoGroup(tuples.get(i));
+    }
+    agg.merge(partial);
+    assertEquals(expected, results(agg));
+  }
+
+  /**
+   * Test a MultiAggregator without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    MultiAggregator agg = new MultiAggregator(td, new int[0], FIELDS, OPS);
+    assertTrue(results(agg).isEmpty());
+    for (Tuple t : tuples) {
+      agg.mergeTupleIntoGroup(t);
+    }
+    assertEquals(Arrays.asList("135,5,3,33.75,100"), results(agg));
+  }
+
+  /**
+   * Sums and counts are longs, so sums past the range of ints are exact
+   */
+  @Test public void sumOutOfRange() throws Exception {
+    MultiAggregator agg = new MultiAggregator(td, new int[] { 0 }, new int[] { 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT });
+    assertEquals(Type.LONG_TYPE, agg.getTupleDesc().getFieldType(1));
+    assertEquals(Type.LONG_TYPE, agg.getTupleDesc().getFieldType(2));
+    for (int i = 0; i < 3; i++) {
+      agg.mergeTupleIntoGroup(tuple(1, 1, Integer.MAX_VALUE, 0));
+    }
+    assertEquals(Arrays.asList("1," + 3L * Integer.MAX_VALUE + ",3"), results(agg));
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void sumOfStrings() {
+    TupleDesc strings = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    new MultiAggregator(strings, new int[] { 0 }, new int[] { 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MultiAggregatorTest.class);
+  }
+}
@@ -13,7 +13,7 @@ public class StringAggregatorTest extends SimpleDbTestBase {
 
   int width1 = 2;
   DbIterator scan1;
-  int[][] count = null;
+  Object[][] count = null;
 
   /**
    * Initialize each unit test
@@ -29,11 +29,11 @@ public class StringAggregatorTest extends SimpleDbTestBase {
                     5, "g" });
 
     // verify how the results progress after a few merges
-    this.count = new int[][] {
-      { 1, 1 },
-      { 1, 2 },
-      { 1, 3 },
-      { 1, 3, 3, 1 }
+    this.count = new Object[][] {
+      { 1, 1L },
+      { 1, 2L },
+      { 1, 3L },
+      { 1, 3L, 3, 1L }
     };
 
   }
@@ -45,7 +45,7 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     scan1.open();
     StringAggregator agg = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
 
-    for (int[] step : count) {
+    for (Object[] step : count) {
       agg.mergeTupleIntoGroup(scan1.next());
       DbIterator it = agg.iterator();
       it.open();
@@ -53,6 +53,22 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator.merge() of partial counts
+   */
+  @Test public void mergePartials() throws Exception {
+    scan1.open();
+    StringAggregator agg = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    StringAggregator partial = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    for (int i = 0; scan1.hasNext(); i++) {
+      (i % 2 == 0 ? agg : partial).mergeTupleIntoGroup(scan1.next());
+    }
+    agg.merge(partial);
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new Object[] { 1, 3L, 3, 3L, 5, 1L }), it);
+  }
+
   /**
    * Test StringAggregator.iterator() for DbIterator behaviour
    */
@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+    private static final int WIDTH = 3;
+
+    /** Random tuples, with a missing value in about one field in five. */
+    private static ArrayList<Tuple> randomTuples(Random r, int n) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(Utility.getTupleDesc(WIDTH));
+            for (int j = 0; j < WIDTH; j++) {
+                t.setField(j, r.nextInt(5) == 0 ? new IntField() : new IntField(r.nextInt(20) - 10));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private static TupleBatch batchOf(ArrayList<Tuple> tuples) {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(WIDTH), tuples.size());
+        for (Tuple t : tuples) {
+            batch.add(t);
+        }
+        return batch;
+    }
+
+    @Test public void addAndGet() {
+        ArrayList<Tuple> tuples = randomTuples(new Random(1), 100);
+        TupleBatch batch = batchOf(tuples);
+        assertTrue(batch.isFull());
+        assertEquals(tuples.size(), batch.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = batch.getTuple(batch.selection()[i]);
+            for (int j = 0; j < WIDTH; j++) {
+                assertEquals(tuples.get(i).getField(j).isMissing(), t.getField(j).isMissing());
+                assertTrue(tuples.get(i).getField(j).equals(t.getField(j)));
+            }
+        }
+    }
+
+    @Test public void filterMatchesTuples() {
+        ArrayList<Tuple> tuples = randomTuples(new Random(2), 500);
+        Field[] operands = { new IntField(0), new IntField(-3), new IntField() };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (Field operand : operands) {
+                Predicate p = new Predicate(1, op, operand);
+                TupleBatch batch = batchOf(tuples);
+                p.filter(batch);
+                int k = 0;
+                for (int i = 0; i < tuples.size(); i++) {
+                    if (p.filter(tuples.get(i))) {
+                        assertEquals(i, batch.selection()[k++]);
+                    }
+                }
+                assertEquals(op + " " + operand, k, batch.size());
+            }
+        }
+    }
+
+    @Test public void removeMissing() {
+        ArrayList<Tuple> tuples = randomTuples(new Random(3), 200);
+        TupleBatch batch = batchOf(tuples);
+        batch.removeMissing(0);
+        batch.removeMissing(2);
+        int k = 0;
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            if (!t.getField(0).isMissing() && !t.getField(2).isMissing()) {
+                assertEquals(i, batch.selection()[k++]);
+            }
+        }
+        assertEquals(k, batch.size());
+    }
+
+    @Test public void project() {
+        ArrayList<Tuple> tuples = randomTuples(new Random(4), 50);
+        TupleBatch batch = batchOf(tuples);
+        batch.removeMissing(1);
+        TupleBatch projected = batch.project(new int[] { 2, 1 }, Utility.getTupleDesc(2));
+        assertEquals(batch.size(), projected.size());
+        for (int i = 0; i < projected.size(); i++) {
+            int row = projected.selection()[i];
+            assertTrue(tuples.get(row).getField(2).equals(projected.getField(row, 0)));
+            assertFalse(projected.getField(row, 1).isMissing());
+        }
+    }
+
+    @Test public void doubleColumns() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.DOUBLE_TYPE });
+        TupleBatch batch = new TupleBatch(td, 10);
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(td);
+            t.setInt(0, i);
+            if (i % 3 == 0) {
+                t.setMissing(1);
+            } else {
+                t.setDouble(1, i / 4.0);
+            }
+            batch.add(t);
+        }
+        assertNull(batch.getDoubles(0));
+        double[] values = batch.getDoubles(1);
+        boolean[] missing = batch.getMissing(1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 3 == 0, missing[i]);
+            Tuple t = batch.getTuple(i);
+            assertEquals(i % 3 == 0, t.isMissing(1));
+            if (i % 3 != 0) {
+                assertEquals(i / 4.0, values[i], 0.0);
+                assertEquals(i / 4.0, t.getDouble(1), 0.0);
+                assertEquals(i / 4.0, ((DoubleField) batch.getField(i, 1)).getValue(), 0.0);
+            }
+        }
+        batch.removeMissing(1);
+        assertEquals(6, batch.size());
+    }
+
+    @Test public void defaultAdapter() throws Exception {
+        DbIterator scan = new TestUtil.MockScan(0, 2500, WIDTH);
+        scan.open();
+        int total = 0, batches = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch(TupleBatch.DEFAULT_SIZE)) != null) {
+            assertTrue(batch.size() <= TupleBatch.DEFAULT_SIZE);
+            assertEquals(total, batch.getInts(0)[batch.selection()[0]]);
+            total += batch.size();
+            batches++;
+        }
+        assertEquals(2500, total);
+        assertEquals(3, batches);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
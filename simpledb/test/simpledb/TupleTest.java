@@ -1,6 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +34,59 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the typed accessors and missing values
+     */
+    @Test public void typedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.DOUBLE_TYPE, Type.STRING_TYPE });
+        Tuple tup = new Tuple(td);
+        tup.setInt(0, 5);
+        tup.setDouble(1, 2.5);
+        tup.setField(2, new StringField("a", Type.STRING_LEN));
+
+        assertEquals(new IntField(5), tup.getField(0));
+        assertEquals(2.5, ((DoubleField) tup.getField(1)).getValue(), 0);
+        assertEquals(new StringField("a", Type.STRING_LEN), tup.getField(2));
+        assertFalse(tup.hasMissingFields());
+
+        tup.setField(0, new IntField());
+        tup.setMissing(1);
+        assertTrue(tup.getField(0).isMissing());
+        assertTrue(tup.isMissing(1));
+        assertEquals(Type.MISSING_INTEGER, tup.getInt(0));
+        assertEquals(Type.MISSING_DOUBLE, tup.getDouble(1), 0);
+
+        tup.setInt(0, Type.MISSING_INTEGER + 1);
+        assertFalse(tup.isMissing(0));
+        assertEquals(Arrays.asList(1), tup.missingFieldsIndices());
+    }
+
+    /**
+     * Unit test for concatenating and copying tuples
+     */
+    @Test public void concatenate() {
+        TupleDesc td = Utility.getTupleDesc(40);
+        Tuple t1 = new Tuple(td), t2 = new Tuple(td);
+        for (int i = 0; i < 40; i++) {
+            t1.setInt(i, i);
+            if (i % 3 == 0) {
+                t2.setMissing(i);
+            } else {
+                t2.setInt(i, -i);
+            }
+        }
+        Tuple t = new Tuple(t1, t2);
+        for (int i = 0; i < 40; i++) {
+            assertEquals(new IntField(i), t.getField(i));
+            assertEquals(i % 3 == 0, t.isMissing(40 + i));
+            assertEquals(i % 3 == 0 ? Type.MISSING_INTEGER : -i, t.getInt(40 + i));
+        }
+
+        Tuple copy = new Tuple(t);
+        copy.setInt(0, 100);
+        assertEquals(0, t.getInt(0));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,143 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BTreeTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 1000;
+    private static final int KEY = 1;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private BTreeFile index;
+
+    @Before public void createIndex()
+            throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        File f = Catalog.indexFile(table.getFile(), "c" + KEY, "btree");
+        f.deleteOnExit();
+        index = BTreeFile.create(f, table, KEY, new TransactionId());
+        Database.getCatalog().addIndex(index);
+    }
+
+    private ArrayList<ArrayList<Integer>> inRange(int low, int high) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(KEY) >= low && t.get(KEY) <= high) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private static void assertSorted(DbIterator it, int field)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int value = ((IntField) it.next().getField(field)).getValue();
+            assertTrue(value >= last);
+            last = value;
+        }
+        it.close();
+    }
+
+    @Test public void testBulkLoad() throws Exception {
+        // several levels of nodes
+        assertTrue(index.numPages() > ROWS / BTreePage.leafCapacity());
+        assertTrue(BTreeFile.estimateHeight(ROWS) > 1);
+
+        int entries = 0;
+        DbFileIterator it = index.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            entries++;
+        }
+        it.close();
+        assertEquals(ROWS, entries);
+    }
+
+    @Test public void testIndexScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int key : new int[] { 0, 17, 500, MAX_VALUE - 1, MAX_VALUE + 5 }) {
+            SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, key, key), inRange(key, key));
+        }
+
+        IndexScan range = new IndexScan(tid, table.getId(), "t", KEY, 100, 250);
+        SystemTestUtil.matchTuples(range, inRange(100, 250));
+        assertSorted(range, KEY);
+
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, null, 10), inRange(Integer.MIN_VALUE + 1, 10));
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, 990, null), inRange(990, Integer.MAX_VALUE));
+    }
+
+    @Test public void testMaintenance() throws Exception {
+        TransactionId tid = new TransactionId();
+        // enough new entries for one key to split leaves
+        for (int i = 0; i < 2 * BTreePage.leafCapacity(); i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(KEY, new IntField(42));
+            t.setField(2, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, 42, -i)));
+        }
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, 42, 42), inRange(42, 42));
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, 40, 44), inRange(40, 44));
+
+        // delete every tuple with key 7
+        DbIterator scan = new IndexScan(tid, table.getId(), "t", KEY, 7, 7);
+        scan.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            doomed.add(scan.next());
+        }
+        scan.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, 7, 7), inRange(7, 7));
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, 0, 20), inRange(0, 20));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIndexJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 50, MAX_VALUE, null, outerTuples);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : outerTuples) {
+            for (ArrayList<Integer> t : tuples) {
+                if (o.get(0).equals(t.get(KEY))) {
+                    ArrayList<Integer> joined = new ArrayList<Integer>(o);
+                    joined.addAll(t);
+                    expected.add(joined);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, KEY);
+        Join join = new IndexNestedLoopJoin(tid, p, new SeqScan(tid, outer.getId(), "o"),
+                new SeqScan(tid, table.getId(), "t"));
+        SystemTestUtil.matchTuples(join, expected);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeTest.class);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BandJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS };
+
+    private TransactionId tid = new TransactionId();
+
+    private HeapFile table(int rows, int maxValue, String prefix) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null,
+                new ArrayList<ArrayList<Integer>>(), prefix);
+        for (int i = 0; i < 5; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setMissing(0);
+            t.setInt(1, i);
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        return f;
+    }
+
+    private static List<Tuple> read(DbIterator it) throws Exception {
+        List<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        it.close();
+        return result;
+    }
+
+    private static List<String> sorted(List<Tuple> tuples) {
+        List<String> result = new ArrayList<String>();
+        for (Tuple t : tuples) {
+            result.add(t.toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** @return the pairs of tuples matching a predicate, by nested loops */
+    private List<String> expected(JoinPredicate p, HeapFile left, HeapFile right) throws Exception {
+        List<Tuple> inner = read(new SeqScan(tid, right.getId(), "r"));
+        List<Tuple> result = new ArrayList<Tuple>();
+        for (Tuple t1 : read(new SeqScan(tid, left.getId(), "l"))) {
+            for (Tuple t2 : inner) {
+                if (p.filter(t1, t2)) {
+                    result.add(new Tuple(t1, t2));
+                }
+            }
+        }
+        return sorted(result);
+    }
+
+    private void validate(HeapFile left, HeapFile right, int memoryPages) throws Exception {
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            Join join = new Join(p, new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+            assertTrue(join.isBandJoin());
+            join.setMemoryPages(memoryPages);
+
+            List<Tuple> actual = read(join);
+            assertEquals(op.toString(), expected(p, left, right), sorted(actual));
+            for (int i = 1; i < actual.size(); i++) {
+                assertTrue(actual.get(i - 1).getInt(0) <= actual.get(i).getInt(0));
+            }
+
+            join.open();
+            while (join.hasNext()) {
+                join.next();
+            }
+            join.rewind();
+            List<Tuple> again = new ArrayList<Tuple>();
+            while (join.hasNext()) {
+                again.add(join.next());
+            }
+            join.close();
+            assertEquals(sorted(actual), sorted(again));
+        }
+    }
+
+    @Test public void testInequalities() throws Exception {
+        validate(table(300, 100, "c"), table(200, 100, "d"), ExternalSort.DEFAULT_MEMORY_PAGES);
+    }
+
+    @Test public void testSpilledOuter() throws Exception {
+        // the outer tuples are sorted in runs on disk
+        validate(table(1500, 50, "c"), table(40, 50, "d"), 1);
+    }
+
+    @Test public void testSpilledInner() throws Exception {
+        // the sorted inner tuples are scanned from disk for each outer tuple
+        validate(table(60, 50, "c"), table(1500, 50, "d"), 1);
+    }
+
+    @Test public void testEmptyInner() throws Exception {
+        HeapFile left = table(100, 10, "c");
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 0, 10, null,
+                new ArrayList<ArrayList<Integer>>(), "d");
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            assertTrue(read(new Join(p, new SeqScan(tid, left.getId(), "l"),
+                    new SeqScan(tid, right.getId(), "r"))).isEmpty());
+        }
+    }
+}
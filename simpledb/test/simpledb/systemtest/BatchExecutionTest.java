@@ -0,0 +1,153 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that operators return the same tuples through nextBatch() as
+ * through next().
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+    private static final int ROWS = 6000;
+    private static final int MAX_VALUE = 100;
+
+    private HeapFile table, other;
+    private TransactionId tid;
+
+    private static ArrayList<Integer> toList(Tuple t) {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            Field f = t.getField(i);
+            if (f instanceof LongField) {
+                list.add((int) ((LongField) f).getValueDefault(Integer.MIN_VALUE));
+            } else {
+                list.add(((IntField) f).getValueDefault(Integer.MIN_VALUE));
+            }
+        }
+        return list;
+    }
+
+    private static ArrayList<ArrayList<Integer>> byTuples(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(toList(it.next()));
+        }
+        it.close();
+        return result;
+    }
+
+    private static ArrayList<ArrayList<Integer>> byBatches(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch(TupleBatch.DEFAULT_SIZE)) != null) {
+            assertTrue(batch.size() > 0);
+            for (int i = 0; i < batch.size(); i++) {
+                result.add(toList(batch.getTuple(batch.selection()[i])));
+            }
+        }
+        it.close();
+        return result;
+    }
+
+    private static void assertSameTuples(DbIterator rows, DbIterator batches) throws Exception {
+        ArrayList<ArrayList<Integer>> expected = byTuples(rows), actual = byBatches(batches);
+        assertFalse(expected.isEmpty());
+        Collections.sort(expected, BatchExecutionTest::compare);
+        Collections.sort(actual, BatchExecutionTest::compare);
+        assertEquals(expected, actual);
+    }
+
+    private static int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    @Before public void createTables() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "c");
+        other = SystemTestUtil.createRandomHeapFile(2, 300, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "d");
+        tid = new TransactionId();
+        // missing values in the middle column
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(i % MAX_VALUE));
+            t.setField(1, i % 2 == 0 ? new IntField() : new IntField(i % MAX_VALUE));
+            t.setField(2, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        }
+    }
+
+    private SeqScan scan() {
+        return new SeqScan(tid, table.getId(), "t");
+    }
+
+    @Test public void testScanFilterProject() throws Exception {
+        assertSameTuples(scan(), scan());
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30));
+        assertSameTuples(new Filter(p, scan()), new Filter(p, scan()));
+        Predicate isNull = new Predicate(1, Predicate.Op.EQUALS, new IntField());
+        assertSameTuples(new Filter(isNull, scan()), new Filter(isNull, scan()));
+
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 1));
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        assertSameTuples(new Project(fields, types, new Filter(p, scan())),
+                new Project(fields, types, new Filter(p, scan())));
+    }
+
+    @Test public void testDrop() throws Exception {
+        String field = scan().getTupleDesc().getFieldName(1);
+        assertSameTuples(new Drop(Arrays.asList(field), scan()), new Drop(Arrays.asList(field), scan()));
+    }
+
+    @Test public void testAggregate() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(50));
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MIN }) {
+            // aggregates consume batches; compare with merging tuples one by one
+            IntegerAggregator expected = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+            DbIterator it = new Filter(p, scan());
+            it.open();
+            while (it.hasNext()) {
+                expected.mergeTupleIntoGroup(it.next());
+            }
+            it.close();
+            assertSameTuples(expected.iterator(), new Aggregate(new Filter(p, scan()), 1, 0, op));
+        }
+    }
+
+    @Test public void testHashJoins() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        DbIterator o1 = new SeqScan(tid, other.getId(), "o"), o2 = new SeqScan(tid, other.getId(), "o");
+        assertSameTuples(new Join(p, o1, scan()), new Join(p, o2, scan()));
+
+        JoinPredicate p2 = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        assertSameTuples(new HashEquiJoin(p2, scan(), new SeqScan(tid, other.getId(), "o")),
+                new HashEquiJoin(p2, scan(), new SeqScan(tid, other.getId(), "o")));
+    }
+
+    @Test public void testCachedScan() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().setCached(table.getId(), true);
+        String field = scan().getTupleDesc().getFieldName(1);
+        assertSameTuples(scan(), new CachedScan(tid, table.getId(), "t"));
+        assertSameTuples(new Drop(Arrays.asList(field), scan()),
+                new Drop(Arrays.asList(field), new CachedScan(tid, table.getId(), "t")));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BufferPoolSnapshotTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile table;
+    private File snapshot;
+
+    @Before public void createSnapshot() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, ROWS, null, new ArrayList<ArrayList<Integer>>());
+        snapshot = File.createTempFile("bufferpool", ".snapshot");
+        snapshot.deleteOnExit();
+
+        DbIterator scan = new SeqScan(new TransactionId(), table.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        assertEquals(table.numPages, Database.getBufferPool().residentPages().size());
+        Database.getBufferPool().saveSnapshot(snapshot);
+    }
+
+    @Test public void testWarmUp() throws Exception {
+        HashSet<PageId> before = new HashSet<PageId>(Database.getBufferPool().residentPages());
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(pool.residentPages().isEmpty());
+
+        pool.warmUp(snapshot).join();
+        assertEquals(before, new HashSet<PageId>(pool.residentPages()));
+    }
+
+    @Test public void testStopsWhenFull() throws Exception {
+        BufferPool pool = Database.resetBufferPool(5);
+        pool.warmUp(snapshot).join();
+        List<PageId> resident = pool.residentPages();
+        assertEquals(5, resident.size());
+        // pages are loaded in file order
+        for (PageId pid : resident) {
+            assertTrue(pid.getPageNumber() < 5);
+        }
+    }
+
+    @Test public void testStatisticsKeepWarmPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(5);
+        pool.warmUp(snapshot).join();
+        List<PageId> resident = pool.residentPages();
+        TableStats stats = new TableStats(table.getId(), 1);
+        assertEquals(ROWS, stats.totalTuples());
+        assertEquals(resident, pool.residentPages());
+    }
+
+    @Test public void testDropsUnreadableSnapshot() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(table.getFile().delete());
+        pool.warmUp(snapshot).join();
+        assertTrue(pool.residentPages().isEmpty());
+        assertFalse(snapshot.exists());
+    }
+
+    @Test public void testSkipsUnknownTables() throws Exception {
+        Database.reset();
+        Database.getBufferPool().warmUp(snapshot).join();
+        assertTrue(Database.getBufferPool().residentPages().isEmpty());
+    }
+
+    @Test public void testNoSnapshot() throws Exception {
+        assertNull(Database.getBufferPool().warmUp(new File(snapshot.getPath() + ".none")));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolSnapshotTest.class);
+    }
+}
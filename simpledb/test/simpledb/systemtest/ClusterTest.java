@@ -0,0 +1,178 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ClusterTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+
+    private static void assertSorted(DbFileIterator it, int field, int expectedCount)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int value = ((IntField) it.next().getField(field)).getValue();
+            assertTrue(value >= last);
+            last = value;
+            count++;
+        }
+        it.close();
+        assertEquals(expectedCount, count);
+    }
+
+    @Test public void testExternalSortSpills()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+
+        // A single page of memory forces many runs.
+        ExternalSort sort = new ExternalSort(table.getTupleDesc(),
+                (a, b) -> Integer.compare(((IntField) a.getField(2)).getValue(),
+                        ((IntField) b.getField(2)).getValue()), 1);
+        DbFileIterator scan = table.iterator(new TransactionId());
+        scan.open();
+        while (scan.hasNext()) {
+            sort.add(scan.next());
+        }
+        scan.close();
+        assertTrue(sort.numRuns() > 1);
+
+        assertSorted(sort.sorted(), 2, ROWS);
+        sort.close();
+    }
+
+    @Test public void testCluster()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        int pages = table.numPages;
+
+        TransactionId tid = new TransactionId();
+        table.cluster(tid, 1);
+        assertEquals(pages, table.numPages);
+        assertSorted(table.iterator(tid), 1, ROWS);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void testRangeScan()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        TransactionId tid = new TransactionId();
+        table.cluster(tid, 0);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 250 && t.get(0) <= 300) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(new RangeScan(tid, table.getId(), "", 0, 250, 300), expected);
+
+        expected.clear();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 10) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(new RangeScan(tid, table.getId(), "", 0, null, 9), expected);
+    }
+
+    @Test public void testRangeScanOverEmptiedPage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        TransactionId tid = new TransactionId();
+        table.cluster(tid, 0);
+
+        // empty the page the binary search probes first
+        int empty = table.numPages / 2;
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid, empty, empty + 1);
+        it.open();
+        while (it.hasNext()) {
+            deleted.add(it.next());
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+
+        // the range starts on a page before the empty one
+        DbFileIterator before = table.iterator(tid, empty - 2, empty - 1);
+        before.open();
+        int low = ((IntField) before.next().getField(0)).getValue();
+        before.close();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= low) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(new RangeScan(tid, table.getId(), "", 0, low, null), expected);
+    }
+
+    private static boolean hasRangeScan(DbIterator plan) {
+        if (plan instanceof RangeScan) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && hasRangeScan(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test public void testInsertAfterCluster() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "c");
+        String name = "clustered";
+        Database.getCatalog().addTable(table, name);
+        TransactionId tid = new TransactionId();
+        table.cluster(tid, 0);
+        Database.getCatalog().setClusterKey(table.getId(), "c0");
+        TableStats stats = new TableStats(table.getId(), 1);
+        TableStats.setTableStats(name, stats);
+        assertTrue(stats.isClusteredOn(0));
+
+        // appended after the largest values of the table
+        Tuple t = new Tuple(table.getTupleDesc());
+        for (int i = 0; i < COLUMNS; i++) {
+            t.setField(i, new IntField(275));
+        }
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        assertNull(Database.getCatalog().getClusterKey(table.getId()));
+        // written on the next DDL statement or at shutdown
+        assertTrue(Database.getCatalog().hasUnsavedChanges());
+        assertFalse(stats.isClusteredOn(0));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples) {
+            if (row.get(0) == 275) {
+                expected.add(row);
+            }
+        }
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT " + name + ".c0, " + name + ".c1, "
+                + name + ".c2 FROM " + name + " WHERE " + name + ".c0 = 275;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(hasRangeScan(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ClusterTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ColumnCacheTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+    private static final int INSERTED = 600;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    private static ArrayList<Integer> toList(Tuple t) {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            list.add(((IntField) t.getField(i)).getValueDefault(Integer.MIN_VALUE));
+        }
+        return list;
+    }
+
+    private List<ArrayList<Integer>> withoutMissing(int field) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(field) != Integer.MIN_VALUE) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private static void match(DbIterator it, List<ArrayList<Integer>> expected) throws Exception {
+        ArrayList<ArrayList<Integer>> copy = new ArrayList<ArrayList<Integer>>(expected);
+        it.open();
+        while (it.hasNext()) {
+            ArrayList<Integer> t = toList(it.next());
+            assertTrue("unexpected tuple " + t, copy.remove(t));
+        }
+        it.close();
+        assertTrue("missed " + copy.size() + " tuples", copy.isEmpty());
+    }
+
+    private void insert(TransactionId tid, int from, int count) throws Exception {
+        for (int i = from; i < from + count; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, i % 3 == 0 ? new IntField() : new IntField(i));
+            t.setField(2, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(toList(t));
+        }
+    }
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples, "c");
+        TransactionId tid = new TransactionId();
+        insert(tid, 0, INSERTED);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().setCached(table.getId(), true);
+    }
+
+    @Test public void testScan() throws Exception {
+        ColumnCache cache = Database.getCatalog().getColumnCache(table.getId());
+        assertEquals(tuples.size(), cache.numTuples());
+        match(new CachedScan(new TransactionId(), table.getId(), "t"), tuples);
+
+        // the columns hold the same values as the tuples
+        BitSet rows = cache.rows();
+        int[] values = cache.getInts(2);
+        long sum = 0, expected = 0;
+        for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+            assertFalse(cache.getMissing(2).get(i));
+            sum += values[i];
+        }
+        for (ArrayList<Integer> t : tuples) {
+            expected += t.get(2);
+        }
+        assertEquals(expected, sum);
+    }
+
+    @Test public void testMaintained() throws Exception {
+        Database.getCatalog().getColumnCache(table.getId());
+        TransactionId tid = new TransactionId();
+        // enough tuples to grow the columns
+        insert(tid, INSERTED, ROWS);
+
+        DbIterator scan = new CachedScan(tid, table.getId(), "t");
+        scan.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValueDefault(1) % 2 == 0) {
+                doomed.add(t);
+            }
+        }
+        scan.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(toList(t));
+        }
+
+        match(new CachedScan(tid, table.getId(), "t"), tuples);
+        // the pages agree with the cache
+        match(new SeqScan(tid, table.getId(), "t"), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testDrop() throws Exception {
+        TransactionId tid = new TransactionId();
+        CachedScan scan = new CachedScan(tid, table.getId(), "t");
+        String field = scan.getTupleDesc().getFieldName(1);
+        match(new Drop(Arrays.asList(field), scan), withoutMissing(1));
+    }
+
+    @Test public void testTableStats() throws Exception {
+        TableStats cached = new TableStats(table.getId(), 1000);
+        Database.getCatalog().setCached(table.getId(), false);
+        assertNull(Database.getCatalog().getColumnCache(table.getId()));
+        TableStats uncached = new TableStats(table.getId(), 1000);
+        assertTrue(cached.estimateScanCost() < uncached.estimateScanCost());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ColumnCacheTest.class);
+    }
+}
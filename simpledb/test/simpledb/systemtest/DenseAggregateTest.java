@@ -0,0 +1,133 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class DenseAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    private TransactionId tid = new TransactionId();
+
+    /** @return a table of codes up to maxValue, with missing group keys */
+    private HeapFile table(int rows, int maxValue) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, rows, maxValue, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setMissing(0);
+            t.setInt(1, i);
+            t.setInt(2, i);
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        return f;
+    }
+
+    private void insert(HeapFile f, int... values) throws Exception {
+        Tuple t = new Tuple(f.getTupleDesc());
+        for (int i = 0; i < values.length; i++) {
+            t.setInt(i, values[i]);
+        }
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+    }
+
+    private static List<String> read(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private Aggregate aggregate(HeapFile f, int[] afields, Aggregator.Op[] ops) {
+        return new Aggregate(new SeqScan(tid, f.getId(), "t"), afields, ops, new int[] { 0 });
+    }
+
+    private void validate(HeapFile f, int[] afields, Aggregator.Op[] ops, int min, int max) throws Exception {
+        List<String> expected = read(aggregate(f, afields, ops));
+
+        Aggregate agg = aggregate(f, afields, ops);
+        agg.setKeyRange(min, max);
+        assertArrayEquals(new int[] { min, max }, agg.keyRange());
+        assertEquals(expected, read(agg));
+
+        agg = aggregate(f, afields, ops);
+        agg.setKeyRange(min, max);
+        agg.setParallelism(4);
+        assertEquals(expected, read(agg));
+
+        agg = aggregate(f, afields, ops);
+        agg.setKeyRange(min, max);
+        assertEquals(expected, read(ParallelPlanner.parallelize(agg, 4)));
+    }
+
+    @Test public void testSingleAggregates() throws Exception {
+        HeapFile f = table(5000, 20);
+        for (Aggregator.Op op : OPS) {
+            validate(f, new int[] { 1 }, new Aggregator.Op[] { op }, 0, 19);
+        }
+    }
+
+    @Test public void testSeveralAggregates() throws Exception {
+        HeapFile f = table(5000, 20);
+        validate(f, new int[] { 1, 1, 2, 1, 2 }, OPS, 0, 19);
+    }
+
+    @Test public void testValuesOutsideRange() throws Exception {
+        // statistics that predate these tuples
+        HeapFile f = table(5000, 20);
+        insert(f, -3, 1, 1);
+        insert(f, 25, 2, 2);
+        insert(f, Integer.MAX_VALUE, 3, 3);
+        validate(f, new int[] { 1 }, new Aggregator.Op[] { Aggregator.Op.SUM }, 0, 19);
+        validate(f, new int[] { 1, 2 }, new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.COUNT }, 0, 19);
+    }
+
+    @Test public void testWideRangeHashed() throws Exception {
+        HeapFile f = table(100, 20);
+        Aggregate agg = aggregate(f, new int[] { 1 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+        agg.setKeyRange(0, GroupTable.MAX_DENSE_KEYS);
+        assertNull(agg.keyRange());
+        agg = new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.setKeyRange(0, 10);
+        assertNull(agg.keyRange());
+    }
+
+    /** @return the aggregate at the top of a plan, below its projection */
+    private static Aggregate aggregate(DbIterator plan) {
+        while (!(plan instanceof Aggregate)) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return (Aggregate) plan;
+    }
+
+    @Test public void testPlannedFromStatistics() throws Exception {
+        HeapFile f = table(3000, 30);
+        // c1 spans a domain too wide to index
+        insert(f, 5, 1000000, 1);
+        Database.getCatalog().addTable(f, "survey");
+        TableStats.setTableStats("survey", new TableStats(f.getId(), 1));
+
+        List<String> expected = read(aggregate(f, new int[] { 2 }, new Aggregator.Op[] { Aggregator.Op.SUM }));
+        for (Parser parser : new Parser[] { new Parser(), new Parser(0.0, false) }) {
+            LogicalPlan lp = parser.generateLogicalPlan(tid,
+                    "SELECT survey.c0, SUM(survey.c2) FROM survey GROUP BY survey.c0;");
+            DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            assertArrayEquals(new int[] { 0, 29 }, aggregate(plan).keyRange());
+            assertEquals(expected, read(plan));
+
+            lp = parser.generateLogicalPlan(tid, "SELECT survey.c1, SUM(survey.c2) FROM survey GROUP BY survey.c1;");
+            assertNull(aggregate(lp.physicalPlan(tid, TableStats.getStatsMap(), false)).keyRange());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int SMALL_ROWS = 200;
+    private static final int MAX_VALUE = 50;
+    private static final int PARALLELISM = 4;
+
+    private HeapFile big, small;
+    private TransactionId tid;
+
+    @Before public void createTables() throws Exception {
+        big = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "c");
+        small = SystemTestUtil.createRandomHeapFile(2, SMALL_ROWS, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "d");
+        tid = new TransactionId();
+        for (HeapFile f : new HeapFile[] { big, small }) {
+            for (int i = 0; i < 30; i++) {
+                Tuple t = new Tuple(f.getTupleDesc());
+                t.setMissing(0);
+                t.setInt(1, i);
+                Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            }
+        }
+    }
+
+    private SeqScan scan(HeapFile f, String alias) {
+        return new SeqScan(tid, f.getId(), alias);
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private DbIterator equiJoin() {
+        return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan(big, "b"), scan(small, "s"));
+    }
+
+    @Test public void testShuffleJoin() throws Exception {
+        List<String> expected = run(equiJoin());
+        assertFalse(expected.isEmpty());
+
+        DbIterator parallel = ParallelPlanner.parallelize(equiJoin(), PARALLELISM);
+        assertTrue(parallel instanceof Consumer);
+        List<Producer> producers = ((Consumer) parallel).getProducers();
+        assertEquals(PARALLELISM, producers.size());
+        assertTrue(producers.get(0).getChildren()[0] instanceof HashEquiJoin);
+        assertEquals(expected, run(parallel));
+    }
+
+    @Test public void testShuffleAggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.AVG }) {
+            List<String> expected = run(new Aggregate(equiJoin(), 1, 0, op));
+            DbIterator parallel = ParallelPlanner.parallelize(new Aggregate(equiJoin(), 1, 0, op), PARALLELISM);
+            assertTrue(parallel instanceof Consumer);
+            assertTrue(((Consumer) parallel).getProducers().get(0).getChildren()[0] instanceof Aggregate);
+            assertEquals(op.toString(), expected, run(parallel));
+        }
+    }
+
+    @Test public void testPartialAggregates() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.COUNT, Aggregator.Op.AVG }) {
+            for (int group : new int[] { 2, Aggregator.NO_GROUPING }) {
+                // the join already runs in fragments, so each is aggregated
+                // on its own first
+                List<String> expected = run(new Aggregate(equiJoin(), 1, group, op));
+                assertFalse(expected.isEmpty());
+                DbIterator parallel = ParallelPlanner.parallelize(new Aggregate(equiJoin(), 1, group, op),
+                        PARALLELISM);
+                Aggregate combine = (Aggregate) (parallel instanceof Consumer
+                        ? ((Consumer) parallel).getProducers().get(0).getChildren()[0] : parallel);
+                Consumer partials = (Consumer) combine.getChildren()[0];
+                assertTrue(partials.getProducers().get(0).getChildren()[0] instanceof Aggregate);
+                assertEquals(op + " by " + group, expected, run(parallel));
+            }
+        }
+    }
+
+    @Test(timeout = 60000) public void testPartialAverageOutOfRange() throws Exception {
+        // values near the largest int, so that every partial sum overflows one
+        HeapFile wide = SystemTestUtil.createRandomHeapFile(2, 0, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>(), "w");
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(wide.getTupleDesc());
+            t.setInt(0, i % MAX_VALUE);
+            t.setInt(1, Integer.MAX_VALUE - i);
+            Database.getBufferPool().insertTuple(tid, wide.getId(), t);
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        for (int group : new int[] { 0, Aggregator.NO_GROUPING }) {
+            List<String> expected = run(new Aggregate(new HashEquiJoin(p, scan(wide, "w"), scan(small, "s")), 1,
+                    group, Aggregator.Op.AVG));
+            assertFalse(expected.isEmpty());
+            DbIterator parallel = ParallelPlanner.parallelize(
+                    new Aggregate(new HashEquiJoin(p, scan(wide, "w"), scan(small, "s")), 1, group,
+                            Aggregator.Op.AVG), PARALLELISM);
+            Aggregate combine = (Aggregate) (parallel instanceof Consumer
+                    ? ((Consumer) parallel).getProducers().get(0).getChildren()[0] : parallel);
+            assertEquals(Aggregator.Op.SC_AVG, combine.aggregateOp());
+            assertEquals(expected, run(parallel));
+        }
+    }
+
+    @Test public void testBroadcastJoin() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5));
+        JoinPredicate jp = new JoinPredicate(1, Predicate.Op.LESS_THAN, 1);
+        List<String> expected = run(new Join(jp, new Filter(p, scan(big, "b")), scan(small, "s")));
+        assertFalse(expected.isEmpty());
+
+        DbIterator parallel = ParallelPlanner.parallelize(new Join(jp, new Filter(p, scan(big, "b")), scan(small, "s")),
+                PARALLELISM);
+        assertTrue(parallel instanceof Consumer);
+        DbIterator fragment = ((Consumer) parallel).getProducers().get(0).getChildren()[0];
+        assertTrue(fragment.getChildren()[1] instanceof Consumer);
+        assertTrue(((Consumer) fragment.getChildren()[1]).getProducers().get(0) instanceof BroadcastProducer);
+        assertEquals(expected, run(parallel));
+    }
+
+    @Test public void testJoinFragmentsKeepMemoryBudget() throws Exception {
+        List<String> expected = run(equiJoin());
+        HashEquiJoin hashJoin = (HashEquiJoin) equiJoin();
+        hashJoin.setMemoryPages(1);
+        Join bandJoin = new Join(new JoinPredicate(1, Predicate.Op.LESS_THAN, 1), scan(big, "b"), scan(small, "s"));
+        bandJoin.setMemoryPages(1);
+        List<String> expectedBand = run(new Join(new JoinPredicate(1, Predicate.Op.LESS_THAN, 1),
+                scan(big, "b"), scan(small, "s")));
+
+        DbIterator parallel = ParallelPlanner.parallelize(hashJoin, PARALLELISM);
+        for (Producer producer : ((Consumer) parallel).getProducers()) {
+            assertEquals(1, ((HashEquiJoin) producer.getChildren()[0]).getMemoryPages());
+        }
+        assertEquals(expected, run(parallel));
+
+        parallel = ParallelPlanner.parallelize(bandJoin, PARALLELISM);
+        for (Producer producer : ((Consumer) parallel).getProducers()) {
+            Join fragment = (Join) producer.getChildren()[0];
+            assertEquals(1, fragment.getMemoryPages());
+            assertTrue(fragment.isBandJoin());
+        }
+        assertEquals(expectedBand, run(parallel));
+    }
+
+    @Test public void testShufflePartitions() throws Exception {
+        List<DbIterator> inputs = new ArrayList<DbIterator>();
+        inputs.add(scan(big, "b"));
+        inputs.add(scan(small, "s"));
+        List<Consumer> consumers = Consumer.shuffle(inputs, 0, PARALLELISM);
+
+        // consumers of a channel are read by different threads, as the
+        // producers wait for each of them
+        ExecutorService readers = Executors.newFixedThreadPool(PARALLELISM);
+        List<Future<List<String>>> reads = new ArrayList<Future<List<String>>>();
+        for (Consumer c : consumers) {
+            reads.add(readers.submit(() -> {
+                List<String> partition = new ArrayList<String>();
+                c.open();
+                while (c.hasNext()) {
+                    partition.add(c.next().getField(0).toString());
+                }
+                return partition;
+            }));
+        }
+        List<String> all = new ArrayList<String>();
+        List<List<String>> partitions = new ArrayList<List<String>>();
+        for (Future<List<String>> read : reads) {
+            partitions.add(read.get());
+            all.addAll(read.get());
+        }
+        readers.shutdown();
+        // equal values, missing ones too, end up in the same partition
+        for (int i = 0; i < partitions.size(); i++) {
+            for (int j = i + 1; j < partitions.size(); j++) {
+                assertTrue(Collections.disjoint(partitions.get(i), partitions.get(j)));
+            }
+        }
+        assertEquals(ROWS + SMALL_ROWS + 60, all.size());
+
+        // several consumers replay what they read when rewound
+        Consumer c = consumers.get(1);
+        c.rewind();
+        List<String> again = new ArrayList<String>();
+        while (c.hasNext()) {
+            again.add(c.next().getField(0).toString());
+        }
+        assertEquals(partitions.get(1), again);
+        for (Consumer consumer : consumers) {
+            consumer.close();
+        }
+    }
+
+    @Test public void testGatherRewind() throws Exception {
+        List<DbIterator> fragments = new ArrayList<DbIterator>();
+        fragments.add(scan(big, "b"));
+        fragments.add(scan(small, "s"));
+        Consumer gather = Consumer.gather(fragments);
+        gather.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(gather.hasNext());
+            gather.next();
+        }
+        gather.rewind();
+        int count = 0;
+        while (gather.hasNext()) {
+            gather.next();
+            count++;
+        }
+        gather.close();
+        assertEquals(ROWS + SMALL_ROWS + 60, count);
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class HashIndexTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 1000;
+    private static final int KEY = 1;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private HashIndexFile index;
+
+    @Before public void createIndex()
+            throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        File f = Catalog.indexFile(table.getFile(), "c" + KEY, "hash");
+        f.deleteOnExit();
+        index = HashIndexFile.create(f, table, KEY, new TransactionId());
+        Database.getCatalog().addIndex(index);
+    }
+
+    private ArrayList<ArrayList<Integer>> withKey(int key) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(KEY) == key) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private Tuple tuple(int a, IntField key, int c) {
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(a));
+        t.setField(KEY, key);
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    @Test public void testBulkLoad() throws Exception {
+        // sized so that no bucket overflows on average
+        int buckets = index.numBuckets(new TransactionId());
+        assertTrue(buckets >= ROWS / BTreePage.leafCapacity());
+        assertTrue(index.numPages() > buckets);
+        assertFalse(index.supportsRanges());
+
+        int entries = 0;
+        DbFileIterator it = index.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            entries++;
+        }
+        it.close();
+        assertEquals(ROWS, entries);
+    }
+
+    @Test public void testLookup() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int key : new int[] { 0, 17, 500, MAX_VALUE - 1, MAX_VALUE + 5, -3 }) {
+            SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, key, key), withKey(key));
+        }
+
+        try {
+            index.lookup(tid, 100, 250);
+            fail("hash index answered a range lookup");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test public void testMissingKeys() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(i, new IntField(), i));
+        }
+        // missing keys are stored, but never equal to anything
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, Integer.MIN_VALUE, Integer.MIN_VALUE),
+                new ArrayList<ArrayList<Integer>>());
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, 5, 5), withKey(5));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testMaintenance() throws Exception {
+        TransactionId tid = new TransactionId();
+        int before = index.numBuckets(tid);
+        // enough new keys to split buckets
+        for (int i = 0; i < ROWS; i++) {
+            int key = MAX_VALUE + i;
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(i, new IntField(key), -i));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, key, -i)));
+        }
+        assertTrue(index.numBuckets(tid) > before);
+        for (int key : new int[] { 3, 42, MAX_VALUE, MAX_VALUE + 1234, MAX_VALUE + ROWS - 1 }) {
+            SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, key, key), withKey(key));
+        }
+
+        // delete every tuple with key 7
+        DbIterator scan = new IndexScan(tid, table.getId(), "t", KEY, 7, 7);
+        scan.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            doomed.add(scan.next());
+        }
+        scan.close();
+        assertFalse(doomed.isEmpty());
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, 7, 7), withKey(7));
+        SystemTestUtil.matchTuples(new IndexScan(tid, table.getId(), "t", KEY, 8, 8), withKey(8));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIndexJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 50, MAX_VALUE, null, outerTuples);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : outerTuples) {
+            for (ArrayList<Integer> t : withKey(o.get(0))) {
+                ArrayList<Integer> joined = new ArrayList<Integer>(o);
+                joined.addAll(t);
+                expected.add(joined);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, KEY);
+        Join join = new IndexNestedLoopJoin(tid, p, new SeqScan(tid, outer.getId(), "o"),
+                new SeqScan(tid, table.getId(), "t"));
+        SystemTestUtil.matchTuples(join, expected);
+
+        // a hash probe reads fewer pages than a B+tree descent
+        TableStats stats = new TableStats(table.getId(), 1000);
+        assertTrue(stats.estimateIndexProbeCost(KEY, 1) < stats.estimateScanCost());
+        assertEquals(index, Database.getCatalog().getIndex(table.getId(), KEY, false));
+        assertNull(Database.getCatalog().getIndex(table.getId(), KEY, true));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
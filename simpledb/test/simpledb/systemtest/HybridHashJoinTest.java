@@ -0,0 +1,95 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class HybridHashJoinTest extends SimpleDbTestBase {
+
+    private TransactionId tid = new TransactionId();
+
+    private HeapFile table(int rows, int maxValue, String prefix) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null,
+                new ArrayList<ArrayList<Integer>>(), prefix);
+        for (int i = 0; i < 20; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setMissing(0);
+            t.setInt(1, i);
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        return f;
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<String> runTwice(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.rewind();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private void validate(HeapFile left, HeapFile right) throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<String> expected = run(new Join(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r")));
+        assertFalse(expected.isEmpty());
+
+        Join join = new Join(p, new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        join.setMemoryPages(1);
+        join.open();
+        assertTrue(join.isSpilling());
+        join.close();
+        assertEquals(expected, run(join));
+        assertEquals(expected, runTwice(join));
+
+        HashEquiJoin hashJoin = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        hashJoin.setMemoryPages(1);
+        hashJoin.open();
+        assertTrue(hashJoin.isSpilling());
+        hashJoin.close();
+        assertEquals(expected, run(hashJoin));
+        assertEquals(expected, runTwice(hashJoin));
+    }
+
+    @Test public void testSpilledPartitions() throws Exception {
+        validate(table(6000, 3000, "c"), table(5000, 3000, "d"));
+    }
+
+    @Test public void testSkewedKeys() throws Exception {
+        // a few keys cannot be split further, and are joined in chunks
+        validate(table(1200, 2, "c"), table(1200, 2, "d"));
+    }
+
+    @Test public void testInMemory() throws Exception {
+        HeapFile left = table(500, 100, "c"), right = table(500, 100, "d");
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        join.open();
+        assertFalse(join.isSpilling());
+        join.close();
+    }
+}
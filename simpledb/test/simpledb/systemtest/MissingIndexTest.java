@@ -0,0 +1,157 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class MissingIndexTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+    private static final int INSERTED = 900;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    private static ArrayList<Integer> toList(Tuple t) {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            list.add(((IntField) t.getField(i)).getValueDefault(Integer.MIN_VALUE));
+        }
+        return list;
+    }
+
+    /** @return the tuples with a missing value in any of the fields */
+    private List<ArrayList<Integer>> missingIn(Integer... fields) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            for (int f : fields) {
+                if (t.get(f) == Integer.MIN_VALUE) {
+                    result.add(t);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void match(DbIterator it, List<ArrayList<Integer>> expected) throws Exception {
+        ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            actual.add(toList(it.next()));
+        }
+        it.close();
+        ArrayList<ArrayList<Integer>> copy = new ArrayList<ArrayList<Integer>>(expected);
+        for (ArrayList<Integer> t : actual) {
+            assertTrue("unexpected tuple " + t, copy.remove(t));
+        }
+        assertTrue("missed " + copy.size() + " tuples", copy.isEmpty());
+    }
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        MissingIndex.fileOf(table).deleteOnExit();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < INSERTED; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, i % 3 == 0 ? new IntField() : new IntField(i));
+            t.setField(2, i % 5 == 0 ? new IntField() : new IntField(i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(toList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testMaintainedOnInsert() throws Exception {
+        MissingIndex index = Database.getCatalog().getMissingIndex(table.getId());
+        assertEquals(0, index.countMissing(0));
+        assertEquals(missingIn(1).size(), index.countMissing(1));
+        assertEquals(missingIn(2).size(), index.countMissing(2));
+        assertEquals(missingIn(1, 2).size(), index.getMissing(Arrays.asList(1, 2)).cardinality());
+
+        TransactionId tid = new TransactionId();
+        match(new MissingScan(tid, table.getId(), "t", Collections.singleton(1)), missingIn(1));
+        match(new MissingScan(tid, table.getId(), "t", Arrays.asList(1, 2)), missingIn(1, 2));
+        // the inserted tuples are on the last pages
+        assertTrue(index.countPages(index.getMissing(1)) < table.numPages);
+    }
+
+    @Test public void testMaintainedOnDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator scan = new MissingScan(tid, table.getId(), "t", Collections.singleton(2));
+        scan.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                doomed.add(t);
+            }
+        }
+        scan.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(toList(t));
+        }
+
+        MissingIndex index = Database.getCatalog().getMissingIndex(table.getId());
+        assertEquals(missingIn(2).size(), index.countMissing(2));
+        match(new MissingScan(tid, table.getId(), "t", Arrays.asList(1, 2)), missingIn(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPersisted() throws Exception {
+        Database.getBufferPool().flushAllPages();
+        File f = MissingIndex.fileOf(table);
+        assertTrue(f.exists());
+        // the file system may not tell writes in the same instant apart
+        f.setLastModified(table.lastModified() + 1000);
+
+        MissingIndex read = MissingIndex.open(table);
+        assertNotNull(read);
+        for (int i = 0; i < COLUMNS; i++) {
+            assertEquals(missingIn(i).size(), read.countMissing(i));
+        }
+
+        // stale once the table is written again
+        table.getFile().setLastModified(f.lastModified() + 1000);
+        assertNull(MissingIndex.open(table));
+    }
+
+    @Test public void testTableStats() throws Exception {
+        TableStats stats = new TableStats(table.getId(), 1000);
+        double nulls = stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField()) * stats.totalTuples();
+        assertEquals(missingIn(1).size(), nulls, 0.5);
+
+        // reading the tuples with missing values is cheaper than a full scan
+        assertTrue(stats.estimateMissingScanCost(1) < stats.estimateScanCost());
+    }
+
+    @Test public void testCluster() throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        table.cluster(tid, 2);
+        Database.getBufferPool().transactionComplete(tid);
+        // tuples moved, so the index is rebuilt from the new contents
+        MissingIndex index = Database.getCatalog().getMissingIndex(table.getId());
+        assertEquals(missingIn(2).size(), index.countMissing(2));
+        // missing values sort first, so they fill the first positions
+        CompressedBitmap missing = index.getMissing(2);
+        assertEquals(0, missing.nextSetBit(0));
+        assertEquals(-1, missing.nextSetBit(missingIn(2).size()));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MissingIndexTest.class);
+    }
+}
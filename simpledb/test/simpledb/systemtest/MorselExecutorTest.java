@@ -0,0 +1,133 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class MorselExecutorTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 50;
+    private static final int PARALLELISM = 4;
+
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "c");
+        tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setInt(0, i % MAX_VALUE);
+            if (i % 3 == 0) {
+                t.setMissing(1);
+            } else {
+                t.setInt(1, i % MAX_VALUE);
+            }
+            t.setInt(2, i);
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        }
+    }
+
+    private SeqScan scan() {
+        return new SeqScan(tid, table.getId(), "t");
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    private DbIterator pipeline() {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        String dropField = scan().getTupleDesc().getFieldName(1);
+        return new Drop(Collections.singletonList(dropField), new Filter(p, scan()));
+    }
+
+    @Test public void testGatherKeepsOrder() throws Exception {
+        assertTrue(MorselExecutor.splittable(pipeline()));
+        List<String> expected = run(pipeline());
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, run(new MorselGather(pipeline(), PARALLELISM)));
+        assertEquals(run(scan()), run(new MorselGather(scan(), PARALLELISM)));
+    }
+
+    @Test public void testGatherRewind() throws Exception {
+        MorselGather gather = new MorselGather(pipeline(), PARALLELISM);
+        gather.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(gather.hasNext());
+            gather.next();
+        }
+        gather.rewind();
+        List<String> all = new ArrayList<String>();
+        while (gather.hasNext()) {
+            all.add(gather.next().toString());
+        }
+        gather.close();
+        assertEquals(run(pipeline()), all);
+    }
+
+    /**
+     * Gathers that are opened but not read keep their workers waiting. Other
+     * gathers must still run when they ask for more workers than the pool has.
+     */
+    @Test(timeout = 60000) public void testGatherMoreWorkersThanPool() throws Exception {
+        int poolSize = Runtime.getRuntime().availableProcessors();
+        List<MorselGather> idle = new ArrayList<MorselGather>();
+        for (int i = 0; i <= poolSize; i++) {
+            MorselGather gather = new MorselGather(scan(), 1);
+            gather.open();
+            idle.add(gather);
+        }
+        List<String> expected = run(pipeline());
+        assertEquals(expected, run(new MorselGather(pipeline(), 2 * poolSize + 1)));
+        for (MorselGather gather : idle) {
+            assertTrue(gather.hasNext());
+            gather.close();
+        }
+    }
+
+    @Test public void testParallelAggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+                Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG }) {
+            for (int gfield : new int[] { -1, 0 }) {
+                Aggregate sequential = new Aggregate(pipeline(), 1, gfield, op);
+                Aggregate parallel = new Aggregate(pipeline(), 1, gfield, op);
+                assertTrue(parallel.supportsParallelism());
+                parallel.setParallelism(PARALLELISM);
+                List<String> expected = run(sequential);
+                List<String> actual = run(parallel);
+                Collections.sort(expected);
+                Collections.sort(actual);
+                assertEquals(op + " " + gfield, expected, actual);
+            }
+        }
+    }
+
+    @Test public void testParallelize() throws Exception {
+        assertSame(scan().getClass(), MorselExecutor.parallelize(scan(), 1).getClass());
+
+        DbIterator gathered = MorselExecutor.parallelize(pipeline(), PARALLELISM);
+        assertTrue(gathered instanceof MorselGather);
+
+        Aggregate agg = new Aggregate(pipeline(), 1, 0, Aggregator.Op.SUM);
+        assertSame(agg, MorselExecutor.parallelize(agg, PARALLELISM));
+        assertEquals(PARALLELISM, agg.getParallelism());
+
+        DbIterator join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), pipeline(), scan());
+        join = MorselExecutor.parallelize(join, PARALLELISM);
+        assertTrue(join.getChildren()[0] instanceof MorselGather);
+        assertTrue(join.getChildren()[1] instanceof MorselGather);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb.systemtest;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+    private static final int[] GROUP = { 0, 1 };
+    private static final int[] FIELDS = { 2, 2, 3, 2, 3 };
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MIN,
+            Aggregator.Op.AVG, Aggregator.Op.MAX };
+
+    private TransactionId tid = new TransactionId();
+
+    private HeapFile table(int rows, int maxValue, int missing) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, rows, maxValue, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        for (int i = 0; i < missing; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            for (int j = 0; j < 4; j++) {
+                if (j == i % 4) {
+                    t.setMissing(j);
+                } else {
+                    t.setInt(j, i % maxValue);
+                }
+            }
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        return f;
+    }
+
+    private static List<String> read(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static String value(long[] acc, int count, long v) {
+        return acc[count] == 0 ? HeapFileEncoder.NULL_STRING : Long.toString(v);
+    }
+
+    /**
+     * @return the aggregates of OPS over a table, grouped by its first two
+     *         fields, computed one tuple at a time
+     */
+    private List<String> expected(HeapFile f) throws Exception {
+        // by key: sum and count of c2, rows, min, max and count of c3
+        Map<String, long[]> groups = new HashMap<String, long[]>();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (t.isMissing(0) || t.isMissing(1)) {
+                continue;
+            }
+            String key = t.getInt(0) + "," + t.getInt(1);
+            long[] acc = groups.get(key);
+            if (acc == null) {
+                acc = new long[] { 0, 0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0 };
+                groups.put(key, acc);
+            }
+            if (!t.isMissing(2)) {
+                acc[0] += t.getInt(2);
+                acc[1]++;
+            }
+            acc[2]++;
+            if (!t.isMissing(3)) {
+                acc[3] = Math.min(acc[3], t.getInt(3));
+                acc[4] = Math.max(acc[4], t.getInt(3));
+                acc[5]++;
+            }
+        }
+        scan.close();
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, long[]> e : groups.entrySet()) {
+            long[] acc = e.getValue();
+            String avg = acc[1] == 0 ? HeapFileEncoder.NULL_STRING : Double.toString((double) acc[0] / acc[1]);
+            result.add(e.getKey() + "," + value(acc, 1, acc[0]) + "," + acc[2] + "," + value(acc, 5, acc[3]) + ","
+                    + avg + "," + value(acc, 5, acc[4]));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private Aggregate aggregate(HeapFile f) {
+        return new Aggregate(new SeqScan(tid, f.getId(), "t"), FIELDS, OPS, GROUP);
+    }
+
+    private void validate(DbIterator agg, List<String> expected) throws Exception {
+        agg.open();
+        assertEquals(expected, read(agg));
+        agg.rewind();
+        assertEquals(expected, read(agg));
+        agg.close();
+    }
+
+    @Test public void testCompositeGroups() throws Exception {
+        HeapFile f = table(5000, 30, 40);
+        Aggregate agg = aggregate(f);
+        assertFalse(agg.isSingle());
+        validate(agg, expected(f));
+    }
+
+    @Test public void testSpilledGroups() throws Exception {
+        HeapFile f = table(20000, 300, 40);
+        List<String> expected = expected(f);
+        Aggregate agg = aggregate(f);
+        agg.setMemoryPages(1);
+        agg.open();
+        assertTrue(agg.isSpilling());
+        assertEquals(expected, read(agg));
+        agg.close();
+    }
+
+    @Test public void testParallel() throws Exception {
+        HeapFile f = table(20000, 30, 40);
+        List<String> expected = expected(f);
+        Aggregate agg = aggregate(f);
+        agg.setParallelism(4);
+        validate(agg, expected);
+        validate(ParallelPlanner.parallelize(aggregate(f), 4), expected);
+    }
+
+    @Test public void testParsedQuery() throws Exception {
+        HeapFile f = table(3000, 20, 0);
+        Database.getCatalog().addTable(f, "report");
+        TableStats.setTableStats("report", new TableStats(f.getId(), 1));
+
+        // the select list reorders the group-by fields and aggregates
+        List<String> expected = new ArrayList<String>();
+        for (String row : expected(f)) {
+            String[] v = row.split(",", -1);
+            expected.add(v[6] + "," + v[1] + "," + v[0] + "," + v[2] + "," + v[3]);
+        }
+        Collections.sort(expected);
+
+        String query = "SELECT MAX(report.c3), report.c1, report.c0, SUM(report.c2), COUNT(report.c2) "
+                + "FROM report GROUP BY report.c0, report.c1;";
+        for (Parser parser : new Parser[] { new Parser(), new Parser(0.0, false) }) {
+            LogicalPlan lp = parser.generateLogicalPlan(tid, query);
+            DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            validate(plan, expected);
+        }
+
+        try {
+            new Parser().generateLogicalPlan(tid,
+                    "SELECT report.c2, SUM(report.c3) FROM report GROUP BY report.c0, report.c1;");
+            fail("field not in GROUP BY list");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+}
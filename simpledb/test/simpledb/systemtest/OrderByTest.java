@@ -0,0 +1,128 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private TransactionId tid = new TransactionId();
+
+    private HeapFile table(int rows, int maxValue) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setMissing(0);
+            t.setInt(1, i);
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        return f;
+    }
+
+    private static List<String> read(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        return result;
+    }
+
+    /** @return the tuples of a table, stably sorted on their first field */
+    private List<String> expected(HeapFile f, boolean asc, int limit) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext()) {
+            tuples.add(scan.next());
+        }
+        scan.close();
+        OrderBy order = new OrderBy(0, asc, scan);
+        order.open();
+        List<String> all = read(order);
+        order.close();
+        assertEquals(tuples.size(), all.size());
+        return limit < 0 ? all : all.subList(0, Math.min(limit, all.size()));
+    }
+
+    private void validate(OrderBy order, List<String> expected) throws Exception {
+        order.open();
+        assertEquals(expected, read(order));
+        order.rewind();
+        assertEquals(expected, read(order));
+        order.close();
+    }
+
+    @Test public void testExternalRuns() throws Exception {
+        HeapFile f = table(5000, 200);
+        for (boolean asc : new boolean[] { true, false }) {
+            OrderBy order = new OrderBy(0, asc, new SeqScan(tid, f.getId(), "t"));
+            order.setMemoryPages(1);
+            order.open();
+            assertTrue(order.numRuns() > 1);
+            order.close();
+            validate(order, expected(f, asc, -1));
+        }
+    }
+
+    @Test public void testParallelRuns() throws Exception {
+        HeapFile f = table(5000, 200);
+        OrderBy order = new OrderBy(0, true, new SeqScan(tid, f.getId(), "t"));
+        order.setMemoryPages(4);
+        order.setParallelism(4);
+        validate(order, expected(f, true, -1));
+    }
+
+    @Test public void testManyRuns() throws Exception {
+        // more runs than are merged at once
+        HeapFile f = table(40000, 1000);
+        OrderBy order = new OrderBy(0, true, new SeqScan(tid, f.getId(), "t"));
+        order.setMemoryPages(1);
+        validate(order, expected(f, true, -1));
+    }
+
+    @Test public void testTopK() throws Exception {
+        HeapFile f = table(3000, 50);
+        for (boolean asc : new boolean[] { true, false }) {
+            for (int k : new int[] { 0, 1, 10, 500, 5000 }) {
+                OrderBy order = new OrderBy(0, asc, new SeqScan(tid, f.getId(), "t"), k);
+                validate(order, expected(f, asc, k));
+                assertEquals(0, order.numRuns());
+            }
+        }
+    }
+
+    @Test public void testLimitOverBudget() throws Exception {
+        // the first tuples do not fit in memory, so they are sorted on disk
+        HeapFile f = table(3000, 50);
+        OrderBy order = new OrderBy(0, true, new SeqScan(tid, f.getId(), "t"), 2000);
+        order.setMemoryPages(1);
+        validate(order, expected(f, true, 2000));
+    }
+
+    @Test public void testParsedLimit() throws Exception {
+        HeapFile f = table(1000, 100);
+        Database.getCatalog().addTable(f, "ordered");
+        TableStats.setTableStats("ordered", new TableStats(f.getId(), 1));
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT ordered.c0, ordered.c1 FROM ordered ORDER BY ordered.c0 DESC LIMIT 25;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        plan.open();
+        List<String> result = read(plan);
+        plan.close();
+        assertEquals(expected(f, false, 25), result);
+
+        try {
+            new Parser().generateLogicalPlan(tid, "SELECT ordered.c0 FROM ordered LIMIT 25;");
+            fail("LIMIT without ORDER BY");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class PartitionTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 1000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private PartitionedFile table;
+
+    @Before public void setUp() throws IOException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        File dir = Files.createTempDirectory("partition").toFile();
+        dir.deleteOnExit();
+        Files.move(data.toPath(), new File(dir, "t.dat").toPath());
+        File catalog = new File(dir, "catalog.txt");
+        try (PrintWriter wr = new PrintWriter(catalog)) {
+            wr.println("t(c0 int, c1 int, c2 int) partition by range(c1) (100, 500)");
+        }
+        for (File f : dir.listFiles()) {
+            f.deleteOnExit();
+        }
+
+        Database.getCatalog().loadSchema(catalog.getPath());
+        table = (PartitionedFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("t"));
+        for (int i = 0; i < table.numPartitions(); i++) {
+            table.getPartition(i).getFile().deleteOnExit();
+        }
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(int low, int high) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) >= low && t.get(1) < high) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    @Test public void testPartitionsLoaded() throws Exception {
+        assertEquals(3, table.numPartitions());
+        assertTrue(Database.getCatalog().isPartition(table.getPartition(1).getId()));
+        SystemTestUtil.matchTuples(table.getPartition(0), expected(0, 100));
+        SystemTestUtil.matchTuples(table.getPartition(1), expected(100, 500));
+        SystemTestUtil.matchTuples(table.getPartition(2), expected(500, MAX_VALUE));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void testParallelScan() throws Exception {
+        BitSet all = new BitSet();
+        all.set(0, 3);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new PartitionScan(tid, table.getId(), "t", all, true), tuples);
+
+        BitSet upper = new BitSet();
+        upper.set(1, 3);
+        SystemTestUtil.matchTuples(new PartitionScan(tid, table.getId(), "t", upper, true), expected(100, MAX_VALUE));
+    }
+
+    @Test public void testPrune() {
+        PartitionScheme scheme = table.getScheme();
+        assertEquals("{0}", scheme.prune(Predicate.Op.LESS_THAN, 100).toString());
+        assertEquals("{0, 1}", scheme.prune(Predicate.Op.LESS_THAN_OR_EQ, 100).toString());
+        assertEquals("{2}", scheme.prune(Predicate.Op.GREATER_THAN_OR_EQ, 500).toString());
+        assertEquals("{1}", scheme.prune(Predicate.Op.EQUALS, 250).toString());
+        assertEquals("{0, 1, 2}", scheme.prune(Predicate.Op.NOT_EQUALS, 250).toString());
+
+        PartitionScheme hash = PartitionScheme.hash("c0", 4);
+        assertEquals(1, hash.prune(Predicate.Op.EQUALS, 7).cardinality());
+        assertEquals(4, hash.prune(Predicate.Op.LESS_THAN, 7).cardinality());
+    }
+
+    @Test public void testInsertRoutes() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(700));
+        t.setField(2, new IntField(3));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(table.getPartition(2).getId(), t.getRecordId().getPageId().getTableId());
+    }
+
+    @Test public void testInsertUpdatesPartitionMissingIndex() throws Exception {
+        int partition = table.getPartition(2).getId();
+        int before = Database.getCatalog().getMissingIndex(partition).countMissing(2);
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(700));
+        t.setMissing(2);
+        Database.getBufferPool().insertTuple(new TransactionId(), table.getId(), t);
+        assertEquals(before + 1, Database.getCatalog().getMissingIndex(partition).countMissing(2));
+    }
+
+    @Test public void testPrunedStats() throws Exception {
+        TableStats.computeStatistics();
+        BitSet upper = new BitSet();
+        upper.set(2);
+        TableStats stats = TableStats.ofPartitions(TableStats.getStatsMap(), "t", upper);
+        assertEquals(expected(500, MAX_VALUE).size(), stats.totalTuples());
+        assertEquals(0.0, stats.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(500)), 1e-9);
+        assertEquals(1.0, stats.estimateSelectivity(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)), 1e-9);
+
+        LogicalScanNode scan = new LogicalScanNode(table.getId(), "t");
+        LogicalImputedScanNode node = new LogicalImputedScanNode(new TransactionId(), scan, upper);
+        assertEquals(stats.totalTuples(), node.getTableStats().totalTuples());
+        assertEquals(stats.totalTuples(), node.cardinality(), 1e-9);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PartitionTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class PipelineCompilerTest extends SimpleDbTestBase {
+    private static final int ROWS = 4000;
+    private static final int MAX_VALUE = 50;
+
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "c");
+        tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setInt(0, i % MAX_VALUE);
+            if (i % 3 == 0) {
+                t.setMissing(1);
+            } else {
+                t.setInt(1, i % MAX_VALUE);
+            }
+            t.setInt(2, i);
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        }
+    }
+
+    private SeqScan scan() {
+        return new SeqScan(tid, table.getId(), "t");
+    }
+
+    private static List<String> run(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test public void testEveryOperator() throws Exception {
+        IntField[] operands = { new IntField(20), new IntField() };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (IntField operand : operands) {
+                Predicate p = new Predicate(1, op, operand);
+                DbIterator compiled = PipelineCompiler.compile(new Filter(p, scan()));
+                assertTrue(compiled instanceof CompiledPipeline);
+                assertEquals(op + " " + operand, run(new Filter(p, scan())), run(compiled));
+            }
+        }
+    }
+
+    @Test public void testFusedChain() throws Exception {
+        Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10));
+        Predicate p2 = new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(30));
+        Predicate p3 = new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(25));
+        DbIterator compiled = PipelineCompiler.compile(new Filter(p3, new Filter(p2, new Filter(p1, scan()))));
+        assertTrue(compiled instanceof CompiledPipeline);
+        assertEquals(Arrays.asList(p1, p2, p3), ((CompiledPipeline) compiled).getPredicates());
+        assertTrue(compiled.getChildren()[0] instanceof SeqScan);
+
+        List<String> expected = run(new Filter(p3, new Filter(p2, new Filter(p1, scan()))));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, run(compiled));
+    }
+
+    @Test public void testInsidePlan() throws Exception {
+        Predicate p = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        String dropField = scan().getTupleDesc().getFieldName(1);
+
+        // operators above the filters are kept, and read compiled batches
+        Aggregate expected = new Aggregate(new Drop(Arrays.asList(dropField), new Filter(p, scan())), 2, 0,
+                Aggregator.Op.SUM);
+        Aggregate plan = new Aggregate(new Drop(Arrays.asList(dropField), new Filter(p, scan())), 2, 0,
+                Aggregator.Op.SUM);
+        assertSame(plan, PipelineCompiler.compile(plan));
+        assertTrue(plan.getChildren()[0].getChildren()[0] instanceof CompiledPipeline);
+        assertEquals(run(expected), run(plan));
+    }
+
+    @Test public void testCompiledTwice() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(7));
+        CompiledPipeline c1 = (CompiledPipeline) PipelineCompiler.compile(new Filter(p, scan()));
+        CompiledPipeline c2 = (CompiledPipeline) PipelineCompiler.compile(new Filter(p, scan()));
+        assertEquals(run(c1), run(c2));
+        assertEquals(run(new Filter(p, scan())), run(c2));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PipelineCompilerTest.class);
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class PushPipelineTest extends SimpleDbTestBase {
+    private static final int ROWS = 4000;
+    private static final int MAX_VALUE = 50;
+
+    private HeapFile table, small;
+    private TransactionId tid;
+
+    @Before public void createTables() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "c");
+        small = SystemTestUtil.createRandomHeapFile(2, 200, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "d");
+        tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setInt(0, i % MAX_VALUE);
+            if (i % 3 == 0) {
+                t.setMissing(1);
+            } else {
+                t.setInt(1, i % MAX_VALUE);
+            }
+            t.setInt(2, i);
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        }
+    }
+
+    private DbIterator chain() {
+        return chain(table);
+    }
+
+    /** @return a chain of a drop, a filter and a projection over a table */
+    private DbIterator chain(HeapFile f) {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        String c1 = scan.getTupleDesc().getFieldName(1);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20));
+        return new Project(new ArrayList<Integer>(Arrays.asList(2, 0, 1)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+                new Filter(p, new Drop(Arrays.asList(c1), scan)));
+    }
+
+    private DbIterator smallChain() {
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(40));
+        return new Filter(p, new SeqScan(tid, small.getId(), "s"));
+    }
+
+    /** @return the tuples of a plan, in the order it returned them */
+    private static List<String> run(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    private static List<String> sorted(List<String> rows) {
+        List<String> result = new ArrayList<String>(rows);
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test public void testFusedChain() throws Exception {
+        DbIterator compiled = PushCompiler.compile(chain());
+        assertTrue(compiled instanceof PushPipeline);
+        List<Operator> stages = ((PushPipeline) compiled).getStages();
+        assertEquals(3, stages.size());
+        assertTrue(stages.get(0) instanceof Drop);
+        assertTrue(stages.get(2) instanceof Project);
+        assertTrue(compiled.getChildren()[0] instanceof SeqScan);
+        assertEquals(chain().getTupleDesc(), compiled.getTupleDesc());
+
+        List<String> expected = run(chain());
+        assertFalse(expected.isEmpty());
+        // rows keep the order of the scan
+        assertEquals(expected, run(compiled));
+    }
+
+    @Test public void testRewind() throws Exception {
+        DbIterator compiled = PushCompiler.compile(chain());
+        List<String> expected = run(chain());
+        compiled.open();
+        for (int i = 0; i < 10; i++) {
+            compiled.next();
+        }
+        compiled.rewind();
+        List<String> result = new ArrayList<String>();
+        while (compiled.hasNext()) {
+            result.add(compiled.next().toString());
+        }
+        compiled.close();
+        assertEquals(expected, result);
+    }
+
+    /**
+     * Checks that a plan returns the same tuples with pipelines pushed into
+     * its breaker, which materializes the given children.
+     */
+    private void validateBreaker(Supplier<DbIterator> plan, boolean ordered, boolean... materializes)
+            throws Exception {
+        List<String> expected = run(plan.get());
+        DbIterator compiled = plan.get();
+        assertSame(compiled, PushCompiler.compile(compiled));
+        for (int i = 0; i < materializes.length; i++) {
+            assertEquals(materializes[i], ((PipelineBreaker) compiled).materializes(i));
+            assertTrue(compiled.getChildren()[i] instanceof PushPipeline);
+        }
+        List<String> result = run(compiled);
+        assertFalse(expected.isEmpty());
+        assertEquals(ordered ? expected : sorted(expected), ordered ? result : sorted(result));
+
+        // breakers rewind by reading their pipeline again
+        compiled.open();
+        compiled.rewind();
+        assertTrue(compiled.hasNext());
+        compiled.close();
+    }
+
+    @Test public void testAggregate() throws Exception {
+        validateBreaker(() -> new Aggregate(chain(), new int[] { 0, 0, 2 },
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MAX }, new int[] { 1 }),
+                false, true);
+        validateBreaker(() -> new Aggregate(chain(), 0, Aggregator.NO_GROUPING, Aggregator.Op.AVG), false, true);
+    }
+
+    @Test public void testOrderBy() throws Exception {
+        validateBreaker(() -> new OrderBy(0, false, chain()), true, true);
+        validateBreaker(() -> new OrderBy(1, true, chain(), 25), true, true);
+    }
+
+    @Test public void testJoins() throws Exception {
+        validateBreaker(() -> new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0), smallChain(), chain()),
+                false, true, false);
+        validateBreaker(() -> new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0), chain(), smallChain(), false),
+                false, false, true);
+        validateBreaker(() -> new Join(new JoinPredicate(1, Predicate.Op.LESS_THAN, 2), smallChain(), chain(), false),
+                false, true, true);
+    }
+
+    @Test public void testImputation() throws Exception {
+        Supplier<DbIterator> plan = () -> {
+            Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20));
+            return new ImputeHotDeck(new Filter(p, new SeqScan(tid, table.getId(), "t")));
+        };
+        validateBreaker(plan, true, true);
+    }
+
+    @Test public void testParallel() throws Exception {
+        HeapFile large = SystemTestUtil.createRandomHeapFile(3, 40000, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        // gathered morsels keep the order of the scan
+        DbIterator gathered = MorselExecutor.parallelize(PushCompiler.compile(chain(large)), 4);
+        assertTrue(gathered instanceof MorselGather);
+        assertEquals(run(chain(large)), run(gathered));
+
+        Supplier<DbIterator> plan = () -> new Aggregate(chain(large), 0, 1, Aggregator.Op.SUM);
+        List<String> expected = sorted(run(plan.get()));
+        DbIterator agg = ParallelPlanner.parallelize(PushCompiler.compile(plan.get()), 4);
+        assertEquals(expected, sorted(run(agg)));
+        Aggregate morsels = (Aggregate) PushCompiler.compile(plan.get());
+        morsels.setParallelism(4);
+        assertEquals(expected, sorted(run(morsels)));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PushPipelineTest.class);
+    }
+}
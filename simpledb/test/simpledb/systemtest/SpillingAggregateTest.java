@@ -0,0 +1,67 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SpillingAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    private TransactionId tid = new TransactionId();
+
+    private HeapFile table(int rows, int maxValue) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        for (int i = 0; i < 20; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setMissing(i % 2);
+            t.setInt(1 - i % 2, i);
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        return f;
+    }
+
+    private static List<String> read(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private void validate(HeapFile f, boolean spills) throws Exception {
+        for (Aggregator.Op op : OPS) {
+            Aggregate expected = new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, 0, op);
+            expected.open();
+            List<String> groups = read(expected);
+            expected.close();
+            assertFalse(expected.isSpilling());
+
+            Aggregate agg = new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, 0, op);
+            agg.setMemoryPages(1);
+            agg.open();
+            assertEquals(spills, agg.isSpilling());
+            assertEquals(op.toString(), groups, read(agg));
+            agg.rewind();
+            assertEquals(op.toString(), groups, read(agg));
+            agg.close();
+        }
+    }
+
+    @Test public void testSpilledGroups() throws Exception {
+        // partitions still hold more groups than fit, and are split again
+        validate(table(20000, 10000), true);
+    }
+
+    @Test public void testInMemory() throws Exception {
+        validate(table(5000, 100), false);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class StreamingAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    private TransactionId tid = new TransactionId();
+
+    private HeapFile table(int rows, int maxValue, int missing) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, rows, maxValue, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        for (int i = 0; i < missing; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            if (i % 2 == 0) {
+                t.setMissing(0);
+                t.setInt(1, i);
+            } else {
+                // groups whose values are all missing
+                t.setInt(0, maxValue + i);
+                t.setMissing(1);
+            }
+            t.setInt(2, i);
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        return f;
+    }
+
+    private static List<String> read(DbIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        return result;
+    }
+
+    private static List<String> sorted(List<String> rows) {
+        List<String> result = new ArrayList<String>(rows);
+        Collections.sort(result);
+        return result;
+    }
+
+    private List<String> hashed(HeapFile f, int[] afields, Aggregator.Op[] ops) throws Exception {
+        Aggregate agg = new Aggregate(new SeqScan(tid, f.getId(), "t"), afields, ops, new int[] { 0 });
+        agg.open();
+        List<String> result = sorted(read(agg));
+        agg.close();
+        return result;
+    }
+
+    private void validate(HeapFile f, int[] afields, Aggregator.Op[] ops) throws Exception {
+        List<String> expected = hashed(f, afields, ops);
+        Aggregate agg = new Aggregate(new OrderBy(0, true, new SeqScan(tid, f.getId(), "t")), afields, ops,
+                new int[] { 0 }, true);
+        assertTrue(agg.isStreaming());
+        agg.open();
+        List<String> streamed = read(agg);
+        // groups come out in the order of the input
+        for (int i = 1; i < streamed.size(); i++) {
+            int previous = Integer.parseInt(streamed.get(i - 1).split(",")[0]);
+            assertTrue(previous < Integer.parseInt(streamed.get(i).split(",")[0]));
+        }
+        assertEquals(expected, sorted(streamed));
+        agg.rewind();
+        assertEquals(expected, sorted(read(agg)));
+        agg.close();
+    }
+
+    @Test public void testSingleAggregates() throws Exception {
+        HeapFile f = table(3000, 100, 20);
+        for (Aggregator.Op op : OPS) {
+            validate(f, new int[] { 1 }, new Aggregator.Op[] { op });
+        }
+    }
+
+    @Test public void testSeveralAggregates() throws Exception {
+        HeapFile f = table(3000, 100, 20);
+        validate(f, new int[] { 1, 1, 2, 1, 2 }, OPS);
+    }
+
+    @Test public void testCompositeKeyNotStreamed() throws Exception {
+        // streaming needs a single group-by field
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 0, 10, null, new ArrayList<ArrayList<Integer>>(), "c");
+        Aggregate agg = new Aggregate(new SeqScan(tid, f.getId(), "t"), new int[] { 2 },
+                new Aggregator.Op[] { Aggregator.Op.SUM }, new int[] { 0, 1 }, true);
+        assertFalse(agg.isStreaming());
+    }
+
+    /** @return the aggregate at the top of a plan, below its projection */
+    private static Aggregate aggregate(DbIterator plan) {
+        while (!(plan instanceof Aggregate)) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return (Aggregate) plan;
+    }
+
+    @Test public void testPlannedOverClusteredTable() throws Exception {
+        HeapFile f = table(4000, 200, 0);
+        f.cluster(tid, 0);
+        Database.getCatalog().addTable(f, "clustered");
+        Database.getCatalog().setClusterKey(f.getId(), "c0");
+        TableStats.setTableStats("clustered", new TableStats(f.getId(), 1));
+
+        List<String> expected = hashed(f, new int[] { 1 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+        for (int parallelism : new int[] { 1, 4 }) {
+            Parser parser = new Parser(0.0, false);
+            parser.setParallelism(parallelism);
+            LogicalPlan lp = parser.generateLogicalPlan(tid,
+                    "SELECT clustered.c0, SUM(clustered.c1) FROM clustered GROUP BY clustered.c0;");
+            DbIterator plan = ParallelPlanner.parallelize(lp.physicalPlan(tid, TableStats.getStatsMap(), false),
+                    parallelism);
+            assertTrue(aggregate(plan).isStreaming());
+            plan.open();
+            assertEquals(expected, sorted(read(plan)));
+            plan.close();
+        }
+
+        LogicalPlan lp = new Parser(0.0, false).generateLogicalPlan(tid,
+                "SELECT clustered.c1, SUM(clustered.c2) FROM clustered GROUP BY clustered.c1;");
+        assertFalse(aggregate(lp.physicalPlan(tid, TableStats.getStatsMap(), false)).isStreaming());
+    }
+}
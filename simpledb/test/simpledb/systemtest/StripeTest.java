@@ -0,0 +1,159 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class StripeTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 1000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private int pages;
+    private File dir;
+    private StripedHeapFile table;
+
+    private static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteOnExit(c);
+            }
+        }
+    }
+
+    @Before public void createTable() throws IOException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        pages = (int) (data.length() / BufferPool.getPageSize());
+        dir = Files.createTempDirectory("stripe").toFile();
+        Files.move(data.toPath(), new File(dir, "striped.dat").toPath());
+        File catalog = new File(dir, "catalog.txt");
+        try (PrintWriter wr = new PrintWriter(catalog)) {
+            wr.println("striped(c0 int, c1 int, c2 int) stripe (d0, d1, d2)");
+        }
+
+        Database.getCatalog().loadSchema(catalog.getPath());
+        table = (StripedHeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("striped"));
+        deleteOnExit(dir);
+    }
+
+    @Test public void testStripesLoaded() throws Exception {
+        assertEquals(3, table.numStripes());
+        assertEquals(pages, table.numPages);
+        long stripePages = 0;
+        for (int i = 0; i < table.numStripes(); i++) {
+            File stripe = table.getStripe(i);
+            assertEquals(new File(dir, "d" + i).getCanonicalFile(), stripe.getParentFile().getCanonicalFile());
+            long n = stripe.length() / BufferPool.getPageSize();
+            // round-robin placement
+            assertEquals((pages - i + 2) / 3, n);
+            stripePages += n;
+        }
+        assertEquals(pages, stripePages);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void testWriteBack() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i));
+            t.setField(2, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i, i)));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        // Reopen the stripes from disk.
+        StripedHeapFile reopened = new StripedHeapFile(table.getFile(), table.getTupleDesc(), table.getDirectories());
+        assertEquals(table.numPages, reopened.numPages);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().addTable(reopened, "striped");
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    @Test public void testCluster() throws Exception {
+        TransactionId tid = new TransactionId();
+        table.cluster(tid, 1);
+        assertEquals(pages, table.numPages);
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int value = ((IntField) it.next().getField(1)).getValue();
+            assertTrue(value >= last);
+            last = value;
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+    }
+
+    @Test public void testDumpSchema() throws Exception {
+        File catalog = new File(dir, "dumped.txt");
+        Database.getCatalog().dumpSchema(catalog);
+        String line = null;
+        for (String l : Files.readAllLines(catalog.toPath())) {
+            if (l.startsWith("striped(")) {
+                line = l;
+            }
+        }
+        assertNotNull(line);
+        assertTrue(line, line.startsWith("striped(c0 int, c1 int, c2 int) stripe ("));
+        assertTrue(line, line.endsWith("d2)"));
+    }
+
+    /** Counts the reads of each page, which take a while. */
+    private static class CountingFile extends StripedHeapFile {
+        final ConcurrentHashMap<Integer, AtomicInteger> reads = new ConcurrentHashMap<>();
+
+        CountingFile(File f, TupleDesc td, List<File> dirs) {
+            super(f, td, dirs);
+        }
+
+        @Override
+        protected byte[] readPageData(int pageNum) throws IOException {
+            reads.computeIfAbsent(pageNum, p -> new AtomicInteger()).incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return super.readPageData(pageNum);
+        }
+    }
+
+    @Test public void testReadAheadReadsEachPageOnce() throws Exception {
+        CountingFile counting = new CountingFile(table.getFile(), table.getTupleDesc(), table.getDirectories());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().addTable(counting, "striped");
+        SystemTestUtil.matchTuples(counting, tuples);
+        assertEquals(pages, counting.reads.size());
+        for (int p = 0; p < pages; p++) {
+            assertEquals("reads of page " + p, 1, counting.reads.get(p).get());
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StripeTest.class);
+    }
+}
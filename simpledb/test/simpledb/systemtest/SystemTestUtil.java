@@ -97,6 +97,8 @@ public class SystemTestUtil {
             int value;
             if (field instanceof IntField) {
             	value = ((IntField)field).getValue();
+            } else if (field instanceof LongField) {
+            	value = (int) ((LongField)field).getValue();
             } else if (field instanceof DoubleField) {
             	value = (int) ((DoubleField)field).getValue();
             } else {